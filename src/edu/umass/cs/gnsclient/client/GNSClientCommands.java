@@ -483,6 +483,49 @@ public class GNSClientCommands extends GNSClient //implements GNSClientInterface
     return new JSONArray(getResponse(CommandType.SelectQuery, GNSProtocol.QUERY.toString(), query));
   }
 
+  /**
+   * Selects all records that match query and returns a JSONArray containing
+   * a JSONObject for each matching guid with the guid under GNSProtocol.GUID
+   * and the values of those of the given fields that are readable by everyone.
+   * Only the requested fields are read and sent back by the servers.
+   *
+   * @param query
+   * - the query
+   * @param fields
+   * - the fields to return with each guid
+   * @return - a JSONArray of JSONObjects
+   * @throws Exception
+   */
+  public JSONArray selectQuery(String query, ArrayList<String> fields) throws Exception {
+    return new JSONArray(getResponse(CommandType.SelectQuery, GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.FIELDS.toString(), fields));
+  }
+
+  /**
+   * Selects one page of the records that match query. Returns a JSONObject
+   * containing a JSONArray of guids under GNSProtocol.SELECT_GUIDS and, if
+   * there are more results, a continuation under GNSProtocol.CONTINUATION
+   * which should be passed back in to retrieve the next page.
+   *
+   * @param query
+   * - the query
+   * @param pageSize
+   * - the maximum number of guids to return
+   * @param continuation
+   * - the continuation from the previous page or null for the first page
+   * @return - a JSONObject
+   * @throws Exception
+   */
+  public JSONObject selectQueryPaged(String query, int pageSize, String continuation) throws Exception {
+    if (continuation == null) {
+      return new JSONObject(getResponse(CommandType.SelectQueryPaged, GNSProtocol.QUERY.toString(), query,
+              GNSProtocol.PAGE_SIZE.toString(), Integer.toString(pageSize)));
+    }
+    return new JSONObject(getResponse(CommandType.SelectQueryPaged, GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.PAGE_SIZE.toString(), Integer.toString(pageSize),
+            GNSProtocol.CONTINUATION.toString(), continuation));
+  }
+
   /**
    * Set up a context aware group guid using a query. Requires a accountGuid
    * and a publicKey which are used to set up the new guid or look it up if it
@@ -1345,6 +1388,31 @@ public class GNSClientCommands extends GNSClient //implements GNSClientInterface
     }
   }
 
+  /**
+   * Retrieves one page of the guids of the account {@code accountGuid}.
+   * The result contains the guids of the page under
+   * {@link GNSProtocol#SELECT_GUIDS} and, if there are more guids, a
+   * continuation under {@link GNSProtocol#CONTINUATION} which should be passed
+   * in to retrieve the next page.
+   *
+   * @param accountGuid
+   * @param pageSize - the maximum number of guids to return, capped by the server
+   * @param continuation - the continuation returned with the previous page or null for the first page
+   * @return - a JSONObject
+   * @throws Exception
+   */
+  public JSONObject getGuids(GuidEntry accountGuid, int pageSize, String continuation) throws Exception {
+    if (continuation == null) {
+      return new JSONObject(getResponse(CommandType.RetrieveGuids, accountGuid,
+              GNSProtocol.GUID.toString(), accountGuid.getGuid(),
+              GNSProtocol.PAGE_SIZE.toString(), Integer.toString(pageSize)));
+    }
+    return new JSONObject(getResponse(CommandType.RetrieveGuids, accountGuid,
+            GNSProtocol.GUID.toString(), accountGuid.getGuid(),
+            GNSProtocol.PAGE_SIZE.toString(), Integer.toString(pageSize),
+            GNSProtocol.CONTINUATION.toString(), continuation));
+  }
+
   // ///////////////////////////////
   // // PRIVATE METHODS BELOW /////
   // /////////////////////////////
@@ -1657,6 +1725,24 @@ public class GNSClientCommands extends GNSClient //implements GNSClientInterface
             GNSProtocol.FIELD.toString(), field, GNSProtocol.VALUE.toString(), value));
   }
 
+  /**
+   * Returns a JSONArray containing a JSONObject for each guid that has a field
+   * with the given value. Each JSONObject holds the guid under GNSProtocol.GUID
+   * and the values of those of the given fields that are readable by everyone.
+   *
+   * @param field
+   * @param value
+   * @param fields
+   * - the fields to return with each guid
+   * @return a JSONArray of JSONObjects
+   * @throws Exception
+   */
+  public JSONArray select(String field, String value, ArrayList<String> fields) throws Exception {
+    return new JSONArray(getResponse(CommandType.Select,
+            GNSProtocol.FIELD.toString(), field, GNSProtocol.VALUE.toString(), value,
+            GNSProtocol.FIELDS.toString(), fields));
+  }
+
   /**
    * If field is a GeoSpatial field queries the GNS server return all the
    * guids that have fields that are within value which is a bounding box
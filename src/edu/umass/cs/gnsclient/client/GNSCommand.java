@@ -1232,6 +1232,34 @@ public class GNSCommand extends CommandPacket {
             guid.getGuid());
   }
 
+  /**
+   * Retrieves one page of the guids of the account {@code accountGUID}.
+   * The result type of the execution result of this query is
+   * {@link CommandResultType#MAP}. The map contains the guids of the page
+   * under {@link edu.umass.cs.gnscommon.GNSProtocol#SELECT_GUIDS} and, if
+   * there are more guids, a continuation under
+   * {@link edu.umass.cs.gnscommon.GNSProtocol#CONTINUATION} which should be
+   * passed in to retrieve the next page.
+   *
+   * @param accountGUID
+   * @param pageSize
+   * The maximum number of guids to return. The server caps this.
+   * @param continuation
+   * The continuation returned with the previous page or null for the first page.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket getGuids(GuidEntry accountGUID, int pageSize,
+          String continuation) throws ClientException {
+    if (continuation == null) {
+      return getCommand(CommandType.RetrieveGuids, accountGUID, GNSProtocol.GUID.toString(),
+              accountGUID.getGuid(), GNSProtocol.PAGE_SIZE.toString(), Integer.toString(pageSize));
+    }
+    return getCommand(CommandType.RetrieveGuids, accountGUID, GNSProtocol.GUID.toString(),
+            accountGUID.getGuid(), GNSProtocol.PAGE_SIZE.toString(), Integer.toString(pageSize),
+            GNSProtocol.CONTINUATION.toString(), continuation);
+  }
+
   // ///////////////////////////////
   // // PRIVATE METHODS BELOW /////
   // /////////////////////////////
@@ -1552,6 +1580,54 @@ public class GNSCommand extends CommandPacket {
     return getCommand(CommandType.SelectQuery, GNSProtocol.QUERY.toString(), query);
   }
 
+  /**
+   * Selects all records that match {@code query} and returns, for each
+   * matching GUID, a JSONObject containing the GUID and the values of those
+   * of {@code fields} that are readable by everyone. Only the requested fields
+   * are read from the database and sent back.
+   *
+   * @param query
+   * The select query being issued.
+   * @param fields
+   * The fields to return along with each GUID.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectQuery(String query, ArrayList<String> fields)
+          throws ClientException {
+    return getCommand(CommandType.SelectQuery, GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.FIELDS.toString(), fields);
+  }
+
+  /**
+   * Selects one page of the guids of the records that match {@code query}.
+   * The result type of the execution result of this query is
+   * {@link CommandResultType#MAP}. The map contains the guids of the page
+   * under {@link edu.umass.cs.gnscommon.GNSProtocol#SELECT_GUIDS} in guid
+   * order and, if there are more results, a continuation under
+   * {@link edu.umass.cs.gnscommon.GNSProtocol#CONTINUATION} which should be
+   * passed in to retrieve the next page.
+   *
+   * @param query
+   * The select query being issued.
+   * @param pageSize
+   * The maximum number of guids to return. The server caps this.
+   * @param continuation
+   * The continuation returned with the previous page or null for the first page.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectQueryPaged(String query, int pageSize,
+          String continuation) throws ClientException {
+    if (continuation == null) {
+      return getCommand(CommandType.SelectQueryPaged, GNSProtocol.QUERY.toString(), query,
+              GNSProtocol.PAGE_SIZE.toString(), Integer.toString(pageSize));
+    }
+    return getCommand(CommandType.SelectQueryPaged, GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.PAGE_SIZE.toString(), Integer.toString(pageSize),
+            GNSProtocol.CONTINUATION.toString(), continuation);
+  }
+
   /**
    * Set up a context-aware group guid corresponding to the query. Requires
    * {@code accountGuid} and {@code publicKey} that are used to set up the new
@@ -1610,6 +1686,26 @@ public class GNSCommand extends CommandPacket {
     return getCommand(CommandType.Select, GNSProtocol.FIELD.toString(), field, GNSProtocol.VALUE.toString(), value);
   }
 
+  /**
+   * Searches for all GUIDs whose {@code field} has the value {@code value}
+   * and returns, for each one, a JSONObject containing the GUID and the values
+   * of those of {@code fields} that are readable by everyone.
+   *
+   * @param field
+   * The field key.
+   * @param value
+   * The value that is being searched.
+   * @param fields
+   * The fields to return along with each GUID.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket select(String field, String value, ArrayList<String> fields)
+          throws ClientException {
+    return getCommand(CommandType.Select, GNSProtocol.FIELD.toString(), field, GNSProtocol.VALUE.toString(), value,
+            GNSProtocol.FIELDS.toString(), fields);
+  }
+
   /**
    * If {@code field} is a GeoSpatial field, the query searches for all GUIDs
    * that have fields that are within the bounding box specified by
@@ -667,10 +667,12 @@ public enum CommandType {
           CommandResultType.LIST, false, false,
           "Returns the guids of all records that have a field with the given value. "
           + "Values are returned as a JSON array of guids. "
+          + "If fields is given a JSON Object with the guid and the values of those fields "
+          + "that are readable by everyone is returned for each guid instead. "
           + "This command is a shorthand for a mongo find query.",
           new String[]{GNSProtocol.FIELD.toString(),
             GNSProtocol.VALUE.toString()}, 
-          new String[]{}),
+          new String[]{GNSProtocol.FIELDS.toString()}),
   /**
    *
    */
@@ -679,11 +681,13 @@ public enum CommandType {
           "Return the guids of all records that are within max distance of value. Key must be a GeoSpatial field. "
           + "Value is a point specified as a JSONArray string tuple: [LONG, LAT]. Max Distance is in meters. "
           + "Values are returned as a JSON array of guids. "
+          + "If fields is given a JSON Object with the guid and the values of those fields "
+          + "that are readable by everyone is returned for each guid instead. "
           + "This command is a shorthand for a mongo $near query.",
           new String[]{GNSProtocol.FIELD.toString(),
             GNSProtocol.NEAR.toString(),
             GNSProtocol.MAX_DISTANCE.toString()}, 
-          new String[]{}),
+          new String[]{GNSProtocol.FIELDS.toString()}),
   /**
    *
    */
@@ -693,10 +697,12 @@ public enum CommandType {
           + "Key must be a GeoSpatial field. "
           + "Bounding box is a nested JSONArray string tuple of paired tuples: [[LONG_BOTTOM_LEFT, LAT_BOTTOM_LEFT],[LONG_UPPER_RIGHT, LAT_UPPER_RIGHT]] "
           + "Values are returned as a JSON array of guids. "
+          + "If fields is given a JSON Object with the guid and the values of those fields "
+          + "that are readable by everyone is returned for each guid instead. "
           + "This command is a shorthand for a mongo $geoWithin query.",
           new String[]{GNSProtocol.FIELD.toString(),
             GNSProtocol.WITHIN.toString()}, 
-          new String[]{}),
+          new String[]{GNSProtocol.FIELDS.toString()}),
   /**
    *
    */
@@ -704,9 +710,24 @@ public enum CommandType {
           CommandResultType.LIST, false, false,
           "Returns the guids of all records that satisfy the query. "
           + "For details see http://gns.name/wiki/index.php/Query_Syntax "
-          + "Values are returned as a JSON array of guids.",
+          + "Values are returned as a JSON array of guids. "
+          + "If fields is given a JSON Object with the guid and the values of those fields "
+          + "that are readable by everyone is returned for each guid instead.",
           new String[]{GNSProtocol.QUERY.toString()}, 
-          new String[]{}),
+          new String[]{GNSProtocol.FIELDS.toString()}),
+  /**
+   *
+   */
+  SelectQueryPaged(323, CommandCategory.SELECT, edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.select.SelectQueryPaged.class,
+          CommandResultType.MAP, false, false,
+          "Returns one page of the guids of the records that satisfy the query. "
+          + "For details see http://gns.name/wiki/index.php/Query_Syntax "
+          + "Values are returned as a JSON object containing a JSON array of guids in guid order "
+          + "and, if there are more results, a continuation which can be passed in to retrieve the next page. "
+          + "If some servers did not respond in time they are listed and the page may be incomplete.",
+          new String[]{GNSProtocol.QUERY.toString()}, 
+          new String[]{GNSProtocol.PAGE_SIZE.toString(),
+            GNSProtocol.CONTINUATION.toString()}),
   //
   // Select commands that maintain a group guid
   //
@@ -979,6 +1000,20 @@ public enum CommandType {
   /**
    *
    */
+  RetrieveGuids(447, CommandCategory.READ, edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.account.RetrieveGuids.class,
+          CommandResultType.MAP, true, false,
+          "Retrieves one page of the guids of the account associated with the GUID. "
+          + "Values are returned as a JSON object containing a JSON array of guids "
+          + "and, if there are more guids, a continuation which can be passed in to retrieve the next page. "
+          + "Must be signed by the guid. Returns +BADGUID+ if the guid has not been registered.",
+          new String[]{GNSProtocol.GUID.toString(),
+            GNSProtocol.SIGNATURE.toString(),
+            GNSProtocol.SIGNATUREFULLMESSAGE.toString()},
+          new String[]{GNSProtocol.PAGE_SIZE.toString(),
+            GNSProtocol.CONTINUATION.toString()}),
+  /**
+   *
+   */
   RemoveAccountWithPassword(445, CommandCategory.CREATE_DELETE, edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.secured.RemoveAccountWithPassword.class,
           CommandResultType.NULL, false, false,
           "Removes the account guid associated with the human readable name authorized by the account password.",
@@ -1824,23 +1859,24 @@ public enum CommandType {
     SelectNear.setChain();
     SelectWithin.setChain();
     SelectQuery.setChain();
+    SelectQueryPaged.setChain();
     //
-    AddGuid.setChain(LookupGuid, ReplaceUserJSONUnsigned, ReadUnsigned); // what else?
-    RemoveGuid.setChain(ReadUnsigned);
-    RemoveAccount.setChain(ReadUnsigned);
+    AddGuid.setChain(LookupGuid, ReplaceUserJSONUnsigned, ReadUnsigned, AppendListUnsigned); // what else?
+    RemoveGuid.setChain(ReadUnsigned, RemoveUnsigned);
+    RemoveAccount.setChain(ReadUnsigned, ReadArrayUnsigned);
     RemoveAccountWithPassword.setChain(ReadUnsigned);
     RemoveAccountSecured.setChain(ReadUnsigned);
     SelectGroupSetupQuery.setChain(ReadUnsigned);
     VerifyAccount.setChain(ReplaceUserJSONUnsigned);
 
     AddAlias.setChain(ReadUnsigned, ReplaceUserJSONUnsigned);
-    AddMultipleGuids.setChain(ReadUnsigned);
+    AddMultipleGuids.setChain(ReadUnsigned, AppendListUnsigned);
     AddMultipleGuidsFast.setChain(ReadUnsigned);
     AddMultipleGuidsFastRandom.setChain(ReadUnsigned);
     // Fixme: Some inconsistencies in the way these account commands are implmented
     // insofar as whether they go remote or not.
     LookupAccountRecord.setChain();
-    LookupRandomGuids.setChain();
+    LookupRandomGuids.setChain(ReadArrayUnsigned);
     LookupGuid.setChain();
     LookupPrimaryGuid.setChain(ReadUnsigned);
     LookupGuidRecord.setChain();
@@ -1850,6 +1886,7 @@ public enum CommandType {
     RemoveAlias.setChain(ReadUnsigned, ReplaceUserJSONUnsigned);
     RemoveGuidNoAccount.setChain(ReadUnsigned, ReplaceUserJSONUnsigned);
     RetrieveAliases.setChain(ReadUnsigned);
+    RetrieveGuids.setChain(ReadUnsigned, ReadArrayUnsigned, ReplaceUserJSONUnsigned, AppendListUnsigned);
     SetPassword.setChain(ReadUnsigned);
     ResetKey.setChain(ReadUnsigned);
     //
@@ -23,6 +23,12 @@ public enum GNSProtocol {
    * See {@link edu.umass.cs.gnscommon.ResponseCode#NO_ERROR}.
    */
   OK_RESPONSE("+OK+"),
+  /**
+   * Indicates that a select completed but some servers didn't respond in time so
+   * the result may be missing some records.
+   * See {@link edu.umass.cs.gnscommon.ResponseCode#PARTIAL_RESULT}.
+   */
+  PARTIAL_RESULT("+PARTIAL+"),
   /**
    * A prefix used in the command return value to indicate an anomolous condition.
    * Always accompanied by an additional string value which indicates the
@@ -250,6 +256,10 @@ public enum GNSProtocol {
    * Used to represent an array element being accessed in a command.
    */
   N("n"),
+  /**
+   * Asks an internal update of a list to return how many values it added or removed.
+   */
+  RETURN_COUNT("returnCount"),
   /**
    * The member field in a command. The member of a group guid.
    */
@@ -304,6 +314,25 @@ public enum GNSProtocol {
    * to determine refresh interval.
    */
   INTERVAL("interval"),
+  /**
+   * The maximum number of guids to return in one page of a paged select
+   * or of the guids of an account.
+   */
+  PAGE_SIZE("pageSize"),
+  /**
+   * The continuation token of a paged select or of the guids of an account.
+   * Returned with each page and passed back in to retrieve the next page.
+   */
+  CONTINUATION("continuation"),
+  /**
+   * The guids in one page of the result of a paged select or of the guids of an account.
+   */
+  SELECT_GUIDS("guids"),
+  /**
+   * The servers that did not respond in time to a paged select.
+   * If present the page is incomplete.
+   */
+  SELECT_MISSING_SERVERS("missingServers"),
   /**
    * Used in commands to represent the use of all fields.
    */
@@ -44,6 +44,12 @@ public enum ResponseCode implements Serializable {
    * additional information to describe the error or exception.
    */
   NO_ERROR(200, GNSProtocol.OK_RESPONSE.toString(), ResponseCodeType.NORMAL),
+  /**
+   * A positive acknowledgment for a select that some servers didn't respond to
+   * in time. The return value contains the results from the servers that did
+   * so it may be missing some records.
+   */
+  PARTIAL_RESULT(206, GNSProtocol.PARTIAL_RESULT.toString(), ResponseCodeType.NORMAL),
   /**
    * Unspecified error. This should be used replaced with more specific errors
    * in most cases and used sparingly, if at all because it doesn't convey
@@ -631,6 +631,51 @@ public class ClientAsynchBase extends ReconfigurableAppClientAsync<Request> {
     		), callback);
   }
 
+  /**
+   * Adds the values that aren't already there to an internal field that is an array
+   * at a remote replica. The response contains how many were added.
+   *
+   * @param guid
+   * @param field
+   * @param value
+   * @param callback
+   * @return the request id
+   * @throws IOException
+   * @throws JSONException
+   * @throws ClientException
+   */
+  public long fieldAddToSet(String guid, String field, ResultValue value, RequestCallback callback) throws IOException, JSONException, ClientException {
+    return sendCommandAsynch(createCommand(CommandType.AppendListUnsigned,
+            GNSProtocol.GUID.toString(), guid,
+            GNSProtocol.FIELD.toString(), field,
+            GNSProtocol.VALUE.toString(), value.toString(),
+            GNSProtocol.RETURN_COUNT.toString(), true,
+            GNSProtocol.WRITER.toString(), GNSConfig.getInternalOpSecret()
+    ), callback);
+  }
+
+  /**
+   * Removes a value from an internal field that is an array at a remote replica.
+   * The response contains how many elements were removed.
+   *
+   * @param guid
+   * @param field
+   * @param value
+   * @param callback
+   * @return the request id
+   * @throws IOException
+   * @throws JSONException
+   * @throws ClientException
+   */
+  public long fieldRemoveFromSet(String guid, String field, Object value, RequestCallback callback) throws IOException, JSONException, ClientException {
+    return sendCommandAsynch(createCommand(CommandType.RemoveUnsigned,
+            GNSProtocol.GUID.toString(), guid,
+            GNSProtocol.FIELD.toString(), field, GNSProtocol.VALUE.toString(), value.toString(),
+            GNSProtocol.RETURN_COUNT.toString(), true,
+            GNSProtocol.WRITER.toString(), GNSConfig.getInternalOpSecret()
+    ), callback);
+  }
+
   /**
    * Updates all the fields in the given JSON in a field at a remote replica.
    *
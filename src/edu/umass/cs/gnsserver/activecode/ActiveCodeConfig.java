@@ -33,6 +33,18 @@ public class ActiveCodeConfig {
 	   */
 	  public static int activeCodeWorkerCount = 1;
 	  
+	  /**
+	   * The fewest active code workers the pool shrinks to when they are idle.
+	   * A value of 0 or more than activeCodeWorkerCount means activeCodeWorkerCount.
+	   */
+	  public static int activeCodeMinWorkerCount = 0;
+	  
+	  /**
+	   * The most active code workers the pool grows to when they are all busy.
+	   * A value less than activeCodeWorkerCount means activeCodeWorkerCount.
+	   */
+	  public static int activeCodeMaxWorkerCount = 0;
+	  
 	  /**
 	   * Number of threads running in each worker
 	   */
@@ -78,9 +90,19 @@ public class ActiveCodeConfig {
 	   */
 	  public static boolean activeCodeEnableDebugging = false;
 	  
+	  /**
+	   * The maximum number of compiled scripts, and of guids' evaluated scripts, each worker keeps.
+	   * Every guid running a script has a global of its own, so this bounds most of the worker's heap.
+	   */
+	  public static int activeCodeCacheSize = 128;
+	  
 	  
 	  private static final String ACTIVE_CODE_WORKER_COUNT = "ACTIVE_CODE_WORKER_COUNT";
 	  
+	  private static final String ACTIVE_CODE_MIN_WORKER_COUNT = "ACTIVE_CODE_MIN_WORKER_COUNT";
+	  
+	  private static final String ACTIVE_CODE_MAX_WORKER_COUNT = "ACTIVE_CODE_MAX_WORKER_COUNT";
+	  
 	  private static final String ACTIVE_WORKER_THREADS = "ACTIVE_WORKER_THREADS";
 	  
 	  private static final String ACTIVE_CODE_BLOCKING_ENABLED = "ACTIVE_CODE_BLOCKING_ENABLED"; 
@@ -99,6 +121,8 @@ public class ActiveCodeConfig {
 	  
 	  private static final String ACTIVE_CODE_ENABLE_DEBUGGING = "ACTIVE_CODE_ENABLE_DEBUGGING";
 	  
+	  private static final String ACTIVE_CODE_CACHE_SIZE = "ACTIVE_CODE_CACHE_SIZE";
+	  
 	  
 	/**
 	 * @param allValues
@@ -108,6 +132,14 @@ public class ActiveCodeConfig {
 		    	activeCodeWorkerCount = Integer.parseInt(allValues.getProperty(ACTIVE_CODE_WORKER_COUNT));
 		    }
 		    
+		    if (allValues.containsKey(ACTIVE_CODE_MIN_WORKER_COUNT)) {
+		    	activeCodeMinWorkerCount = Integer.parseInt(allValues.getProperty(ACTIVE_CODE_MIN_WORKER_COUNT));
+		    }
+		    
+		    if (allValues.containsKey(ACTIVE_CODE_MAX_WORKER_COUNT)) {
+		    	activeCodeMaxWorkerCount = Integer.parseInt(allValues.getProperty(ACTIVE_CODE_MAX_WORKER_COUNT));
+		    }
+		    
 		    if (allValues.containsKey(ACTIVE_WORKER_THREADS)) {
 		    	activeWorkerThreads = Integer.parseInt(allValues.getProperty(ACTIVE_WORKER_THREADS));
 		    }
@@ -143,6 +175,10 @@ public class ActiveCodeConfig {
 		    if(allValues.containsKey(ACTIVE_GEOIP_FILE_PATH)) {
 		    	activeGeoIPFilePath = allValues.getProperty(ACTIVE_GEOIP_FILE_PATH);
 		    }
+		    
+		    if(allValues.containsKey(ACTIVE_CODE_CACHE_SIZE)) {
+		    	activeCodeCacheSize = Integer.parseInt(allValues.getProperty(ACTIVE_CODE_CACHE_SIZE));
+		    }
 	  }
 	 
 	/**
@@ -23,7 +23,10 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -90,7 +93,11 @@ public class ActiveCodeHandler {
       }
     }
 
-    handler = new ActiveHandler(nodeId, new ActiveCodeDB(), ActiveCodeConfig.activeCodeWorkerCount, ActiveCodeConfig.activeWorkerThreads, ActiveCodeConfig.acitveCodeBlockingEnabled);
+    int minWorkers = ActiveCodeConfig.activeCodeMinWorkerCount > 0
+            ? ActiveCodeConfig.activeCodeMinWorkerCount : ActiveCodeConfig.activeCodeWorkerCount;
+    handler = new ActiveHandler(nodeId, new ActiveCodeDB(), ActiveCodeConfig.activeCodeWorkerCount,
+            minWorkers, ActiveCodeConfig.activeCodeMaxWorkerCount,
+            ActiveCodeConfig.activeWorkerThreads, ActiveCodeConfig.acitveCodeBlockingEnabled);
   }
 
   /**
@@ -160,6 +167,8 @@ public class ActiveCodeHandler {
    * This interface is used for the class out of activecode package to trigger active code.
    * It requires the parameters for running active code such as guid, field, and value.
    * It runs the requests and returns the processed result to the caller.
+   * It blocks on {@link #handleActiveCodeAsync}, which gives up on the request
+   * if the worker does not answer within its budget.
    *
    *
    * @param header header is needed for depth query
@@ -174,12 +183,50 @@ public class ActiveCodeHandler {
   public static JSONObject handleActiveCode(InternalRequestHeader header,
           String guid, String field, String action, JSONObject value, BasicRecordMap db) 
           throws InternalRequestException {
+    long t = System.nanoTime();
+    JSONObject newResult;
+    try {
+      newResult = handleActiveCodeAsync(header, guid, field, action, value, db).get();
+    } catch (InterruptedException | ExecutionException e) {
+      ActiveCodeHandler.getLogger().log(Level.INFO, "ActiveGNS request execution failed", e);
+      /**
+       * return the original value without executing, as there is an error
+       * returned from the worker. The error indicates that the code failed
+       * to execute on worker.
+       * Note: cannot return null as specified by gigapaxos execute method
+       */
+      String message = e instanceof ExecutionException && e.getCause() != null
+              ? e.getCause().getMessage() : e.getMessage();
+      throw new InternalRequestException(ResponseCode.INTERNAL_REQUEST_EXCEPTION,
+              "ActiveGNS request execution failed:" + message);
+    }
+    ActiveCodeHandler.getLogger().log(DEBUG_LEVEL,
+            "OOOOOOOOOOOOO The result after executing active code is {0}",
+            new Object[]{newResult});
+    DelayProfiler.updateDelayNano("activeTotal", t);
+    return newResult;
+  }
+
+  /**
+   * Like {@link #handleActiveCode}, but the code runs without holding the calling thread.
+   * The future completes with the processed result, or exceptionally if the code
+   * failed or the worker did not answer in time.
+   *
+   * @param header header is needed for depth query
+   * @param guid
+   * @param field
+   * @param action the actions in {@code ActiveCode}
+   * @param value
+   * @param db db is needed for fetching active code to run
+   * @return the future of the processed result, the original value if there is no code to run
+   */
+  public static CompletableFuture<JSONObject> handleActiveCodeAsync(InternalRequestHeader header,
+          String guid, String field, String action, JSONObject value, BasicRecordMap db) {
 
     if (Config.getGlobalBoolean(GNSConfig.GNSC.DISABLE_ACTIVE_CODE)) {
-      return value;
+      return CompletableFuture.completedFuture(value);
     }
 
-    long t = System.nanoTime();
     ActiveCodeHandler.getLogger().log(DEBUG_LEVEL,
             "OOOOOOOOOOOOO handles:[guid:{0},field:{1},action:{2},value:{3},header:{4}]",
             new Object[]{guid, field, action, value, header});
@@ -196,9 +243,8 @@ public class ActiveCodeHandler {
      */
     if (action.equals(ActiveCode.READ_ACTION) && field != null && InternalField.isInternalField(field)
             || (action.equals(ActiveCode.WRITE_ACTION) && value != null && containInternalField(value))) {
-      return value;
+      return CompletableFuture.completedFuture(value);
     }
-    JSONObject newResult = value;
     if (field == null || !InternalField.isInternalField(field)) {
       //FIXME: Seems like this field lookup all could be replaced by something 
       // like NSFieldAccess.lookupJSONFieldLocalNoAuth
@@ -208,7 +254,7 @@ public class ActiveCodeHandler {
                 ColumnFieldType.USER_JSON, ActiveCode.getCodeField(action));
       } catch (RecordNotFoundException | FailedDBOperationException | IllegalArgumentException e) {
         e.printStackTrace();
-        return value;
+        return CompletableFuture.completedFuture(value);
       }
 
       ValuesMap codeMap = null;
@@ -216,7 +262,7 @@ public class ActiveCodeHandler {
         codeMap = activeCodeNameRecord.getValuesMap();
       } catch (FieldNotFoundException e) {
         e.printStackTrace();
-        return value;
+        return CompletableFuture.completedFuture(value);
       }
 
       if (codeMap != null && value != null) {
@@ -224,17 +270,64 @@ public class ActiveCodeHandler {
         try {
           code = codeMap.getString(ActiveCode.getCodeField(action));
         } catch (JSONException | IllegalArgumentException e) {
-          return value;
+          return CompletableFuture.completedFuture(value);
         }
         String accessorGuid = header == null ? guid : header.getOriginatingGUID();
-        newResult = runCode(header, code, guid, accessorGuid, action, value, 5);
+        return handler.runCodeAsync(header, guid, accessorGuid, code, value, 5);
       }
     }
-    ActiveCodeHandler.getLogger().log(DEBUG_LEVEL,
-            "OOOOOOOOOOOOO The result after executing active code is {0}",
-            new Object[]{newResult});
-    DelayProfiler.updateDelayNano("activeTotal", t);
-    return newResult;
+    return CompletableFuture.completedFuture(value);
+  }
+
+  /**
+   * Runs the read code of many guids on their values with a single message to
+   * a worker, e.g., on the records matched by a select. Unlike handleActiveCode,
+   * the code comes with the values, so nothing is looked up here. Each guid
+   * is the accessor of its own value.
+   *
+   * @param header header is needed for depth query
+   * @param guids
+   * @param codes the read code of each guid, null or empty if it has none
+   * @param values the value of each guid
+   * @return the processed values in the order of the guids, the original value
+   * is kept where there is no code or an error with code execution
+   */
+  public static List<JSONObject> handleReadActiveCodeBatch(InternalRequestHeader header,
+          List<String> guids, List<String> codes, List<JSONObject> values) {
+    List<JSONObject> results = new ArrayList<>(values);
+    if (Config.getGlobalBoolean(GNSConfig.GNSC.DISABLE_ACTIVE_CODE)) {
+      return results;
+    }
+    long t = System.nanoTime();
+    // only the values with code go to the worker
+    List<Integer> index = new ArrayList<>();
+    List<String> codeGuids = new ArrayList<>();
+    List<String> codeList = new ArrayList<>();
+    List<JSONObject> codeValues = new ArrayList<>();
+    for (int i = 0; i < guids.size(); i++) {
+      String code = codes.get(i);
+      if (code != null && !code.isEmpty() && values.get(i) != null && !containInternalField(values.get(i))) {
+        index.add(i);
+        codeGuids.add(guids.get(i));
+        codeList.add(code);
+        codeValues.add(values.get(i));
+      }
+    }
+    if (index.isEmpty()) {
+      return results;
+    }
+    try {
+      List<JSONObject> executed = handler.runCodeBatch(header, codeGuids, null, codeList, codeValues, 5);
+      for (int i = 0; i < index.size(); i++) {
+        if (executed.get(i) != null) {
+          results.set(index.get(i), executed.get(i));
+        }
+      }
+    } catch (ActiveException e) {
+      ActiveCodeHandler.getLogger().log(Level.INFO, "ActiveGNS batch execution failed", e);
+    }
+    DelayProfiler.updateDelayNano("activeBatchTotal", t);
+    return results;
   }
 
   /**
@@ -5,21 +5,20 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
-import edu.umass.cs.gnsserver.activecode.prototype.blocking.ActiveBlockingClient;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Client;
-import edu.umass.cs.gnsserver.activecode.prototype.unblocking.ActiveNonBlockingClient;
 import edu.umass.cs.gnsserver.interfaces.ActiveDBInterface;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.utils.Util;
@@ -32,33 +31,28 @@ import edu.umass.cs.utils.DelayProfiler;
  */
 public class ActiveHandler {
 	
-	private static Client[] clientPool;
-	
-	private final static String cfilePrefix = "/tmp/client_";
-	private final static String sfilePrefix = "/tmp/server_";
-	private final String suffix;
-	private final static int clientPort = 50000;
-	private final static int workerPort = 60000;
+	private final ActiveWorkerPool pool;
 	
 	/**
 	 * Test then initialize this variable
 	 */
 	public boolean pipeEnable = true;
 	
-	private final int numProcess;
-	final AtomicInteger counter = new AtomicInteger();
-	
 	
 	/**
-	 * Initialize handler with clients and workers.
+	 * Initialize handler with clients and workers. The number of workers
+	 * starts at numProcess and is kept between minProcess and maxProcess,
+	 * see {@link ActiveWorkerPool}.
 	 * @param nodeID 
 	 * @param app 
 	 * @param numProcess
+	 * @param minProcess the fewest workers, no more than numProcess
+	 * @param maxProcess the most workers, no less than numProcess
 	 * @param numThread 
 	 * @param blocking blocking client or not
 	 */
-	public ActiveHandler(String nodeID, ActiveDBInterface app, int numProcess, int numThread, boolean blocking){
-		this.suffix = nodeID;
+	public ActiveHandler(String nodeID, ActiveDBInterface app, int numProcess, int minProcess, int maxProcess, 
+			int numThread, boolean blocking){
 		
 		final String fileTestForPipe = "/tmp/test";
 		try {
@@ -70,30 +64,23 @@ public class ActiveHandler {
 			new File(fileTestForPipe).delete();
 		}
 		
-		this.numProcess = numProcess;
-		
-		// initialize single clients and workers
-		clientPool = new Client[numProcess];
-		for (int i=0; i<numProcess; i++){
-			if(blocking){
-				if(pipeEnable){
-					clientPool[i] = new ActiveBlockingClient(nodeID, app, cfilePrefix+i+suffix, sfilePrefix+i+suffix, i, numThread);
-				}else{
-					clientPool[i] = new ActiveBlockingClient(nodeID, app, clientPort+i, workerPort+i, i, numThread);
-				}
-			}else{
-				if(pipeEnable){
-					clientPool[i] = new ActiveNonBlockingClient(nodeID, app, cfilePrefix+i+suffix, sfilePrefix+i+suffix, i, numThread);
-				} else {
-					clientPool[i] = new ActiveNonBlockingClient(nodeID, app, clientPort+i, workerPort+i, i, numThread);
-				}
-				new Thread((ActiveNonBlockingClient) clientPool[i]).start();
-			}
-		}
+		pool = new ActiveWorkerPool(nodeID, app, nodeID, numProcess, minProcess, maxProcess, numThread, blocking, pipeEnable);
 		ActiveCodeHandler.getLogger().log(Level.INFO, "ActiveHandler has been started with "+numProcess+"("+numThread+" threads) "
 				+(blocking?"blocking":"nonblocking")+" worker processes.");
 	}
 	
+	/**
+	 * Initialize handler with a fixed number of clients and workers.
+	 * @param nodeID 
+	 * @param app 
+	 * @param numProcess
+	 * @param numThread 
+	 * @param blocking blocking client or not
+	 */
+	public ActiveHandler(String nodeID, ActiveDBInterface app, int numProcess, int numThread, boolean blocking){
+		this(nodeID, app, numProcess, numProcess, numProcess, numThread, blocking);
+	}
+	
 	/**
 	 * Initialize a handler with multi-process single-threaded workers.
 	 * @param nodeId 
@@ -108,11 +95,7 @@ public class ActiveHandler {
 	 * Shutdown all the client and its corresponding workers
 	 */
 	private void shutdown(){
-		for(int i=0; i<numProcess; i++){
-			if(clientPool[i] != null){
-				clientPool[i].shutdown();
-			}
-		}
+		pool.shutdown();
 	}
 	
 	/**
@@ -127,7 +110,42 @@ public class ActiveHandler {
 	 */
 	public JSONObject runCode(InternalRequestHeader header, String guid, 
 			String accessor, String code, JSONObject value, int ttl) throws ActiveException{
-		return clientPool[counter.getAndIncrement()%numProcess].runCode(header, guid, accessor, code, value, ttl, 2000);
+		return pool.runCode(header, guid, accessor, code, value, ttl, 2000);
+	}
+	
+	/**
+	 * Like {@link #runCode}, but returns without waiting for the worker,
+	 * see {@link Client#runCodeAsync}.
+	 * 
+	 * @param header 
+	 * @param guid
+	 * @param accessor
+	 * @param code
+	 * @param value
+	 * @param ttl
+	 * @return the future of the executed result
+	 */
+	public CompletableFuture<JSONObject> runCodeAsync(InternalRequestHeader header, String guid, 
+			String accessor, String code, JSONObject value, int ttl){
+		return pool.runCodeAsync(header, guid, accessor, code, value, ttl, 2000);
+	}
+	
+	/**
+	 * Runs the code of many guids on their values with a single message
+	 * to the least loaded worker, see {@link Client#runCodeBatch}.
+	 * 
+	 * @param header
+	 * @param guids
+	 * @param accessor the accessor of all the values, or null if each guid accesses its own value
+	 * @param codes the code of each guid
+	 * @param values the value of each guid
+	 * @param ttl
+	 * @return the executed results in the order of the guids, null for a value the code failed on
+	 * @throws ActiveException
+	 */
+	public List<JSONObject> runCodeBatch(InternalRequestHeader header, List<String> guids, 
+			String accessor, List<String> codes, List<JSONObject> values, int ttl) throws ActiveException{
+		return pool.runCodeBatch(header, guids, accessor, codes, values, ttl, 2000);
 	}
 	
 	/***************** Test methods ****************/	
@@ -171,7 +189,7 @@ public class ActiveHandler {
 		long t1 = System.currentTimeMillis();
 		
 		for(int i=0; i<n; i++){
-			tasks.add(executor.submit(new ActiveTask(clientPool[i%numProcess], guid, field, noop_code, value, 0)));
+			tasks.add(executor.submit(new ActiveTask(handler.pool, guid, field, noop_code, value, 0)));
 		}
 		for(Future<JSONObject> task:tasks){
 			task.get();
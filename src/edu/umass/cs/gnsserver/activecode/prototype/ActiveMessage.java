@@ -5,14 +5,29 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Message;
+import edu.umass.cs.gnsserver.activecode.prototype.utils.CompiledScriptCache;
 
 /**
+ * A REQUEST carries only the hash of its code rather than the code itself.
+ * The code stays with the sender, and a worker that doesn't have the code
+ * with that hash cached sends back a CODE_QUERY and gets the code in a RESPONSE.
+ * 
+ * <p>A RESPONSE to a REQUEST whose code returned the value it was given,
+ * serialized the same way, is marked unchanged and carries no value. The
+ * sender then keeps the value it already has instead of parsing it again.
+ * 
+ * <p>A BATCH carries several REQUESTs to a worker in one message, and their
+ * RESPONSEs back in another with the same id. Each REQUEST keeps its own id,
+ * which the queries sent while running it use as usual.
+ * 
  * @author gaozy
  *
  */
@@ -31,9 +46,12 @@ public class ActiveMessage implements Message{
 	private String guid;
 	private String accessor;
 	private String code;
+	private String codeHash;
 	private String value;
 	private String targetGuid;
 	private String error;
+	private boolean unchanged;
+	private List<ActiveMessage> batch;
 
 	/**
 	 * This enum represents the type of this ActiveMessage
@@ -64,7 +82,20 @@ public class ActiveMessage implements Message{
 		 * This message is used for worker to send a write query
 		 * to GNS to update a field.
 		 */
-		WRITE_QUERY(3);
+		WRITE_QUERY(3),
+		
+		/**
+		 * This message is used for worker to ask GNS for
+		 * the code of a request that it doesn't have cached.
+		 */
+		CODE_QUERY(4),
+		
+		/**
+		 * This message is used for GNS to send several REQUESTs
+		 * to worker at once, and for worker to send back their
+		 * RESPONSEs together.
+		 */
+		BATCH(5);
 		
 		private final int type;
 		Type(int type){
@@ -100,6 +131,7 @@ public class ActiveMessage implements Message{
 		this.guid = guid;
 		this.accessor = accessor;
 		this.code = code;		
+		this.codeHash = (code != null)?CompiledScriptCache.hash(code):null;
 		this.value = value;
 		this.targetGuid = targetGuid;
 		this.error = error;
@@ -144,6 +176,16 @@ public class ActiveMessage implements Message{
 		this(Type.WRITE_QUERY, id, ttl, 0, guid, accessor, null, value, targetGuid, null);
 	}
 	
+	/**
+	 * This is a CODE_QUERY message
+	 * @param codeHash
+	 * @param id 
+	 */
+	public ActiveMessage(String codeHash, long id){
+		this(Type.CODE_QUERY, id, 0, 0, null, null, null, null, null, null);
+		this.codeHash = codeHash;
+	}
+	
 	/**
 	 * This is a RESPONSE message
 	 * @param id 
@@ -154,6 +196,34 @@ public class ActiveMessage implements Message{
 		this(Type.RESPONSE, id, 0, 0, null, null, null, value, null, error);
 	}
 	
+	/**
+	 * This is a RESPONSE message to a REQUEST whose value
+	 * the code returned unchanged
+	 * @param id
+	 */
+	public ActiveMessage(long id){
+		this(Type.RESPONSE, id, 0, 0, null, null, null, null, null, null);
+		this.unchanged = true;
+	}
+	
+	/**
+	 * This is a BATCH message of REQUESTs
+	 * @param batch
+	 */
+	public ActiveMessage(List<ActiveMessage> batch){
+		this(counter.getAndIncrement(), batch);
+	}
+	
+	/**
+	 * This is a BATCH message, the RESPONSEs to a BATCH of REQUESTs use its id
+	 * @param id
+	 * @param batch
+	 */
+	public ActiveMessage(long id, List<ActiveMessage> batch){
+		this(Type.BATCH, id, 0, 0, null, null, null, null, null, null);
+		this.batch = batch;
+	}
+	
 	/**
 	 * @return the TTL left for the request
 	 */
@@ -183,11 +253,18 @@ public class ActiveMessage implements Message{
 	}
 	
 	/**
-	 * @return the code to be run
+	 * @return the code to be run, only known on the side that created the request
 	 */
 	public String getCode() {
 		return code;
 	}
+	
+	/**
+	 * @return the hash of the code to be run
+	 */
+	public String getCodeHash() {
+		return codeHash;
+	}
 
 	/**
 	 * @return value
@@ -203,6 +280,20 @@ public class ActiveMessage implements Message{
 		return error;
 	}
 	
+	/**
+	 * @return true if this RESPONSE means the value of the request was returned unchanged
+	 */
+	public boolean isUnchanged(){
+		return unchanged;
+	}
+	
+	/**
+	 * @return the messages in this BATCH
+	 */
+	public List<ActiveMessage> getBatch(){
+		return batch;
+	}
+	
 	/**
 	 * @return id of the message
 	 */
@@ -225,11 +316,17 @@ public class ActiveMessage implements Message{
 		int length = 0;
 		switch(type){
 		case REQUEST:
-			length = 6*Integer.BYTES // type, ttl, guid length, accessor length, code length, valuesMap size 
+			length = 6*Integer.BYTES // type, ttl, guid length, accessor length, code hash length, valuesMap size 
 			+ 2*Long.BYTES // id, budget
 			+ guid.length() // guid
 			+ (accessor!=null?accessor.length():0) // accessor
-			+ code.length();
+			+ codeHash.length();
+			break;
+			
+		case CODE_QUERY:
+			length = 2*Integer.BYTES // type, code hash length
+			+ Long.BYTES // id
+			+ codeHash.length();
 			break;
 			
 		case RESPONSE:
@@ -269,12 +366,16 @@ public class ActiveMessage implements Message{
 	@Override
 	public byte[] toBytes() throws UnsupportedEncodingException{
 		
+		if(type == Type.BATCH){
+			return batchToBytes();
+		}
+		
 		//FIXME: one more step
 		String valuesMapString = value;
 		
 		byte[] buffer = new byte[this.getEstimatedLengthExceptWithoutValue()+( (valuesMapString==null)?0:valuesMapString.length() )];
 		ByteBuffer bbuf = ByteBuffer.wrap(buffer);
-		byte[] guidBytes,accessorBytes,codeBytes,valuesMapBytes,targetGuidBytes;
+		byte[] guidBytes,accessorBytes,codeHashBytes,valuesMapBytes,targetGuidBytes;
 		
 		// put type and request id
 		bbuf.putInt(type.getType());
@@ -304,12 +405,12 @@ public class ActiveMessage implements Message{
 			bbuf.put(accessorBytes);
 			exactLength += (Integer.BYTES + accessorBytes.length);
 			
-			// put code, can be null
-			assert(code != null):"code can't be null for active request";
-			codeBytes = code.getBytes(CHARSET);
-			bbuf.putInt( codeBytes.length );
-			bbuf.put(codeBytes);
-			exactLength += (Integer.BYTES + codeBytes.length);
+			// put code hash, the worker asks for the code if it doesn't have it
+			assert(codeHash != null):"code can't be null for active request";
+			codeHashBytes = codeHash.getBytes(CHARSET);
+			bbuf.putInt( codeHashBytes.length );
+			bbuf.put(codeHashBytes);
+			exactLength += (Integer.BYTES + codeHashBytes.length);
 			
 			// put valuesMapString, can be null
 			assert(valuesMapString != null):"valuesMapString can't be null for active request";
@@ -380,9 +481,17 @@ public class ActiveMessage implements Message{
 			exactLength += (Integer.BYTES + valuesMapBytes.length);
 			break;
 			
+		case CODE_QUERY:
+			codeHashBytes = codeHash.getBytes(CHARSET);
+			bbuf.putInt(codeHashBytes.length);
+			bbuf.put(codeHashBytes);
+			exactLength += (Integer.BYTES + codeHashBytes.length);
+			break;
+			
 		case RESPONSE:
 			valuesMapBytes = (valuesMapString==null)?new byte[0]:valuesMapString.getBytes(CHARSET);
-			bbuf.putInt((valuesMapString==null)?0:valuesMapBytes.length);
+			// -1 means unchanged
+			bbuf.putInt(unchanged?-1:(valuesMapString==null)?0:valuesMapBytes.length);
 			bbuf.put(valuesMapBytes);
 			exactLength += (Integer.BYTES + valuesMapBytes.length);
 			
@@ -405,6 +514,29 @@ public class ActiveMessage implements Message{
 		return exactBytes;
 	}
 	
+	/**
+	 * A BATCH is its type, id and number of messages, followed by 
+	 * the length and the bytes of each message
+	 */
+	private byte[] batchToBytes() throws UnsupportedEncodingException{
+		List<byte[]> messages = new ArrayList<byte[]>(batch.size());
+		int length = 2*Integer.BYTES + Long.BYTES; // type, number of messages, id
+		for(ActiveMessage msg:batch){
+			byte[] bytes = msg.toBytes();
+			messages.add(bytes);
+			length += Integer.BYTES + bytes.length;
+		}
+		ByteBuffer bbuf = ByteBuffer.allocate(length);
+		bbuf.putInt(type.getType());
+		bbuf.putLong(id);
+		bbuf.putInt(messages.size());
+		for(byte[] bytes:messages){
+			bbuf.putInt(bytes.length);
+			bbuf.put(bytes);
+		}
+		return bbuf.array();
+	}
+	
 	/**
 	 * @param bytes
 	 * @throws UnsupportedEncodingException 
@@ -424,7 +556,7 @@ public class ActiveMessage implements Message{
 		this.type = Type.values()[bbuf.getInt()];	
 		this.id = bbuf.getLong();
 		int length = 0;
-		byte[] guidBytes,accessorBytes,codeBytes,targetGuidBytes,valueBytes,errorBytes;
+		byte[] guidBytes,accessorBytes,codeHashBytes,targetGuidBytes,valueBytes,errorBytes;
 		
 		switch(type){
 		case REQUEST:
@@ -445,11 +577,11 @@ public class ActiveMessage implements Message{
 				accessor = new String(accessorBytes, CHARSET);
 			}
 			
-			// get code
+			// get code hash
 			length = bbuf.getInt();
-			codeBytes = new byte[length];
-			bbuf.get(codeBytes);
-			code = new String(codeBytes, CHARSET);
+			codeHashBytes = new byte[length];
+			bbuf.get(codeHashBytes);
+			codeHash = new String(codeHashBytes, CHARSET);
 						
 			// get valuesMap
 			length = bbuf.getInt();
@@ -505,6 +637,24 @@ public class ActiveMessage implements Message{
 			value = new String(valueBytes, CHARSET);
 			break;
 			
+		case CODE_QUERY:
+			length = bbuf.getInt();
+			codeHashBytes = new byte[length];
+			bbuf.get(codeHashBytes);
+			codeHash = new String(codeHashBytes, CHARSET);
+			break;
+			
+		case BATCH:
+			int size = bbuf.getInt();
+			batch = new ArrayList<ActiveMessage>(size);
+			for(int i=0; i<size; i++){
+				length = bbuf.getInt();
+				byte[] messageBytes = new byte[length];
+				bbuf.get(messageBytes);
+				batch.add(new ActiveMessage(messageBytes));
+			}
+			break;
+			
 		case RESPONSE:
 			// get valuesMap
 			length = bbuf.getInt();
@@ -512,6 +662,8 @@ public class ActiveMessage implements Message{
 				valueBytes = new byte[length];
 				bbuf.get(valueBytes);
 				value = new String(valueBytes, CHARSET);
+			}else if(length == -1){
+				unchanged = true;
 			}
 			
 			length = bbuf.getInt();
@@ -539,6 +691,7 @@ public class ActiveMessage implements Message{
 				+((accessor!=null)?accessor:"null")
 				+",value:"+((value!=null)?value:"null")
 				+",error:"+((error!=null)?error:"null")
+				+((batch!=null)?",batch:"+batch.size():"")
 				+"]";
 	}
 	
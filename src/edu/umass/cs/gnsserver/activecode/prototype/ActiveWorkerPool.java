@@ -0,0 +1,321 @@
+package edu.umass.cs.gnsserver.activecode.prototype;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+
+import org.json.JSONObject;
+
+import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
+import edu.umass.cs.gnsserver.activecode.prototype.blocking.ActiveBlockingClient;
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Client;
+import edu.umass.cs.gnsserver.activecode.prototype.unblocking.ActiveNonBlockingClient;
+import edu.umass.cs.gnsserver.interfaces.ActiveDBInterface;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+
+/**
+ * The worker processes of an {@link ActiveHandler} and the choice of
+ * the one that runs each request.
+ *
+ * <p> Each worker has the number of requests sent to it that haven't
+ * come back yet, and a moving average of how long its requests take.
+ * A request goes to the worker with the fewest outstanding requests,
+ * and to the faster one if there is a tie, so a worker stuck on a slow
+ * script stops getting new requests until it catches up.
+ *
+ * <p> Every SCALE_INTERVAL the pool is resized between its bounds. A
+ * worker is added if every worker has at least as many outstanding
+ * requests as it can run at once. A worker that has had no request for
+ * IDLE_TIMEOUT is retired if there are more than the minimum: it gets no
+ * new requests and is shut down once the ones it has are done.
+ *
+ * @author gaozy
+ *
+ */
+class ActiveWorkerPool implements Client {
+
+	private final static String cfilePrefix = "/tmp/client_";
+	private final static String sfilePrefix = "/tmp/server_";
+	private final static int clientPort = 50000;
+	private final static int workerPort = 60000;
+
+	private final static long SCALE_INTERVAL = 1000;
+	private final static long IDLE_TIMEOUT = 30000;
+	// weight of the latest request in the moving average of the latency
+	private final static double ALPHA = 0.1;
+
+	private static class Worker {
+		final int id;
+		final Client client;
+		// the receiving thread of a non-blocking client
+		final Thread receiver;
+		final AtomicInteger pending = new AtomicInteger();
+		// in nanoseconds
+		volatile double latency;
+		volatile long lastUsed = System.currentTimeMillis();
+		volatile boolean retired;
+
+		Worker(int id, Client client, Thread receiver){
+			this.id = id;
+			this.client = client;
+			this.receiver = receiver;
+		}
+	}
+
+	private final String nodeID;
+	private final ActiveDBInterface app;
+	private final String suffix;
+	private final int numThread;
+	private final boolean blocking;
+	private final boolean pipeEnable;
+	private final int minWorkers;
+	private final int maxWorkers;
+
+	private final List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+	// guarded by this
+	private final List<Worker> retired = new ArrayList<Worker>();
+	private final AtomicInteger counter = new AtomicInteger();
+
+	private final ScheduledThreadPoolExecutor scaler;
+
+	/**
+	 * @param nodeID
+	 * @param app
+	 * @param suffix appended to the pipe file names
+	 * @param numProcess the number of workers to start with
+	 * @param minProcess the fewest workers the pool shrinks to
+	 * @param maxProcess the most workers the pool grows to
+	 * @param numThread the number of threads of each worker
+	 * @param blocking blocking clients or not
+	 * @param pipeEnable named pipes or UDP
+	 */
+	ActiveWorkerPool(String nodeID, ActiveDBInterface app, String suffix, int numProcess, int minProcess, int maxProcess,
+			int numThread, boolean blocking, boolean pipeEnable){
+		this.nodeID = nodeID;
+		this.app = app;
+		this.suffix = suffix;
+		this.numThread = numThread;
+		this.blocking = blocking;
+		this.pipeEnable = pipeEnable;
+		this.minWorkers = Math.max(1, Math.min(minProcess, numProcess));
+		this.maxWorkers = Math.max(maxProcess, numProcess);
+
+		for (int i=0; i<numProcess; i++){
+			workers.add(startWorker(i));
+		}
+
+		scaler = new ScheduledThreadPoolExecutor(1, new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ActiveWorkerPoolScaler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if(minWorkers < maxWorkers){
+			scaler.scheduleWithFixedDelay(new Runnable(){
+				@Override
+				public void run() {
+					try {
+						resize();
+					} catch (RuntimeException e) {
+						// keep resizing the next time
+						ActiveCodeHandler.getLogger().log(Level.WARNING, "Failed to resize the worker pool: {0}", e);
+					}
+				}
+			}, SCALE_INTERVAL, SCALE_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private Worker startWorker(int i){
+		Client client;
+		Thread receiver = null;
+		if(blocking){
+			if(pipeEnable){
+				client = new ActiveBlockingClient(nodeID, app, cfilePrefix+i+suffix, sfilePrefix+i+suffix, i, numThread);
+			}else{
+				client = new ActiveBlockingClient(nodeID, app, clientPort+i, workerPort+i, i, numThread);
+			}
+		}else{
+			if(pipeEnable){
+				client = new ActiveNonBlockingClient(nodeID, app, cfilePrefix+i+suffix, sfilePrefix+i+suffix, i, numThread);
+			} else {
+				client = new ActiveNonBlockingClient(nodeID, app, clientPort+i, workerPort+i, i, numThread);
+			}
+			receiver = new Thread((ActiveNonBlockingClient) client);
+			receiver.start();
+		}
+		return new Worker(i, client, receiver);
+	}
+
+	private static void stopWorker(Worker worker){
+		if(worker.receiver != null){
+			// so that the receiving thread doesn't restart the worker
+			worker.receiver.interrupt();
+		}
+		worker.client.shutdown();
+	}
+
+	/**
+	 * The smallest id not taken by a running or retired worker,
+	 * so that the files and ports of stopped workers are reused.
+	 */
+	private int nextId(){
+		boolean[] taken = new boolean[workers.size()+retired.size()+1];
+		for(Worker worker:workers){
+			if(worker.id < taken.length)
+				taken[worker.id] = true;
+		}
+		for(Worker worker:retired){
+			if(worker.id < taken.length)
+				taken[worker.id] = true;
+		}
+		int id = 0;
+		while(taken[id]){
+			id++;
+		}
+		return id;
+	}
+
+	private synchronized void resize(){
+		Iterator<Worker> iter = retired.iterator();
+		while(iter.hasNext()){
+			Worker worker = iter.next();
+			if(worker.pending.get() == 0){
+				stopWorker(worker);
+				iter.remove();
+			}
+		}
+
+		// a blocking worker runs one request at a time
+		int capacity = blocking?1:numThread;
+		boolean saturated = true;
+		Worker idlest = null;
+		long now = System.currentTimeMillis();
+		for(Worker worker:workers){
+			if(worker.pending.get() < capacity){
+				saturated = false;
+				if(worker.pending.get() == 0 && now - worker.lastUsed > IDLE_TIMEOUT
+						&& (idlest == null || worker.lastUsed < idlest.lastUsed)){
+					idlest = worker;
+				}
+			}
+		}
+
+		if(saturated && workers.size() < maxWorkers){
+			Worker worker = startWorker(nextId());
+			workers.add(worker);
+			ActiveCodeHandler.getLogger().log(Level.INFO, "Added worker {0}, {1} workers are running",
+					new Object[]{worker.id, workers.size()});
+		}else if(idlest != null && workers.size() > minWorkers){
+			// a request that picked it before this is seen either comes back or backs off
+			idlest.retired = true;
+			workers.remove(idlest);
+			retired.add(idlest);
+			ActiveCodeHandler.getLogger().log(Level.INFO, "Retired idle worker {0}, {1} workers are running",
+					new Object[]{idlest.id, workers.size()});
+		}
+	}
+
+	/**
+	 * Picks the worker with the fewest outstanding requests and counts
+	 * the request as outstanding on it. The scan starts from a different
+	 * worker every time so that ties are spread round-robin.
+	 */
+	private Worker acquire(){
+		while(true){
+			Worker[] snapshot = workers.toArray(new Worker[0]);
+			Worker best = null;
+			int bestPending = 0;
+			int start = (counter.getAndIncrement() & Integer.MAX_VALUE) % snapshot.length;
+			for(int i=0; i<snapshot.length; i++){
+				Worker worker = snapshot[(start+i)%snapshot.length];
+				int pending = worker.pending.get();
+				if(best == null || pending < bestPending
+						|| (pending == bestPending && worker.latency < best.latency)){
+					best = worker;
+					bestPending = pending;
+				}
+			}
+			best.pending.incrementAndGet();
+			if(!best.retired)
+				return best;
+			best.pending.decrementAndGet();
+		}
+	}
+
+	private static void release(Worker worker, long start, int count){
+		// the latency of a batch is counted per value
+		long elapsed = (System.nanoTime() - start)/Math.max(1, count);
+		worker.latency = worker.latency*(1-ALPHA) + elapsed*ALPHA;
+		worker.lastUsed = System.currentTimeMillis();
+		worker.pending.decrementAndGet();
+	}
+
+	@Override
+	public JSONObject runCode(InternalRequestHeader header, String guid, String accessor, String code,
+			JSONObject valuesMap, int ttl, long budget) throws ActiveException {
+		Worker worker = acquire();
+		long start = System.nanoTime();
+		try {
+			return worker.client.runCode(header, guid, accessor, code, valuesMap, ttl, budget);
+		} finally {
+			release(worker, start, 1);
+		}
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> runCodeAsync(InternalRequestHeader header, String guid, String accessor,
+			String code, JSONObject valuesMap, int ttl, long budget) {
+		final Worker worker = acquire();
+		final long start = System.nanoTime();
+		CompletableFuture<JSONObject> result = worker.client.runCodeAsync(header, guid, accessor, code, valuesMap, ttl, budget);
+		result.whenComplete(new BiConsumer<JSONObject, Throwable>(){
+			@Override
+			public void accept(JSONObject value, Throwable t) {
+				release(worker, start, 1);
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public List<JSONObject> runCodeBatch(InternalRequestHeader header, List<String> guids, String accessor,
+			List<String> codes, List<JSONObject> valuesMaps, int ttl, long budget) throws ActiveException {
+		Worker worker = acquire();
+		long start = System.nanoTime();
+		try {
+			return worker.client.runCodeBatch(header, guids, accessor, codes, valuesMaps, ttl, budget);
+		} finally {
+			release(worker, start, guids.size());
+		}
+	}
+
+	/**
+	 * @return the number of workers that get requests
+	 */
+	int size(){
+		return workers.size();
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		scaler.shutdownNow();
+		for(Worker worker:workers){
+			stopWorker(worker);
+		}
+		for(Worker worker:retired){
+			stopWorker(worker);
+		}
+		retired.clear();
+	}
+
+}
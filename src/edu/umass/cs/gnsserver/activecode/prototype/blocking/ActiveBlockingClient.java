@@ -9,7 +9,10 @@ import java.lang.ProcessBuilder.Redirect;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -27,6 +30,7 @@ import edu.umass.cs.gnsserver.activecode.prototype.channels.ActiveDatagramChanne
 import edu.umass.cs.gnsserver.activecode.prototype.channels.ActiveNamedPipe;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Client;
+import edu.umass.cs.gnsserver.activecode.prototype.utils.CompiledScriptCache;
 import edu.umass.cs.gnsserver.interfaces.ActiveDBInterface;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
@@ -218,6 +222,7 @@ public class ActiveBlockingClient implements Client {
 	    if(CRASH_ENABLED) {
               command.add("-XX:OnOutOfMemoryError="+ACTION_ON_OUT_OF_MEMORY);
             }
+	    command.add("-D"+CompiledScriptCache.CACHE_SIZE_PROPERTY+"="+ActiveCodeConfig.activeCodeCacheSize);
 	    command.add("-cp");
 	    command.add(classpath);
 	    command.add("edu.umass.cs.gnsserver.activecode.prototype.blocking.ActiveBlockingWorker");
@@ -258,6 +263,7 @@ public class ActiveBlockingClient implements Client {
 	    if(CRASH_ENABLED) {
               command.add("-XX:OnOutOfMemoryError="+ACTION_ON_OUT_OF_MEMORY);
             }
+	    command.add("-D"+CompiledScriptCache.CACHE_SIZE_PROPERTY+"="+ActiveCodeConfig.activeCodeCacheSize);
 	    command.add("-cp");
 	    command.add(classpath);
 	    command.add("edu.umass.cs.gnsserver.activecode.prototype.blocking.ActiveBlockingWorker");
@@ -306,6 +312,23 @@ public class ActiveBlockingClient implements Client {
 		return ++numReq;
 	}
 	
+	/**
+	 * A blocking worker runs one request at a time, so this
+	 * runs the request on the calling thread like runCode and
+	 * returns a future that is already complete.
+	 */
+	@Override
+	public CompletableFuture<JSONObject> runCodeAsync(InternalRequestHeader header, String guid, String accessor, 
+			String code, JSONObject value, int ttl, long budget) {
+		CompletableFuture<JSONObject> result = new CompletableFuture<JSONObject>();
+		try {
+			result.complete(runCode(header, guid, accessor, code, value, ttl, budget));
+		} catch (ActiveException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+	
 	/**
 	 * This runCode method sends the request to worker, and
 	 * wait for worker to finish the request. If the worker
@@ -353,6 +376,9 @@ public class ActiveBlockingClient implements Client {
 					isRestarting.set(false);
 				}
 				break;
+			} else if (response.type == Type.CODE_QUERY){
+				// The worker does not have the code cached
+				sendMessage(new ActiveMessage(response.getId(), code, null));
 			} else if (response.type != Type.RESPONSE){
 				ActiveCodeHandler.getLogger().log(Level.FINE,
 						"receive a query from worker:{0}",
@@ -381,6 +407,9 @@ public class ActiveBlockingClient implements Client {
 		}
 		counter.getAndIncrement();
 		
+		if(response.isUnchanged()){
+			return value;
+		}
 		try {
 			return new JSONObject(response.getValue());
 		} catch (JSONException e) {
@@ -388,6 +417,75 @@ public class ActiveBlockingClient implements Client {
 		}
 	}
 	
+	/**
+	 * Sends all the requests to the worker in one BATCH, and serves
+	 * the queries of any of them until the worker sends back the 
+	 * BATCH of responses.
+	 */
+	@Override
+	public synchronized List<JSONObject> runCodeBatch(InternalRequestHeader header, List<String> guids, String accessor, 
+			List<String> codes, List<JSONObject> valuesMaps, int ttl, long budget) throws ActiveException {
+		
+		List<ActiveMessage> requests = new ArrayList<ActiveMessage>(guids.size());
+		// request id -> index of the request in the batch
+		Map<Long, Integer> index = new HashMap<Long, Integer>();
+		for(int i=0; i<guids.size(); i++){
+			ActiveMessage request = new ActiveMessage(guids.get(i), accessor != null ? accessor : guids.get(i), 
+					codes.get(i), valuesMaps.get(i).toString(), ttl, budget);
+			requests.add(request);
+			index.put(request.getId(), i);
+		}
+		ActiveMessage msg = new ActiveMessage(requests);
+		sendMessage(msg);
+		
+		ActiveMessage response = null;
+		while( true ){
+			try {
+				response = (ActiveMessage) channel.receiveMessage();
+			} catch (IOException e) {
+				// do nothing, as the worker is crashed, the response is null
+			}
+			
+			if(response == null){
+				if(!isRestarting.getAndSet(true)){
+					this.shutdown();
+					this.initializeChannelAndStartWorker();
+					
+					isRestarting.set(false);
+				}
+				throw new ActiveException("Worker crashed!");
+			} else if (response.type == Type.BATCH){
+				break;
+			} else if (response.type == Type.CODE_QUERY){
+				sendMessage(new ActiveMessage(response.getId(), codes.get(index.get(response.getId())), null));
+			} else if (response.type != Type.RESPONSE){
+				sendMessage(queryHandler.handleQuery(response, header));
+			}
+		}
+		counter.getAndAdd(guids.size());
+		
+		List<JSONObject> results = new ArrayList<JSONObject>(guids.size());
+		for(int i=0; i<guids.size(); i++){
+			results.add(null);
+		}
+		for(ActiveMessage result:response.getBatch()){
+			int i = index.get(result.getId());
+			if(result.getError() != null){
+				continue;
+			}
+			if(result.isUnchanged()){
+				results.set(i, valuesMaps.get(i));
+				continue;
+			}
+			try {
+				results.set(i, new JSONObject(result.getValue()));
+			} catch (JSONException e) {
+				results.set(i, valuesMaps.get(i));
+			}
+		}
+		return results;
+	}
+	
         @Override
 	public String toString(){
 		return this.getClass().getSimpleName()+id;
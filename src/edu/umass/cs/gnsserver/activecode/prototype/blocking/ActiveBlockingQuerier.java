@@ -1,7 +1,9 @@
 package edu.umass.cs.gnsserver.activecode.prototype.blocking;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -29,6 +31,8 @@ public class ActiveBlockingQuerier implements Querier,ACLQuerier,DNSQuerier {
 	private int currentTTL;
 	private final String currentGuid;
 	private final long currentID;
+	// ids of the preempted requests, whose code can't query any more
+	private final Set<Long> preempted;
 	
 	/**
 	 * @param channel
@@ -36,13 +40,26 @@ public class ActiveBlockingQuerier implements Querier,ACLQuerier,DNSQuerier {
 	 * @param ttl 
 	 * @param guid 
 	 * @param id 
+	 * @param preempted the ids of the preempted requests, the querier holds its lock while it queries
 	 */
-	public ActiveBlockingQuerier(Channel channel, ScriptObjectMirror JSON, int ttl, String guid, long id){
+	public ActiveBlockingQuerier(Channel channel, ScriptObjectMirror JSON, int ttl, String guid, long id, Set<Long> preempted){
 		this.channel = channel;
 		this.JSON = JSON;
 		this.currentTTL = ttl;
 		this.currentGuid = guid;
 		this.currentID = id;
+		this.preempted = preempted;
+	}
+	
+	/**
+	 * @param channel
+	 * @param JSON 
+	 * @param ttl 
+	 * @param guid 
+	 * @param id 
+	 */
+	public ActiveBlockingQuerier(Channel channel, ScriptObjectMirror JSON, int ttl, String guid, long id){
+		this(channel, JSON, ttl, guid, id, new HashSet<Long>());
 	}
 	
 	
@@ -91,8 +108,7 @@ public class ActiveBlockingQuerier implements Querier,ACLQuerier,DNSQuerier {
 		ScriptObjectMirror value = null;
 		try{
 			ActiveMessage am = new ActiveMessage(ttl, querierGuid, field, queriedGuid, currentID);
-			channel.sendMessage(am);
-			ActiveMessage response = (ActiveMessage) channel.receiveMessage();
+			ActiveMessage response = query(am);
 			
 			if(response == null){
 				throw new ActiveException();
@@ -113,8 +129,7 @@ public class ActiveBlockingQuerier implements Querier,ACLQuerier,DNSQuerier {
 		
 			ActiveMessage am = new ActiveMessage(ttl, querierGuid, field, targetGuid, value, currentID);
 			try {
-				channel.sendMessage(am);
-				ActiveMessage response = (ActiveMessage) channel.receiveMessage();
+				ActiveMessage response = query(am);
 				
 				if(response == null){
 					throw new ActiveException();
@@ -127,6 +142,40 @@ public class ActiveBlockingQuerier implements Querier,ACLQuerier,DNSQuerier {
 			}
 	}
 
+	/**
+	 * Sends a query and waits for its response. The code of a preempted
+	 * request is still running, but it must not read from the channel 
+	 * the worker reads the next requests from.
+	 */
+	private ActiveMessage query(ActiveMessage am) throws IOException, ActiveException {
+		synchronized(preempted){
+			if(preempted.contains(currentID)){
+				throw new ActiveException("Request "+currentID+" ran out of its budget");
+			}
+			channel.sendMessage(am);
+			return (ActiveMessage) channel.receiveMessage();
+		}
+	}
+
+	/**
+	 * Asks the GNS for the code with the given hash, which the worker doesn't have cached.
+	 * 
+	 * @param codeHash
+	 * @return the code
+	 * @throws ActiveException
+	 */
+	protected String fetchCode(String codeHash) throws ActiveException {
+		try {
+			ActiveMessage response = query(new ActiveMessage(codeHash, currentID));
+			if(response == null || response.getError() != null || response.getValue() == null){
+				throw new ActiveException("Unable to fetch code "+codeHash);
+			}
+			return response.getValue();
+		} catch (IOException e) {
+			throw new ActiveException("Unable to fetch code "+codeHash);
+		}
+	}
+
 	@Override
 	public JSONObject lookupUsernameForGuid(String targetGuid) throws ActiveException {
 		throw new RuntimeException("unimplemented");
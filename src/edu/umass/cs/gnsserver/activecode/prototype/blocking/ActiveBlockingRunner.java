@@ -4,7 +4,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -12,19 +13,19 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import javax.script.Invocable;
-import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
-import javax.script.SimpleScriptContext;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import edu.umass.cs.gnsserver.activecode.ActiveCodeConfig;
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveException;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Querier;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Runner;
+import edu.umass.cs.gnsserver.activecode.prototype.utils.CompiledScriptCache;
 import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import jdk.nashorn.api.scripting.ScriptObjectMirror;
 
@@ -36,14 +37,15 @@ import jdk.nashorn.api.scripting.ScriptObjectMirror;
 public class ActiveBlockingRunner implements Runner {
 	
 	final private ScriptEngine engine;
-	final private Invocable invocable;
 	
-	private final HashMap<String, ScriptContext> contexts = new HashMap<String, ScriptContext>();
-	private final HashMap<String, Integer> codeHashes = new HashMap<String, Integer>();
+	private final CompiledScriptCache scripts;
 	
 	private final Channel channel;
 	
 	private final ScriptObjectMirror JSON;
+	
+	// ids of the requests whose code ran out of its budget and is still running
+	private final Set<Long> preempted = new HashSet<Long>();
 		
 	/**
          * @param channel
@@ -55,7 +57,8 @@ public class ActiveBlockingRunner implements Runner {
 		NashornScriptEngineFactory factory = new NashornScriptEngineFactory();
 		engine = factory.getScriptEngine("-strict", "--no-java", "--no-syntax-extensions");
 		
-		invocable = (Invocable) engine;
+		scripts = new CompiledScriptCache(engine,
+				Integer.getInteger(CompiledScriptCache.CACHE_SIZE_PROPERTY, ActiveCodeConfig.activeCodeCacheSize));
 		
 		try {
 			JSON = (ScriptObjectMirror) engine.eval("JSON");
@@ -65,32 +68,16 @@ public class ActiveBlockingRunner implements Runner {
 		}
 	}
 	
-	private synchronized void updateCache(String codeId, String code) throws ScriptException {
-	    if (!contexts.containsKey(codeId)) {
-	      // Create a context if one does not yet exist and eval the code
-	      ScriptContext sc = new SimpleScriptContext();
-	      contexts.put(codeId, sc);
-	      codeHashes.put(codeId, code.hashCode());
-	      engine.eval(code, sc);
-	    } else if ( codeHashes.get(codeId) != code.hashCode()) {
-	      // The context exists, but we need to eval the new code
-	      ScriptContext sc = contexts.get(codeId);
-	      codeHashes.put(codeId, code.hashCode());
-	      engine.eval(code, sc);
-	    }
-	}
-	
 	/**
-	 * This method first update the cache of code, 
-	 * then set the context with the cached code 
-	 * for the script engine, finally invokes the
-	 * "run" method.
+	 * This method first looks up the evaluated code 
+	 * in the script cache, evaluating it if it is not 
+	 * there yet, then invokes its "run" method.
 	 * 
 	 * <p>Based on the answer of Nashorn builder on stackoverflow:
 	 * http://stackoverflow.com/questions/30140103/should-i-use-a-separate-scriptengine-and-compiledscript-instances-per-each-threa/30159424#30159424
 	 * there is no need to make this method synchronized any more.
 	 * 
-	 * @param guid the owner of the active code, it is used as the key to cache the code
+	 * @param guid the owner of the active code
 	 * @param accessor
 	 * @param code
 	 * @param value
@@ -101,14 +88,68 @@ public class ActiveBlockingRunner implements Runner {
 	 * @throws NoSuchMethodException
 	 */
 	public String runCode(String guid, String accessor, String code, String value, int ttl, long id) throws ScriptException, NoSuchMethodException {
-		updateCache(guid, code);
-		engine.setContext(contexts.get(guid));
-		ActiveBlockingQuerier querier = new ActiveBlockingQuerier(channel, JSON, ttl, guid, id);
-		String valuesMap = null;
-		
-		valuesMap = querier.js2String((ScriptObjectMirror) invocable.invokeFunction("run", querier.string2JS(value), accessor, querier));
-		
-		return valuesMap;
+		return runCode(guid, accessor, code, null, value, ttl, id);
+	}
+	
+	/**
+	 * Runs a request that may only carry the hash of its code. If the code 
+	 * with that hash is not cached it is fetched from the GNS first.
+	 * 
+	 * @param guid the owner of the active code
+	 * @param accessor
+	 * @param code the code, or null if only its hash is known
+	 * @param codeHash
+	 * @param value
+	 * @param ttl
+	 * @param id 
+	 * @return ValuesMap result 
+	 * @throws ScriptException
+	 * @throws NoSuchMethodException
+	 */
+	public String runCode(String guid, String accessor, String code, String codeHash, String value, int ttl, long id) throws ScriptException, NoSuchMethodException {
+		ActiveBlockingQuerier querier = new ActiveBlockingQuerier(channel, JSON, ttl, guid, id, preempted);
+		try {
+			ScriptObjectMirror run = getRunFunction(guid, code, codeHash, querier);
+			String valuesMap = null;
+			
+			valuesMap = querier.js2String((ScriptObjectMirror) run.call(null, querier.string2JS(value), accessor, querier));
+			
+			return valuesMap;
+		} finally {
+			synchronized(preempted){
+				preempted.remove(id);
+			}
+		}
+	}
+	
+	/**
+	 * Stops the code of the request, which ran out of its budget and 
+	 * is still running, from sending any more queries. Waits for a query
+	 * it is sending, so the worker can read the next request from the 
+	 * channel once this returns.
+	 * 
+	 * @param id
+	 */
+	public void preempt(long id){
+		synchronized(preempted){
+			preempted.add(id);
+		}
+	}
+	
+	private ScriptObjectMirror getRunFunction(String guid, String code, String codeHash, ActiveBlockingQuerier querier) 
+			throws ScriptException, NoSuchMethodException {
+		if(code == null){
+			ScriptObjectMirror run = scripts.getIfPresent(guid, codeHash);
+			if(run != null){
+				return run;
+			}
+			try {
+				code = querier.fetchCode(codeHash);
+			} catch (ActiveException e) {
+				throw new ScriptException(e.getMessage());
+			}
+		}
+		return scripts.getRunFunction(guid, code);
 	}
 	
 	private static class SimpleTask implements Callable<String>{
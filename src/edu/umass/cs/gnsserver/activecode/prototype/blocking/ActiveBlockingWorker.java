@@ -1,6 +1,10 @@
 package edu.umass.cs.gnsserver.activecode.prototype.blocking;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -33,6 +37,8 @@ public class ActiveBlockingWorker {
 	
 	private final ThreadPoolExecutor executor;
 	private final AtomicInteger counter = new AtomicInteger(0);		
+	// hashes of the code that ran out of its budget and is still running
+	private final Set<String> quarantined = new HashSet<String>();
 	
 	
 	/**
@@ -72,20 +78,18 @@ public class ActiveBlockingWorker {
 			if((msg = (ActiveMessage) channel.receiveMessage()) != null){
 
 				if(msg.type == Type.REQUEST){
-					ActiveMessage response = null;
-					Future<ActiveMessage> future = executor.submit(new ActiveWorkerBlockingTask(runner, msg));
-					try {
-						response = future.get(msg.getBudget(), TimeUnit.MILLISECONDS);
-					} catch (InterruptedException | ExecutionException | TimeoutException e) {
-						// e.printStackTrace();
-						// construct a response with an error and cancel this task
-						future.cancel(true);
-						response = new ActiveMessage(msg.getId(), null, e.getMessage());
-					}
 					// send back response
-					channel.sendMessage(response);
+					channel.sendMessage(runRequest(msg));
 					counter.getAndIncrement();
-				}			
+				} else if(msg.type == Type.BATCH){
+					// run the requests one by one, each with its own budget
+					List<ActiveMessage> responses = new ArrayList<ActiveMessage>(msg.getBatch().size());
+					for(ActiveMessage request:msg.getBatch()){
+						responses.add(runRequest(request));
+						counter.getAndIncrement();
+					}
+					channel.sendMessage(new ActiveMessage(msg.getId(), responses));
+				}
 			}else{
 				// The client is shutdown, let's exit this loop and return
 				break;
@@ -94,6 +98,38 @@ public class ActiveBlockingWorker {
 	}
 	
 	
+	/**
+	 * Quarantines the code if it is still running after its budget is 
+	 * over, as its thread can't be stopped. The code keeps its thread but
+	 * can't query any more, and no more requests with the same code are 
+	 * run on this worker.
+	 */
+	private ActiveMessage runRequest(ActiveMessage msg){
+		if(quarantined.contains(msg.getCodeHash())){
+			return new ActiveMessage(msg.getId(), null, 
+					"Code "+msg.getCodeHash()+" is quarantined as it ran out of its budget");
+		}
+		ActiveMessage response = null;
+		ActiveWorkerBlockingTask task = new ActiveWorkerBlockingTask(runner, msg);
+		Future<ActiveMessage> future = executor.submit(task);
+		try {
+			response = future.get(msg.getBudget(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			// e.printStackTrace();
+			// construct a response with an error, and quarantine the code if the task is still running
+			future.cancel(true);
+			if(task.preempt(executor)){
+				ActiveBlockingWorker.getLogger().log(Level.WARNING,
+						"{0} quarantines code {1} as request {2} is still running after its budget",
+						new Object[]{this, msg.getCodeHash(), msg});
+				runner.preempt(msg.getId());
+				quarantined.add(msg.getCodeHash());
+			}
+			response = new ActiveMessage(msg.getId(), null, e.getMessage());
+		}
+		return response;
+	}
+	
 	public String toString(){
 		return this.getClass().getSimpleName()+id;
 	}
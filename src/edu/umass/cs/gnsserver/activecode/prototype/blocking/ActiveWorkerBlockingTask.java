@@ -1,17 +1,17 @@
 package edu.umass.cs.gnsserver.activecode.prototype.blocking;
 
-import java.util.concurrent.Callable;
 import java.util.logging.Level;
 
 import javax.script.ScriptException;
 
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
+import edu.umass.cs.gnsserver.activecode.prototype.utils.PreemptibleTask;
 
 /**
  * @author gaozy
  *
  */
-public class ActiveWorkerBlockingTask implements Callable<ActiveMessage> {
+public class ActiveWorkerBlockingTask extends PreemptibleTask<ActiveMessage> {
 	
 	final ActiveBlockingRunner runner;
 	final ActiveMessage request;
@@ -22,16 +22,17 @@ public class ActiveWorkerBlockingTask implements Callable<ActiveMessage> {
 	}
 		
 	@Override
-	public ActiveMessage call() {
+	protected ActiveMessage execute() {
 		ActiveMessage response = null;
 		try {
-			response = new ActiveMessage(request.getId(), 
-					runner.runCode(request.getGuid(), request.getAccessor(), request.getCode(), request.getValue(), request.getTtl(), request.getId()),
-					null);
+			String result = runner.runCode(request.getGuid(), request.getAccessor(), request.getCode(), request.getCodeHash(), request.getValue(), request.getTtl(), request.getId());
+			// no need to send back a value the sender already has
+			response = request.getValue().equals(result)?new ActiveMessage(request.getId())
+					:new ActiveMessage(request.getId(), result, null);
 		} catch (NoSuchMethodException | ScriptException e) {
 			ActiveBlockingWorker.getLogger().log(Level.FINE, 
 					"get an exception {0} when executing request {1} with code {2}", 
-					new Object[]{e, request, request.getCode()});
+					new Object[]{e, request, request.getCodeHash()});
 			response = new ActiveMessage(request.getId(), null, e.getMessage());
 		}
 
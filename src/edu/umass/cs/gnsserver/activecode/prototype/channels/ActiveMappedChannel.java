@@ -0,0 +1,261 @@
+package edu.umass.cs.gnsserver.activecode.prototype.channels;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONException;
+
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Message;
+
+/**
+ * A channel over two memory-mapped files, one for each direction.
+ * It follows the idea of {@link edu.umass.cs.gnsserver.activecode.prototype.utils.CircularBufferedRandomAccessFile},
+ * but the files are mapped so that sending and receiving a message takes no system call.
+ *
+ * <p> Each file is a ring buffer with a single writer and a single reader. The header keeps
+ * the number of bytes written and the number of bytes read so far, each on a cache line of
+ * its own, and a closed flag. Messages are written as their length followed by their bytes
+ * and may wrap around the end of the ring. A message larger than the ring is streamed through
+ * it: the writer publishes what it has written whenever it has to wait for the reader to free
+ * some space, so the size of a value is only limited by the size of a byte array.
+ *
+ * <p> Neither side takes a lock that the other side can hold. The writer publishes its position
+ * after the bytes it covers, and the reader reads the position before the bytes. This relies
+ * on stores to the mapping becoming visible to the other process in the order they are made,
+ * as they do on x86. A side that has nothing to do spins for a while if there is more than one
+ * processor, then yields and then parks for PARK_NANOS between checks.
+ *
+ * <p> As with {@link ActiveNamedPipe}, one side reads the file the other side writes. The side
+ * that creates the files must be constructed first, as it clears any files left from an earlier
+ * run. Unlike a pipe a crashed peer can't be noticed, so a receiver waits until either side calls
+ * {@link #close()}.
+ *
+ * @author gaozy
+ *
+ */
+public class ActiveMappedChannel implements Channel {
+
+	/**
+	 * The default capacity of each ring, 1MB
+	 */
+	public final static int DEFAULT_CAPACITY = 1 << 20;
+
+	private final static int WRITER_POSITION = 0;
+	private final static int READER_POSITION = 64;
+	private final static int CLOSED = 128;
+	private final static int HEADER_LENGTH = 192;
+
+	// spinning only wastes the time slice of the other side if there is a single processor
+	private final static int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+	private final static int YIELDS = 100;
+	private final static long PARK_NANOS = 50000;
+
+	private final int capacity;
+	private final int mask;
+
+	private final MappedByteBuffer in;
+	private final MappedByteBuffer out;
+	private final RandomAccessFile inFile;
+	private final RandomAccessFile outFile;
+
+	private final Object sendLock = new Object();
+	private final Object receiveLock = new Object();
+
+	private final byte[] writerLengthBuffer = new byte[Integer.BYTES];
+	private final byte[] readerLengthBuffer = new byte[Integer.BYTES];
+
+	// only touched while holding sendLock and receiveLock respectively
+	private long writerPosition;
+	private long readerPosition;
+
+	// Java 8 has no fences for memory that isn't a field, so this volatile is written or read instead
+	private volatile int fence;
+
+	/**
+	 * @param ifile the file this side reads
+	 * @param ofile the file this side writes
+	 * @param capacity the capacity of each ring, rounded up to a power of 2
+	 * @param create true if this side creates the files
+	 * @throws IOException if the files can't be mapped
+	 */
+	public ActiveMappedChannel(String ifile, String ofile, int capacity, boolean create) throws IOException {
+		this.capacity = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1);
+		this.mask = this.capacity - 1;
+
+		if(create){
+			new File(ifile).delete();
+			new File(ofile).delete();
+		}
+		inFile = new RandomAccessFile(ifile, "rw");
+		outFile = new RandomAccessFile(ofile, "rw");
+		in = map(inFile);
+		out = map(outFile);
+
+		writerPosition = out.getLong(WRITER_POSITION);
+		readerPosition = in.getLong(READER_POSITION);
+	}
+
+	/**
+	 * @param ifile the file this side reads
+	 * @param ofile the file this side writes
+	 * @param create true if this side creates the files
+	 * @throws IOException if the files can't be mapped
+	 */
+	public ActiveMappedChannel(String ifile, String ofile, boolean create) throws IOException {
+		this(ifile, ofile, DEFAULT_CAPACITY, create);
+	}
+
+	private MappedByteBuffer map(RandomAccessFile file) throws IOException {
+		long length = HEADER_LENGTH + capacity;
+		if(file.length() < length)
+			file.setLength(length);
+		MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		buffer.order(ByteOrder.nativeOrder());
+		return buffer;
+	}
+
+	@Override
+	public void sendMessage(Message msg) throws IOException {
+		byte[] buf = msg.toBytes();
+		synchronized(sendLock){
+			ByteBuffer.wrap(writerLengthBuffer).putInt(buf.length);
+			write(writerLengthBuffer);
+			write(buf);
+			publish();
+		}
+	}
+
+	/**
+	 * Writes all the messages before publishing any of them, so the reader
+	 * can take them in one go.
+	 */
+	@Override
+	public void sendMessages(List<? extends Message> msgs) throws IOException {
+		synchronized(sendLock){
+			for(Message msg:msgs){
+				byte[] buf = msg.toBytes();
+				ByteBuffer.wrap(writerLengthBuffer).putInt(buf.length);
+				write(writerLengthBuffer);
+				write(buf);
+			}
+			publish();
+		}
+	}
+
+	private void write(byte[] buf) throws IOException {
+		int offset = 0;
+		int idle = 0;
+		while(offset < buf.length){
+			int free = capacity - (int) (writerPosition - out.getLong(READER_POSITION));
+			if(free == 0){
+				// let the reader have what we have written so far
+				publish();
+				idle = idle(idle);
+				continue;
+			}
+			idle = 0;
+			int index = (int) (writerPosition & mask);
+			int n = Math.min(Math.min(buf.length - offset, free), capacity - index);
+			out.position(HEADER_LENGTH + index);
+			out.put(buf, offset, n);
+			offset += n;
+			writerPosition += n;
+		}
+	}
+
+	private void publish(){
+		storeFence();
+		out.putLong(WRITER_POSITION, writerPosition);
+	}
+
+	private void storeFence(){
+		fence = 0;
+	}
+
+	private int loadFence(){
+		return fence;
+	}
+
+	@Override
+	public Message receiveMessage() throws IOException {
+		synchronized(receiveLock){
+			read(readerLengthBuffer);
+			int length = ByteBuffer.wrap(readerLengthBuffer).getInt();
+			if(length < 0)
+				throw new IOException("Corrupted message length "+length);
+			byte[] buffer = new byte[length];
+			read(buffer);
+
+			ActiveMessage am = null;
+			try {
+				am = new ActiveMessage(buffer);
+			} catch (JSONException e) {
+				//e.printStackTrace();
+			}
+			return am;
+		}
+	}
+
+	private void read(byte[] buf) throws IOException {
+		int offset = 0;
+		int idle = 0;
+		while(offset < buf.length){
+			int available = (int) (in.getLong(WRITER_POSITION) - readerPosition);
+			if(available == 0){
+				idle = idle(idle);
+				continue;
+			}
+			idle = 0;
+			loadFence();
+			int index = (int) (readerPosition & mask);
+			int n = Math.min(Math.min(buf.length - offset, available), capacity - index);
+			in.position(HEADER_LENGTH + index);
+			in.get(buf, offset, n);
+			offset += n;
+			readerPosition += n;
+			// free the space for the writer
+			storeFence();
+			in.putLong(READER_POSITION, readerPosition);
+		}
+	}
+
+	/**
+	 * Backs off while there is nothing to read or no space to write,
+	 * and throws an IOException once the channel has been closed.
+	 */
+	private int idle(int idle) throws IOException {
+		loadFence();
+		if(in.getInt(CLOSED) != 0 || out.getInt(CLOSED) != 0)
+			throw new IOException("Channel has been closed");
+		if(idle < SPINS){
+			// busy spin
+		}else if(idle < SPINS + YIELDS){
+			Thread.yield();
+		}else{
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		return idle+1;
+	}
+
+	@Override
+	public void close() {
+		in.putInt(CLOSED, 1);
+		out.putInt(CLOSED, 1);
+		storeFence();
+		try{
+			inFile.close();
+			outFile.close();
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.json.JSONException;
 
@@ -27,6 +28,9 @@ public class ActiveNamedPipe implements Channel {
 	byte[] readerLengthBuffer = new byte[Integer.BYTES];
 	byte[] writerLengthBuffer = new byte[Integer.BYTES];
 	
+	// the largest write a pipe keeps whole
+	private final static int PIPE_BUF = 4096;
+	
 	/**
 	 * @param ifile 
 	 * @param ofile 
@@ -70,6 +74,41 @@ public class ActiveNamedPipe implements Channel {
 		}
 	}
 
+	/**
+	 * Packs the messages into as few writes of at most PIPE_BUF bytes as
+	 * possible, so that the reader gets each write whole. A message that 
+	 * doesn't fit in PIPE_BUF is written on its own as by sendMessage.
+	 */
+	@Override
+	public synchronized void sendMessages(List<? extends Message> msgs) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(PIPE_BUF);
+		for(Message msg:msgs){
+			byte[] buf = msg.toBytes();
+			int length = Integer.BYTES+buf.length;
+			if(length > buffer.remaining()){
+				write(buffer);
+				if(length > PIPE_BUF){
+					write(ByteBuffer.allocate(length).putInt(buf.length).put(buf));
+					continue;
+				}
+			}
+			buffer.putInt(buf.length).put(buf);
+		}
+		write(buffer);
+	}
+	
+	private void write(ByteBuffer buffer){
+		if(buffer.position() == 0)
+			return;
+		try {
+			writer.write(buffer.array(), 0, buffer.position());
+			writer.flush();
+		} catch (IOException e) {			
+			//e.printStackTrace();
+		}
+		buffer.clear();
+	}
+	
 	@Override
 	public Message receiveMessage() throws IOException {
 		Message am = null;
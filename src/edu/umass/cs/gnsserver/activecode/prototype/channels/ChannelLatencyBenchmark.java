@@ -0,0 +1,153 @@
+package edu.umass.cs.gnsserver.activecode.prototype.channels;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
+
+/**
+ * Measures the round trip latency of {@link ActiveNamedPipe}, {@link ActiveDatagramChannel}
+ * and {@link ActiveMappedChannel}. A thread on the other end of each channel echoes every
+ * RESPONSE message it receives, and the round trips for values of each size are timed after
+ * a warm up.
+ *
+ * <p> Sizes a channel can't carry are skipped: a datagram is limited to
+ * {@link ActiveDatagramChannel#maxPacketSize} and a named pipe only reads a message whole
+ * if it fits in a single write to the pipe.
+ *
+ * <p> Usage: ChannelLatencyBenchmark [number of round trips] [value sizes...]
+ *
+ * @author gaozy
+ *
+ */
+public class ChannelLatencyBenchmark {
+
+	private final static String cfile = "/tmp/benchmark_client";
+	private final static String sfile = "/tmp/benchmark_server";
+	private final static int clientPort = 50000;
+	private final static int serverPort = 60000;
+
+	// the largest message a pipe is guaranteed to write atomically
+	private final static int maxPipeMessageSize = 4096;
+
+	private static class Echo implements Runnable {
+		private final Channel channel;
+
+		Echo(Channel channel){
+			this.channel = channel;
+		}
+
+		@Override
+		public void run() {
+			try {
+				ActiveMessage msg;
+				while((msg = (ActiveMessage) channel.receiveMessage()) != null){
+					channel.sendMessage(msg);
+				}
+			} catch (IOException e) {
+				// the benchmark is over
+			}
+		}
+	}
+
+	private static void benchmark(String name, Channel client, int n, int[] sizes) throws IOException{
+		for(int size : sizes){
+			char[] chars = new char[size];
+			Arrays.fill(chars, 'a');
+			ActiveMessage msg = new ActiveMessage(0, new String(chars), null);
+			int length = msg.toBytes().length;
+
+			if( (client instanceof ActiveDatagramChannel && length > ActiveDatagramChannel.maxPacketSize)
+					|| (client instanceof ActiveNamedPipe && length+Integer.BYTES > maxPipeMessageSize) ){
+				System.out.println(name+": skipped value size "+size+", a "+length+" byte message is too large for this channel");
+				continue;
+			}
+
+			// warm up
+			for(int i=0; i<n/10; i++){
+				roundTrip(client, msg);
+			}
+
+			long[] latencies = new long[n];
+			for(int i=0; i<n; i++){
+				long t = System.nanoTime();
+				roundTrip(client, msg);
+				latencies[i] = System.nanoTime() - t;
+			}
+			Arrays.sort(latencies);
+			long total = 0;
+			for(long latency : latencies){
+				total += latency;
+			}
+			System.out.println(name+": value size "+size+", average "+(total/n/1000.0)+"us, median "
+					+(latencies[n/2]/1000.0)+"us, 99th percentile "+(latencies[n*99/100]/1000.0)+"us");
+		}
+	}
+
+	private static void roundTrip(Channel client, ActiveMessage msg) throws IOException{
+		client.sendMessage(msg);
+		if(client.receiveMessage() == null)
+			throw new IOException("No response received");
+	}
+
+	private static Thread startEcho(Channel server){
+		Thread t = new Thread(new Echo(server));
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int[] sizes = {16, 512, 4096, 65536, 1048576};
+		if(args.length > 1){
+			sizes = new int[args.length-1];
+			for(int i=1; i<args.length; i++){
+				sizes[i-1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		// named pipe, both ends have to be opened at the same time
+		Runtime.getRuntime().exec("mkfifo "+cfile).waitFor();
+		Runtime.getRuntime().exec("mkfifo "+sfile).waitFor();
+		final Channel[] pipeServer = new Channel[1];
+		Thread opener = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				pipeServer[0] = new ActiveNamedPipe(sfile, cfile);
+			}
+		});
+		opener.start();
+		Channel pipeClient = new ActiveNamedPipe(cfile, sfile);
+		opener.join();
+		startEcho(pipeServer[0]);
+		benchmark("ActiveNamedPipe", pipeClient, n, sizes);
+		pipeClient.close();
+		pipeServer[0].close();
+		Runtime.getRuntime().exec("rm "+cfile+" "+sfile).waitFor();
+
+		// UDP
+		Channel udpClient = new ActiveDatagramChannel(clientPort, serverPort);
+		Channel udpServer = new ActiveDatagramChannel(serverPort, clientPort);
+		startEcho(udpServer);
+		benchmark("ActiveDatagramChannel", udpClient, n, sizes);
+		udpClient.close();
+		udpServer.close();
+
+		// memory-mapped files, the client creates them
+		Channel mappedClient = new ActiveMappedChannel(cfile, sfile, true);
+		Channel mappedServer = new ActiveMappedChannel(sfile, cfile, false);
+		Thread echo = startEcho(mappedServer);
+		benchmark("ActiveMappedChannel", mappedClient, n, sizes);
+		mappedClient.close();
+		echo.join();
+		mappedServer.close();
+		Runtime.getRuntime().exec("rm "+cfile+" "+sfile).waitFor();
+	}
+}
@@ -1,6 +1,7 @@
 package edu.umass.cs.gnsserver.activecode.prototype.interfaces;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * This interface is used for Active GNS communication.
@@ -37,6 +38,21 @@ public interface Channel {
 	 */
 	public void sendMessage(Message msg) throws IOException;
 	
+	/**
+	 * Sends the messages in order. An implementer can
+	 * override this method to send them with fewer writes
+	 * than one for each message, the same rules as
+	 * {@link #sendMessage(Message)} apply otherwise.
+	 * 
+	 * @param msgs the messages to send
+	 * @throws IOException if an I/O error occurs
+	 */
+	public default void sendMessages(List<? extends Message> msgs) throws IOException {
+		for(Message msg:msgs){
+			sendMessage(msg);
+		}
+	}
+	
 	/**
 	 * Receive an ActiveMessage from channel. This method
 	 * blocks until a message is available.
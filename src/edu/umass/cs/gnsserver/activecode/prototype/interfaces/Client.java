@@ -1,5 +1,8 @@
 package edu.umass.cs.gnsserver.activecode.prototype.interfaces;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import org.json.JSONObject;
 
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveException;
@@ -35,6 +38,45 @@ public interface Client {
 	 */
 	public JSONObject runCode(InternalRequestHeader header, String guid, String accessor, String code, JSONObject valuesMap, int ttl, long budget) throws ActiveException;
 	
+	/**
+	 * Runs the code like {@link #runCode}, but the result comes
+	 * back through the returned future, so the caller doesn't have
+	 * to wait for the worker. The future completes exceptionally 
+	 * with an ActiveException where runCode throws one.
+	 * 
+	 * @param header
+	 * @param guid
+	 * @param accessor
+	 * @param code
+	 * @param valuesMap
+	 * @param ttl
+	 * @param budget
+	 * @return the future of the executed result
+	 */
+	public CompletableFuture<JSONObject> runCodeAsync(InternalRequestHeader header, String guid, String accessor, 
+			String code, JSONObject valuesMap, int ttl, long budget);
+	
+	/**
+	 * Runs the code of each guid on its value like {@link #runCode}, 
+	 * but sends all of them to the worker in one message and gets
+	 * the results back together. Each value has its own budget.
+	 * 
+	 * <p>An ActiveException is thrown only if the batch as a whole
+	 * failed, e.g., the worker crashed. 
+	 * 
+	 * @param header
+	 * @param guids
+	 * @param accessor the accessor of all the values, or null if each guid accesses its own value
+	 * @param codes the code of each guid
+	 * @param valuesMaps the value of each guid
+	 * @param ttl
+	 * @param budget
+	 * @return the executed results in the order of the guids, a result is null if the code failed on that value
+	 * @throws ActiveException
+	 */
+	public List<JSONObject> runCodeBatch(InternalRequestHeader header, List<String> guids, String accessor, 
+			List<String> codes, List<JSONObject> valuesMaps, int ttl, long budget) throws ActiveException;
+	
 	
 	/**
 	 * Shutdown this client when system stopped.
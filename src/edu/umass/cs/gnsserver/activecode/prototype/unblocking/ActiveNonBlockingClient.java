@@ -5,10 +5,21 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 
 import org.json.JSONException;
@@ -24,6 +35,7 @@ import edu.umass.cs.gnsserver.activecode.prototype.channels.ActiveDatagramChanne
 import edu.umass.cs.gnsserver.activecode.prototype.channels.ActiveNamedPipe;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Client;
+import edu.umass.cs.gnsserver.activecode.prototype.utils.CompiledScriptCache;
 import edu.umass.cs.gnsserver.interfaces.ActiveDBInterface;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.utils.DelayProfiler;
@@ -32,9 +44,11 @@ import edu.umass.cs.utils.DelayProfiler;
  * This is a Client implementation with unix named pipe as the way
  * to communicate with workers.
  * 
- * This client send requests to its worker and register a local monitor
- * to block the sending thread. Until the receiving thread receives the 
- * response or a query, it wakes up the sending thread. This design relies
+ * This client registers a future for each request under the id of the
+ * request and queues the request for a single writer thread, which sends
+ * whatever has queued up together. The receiving thread answers the queries
+ * of the worker and completes the future once the response arrives, so no
+ * thread waits on the worker unless it asks for the result. This design relies
  * on the fact that if the writer end of a named pipe is closed, the
  * reader end will also be closed, and return a {@code null} value.
  * Therefore, if the worker is crashed, this client will know immediately.
@@ -46,15 +60,19 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	
 	private final static int DEFAULT_HEAP_SIZE = ActiveCodeConfig.activeWorkerHeapSize;
 	private final static String actionOnOutOfMemory = "kill -9 %p";
+	// the most messages the writer sends at once
+	private final static int MAX_WRITE_BATCH = 64;
 	
 	private ActiveQueryHandler queryHandler;
 	private final String nodeId;
-	private Channel channel;
+	private volatile Channel channel;
 	private final String ifile;
 	private final String ofile;
 	private final int workerNumThread;
 	
-	private ConcurrentHashMap<Long, Monitor> tasks = new ConcurrentHashMap<Long, Monitor>();
+	private ConcurrentHashMap<Long, Request> tasks = new ConcurrentHashMap<Long, Request>();
+	// the id of a batch and of each of its requests -> the batch
+	private ConcurrentHashMap<Long, Batch> batches = new ConcurrentHashMap<Long, Batch>();
 	
 	private Process workerProc;
 	final private int id;
@@ -66,6 +84,34 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	private static long lastWorkerStartedTime;
 	private AtomicBoolean isRestarting = new AtomicBoolean();
 	
+	// fails the asynchronous requests the worker never answers
+	private final static ScheduledThreadPoolExecutor TIMER = makeTimer();
+	
+	private final LinkedBlockingQueue<ActiveMessage> outbox = new LinkedBlockingQueue<ActiveMessage>();
+	private final Thread writer = new Thread(new Writer());
+	
+	// hands the response of a query to the worker
+	private final Monitor replier = new Monitor(){
+		@Override
+		public void setResult(ActiveMessage result, boolean isDone){
+			sendMessage(result);
+		}
+	};
+	
+	private static ScheduledThreadPoolExecutor makeTimer(){
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ActiveRequestTimer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// most requests are answered in time, so don't keep their timeouts around
+		timer.setRemoveOnCancelPolicy(true);
+		return timer;
+	}
+	
 	/********************* For test **********************/
 	/**
 	 * @return current worker process
@@ -106,8 +152,7 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 		
 		lastWorkerStartedTime = System.currentTimeMillis();
 		initializeChannelAndStartWorker();
-		
-		
+		startWriter();
 	}
 	
 	/**
@@ -166,7 +211,61 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 		
 		channel = new ActiveDatagramChannel(port, serverPort);
 		queryHandler = new ActiveQueryHandler(app);
-		
+		startWriter();
+	}
+	
+	private void startWriter(){
+		writer.setName(this+"Writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Sends the queued messages, all that have queued up
+	 * while it was sending the last ones at once.
+	 */
+	private class Writer implements Runnable {
+		@Override
+		public void run() {
+			List<ActiveMessage> pending = new ArrayList<ActiveMessage>();
+			while(!Thread.currentThread().isInterrupted()){
+				try {
+					pending.add(outbox.take());
+					outbox.drainTo(pending, MAX_WRITE_BATCH-1);
+					channel.sendMessages(pending);
+					ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL, 
+							"sends messages:{0}", new Object[]{pending});
+				} catch (InterruptedException e) {
+					break;
+				} catch (IOException e) {
+					ActiveCodeHandler.getLogger().log(Level.WARNING, 
+							"{0} unable to send {1} messages to the worker: {2}", 
+							new Object[]{ActiveNonBlockingClient.this, pending.size(), e});
+					fail(pending);
+				} finally {
+					pending.clear();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Fails the requests and batches whose messages couldn't be sent, as
+	 * their responses will never arrive. A reply to a query of the worker
+	 * has the id of the request that made the query, so that request fails
+	 * too, as the worker will never get the answer.
+	 */
+	private void fail(List<ActiveMessage> messages){
+		for(ActiveMessage msg:messages){
+			Request request = tasks.remove(msg.getId());
+			if(request != null){
+				request.response.complete(null);
+			}
+			Batch batch = batches.get(msg.getId());
+			if(batch != null){
+				batch.setResult(null);
+			}
+		}
 	}
 	
 	/**
@@ -197,23 +296,41 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 			try {
 				if( (response = (ActiveMessage) channel.receiveMessage()) != null){					
 					long id = response.getId();
-					Monitor monitor = tasks.get(id);
-					assert(monitor != null):"the corresponding monitor is null!";
+					Batch batch = batches.get(id);
+					if(batch != null){
+						receiveForBatch(batch, response);
+						continue;
+					}
+					Request request = tasks.get(id);
+					if(request == null){
+						// the request has been given up on, e.g., the worker was restarted after it was sent
+						continue;
+					}
 					ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL,
 							"receive a result or query from the worker:{0}",
 							new Object[]{response});
 					
-					monitor.setResult(response, response.type == Type.RESPONSE);
+					receive(request, response);
 				} else {
+					if(Thread.currentThread().isInterrupted()){
+						// the client has been retired, don't restart its worker
+						break;
+					}
 					if(!isRestarting.getAndSet(true)){
 						lastWorkerStartedTime = System.currentTimeMillis();
 						// restart the worker
 						this.shutdown();
 						this.initializeChannelAndStartWorker();
 						
-						// release all the requests that waited on its monitor
-						for(Monitor monitor:this.tasks.values()){
-							monitor.setResult(null, true);
+						// fail all the requests sent to the old worker
+						for(Long id:this.tasks.keySet()){
+							Request request = this.tasks.remove(id);
+							if(request != null){
+								request.response.complete(null);
+							}
+						}
+						for(Batch batch:this.batches.values()){
+							batch.setResult(null);
 						}
 						isRestarting.set(false);
 						
@@ -223,6 +340,20 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 				e.printStackTrace();
 			}
 		}
+		writer.interrupt();
+	}
+	
+	private void receive(Request request, ActiveMessage response){
+		if(response.type == Type.RESPONSE){
+			if(tasks.remove(response.getId()) != null){
+				request.response.complete(response);
+			}
+		} else if(response.type == Type.CODE_QUERY){
+			// the worker does not have the code cached, send it along
+			sendMessage(new ActiveMessage(response.getId(), request.code, null));
+		} else {
+			queryHandler.handleQueryAsync(response, request.header, replier);
+		}
 	}
 	
 	/**
@@ -268,6 +399,7 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	    // kill the worker on OutOfMemoryError
 	    if(crashEnabled)
 	    	command.add("-XX:OnOutOfMemoryError="+actionOnOutOfMemory);
+	    command.add("-D"+CompiledScriptCache.CACHE_SIZE_PROPERTY+"="+ActiveCodeConfig.activeCodeCacheSize);
 	    command.add("-cp");
 	    command.add(classpath);
 	    command.add("edu.umass.cs.gnsserver.activecode.prototype.unblocking.ActiveNonBlockingWorker");
@@ -308,6 +440,7 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	    // kill the worker on OutOfMemoryError
 	    if(crashEnabled)
 	    	command.add("-XX:OnOutOfMemoryError="+actionOnOutOfMemory);
+	    command.add("-D"+CompiledScriptCache.CACHE_SIZE_PROPERTY+"="+ActiveCodeConfig.activeCodeCacheSize);
 	    command.add("-cp");
 	    command.add(classpath);
 	    command.add("edu.umass.cs.gnsserver.activecode.prototype.unblocking.ActiveNonBlockingWorker");
@@ -349,27 +482,15 @@ public class ActiveNonBlockingClient implements Runnable,Client {
    *
    * @param am
    */
-  protected synchronized void sendMessage(ActiveMessage am){
-		try {
-			channel.sendMessage(am);
-			ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL, 
-					"sends request:{0}", new Object[]{am});
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-	
-	static int numReq = 0;
-	synchronized int incr(){
-		return ++numReq;
+  protected void sendMessage(ActiveMessage am){
+		outbox.add(am);
 	}
 	
 	/**
 	 * This runCode method sends the request to worker, and
 	 * wait for worker to finish the request. If the worker
-	 * crashed during the request execution, this method
-	 * will resend the request to a new created worker, and
-	 * the new worker will execute this request again. 
+	 * crashed during the request execution, the request fails
+	 * rather than being resent, as it might be a malicious request.
 	 * <p>If the worker fails to execute the request, it will 
 	 * send back an error to inform this method that the execution
 	 * gets accomplished with an error. This method will raise
@@ -387,62 +508,70 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	@Override
 	public JSONObject runCode(InternalRequestHeader header, String guid, String accessor, 
 			String code, JSONObject valuesMap, int ttl, long budget) throws ActiveException {
-		
 		ActiveMessage msg = new ActiveMessage(guid, accessor, code, valuesMap.toString(), ttl, budget);
-		Monitor monitor = new Monitor();
-		tasks.put(msg.getId(), monitor);
-		
-		ActiveMessage response = null;
-		synchronized(monitor){
-			while( !monitor.getDone() ){				
+		ActiveMessage response;
+		try {
+			// the worker gives up on the request after its budget, this is in case it never answers
+			response = submit(header, msg, code).get(Math.max(budget, 0)+ActiveCodeConfig.activeRequestTimeout, 
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException | ExecutionException e) {
+			tasks.remove(msg.getId());
+			throw new ActiveException("Interrupted while waiting for request "+msg.getId());
+		} catch (TimeoutException e) {
+			tasks.remove(msg.getId());
+			throw new ActiveException("Timed out waiting for request "+msg.getId());
+		}
+		return toResult(msg, response, valuesMap);
+	}
+	
+	/**
+	 * Like runCode, but returns as soon as the request is queued. The result
+	 * is parsed on the receiving thread when the response arrives. Like runCode,
+	 * the request fails if there is no response within its budget and 
+	 * activeRequestTimeout.
+	 */
+	@Override
+	public CompletableFuture<JSONObject> runCodeAsync(InternalRequestHeader header, String guid, String accessor, 
+			String code, final JSONObject valuesMap, int ttl, long budget) {
+		final ActiveMessage msg = new ActiveMessage(guid, accessor, code, valuesMap.toString(), ttl, budget);
+		final CompletableFuture<JSONObject> result = new CompletableFuture<JSONObject>();
+		CompletableFuture<ActiveMessage> submitted = submit(header, msg, code);
+		final ScheduledFuture<?> timeout = TIMER.schedule(new Runnable(){
+			@Override
+			public void run() {
+				Request request = tasks.remove(msg.getId());
+				if(request != null){
+					request.response.completeExceptionally(
+							new ActiveException("Timed out waiting for request "+msg.getId()));
+				}
+			}
+		}, Math.max(budget, 0)+ActiveCodeConfig.activeRequestTimeout, TimeUnit.MILLISECONDS);
+		submitted.whenComplete(new BiConsumer<ActiveMessage, Throwable>(){
+			@Override
+			public void accept(ActiveMessage response, Throwable t) {
+				timeout.cancel(false);
+				if(t != null){
+					result.completeExceptionally(t);
+					return;
+				}
 				try {
-					if(!monitor.getWait()){
-						sendMessage(msg);
-						monitor.setWait();
-					}					
-					monitor.wait();
-				} catch (InterruptedException e) {
-					// this thread is interrupted, do nothing
-					e.printStackTrace();
-				}				
-				
-				response = monitor.getResult();	
-				
-				/**
-				 * If it's a query, queryHandler needs to handle it.
-				 * Otherwise, exit the while loop to process the response.
-				 */
-				if (response != null && response.type != Type.RESPONSE){
-					// submit the task to the worker and wait for the response
-					queryHandler.handleQueryAsync(response, header, monitor);
-					try {
-						monitor.wait();
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					/**
-					 * This can be awaken by two events:
-					 * <p>1. The response from the queryHandler, then we need to
-					 * send the response back to the worker.
-					 * <p>2. A timeout event happens on the worker, then there 
-					 * is no need for this response any more.
-					 */
-					
-					if(!monitor.getDone()){
-						// If it's not because of the timeout event, then send back the response  
-						ActiveMessage result = monitor.getResult();	
-						sendMessage(result);
-					}else{
-						// If it's because of timeout, then clean up the state and exit the loop
-						break;
-					}
-					
+					result.complete(toResult(msg, response, valuesMap));
+				} catch (ActiveException e) {
+					result.completeExceptionally(e);
 				}
-			}		
-		}
-		
-		response = monitor.getResult();
-		
+			}
+		});
+		return result;
+	}
+	
+	private CompletableFuture<ActiveMessage> submit(InternalRequestHeader header, ActiveMessage msg, String code){
+		Request request = new Request(header, code);
+		tasks.put(msg.getId(), request);
+		sendMessage(msg);
+		return request.response;
+	}
+	
+	private JSONObject toResult(ActiveMessage msg, ActiveMessage response, JSONObject valuesMap) throws ActiveException {
 		ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL,
 				"receive a response from the worker:{0}",
 				new Object[]{response});
@@ -459,8 +588,10 @@ public class ActiveNonBlockingClient implements Runnable,Client {
                                 " Response: " + response.toString());
 		}
 		counter.getAndIncrement();
-		tasks.remove(response.getId());
 		
+		if(response.isUnchanged()){
+			return valuesMap;
+		}
 		try {
 			return new JSONObject(response.getValue());
 		} catch (JSONException e) {
@@ -468,6 +599,144 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 		}
 	}
 	
+	/**
+	 * Sends all the requests to the worker in one BATCH and waits until
+	 * the worker sends back the BATCH of responses. The queries sent while
+	 * running the requests are served by the receiving thread as they arrive,
+	 * as any number of them can be outstanding at once.
+	 */
+	@Override
+	public List<JSONObject> runCodeBatch(InternalRequestHeader header, List<String> guids, String accessor, 
+			List<String> codes, List<JSONObject> valuesMaps, int ttl, long budget) throws ActiveException {
+		
+		List<ActiveMessage> requests = new ArrayList<ActiveMessage>(guids.size());
+		Map<Long, Integer> index = new HashMap<Long, Integer>();
+		for(int i=0; i<guids.size(); i++){
+			ActiveMessage request = new ActiveMessage(guids.get(i), accessor != null ? accessor : guids.get(i), 
+					codes.get(i), valuesMaps.get(i).toString(), ttl, budget);
+			requests.add(request);
+			index.put(request.getId(), i);
+		}
+		ActiveMessage msg = new ActiveMessage(requests);
+		Batch batch = new Batch(header, codes, index);
+		batches.put(msg.getId(), batch);
+		for(Long requestId:index.keySet()){
+			batches.put(requestId, batch);
+		}
+		
+		ActiveMessage response = null;
+		try {
+			sendMessage(msg);
+			/**
+			 * The worker waits for the requests of a batch one after another,
+			 * each within its budget, this is in case it never answers.
+			 */
+			response = batch.getResult(Math.max(budget, 0)*guids.size()+ActiveCodeConfig.activeRequestTimeout);
+		} catch (InterruptedException e) {
+			throw new ActiveException("Interrupted while waiting for batch "+msg.getId());
+		} finally {
+			batches.remove(msg.getId());
+			for(Long requestId:index.keySet()){
+				batches.remove(requestId);
+			}
+		}
+		
+		if(response == null){
+			// the batch is done without a response if the worker crashes
+			throw new ActiveException(batch.isDone ? "Worker crashes!" : "Timed out waiting for batch "+msg.getId());
+		}
+		counter.getAndAdd(guids.size());
+		
+		List<JSONObject> results = new ArrayList<JSONObject>(guids.size());
+		for(int i=0; i<guids.size(); i++){
+			results.add(null);
+		}
+		for(ActiveMessage result:response.getBatch()){
+			int i = index.get(result.getId());
+			if(result.getError() != null){
+				continue;
+			}
+			if(result.isUnchanged()){
+				results.set(i, valuesMaps.get(i));
+				continue;
+			}
+			try {
+				results.set(i, new JSONObject(result.getValue()));
+			} catch (JSONException e) {
+				// leave it null
+			}
+		}
+		return results;
+	}
+	
+	private void receiveForBatch(Batch batch, ActiveMessage response){
+		ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL,
+				"receive a result or query for a batch from the worker:{0}",
+				new Object[]{response});
+		if(response.type == Type.BATCH){
+			batch.setResult(response);
+		} else if(response.type == Type.CODE_QUERY){
+			sendMessage(new ActiveMessage(response.getId(), batch.codes.get(batch.index.get(response.getId())), null));
+		} else if(response.type != Type.RESPONSE){
+			queryHandler.handleQueryAsync(response, batch.header, replier);
+		}
+	}
+	
+	/**
+	 * A request sent to the worker, with what is needed to answer the
+	 * queries of the worker while it runs
+	 */
+	private static class Request {
+		final InternalRequestHeader header;
+		final String code;
+		final CompletableFuture<ActiveMessage> response = new CompletableFuture<ActiveMessage>();
+		
+		Request(InternalRequestHeader header, String code){
+			this.header = header;
+			this.code = code;
+		}
+	}
+	
+	/**
+	 * The requests of a batch and the BATCH of responses once it arrives
+	 */
+	private static class Batch {
+		final InternalRequestHeader header;
+		final List<String> codes;
+		// request id -> index of the request in the batch
+		final Map<Long, Integer> index;
+		boolean isDone;
+		ActiveMessage response;
+		
+		Batch(InternalRequestHeader header, List<String> codes, Map<Long, Integer> index){
+			this.header = header;
+			this.codes = codes;
+			this.index = index;
+		}
+		
+		synchronized void setResult(ActiveMessage response){
+			this.response = response;
+			this.isDone = true;
+			notifyAll();
+		}
+		
+		/**
+		 * @param timeout in milliseconds
+		 * @return the BATCH of responses, or null if it does not arrive in time
+		 */
+		synchronized ActiveMessage getResult(long timeout) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + timeout;
+			while(!isDone){
+				long left = deadline - System.currentTimeMillis();
+				if(left <= 0){
+					return null;
+				}
+				wait(left);
+			}
+			return response;
+		}
+	}
+	
 	public String toString(){
 		return this.getClass().getSimpleName()+id;
 	}
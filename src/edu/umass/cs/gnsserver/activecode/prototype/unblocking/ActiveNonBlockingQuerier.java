@@ -98,6 +98,7 @@ public class ActiveNonBlockingQuerier implements Querier,ACLQuerier,DNSQuerier {
 		String value = null;
 		try{
 			ActiveMessage am = new ActiveMessage(ttl, querierGuid, field, queriedGuid, currentID);
+			monitor.reset();
 			channel.sendMessage(am);
 			synchronized(monitor){
 				while(!monitor.getDone()){				
@@ -130,6 +131,7 @@ public class ActiveNonBlockingQuerier implements Querier,ACLQuerier,DNSQuerier {
 			throws ActiveException {		
 		ActiveMessage am = new ActiveMessage(ttl, querierGuid, field, queriedGuid, value, currentID);			
 		try {
+			monitor.reset();
 			channel.sendMessage(am);
 			synchronized(monitor){
 				while(!monitor.getDone()){					
@@ -155,6 +157,36 @@ public class ActiveNonBlockingQuerier implements Querier,ACLQuerier,DNSQuerier {
 		}
 	}
 	
+	/**
+	 * Asks the GNS for the code with the given hash, which the worker doesn't have cached.
+	 * 
+	 * @param codeHash
+	 * @return the code
+	 * @throws ActiveException
+	 */
+	protected String fetchCode(String codeHash) throws ActiveException {
+		try {
+			monitor.reset();
+			channel.sendMessage(new ActiveMessage(codeHash, currentID));
+			synchronized(monitor){
+				while(!monitor.getDone()){
+					try {
+						monitor.wait();
+					} catch (InterruptedException e) {
+						throw new ActiveException("Interrupted while fetching code "+codeHash);
+					}
+				}
+			}
+			ActiveMessage response = monitor.getResult();
+			if(response == null || response.getError() != null || response.getValue() == null){
+				throw new ActiveException("Unable to fetch code "+codeHash);
+			}
+			return response.getValue();
+		} catch (IOException e) {
+			throw new ActiveException("Unable to fetch code "+codeHash);
+		}
+	}
+	
   /**
    *
    * @param response
@@ -172,6 +204,12 @@ public class ActiveNonBlockingQuerier implements Querier,ACLQuerier,DNSQuerier {
 			this.isDone = false;
 		}
 		
+		// The same querier can send several queries for one request
+		synchronized void reset(){
+			this.isDone = false;
+			this.response = null;
+		}
+		
 		boolean getDone(){
 			return isDone;
 		}
@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -13,19 +12,19 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-import javax.script.Invocable;
-import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
-import javax.script.SimpleScriptContext;
 
 import org.json.JSONException;
 
 import com.maxmind.geoip2.DatabaseReader;
 
+import edu.umass.cs.gnsserver.activecode.ActiveCodeConfig;
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveException;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Runner;
+import edu.umass.cs.gnsserver.activecode.prototype.utils.CompiledScriptCache;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
 import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
 import jdk.nashorn.api.scripting.ScriptObjectMirror;
@@ -37,10 +36,8 @@ import jdk.nashorn.api.scripting.ScriptObjectMirror;
 public class ActiveNonBlockingRunner implements Runner {
 	
 	final private ScriptEngine engine;
-	final private Invocable invocable;
 	
-	private final HashMap<String, ScriptContext> contexts = new HashMap<String, ScriptContext>();
-	private final HashMap<String, Integer> codeHashes = new HashMap<String, Integer>();
+	private final CompiledScriptCache scripts;
 	private final Channel channel;
 	private final ConcurrentHashMap<Long, ActiveNonBlockingQuerier> map = new ConcurrentHashMap<Long, ActiveNonBlockingQuerier>();
 	private final DatabaseReader dbReader;
@@ -65,36 +62,14 @@ public class ActiveNonBlockingRunner implements Runner {
 			throw new RuntimeException("Can not eval JSON");			
 		}
 		
-		invocable = (Invocable) engine;
+		scripts = new CompiledScriptCache(engine,
+				Integer.getInteger(CompiledScriptCache.CACHE_SIZE_PROPERTY, ActiveCodeConfig.activeCodeCacheSize));
 	}
 	
 	/**
-	 * Update cache needs to be synchronized, as some code cache may not be evaled before being used.
-	 * 
-	 * @param codeId
-	 * @param code
-	 * @throws ScriptException
-	 */
-	private synchronized void updateCache(String codeId, String code) throws ScriptException {
-	    if (!contexts.containsKey(codeId)) {
-	      // Create a context if one does not yet exist and eval the code
-	      ScriptContext sc = new SimpleScriptContext();
-	      contexts.put(codeId, sc);
-	      codeHashes.put(codeId, code.hashCode());
-	      engine.eval(code, sc);
-	    } else if ( codeHashes.get(codeId) != code.hashCode()) {
-	      // The context exists, but we need to eval the new code
-	      ScriptContext sc = contexts.get(codeId);
-	      codeHashes.put(codeId, code.hashCode());
-	      engine.eval(code, sc);
-	    }
-	}
-	
-	/**
-	 * This method first update the cache of code, 
-	 * then set the context with the cached code 
-	 * for the script engine, finally invokes the
-	 * "run" method.
+	 * This method first looks up the evaluated code 
+	 * in the script cache, evaluating it if it is not 
+	 * there yet, then invokes its "run" method.
 	 * 
 	 * <p>Based on the answer of Nashorn builder on stackoverflow:
 	 * http://stackoverflow.com/questions/30140103/should-i-use-a-separate-scriptengine-and-compiledscript-instances-per-each-threa/30159424#30159424
@@ -112,17 +87,51 @@ public class ActiveNonBlockingRunner implements Runner {
 	 */
         @Override
 	public String runCode(String guid, String accessor, String code, String value, int ttl, long id) throws ScriptException, NoSuchMethodException {		
+		return runCode(guid, accessor, code, null, value, ttl, id);
+	}
+	
+	/**
+	 * Runs a request that may only carry the hash of its code. If the code 
+	 * with that hash is not cached it is fetched from the GNS first.
+	 * 
+	 * @param guid
+	 * @param accessor
+	 * @param code the code, or null if only its hash is known
+	 * @param codeHash
+	 * @param value
+	 * @param ttl
+	 * @param id 
+	 * @return ValuesMap result 
+	 * @throws ScriptException
+	 * @throws NoSuchMethodException
+	 */
+	public String runCode(String guid, String accessor, String code, String codeHash, String value, int ttl, long id) throws ScriptException, NoSuchMethodException {		
 		ActiveNonBlockingQuerier querier = new ActiveNonBlockingQuerier(channel, dbReader, JSON, ttl, guid, id);
 		map.put(id, querier);
-		
-		updateCache(guid, code);
-		engine.setContext(contexts.get(guid));
-		
-		String result = querier.js2String((ScriptObjectMirror) invocable.invokeFunction("run", querier.string2JS(value),
-				accessor, querier));
-		
-		map.remove(id);
-		return result;
+		try {
+			ScriptObjectMirror run = getRunFunction(guid, code, codeHash, querier);
+			
+			return querier.js2String((ScriptObjectMirror) run.call(null, querier.string2JS(value),
+					accessor, querier));
+		} finally {
+			map.remove(id);
+		}
+	}
+	
+	private ScriptObjectMirror getRunFunction(String guid, String code, String codeHash, ActiveNonBlockingQuerier querier) 
+			throws ScriptException, NoSuchMethodException {
+		if(code == null){
+			ScriptObjectMirror run = scripts.getIfPresent(guid, codeHash);
+			if(run != null){
+				return run;
+			}
+			try {
+				code = querier.fetchCode(codeHash);
+			} catch (ActiveException e) {
+				throw new ScriptException(e.getMessage());
+			}
+		}
+		return scripts.getRunFunction(guid, code);
 	}
 	
 	/**
@@ -2,6 +2,9 @@ package edu.umass.cs.gnsserver.activecode.prototype.unblocking;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -43,6 +46,9 @@ public class ActiveNonBlockingWorker {
 	private final ThreadPoolExecutor executor;
 	private final ThreadPoolExecutor taskExecutor;	
 	
+	// hashes of the code that ran out of its budget and is still running
+	private static final Set<String> QUARANTINED = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
 	
 	
 	/**
@@ -102,6 +108,8 @@ public class ActiveNonBlockingWorker {
 				
 				if(msg.type == Type.REQUEST){
 					taskExecutor.submit(new ActiveWorkerSubmittedTask(executor, runner, msg, channel));					
+				} else if (msg.type == Type.BATCH){
+					taskExecutor.submit(new ActiveWorkerBatchTask(executor, runner, msg, channel));
 				} else if (msg.type == Type.RESPONSE ){
 					runner.release(msg);					
 				} 
@@ -116,6 +124,32 @@ public class ActiveNonBlockingWorker {
 		return this.getClass().getSimpleName()+id;
 	}
 	
+	/**
+	 * Quarantines the code of the request because it is still running
+	 * after its budget is over and its thread can't be stopped. The code
+	 * keeps its thread, but no more requests with the same code are run 
+	 * on this worker, so the other requests on it are not affected.
+	 * 
+	 * @param request
+	 */
+	protected static void quarantine(ActiveMessage request){
+		ActiveNonBlockingWorker.getLogger().log(Level.WARNING,
+				"code {0} of request {1} is still running after its budget, quarantine the code",
+				new Object[]{request.getCodeHash(), request});
+		QUARANTINED.add(request.getCodeHash());
+	}
+	
+	/**
+	 * @param request
+	 * @return the error response if the code of the request is quarantined, null otherwise
+	 */
+	protected static ActiveMessage checkQuarantined(ActiveMessage request){
+		if(QUARANTINED.contains(request.getCodeHash())){
+			return new ActiveMessage(request.getId(), null, 
+					"Code "+request.getCodeHash()+" is quarantined as it ran out of its budget");
+		}
+		return null;
+	}
 	
 	/**
 	 * @return logger
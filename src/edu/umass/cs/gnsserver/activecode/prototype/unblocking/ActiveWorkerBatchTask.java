@@ -0,0 +1,83 @@
+package edu.umass.cs.gnsserver.activecode.prototype.unblocking;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
+
+/**
+ * Runs the requests of a BATCH on the worker threads and sends back
+ * their responses in one BATCH. The budget of each request is counted
+ * from the time the requests before it are done, so a request does not
+ * run out of budget while it waits for a thread behind the others.
+ *
+ * @author gaozy
+ *
+ */
+public class ActiveWorkerBatchTask implements Runnable {
+
+	final ThreadPoolExecutor executor;
+	final ActiveNonBlockingRunner runner;
+	final ActiveMessage batch;
+	final Channel channel;
+
+	ActiveWorkerBatchTask(ThreadPoolExecutor executor, ActiveNonBlockingRunner runner, ActiveMessage batch,
+			Channel channel){
+		this.executor = executor;
+		this.runner = runner;
+		this.batch = batch;
+		this.channel = channel;
+	}
+
+	@Override
+	public void run() {
+		List<ActiveMessage> requests = batch.getBatch();
+		List<ActiveWorkerTask> tasks = new ArrayList<ActiveWorkerTask>(requests.size());
+		List<Future<ActiveMessage>> futures = new ArrayList<Future<ActiveMessage>>(requests.size());
+		List<ActiveMessage> responses = new ArrayList<ActiveMessage>(requests.size());
+		for(ActiveMessage request:requests){
+			// the code of a quarantined request is not run again
+			ActiveMessage response = ActiveNonBlockingWorker.checkQuarantined(request);
+			responses.add(response);
+			ActiveWorkerTask task = response == null ? new ActiveWorkerTask(runner, request) : null;
+			tasks.add(task);
+			futures.add(task != null ? executor.submit(task) : null);
+		}
+
+		for(int i=0; i<requests.size(); i++){
+			if(responses.get(i) != null){
+				continue;
+			}
+			ActiveMessage request = requests.get(i);
+			ActiveMessage response = null;
+			try {
+				response = futures.get(i).get(request.getBudget(), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException | ExecutionException | TimeoutException e) {
+				futures.get(i).cancel(true);
+				if(tasks.get(i).preempt(executor)){
+					ActiveNonBlockingWorker.quarantine(request);
+				}
+				response = new ActiveMessage(request.getId(), null, e.getMessage());
+				ActiveNonBlockingWorker.getLogger().log(Level.FINE,
+						"get an exception {0} when executing request {1} with code {2}",
+						new Object[]{e, request, request.getCodeHash()});
+			}
+			responses.set(i, response);
+		}
+
+		try {
+			channel.sendMessage(new ActiveMessage(batch.getId(), responses));
+		} catch (IOException e) {
+			throw new RuntimeException();
+		}
+	}
+
+}
@@ -34,27 +34,34 @@ public class ActiveWorkerSubmittedTask implements Runnable {
 	
 	@Override
 	public void run() {
-		ActiveMessage response = null;
+		ActiveMessage response = ActiveNonBlockingWorker.checkQuarantined(request);
 		long timeout = request.getBudget();
 		
-		Future<ActiveMessage> future = executor.submit(new ActiveWorkerTask(runner, request));
-		
-		try {
-			response = future.get(timeout, TimeUnit.MILLISECONDS);
-		} catch (InterruptedException | ExecutionException | TimeoutException e) {
-			//e.printStackTrace();
-			// return an error
-			response = new ActiveMessage(request.getId(), null, e.getMessage());
-			ActiveNonBlockingWorker.getLogger().log(Level.FINE, 
-					"get an exception {0} when executing request {1} with code {2}", 
-					new Object[]{e, request, request.getCode()});
+		if(response == null){
+			ActiveWorkerTask task = new ActiveWorkerTask(runner, request);
+			Future<ActiveMessage> future = executor.submit(task);
+			
+			try {
+				response = future.get(timeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException | ExecutionException | TimeoutException e) {
+				//e.printStackTrace();
+				// return an error, and quarantine the code if it is still running
+				future.cancel(true);
+				if(task.preempt(executor)){
+					ActiveNonBlockingWorker.quarantine(request);
+				}
+				response = new ActiveMessage(request.getId(), null, e.getMessage());
+				ActiveNonBlockingWorker.getLogger().log(Level.FINE, 
+						"get an exception {0} when executing request {1} with code {2}", 
+						new Object[]{e, request, request.getCodeHash()});
+			}
 		}
 		
 		try {
 			channel.sendMessage(response);
 		} catch (IOException e) {
 			throw new RuntimeException();
-		}	
+		}
 	}
 
 }
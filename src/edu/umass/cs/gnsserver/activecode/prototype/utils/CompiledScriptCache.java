@@ -0,0 +1,216 @@
+package edu.umass.cs.gnsserver.activecode.prototype.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+/**
+ * A bounded cache of compiled active code, shared by all the threads of a runner.
+ *
+ * <p>Compiled scripts are keyed by a hash of the code rather than by the guid that
+ * owns it, so guids that carry the same script share one compiled copy and a guid whose
+ * code changes simply looks up a different entry. The compiled script is evaluated once
+ * for each guid that runs it, in a global of that guid's own, and the run function is
+ * kept under the guid and the hash. So neither two scripts nor two guids running the same
+ * script can see or change each other's globals. The least recently used entries of
+ * either kind are evicted once there are more than maxSize of them.
+ *
+ * <p>The run function is called directly rather than through the engine, so callers
+ * no longer have to set the engine's context first.
+ *
+ * @author gaozy
+ *
+ */
+public class CompiledScriptCache {
+
+	/**
+	 * The system property the workers read the cache size from.
+	 */
+	public static final String CACHE_SIZE_PROPERTY = "activeCodeCacheSize";
+
+	private static final String RUN_FUNCTION = "run";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final ThreadLocal<MessageDigest> MESSAGE_DIGESTS = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	// code -> hash, so that each stored code is hashed once rather than on every request
+	private static final Cache<String, String> HASHES = CacheBuilder.newBuilder().concurrencyLevel(16)
+			.maximumWeight(1 << 24)
+			.weigher(new Weigher<String, String>(){
+				@Override
+				public int weigh(String code, String codeHash) {
+					return code.length();
+				}
+			}).build();
+
+	private final ScriptEngine engine;
+	// code hash -> compiled code
+	private final Cache<String, CompiledScript> compiled;
+	// guid and code hash -> run function evaluated in a global of the guid's own
+	private final Cache<String, ScriptObjectMirror> cache;
+
+	/**
+	 * @param engine the engine the scripts are evaluated with
+	 * @param maxSize the maximum number of scripts kept
+	 */
+	public CompiledScriptCache(ScriptEngine engine, int maxSize){
+		this.engine = engine;
+		this.compiled = CacheBuilder.newBuilder().concurrencyLevel(16)
+				.maximumSize(Math.max(1, maxSize))
+				.recordStats().build();
+		this.cache = CacheBuilder.newBuilder().concurrencyLevel(16)
+				.maximumSize(Math.max(1, maxSize))
+				.recordStats().build();
+	}
+
+	/**
+	 * Returns the hex encoded SHA-1 hash of the code, which is the key it is cached under.
+	 * The hash of recently seen code is remembered.
+	 *
+	 * @param code
+	 * @return the hash
+	 */
+	public static String hash(String code){
+		String codeHash = HASHES.getIfPresent(code);
+		if (codeHash == null){
+			codeHash = sha1(code);
+			HASHES.put(code, codeHash);
+		}
+		return codeHash;
+	}
+
+	private static String sha1(String code){
+		byte[] digest = MESSAGE_DIGESTS.get().digest(code.getBytes(StandardCharsets.UTF_8));
+		char[] chars = new char[digest.length * 2];
+		for (int i=0; i<digest.length; i++){
+			chars[2*i] = HEX[(digest[i] >> 4) & 0xf];
+			chars[2*i+1] = HEX[digest[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns the run function of the code for the guid, compiling and evaluating the
+	 * code first if it isn't cached. Threads asking for the same code while it is being
+	 * compiled or evaluated wait for that.
+	 *
+	 * @param guid the guid the code runs for
+	 * @param code
+	 * @return the run function
+	 * @throws ScriptException if the code can't be evaluated
+	 * @throws NoSuchMethodException if the code doesn't define a run function
+	 */
+	public ScriptObjectMirror getRunFunction(String guid, final String code) throws ScriptException, NoSuchMethodException {
+		final String codeHash = hash(code);
+		CompiledScript script = get(compiled, codeHash, new Callable<CompiledScript>(){
+			@Override
+			public CompiledScript call() throws Exception {
+				return ((Compilable) engine).compile(code);
+			}
+		});
+		return evaluate(guid, codeHash, script);
+	}
+
+	/**
+	 * Returns the run function for the guid of the code with the given hash, or null
+	 * if that code isn't cached.
+	 *
+	 * @param guid the guid the code runs for
+	 * @param codeHash
+	 * @return the run function or null
+	 * @throws ScriptException if the code can't be evaluated
+	 * @throws NoSuchMethodException if the code doesn't define a run function
+	 */
+	public ScriptObjectMirror getIfPresent(String guid, String codeHash) throws ScriptException, NoSuchMethodException {
+		ScriptObjectMirror run = cache.getIfPresent(key(guid, codeHash));
+		if (run != null){
+			return run;
+		}
+		CompiledScript script = compiled.getIfPresent(codeHash);
+		return (script != null)?evaluate(guid, codeHash, script):null;
+	}
+
+	private static String key(String guid, String codeHash){
+		return guid+":"+codeHash;
+	}
+
+	private ScriptObjectMirror evaluate(String guid, String codeHash, final CompiledScript script)
+			throws ScriptException, NoSuchMethodException {
+		return get(cache, key(guid, codeHash), new Callable<ScriptObjectMirror>(){
+			@Override
+			public ScriptObjectMirror call() throws Exception {
+				return evaluate(script);
+			}
+		});
+	}
+
+	private static <V> V get(Cache<String, V> cache, String key, Callable<V> loader)
+			throws ScriptException, NoSuchMethodException {
+		try {
+			return cache.get(key, loader);
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ScriptException){
+				throw (ScriptException) cause;
+			} else if (cause instanceof NoSuchMethodException){
+				throw (NoSuchMethodException) cause;
+			}
+			throw new ScriptException(String.valueOf(cause));
+		}
+	}
+
+	private ScriptObjectMirror evaluate(CompiledScript script) throws ScriptException, NoSuchMethodException {
+		// A fresh global for every guid running the script
+		Bindings global = engine.createBindings();
+		ScriptContext sc = new SimpleScriptContext();
+		sc.setBindings(global, ScriptContext.ENGINE_SCOPE);
+		script.eval(sc);
+		Object run = global.get(RUN_FUNCTION);
+		if (!(run instanceof ScriptObjectMirror) || !((ScriptObjectMirror) run).isFunction()){
+			throw new NoSuchMethodException("No "+RUN_FUNCTION+" function in the active code");
+		}
+		return (ScriptObjectMirror) run;
+	}
+
+	/**
+	 * @return the number of cached compiled scripts
+	 */
+	public long size(){
+		return compiled.size();
+	}
+
+	/**
+	 * @return the hit, miss and eviction counts for the compiled scripts
+	 */
+	public CacheStats getStats(){
+		return compiled.stats();
+	}
+}
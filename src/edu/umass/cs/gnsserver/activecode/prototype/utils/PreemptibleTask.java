@@ -0,0 +1,92 @@
+package edu.umass.cs.gnsserver.activecode.prototype.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * A task that can be preempted, so that a worker can find out that a
+ * script has run out of its budget and is still going.
+ *
+ * <p> Cancelling the future of a task only interrupts its thread, and
+ * a script in a loop never checks for that. A thread can't be stopped
+ * safely either, it may be halfway through changing the state of the
+ * script engine. So a worker that finds {@link #preempt} true after the
+ * budget is over leaves the thread to the script, and the executor gets
+ * another thread in its place until the script returns. The other
+ * requests on the worker keep running.
+ *
+ * @author gaozy
+ *
+ * @param <V> the result type of the task
+ */
+public abstract class PreemptibleTask<V> implements Callable<V> {
+
+	private boolean running;
+	private boolean preempted;
+	// the executor given a thread in place of the one running this task
+	private ThreadPoolExecutor replaced;
+
+	@Override
+	public final V call() throws Exception {
+		synchronized(this){
+			if(preempted){
+				throw new CancellationException("Preempted before it started");
+			}
+			running = true;
+		}
+		try {
+			return execute();
+		} finally {
+			ThreadPoolExecutor executor;
+			synchronized(this){
+				running = false;
+				executor = replaced;
+			}
+			if(executor != null){
+				resize(executor, -1);
+			}
+		}
+	}
+
+	/**
+	 * Runs the task.
+	 *
+	 * @return the result
+	 * @throws Exception
+	 */
+	protected abstract V execute() throws Exception;
+
+	/**
+	 * Preempts the task once its budget is over. This is decided atomically
+	 * with the task finishing, so a task that returns at the same time is
+	 * either done or preempted, never both. A task that hasn't started
+	 * yet never will. A task that is still running keeps its thread, and
+	 * the executor gets one more thread until the task returns.
+	 *
+	 * @param executor the executor running the task
+	 * @return true if the task was still running
+	 */
+	public synchronized boolean preempt(ThreadPoolExecutor executor){
+		preempted = true;
+		if(!running || replaced != null){
+			return false;
+		}
+		replaced = executor;
+		resize(executor, 1);
+		return true;
+	}
+
+	private static void resize(ThreadPoolExecutor executor, int delta){
+		synchronized(executor){
+			// the core size can't be larger than the maximum size
+			if(delta > 0){
+				executor.setMaximumPoolSize(executor.getMaximumPoolSize()+delta);
+				executor.setCorePoolSize(executor.getCorePoolSize()+delta);
+			} else {
+				executor.setCorePoolSize(executor.getCorePoolSize()+delta);
+				executor.setMaximumPoolSize(executor.getMaximumPoolSize()+delta);
+			}
+		}
+	}
+}
@@ -325,6 +325,16 @@ public class CassandraRecords implements NoSQLRecords {
     //To change body of implemented methods use File | Settings | File Templates.
   }
 
+  @Override
+  public int addToSet(String collectionName, String name, ColumnField mapField, String key, ArrayList<Object> values) {
+    return -1;
+  }
+
+  @Override
+  public int removeFromSet(String collectionName, String name, ColumnField mapField, String key, ArrayList<Object> values) {
+    return -1;
+  }
+
   @Override
   public AbstractRecordCursor getAllRowsIterator(String collection) {
     throw new UnsupportedOperationException("Not supported yet.");
@@ -335,21 +345,45 @@ public class CassandraRecords implements NoSQLRecords {
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
+  @Override
+  public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          ArrayList<String> projection) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
   @Override
   public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value) {
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          ArrayList<String> projection) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
   @Override
   public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance) {
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
+  @Override
+  public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance,
+          ArrayList<String> projection) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
   @Override
   public AbstractRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query) {
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query,
+          ArrayList<String> projection, String afterName, int limit) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
   @Override
   public void removeEntireRecord(String tableName, String guid) {
     CollectionSpec spec = getCollectionSpec(tableName);
@@ -0,0 +1,1144 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnscommon.utils.JSONDotNotation;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.utils.JSONUtils;
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.Util;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * A self-contained NoSQLRecords that keeps records in an embedded Derby database
+ * so that a name server doesn't need a separate database server.
+ * Select it by setting NOSQL_RECORDS_CLASS to edu.umass.cs.gnsserver.database.DerbyRecords.
+ *
+ * Each record is a row holding the JSON of the record keyed by collection and name in
+ * Derby's B-tree primary key index. Fields of the values map can be given secondary
+ * indexes with {@link #createIndex}; for each indexed field every scalar value (and
+ * every scalar element of an array value) is kept in a separate index table which is
+ * updated in the same transaction as the record. Equality selects on an indexed field
+ * and queries that pin the name of the record are answered from the indexes. All other
+ * selects scan the records in name order and filter them with a {@link JSONQueryMatcher}.
+ * Writes are visible to selects as soon as they return.
+ *
+ * Geospatial index types (2d and 2dsphere) are accepted but don't create anything;
+ * geospatial selects are always scans.
+ *
+ * @author westy
+ */
+public class DerbyRecords implements NoSQLRecords {
+
+  private static final String DRIVER = "org.apache.derby.jdbc.EmbeddedDriver";
+  private static final String DBROOTNAME = "UMASS_GNS_DERBY_";
+
+  private static final String RECORDS_TABLE = "RECORDS";
+  private static final String INDEXES_TABLE = "FIELD_INDEXES";
+  private static final String VALUES_TABLE = "FIELD_VALUES";
+
+  // Number of records a cursor reads from the database at a time
+  private static final int BATCH_SIZE = 256;
+  // Longer index values are replaced by a hash of the value
+  private static final int MAX_INDEX_VALUE_LENGTH = 255;
+  private static final int LOCK_STRIPES = 1024;
+  private final static double METERS_PER_DEGREE = 111.12 * 1000; // at the equator
+
+  private static final String DUPLICATE_KEY = "23505";
+  private static final String TABLE_EXISTS = "X0Y32";
+
+  private final String dbName;
+  private final String url;
+  private final ThreadLocal<Connection> connections = new ThreadLocal<>();
+  // Every connection handed out so that close can close them
+  private final Set<Connection> openConnections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+  // Serializes the read-modify-write of each record
+  private final Object[] locks = new Object[LOCK_STRIPES];
+  // collection -> indexed fields of the values map, kept up to date by writes
+  private final Map<String, Set<String>> indexedFields = new ConcurrentHashMap<>();
+  // collection -> indexed fields whose existing records have all been indexed, which selects may use
+  private final Map<String, Set<String>> selectableFields = new ConcurrentHashMap<>();
+
+  /**
+   * Creates or opens the database for nodeID.
+   *
+   * @param nodeID nodeID of name server
+   */
+  public DerbyRecords(String nodeID) {
+    this(nodeID, -1);
+  }
+
+  /**
+   * Creates or opens the database for nodeID. The port is ignored and is
+   * only here because NoSQLRecords classes are created by reflection
+   * with this signature.
+   *
+   * @param nodeID nodeID of name server
+   * @param port
+   */
+  public DerbyRecords(String nodeID, int port) {
+    // use a unique name in case we have more than one on a machine
+    this.dbName = DBROOTNAME + nodeID.replaceAll("[^A-Za-z0-9_]", "_");
+    this.url = "jdbc:derby:" + dbName + ";create=true";
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new Object();
+    }
+    init();
+  }
+
+  private void init() {
+    boolean fatalException = false;
+    try {
+      Class.forName(DRIVER);
+      Connection conn = getConnection();
+      createTable(conn, "CREATE TABLE " + RECORDS_TABLE
+              + " (COLL VARCHAR(128) NOT NULL, NAME VARCHAR(256) NOT NULL, RECORD CLOB NOT NULL,"
+              + " PRIMARY KEY (COLL, NAME))");
+      createTable(conn, "CREATE TABLE " + INDEXES_TABLE
+              + " (COLL VARCHAR(128) NOT NULL, FIELD VARCHAR(256) NOT NULL, PRIMARY KEY (COLL, FIELD))");
+      if (createTable(conn, "CREATE TABLE " + VALUES_TABLE
+              + " (COLL VARCHAR(128) NOT NULL, FIELD VARCHAR(256) NOT NULL,"
+              + " VAL VARCHAR(" + MAX_INDEX_VALUE_LENGTH + ") NOT NULL, NAME VARCHAR(256) NOT NULL)")) {
+        try (Statement statement = conn.createStatement()) {
+          statement.execute("CREATE INDEX " + VALUES_TABLE + "_VAL ON " + VALUES_TABLE + " (COLL, FIELD, VAL, NAME)");
+          statement.execute("CREATE INDEX " + VALUES_TABLE + "_NAME ON " + VALUES_TABLE + " (COLL, NAME, FIELD)");
+        }
+      }
+      conn.commit();
+      try (Statement statement = conn.createStatement();
+              ResultSet rs = statement.executeQuery("SELECT COLL, FIELD FROM " + INDEXES_TABLE)) {
+        while (rs.next()) {
+          // An index is only recorded in the database once the existing records are in it
+          getFields(indexedFields, rs.getString(1)).add(rs.getString(2));
+          getFields(selectableFields, rs.getString(1)).add(rs.getString(2));
+        }
+      }
+      conn.commit();
+      // Same default index as MongoRecords
+      createIndex(MongoRecords.DBNAMERECORD, GNSProtocol.IPADDRESS_FIELD_NAME.toString(), "1");
+      DatabaseConfig.getLogger().log(Level.INFO, "Opened Derby DB {0}", dbName);
+    } catch (ClassNotFoundException | SQLException e) {
+      fatalException = true;
+      DatabaseConfig.getLogger().severe("Unable to open Derby DB: " + e);
+    } finally {
+      if (fatalException) {
+        Util.suicide("Derby DB initialization failed; exiting.");
+      }
+    }
+  }
+
+  // Returns false if the table already exists
+  private static boolean createTable(Connection conn, String sql) throws SQLException {
+    try (Statement statement = conn.createStatement()) {
+      statement.execute(sql);
+      return true;
+    } catch (SQLException e) {
+      if (TABLE_EXISTS.equals(e.getSQLState())) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  // Each thread gets its own connection. All work on it is done in explicit transactions.
+  private Connection getConnection() throws SQLException {
+    Connection conn = connections.get();
+    if (conn == null || conn.isClosed()) {
+      if (conn != null) {
+        openConnections.remove(conn);
+      }
+      conn = DriverManager.getConnection(url);
+      conn.setAutoCommit(false);
+      conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+      connections.set(conn);
+      openConnections.add(conn);
+    }
+    return conn;
+  }
+
+  private static void rollback(Connection conn) {
+    if (conn != null) {
+      try {
+        conn.rollback();
+      } catch (SQLException e) {
+        DatabaseConfig.getLogger().log(Level.WARNING, "Rollback failed: {0}", e);
+      }
+    }
+  }
+
+  private Object getLock(String name) {
+    return locks[(name.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+  }
+
+  private static Set<String> getFields(Map<String, Set<String>> fieldsMap, String collection) {
+    Set<String> fields = fieldsMap.get(collection);
+    if (fields == null) {
+      fieldsMap.putIfAbsent(collection, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+      fields = fieldsMap.get(collection);
+    }
+    return fields;
+  }
+
+  private static JSONObject readRecord(Connection conn, String collection, String name)
+          throws SQLException, JSONException {
+    try (PreparedStatement statement = conn.prepareStatement(
+            "SELECT RECORD FROM " + RECORDS_TABLE + " WHERE COLL = ? AND NAME = ?")) {
+      statement.setString(1, collection);
+      statement.setString(2, name);
+      try (ResultSet rs = statement.executeQuery()) {
+        return rs.next() ? new JSONObject(rs.getString(1)) : null;
+      }
+    }
+  }
+
+  private static void insertRecord(Connection conn, String collection, String name, JSONObject record)
+          throws SQLException {
+    try (PreparedStatement statement = conn.prepareStatement(
+            "INSERT INTO " + RECORDS_TABLE + " (COLL, NAME, RECORD) VALUES (?, ?, ?)")) {
+      statement.setString(1, collection);
+      statement.setString(2, name);
+      statement.setString(3, record.toString());
+      statement.executeUpdate();
+    }
+  }
+
+  private static boolean updateRecord(Connection conn, String collection, String name, JSONObject record)
+          throws SQLException {
+    try (PreparedStatement statement = conn.prepareStatement(
+            "UPDATE " + RECORDS_TABLE + " SET RECORD = ? WHERE COLL = ? AND NAME = ?")) {
+      statement.setString(1, record.toString());
+      statement.setString(2, collection);
+      statement.setString(3, name);
+      return statement.executeUpdate() > 0;
+    }
+  }
+
+  @Override
+  public void insert(String collection, String name, JSONObject value)
+          throws FailedDBOperationException, RecordExistsException {
+    Connection conn = null;
+    synchronized (getLock(name)) {
+      try {
+        conn = getConnection();
+        insertRecord(conn, collection, name, value);
+        reindex(conn, collection, name, value, null);
+        conn.commit();
+      } catch (SQLException e) {
+        rollback(conn);
+        if (DUPLICATE_KEY.equals(e.getSQLState())) {
+          throw new RecordExistsException(collection, name);
+        }
+        throw new FailedDBOperationException(collection, name, e.getMessage());
+      } catch (JSONException e) {
+        rollback(conn);
+        throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+      }
+    }
+  }
+
+  @Override
+  public JSONObject lookupEntireRecord(String collection, String name)
+          throws FailedDBOperationException, RecordNotFoundException {
+    if (name == null) {
+      throw new RecordNotFoundException(name);
+    }
+    Connection conn = null;
+    JSONObject record;
+    try {
+      conn = getConnection();
+      record = readRecord(conn, collection, name);
+      conn.commit();
+    } catch (SQLException e) {
+      rollback(conn);
+      throw new FailedDBOperationException(collection, name, e.getMessage());
+    } catch (JSONException e) {
+      rollback(conn);
+      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+    }
+    if (record == null) {
+      throw new RecordNotFoundException(name);
+    }
+    return record;
+  }
+
+  @Override
+  public HashMap<ColumnField, Object> lookupSomeFields(String collection, String name,
+          ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
+          throws RecordNotFoundException, FailedDBOperationException {
+    // The record is parsed fresh from the database so nothing needs to be copied
+    JSONObject record = lookupEntireRecord(collection, name);
+    HashMap<ColumnField, Object> hashMap = new HashMap<>();
+    hashMap.put(nameField, name);
+    if (valuesMapField != null && valuesMapKeys != null) {
+      JSONObject readValuesMap = record.optJSONObject(valuesMapField.getName());
+      ValuesMap valuesMapOut = new ValuesMap();
+      for (ColumnField valuesMapKey : valuesMapKeys) {
+        String userKey = valuesMapKey.getName();
+        try {
+          if (readValuesMap == null
+                  || !JSONDotNotation.containsFieldDotNotation(userKey, readValuesMap)) {
+            continue;
+          }
+          switch (valuesMapKey.type()) {
+            case USER_JSON:
+              valuesMapOut.put(userKey, JSONDotNotation.getWithDotNotation(userKey, readValuesMap));
+              break;
+            case LIST_STRING:
+              valuesMapOut.putAsArray(userKey,
+                      JSONUtils.JSONArrayToResultValue(
+                              new JSONArray(JSONDotNotation.getWithDotNotation(userKey,
+                                      readValuesMap).toString())));
+              break;
+            default:
+              DatabaseConfig.getLogger().log(Level.SEVERE,
+                      "ERROR: Error: User keys field {0} is not a known type:{1}",
+                      new Object[]{userKey, valuesMapKey.type()});
+              break;
+          }
+        } catch (JSONException e) {
+          DatabaseConfig.getLogger().log(Level.SEVERE, "Error parsing json: {0}", e.getMessage());
+        }
+      }
+      hashMap.put(valuesMapField, valuesMapOut);
+    }
+    return hashMap;
+  }
+
+  @Override
+  public boolean contains(String collection, String name) throws FailedDBOperationException {
+    Connection conn = null;
+    try {
+      conn = getConnection();
+      boolean result;
+      try (PreparedStatement statement = conn.prepareStatement(
+              "SELECT 1 FROM " + RECORDS_TABLE + " WHERE COLL = ? AND NAME = ?")) {
+        statement.setString(1, collection);
+        statement.setString(2, name);
+        try (ResultSet rs = statement.executeQuery()) {
+          result = rs.next();
+        }
+      }
+      conn.commit();
+      return result;
+    } catch (SQLException e) {
+      rollback(conn);
+      throw new FailedDBOperationException(collection, name, e.getMessage());
+    }
+  }
+
+  @Override
+  public void removeEntireRecord(String collection, String name) throws FailedDBOperationException {
+    Connection conn = null;
+    synchronized (getLock(name)) {
+      try {
+        conn = getConnection();
+        try (PreparedStatement statement = conn.prepareStatement(
+                "DELETE FROM " + RECORDS_TABLE + " WHERE COLL = ? AND NAME = ?")) {
+          statement.setString(1, collection);
+          statement.setString(2, name);
+          statement.executeUpdate();
+        }
+        deleteIndexValues(conn, collection, name, null);
+        conn.commit();
+      } catch (SQLException e) {
+        rollback(conn);
+        throw new FailedDBOperationException(collection, name, e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public void updateEntireRecord(String collection, String name, ValuesMap valuesMap)
+          throws FailedDBOperationException {
+    Connection conn = null;
+    synchronized (getLock(name)) {
+      try {
+        conn = getConnection();
+        JSONObject record = readRecord(conn, collection, name);
+        if (record == null) {
+          record = new JSONObject();
+          record.put(NameRecord.NAME.getName(), name);
+          record.put(NameRecord.VALUES_MAP.getName(), valuesMap);
+          insertRecord(conn, collection, name, record);
+        } else {
+          record.put(NameRecord.VALUES_MAP.getName(), valuesMap);
+          updateRecord(conn, collection, name, record);
+        }
+        reindex(conn, collection, name, record, null);
+        conn.commit();
+      } catch (SQLException e) {
+        rollback(conn);
+        throw new FailedDBOperationException(collection, name, e.getMessage());
+      } catch (JSONException e) {
+        rollback(conn);
+        throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+      }
+    }
+  }
+
+  @Override
+  public void updateIndividualFields(String collection, String name,
+          ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys,
+          ArrayList<Object> valuesMapValues) throws FailedDBOperationException {
+    if (valuesMapField == null || valuesMapKeys == null) {
+      return;
+    }
+    Connection conn = null;
+    synchronized (getLock(name)) {
+      try {
+        conn = getConnection();
+        JSONObject record = readRecord(conn, collection, name);
+        if (record == null) {
+          throw new FailedDBOperationException(collection, name, "Record not found.");
+        }
+        JSONObject json = record.optJSONObject(valuesMapField.getName());
+        if (json == null) {
+          record.put(valuesMapField.getName(), json = new JSONObject());
+        }
+        List<String> fieldNames = new ArrayList<>();
+        for (int i = 0; i < valuesMapKeys.size(); i++) {
+          String fieldName = valuesMapKeys.get(i).getName();
+          switch (valuesMapKeys.get(i).type()) {
+            case LIST_STRING:
+              JSONDotNotation.putWithDotNotation(json, fieldName,
+                      DiskMapRecords.recursiveCopyObject(valuesMapValues.get(i)));
+              break;
+            case USER_JSON:
+              JSONDotNotation.putWithDotNotation(json, fieldName,
+                      DiskMapRecords.recursiveCopyObject(JSONParse(valuesMapValues.get(i))));
+              break;
+            default:
+              DatabaseConfig.getLogger().log(Level.WARNING,
+                      "Ignoring unknown format: {0}", valuesMapKeys.get(i).type());
+              continue;
+          }
+          fieldNames.add(fieldName);
+        }
+        updateRecord(conn, collection, name, record);
+        reindex(conn, collection, name, record, fieldNames);
+        conn.commit();
+      } catch (SQLException e) {
+        rollback(conn);
+        throw new FailedDBOperationException(collection, name, e.getMessage());
+      } catch (JSONException e) {
+        rollback(conn);
+        throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+      }
+    }
+  }
+
+  // Values that aren't strings or numbers are JSON in some guise; store them as JSON
+  private static Object JSONParse(Object object) throws JSONException {
+    if (object instanceof String || object instanceof Number || object instanceof Boolean
+            || object instanceof JSONObject || object instanceof JSONArray
+            || object instanceof Map || object instanceof Collection || object == JSONObject.NULL) {
+      return object;
+    } else {
+      return new JSONTokener(object.toString()).nextValue();
+    }
+  }
+
+  @Override
+  public void removeMapKeys(String collection, String name,
+          ColumnField mapField, ArrayList<ColumnField> mapKeys)
+          throws FailedDBOperationException {
+    if (mapField == null || mapKeys == null) {
+      return;
+    }
+    Connection conn = null;
+    synchronized (getLock(name)) {
+      try {
+        conn = getConnection();
+        JSONObject record = readRecord(conn, collection, name);
+        if (record == null) {
+          throw new FailedDBOperationException(collection, name, "Record not found.");
+        }
+        JSONObject json = record.optJSONObject(mapField.getName());
+        List<String> fieldNames = new ArrayList<>();
+        if (json != null) {
+          for (ColumnField mapKey : mapKeys) {
+            if (JSONDotNotation.containsFieldDotNotation(mapKey.getName(), json)) {
+              JSONDotNotation.removeWithDotNotation(mapKey.getName(), json);
+              fieldNames.add(mapKey.getName());
+            }
+          }
+        }
+        if (!fieldNames.isEmpty()) {
+          updateRecord(conn, collection, name, record);
+          reindex(conn, collection, name, record, fieldNames);
+        }
+        conn.commit();
+      } catch (SQLException e) {
+        rollback(conn);
+        throw new FailedDBOperationException(collection, name, e.getMessage());
+      } catch (JSONException e) {
+        rollback(conn);
+        throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+      }
+    }
+  }
+
+  @Override
+  public int addToSet(String collection, String name, ColumnField mapField, String key,
+          ArrayList<Object> values) throws FailedDBOperationException {
+    return updateSet(collection, name, mapField, key, values, true);
+  }
+
+  @Override
+  public int removeFromSet(String collection, String name, ColumnField mapField, String key,
+          ArrayList<Object> values) throws FailedDBOperationException {
+    return updateSet(collection, name, mapField, key, values, false);
+  }
+
+  private int updateSet(String collection, String name, ColumnField mapField, String key,
+          ArrayList<Object> values, boolean add) throws FailedDBOperationException {
+    Connection conn = null;
+    synchronized (getLock(name)) {
+      try {
+        conn = getConnection();
+        JSONObject record = readRecord(conn, collection, name);
+        if (record == null) {
+          throw new FailedDBOperationException(collection, name, "Record not found.");
+        }
+        JSONObject json = record.optJSONObject(mapField.getName());
+        if (json == null) {
+          record.put(mapField.getName(), json = new JSONObject());
+        }
+        Object current = JSONDotNotation.containsFieldDotNotation(key, json)
+                ? JSONDotNotation.getWithDotNotation(key, json) : null;
+        JSONArray array = DiskMapRecords.updateSet(current, values, add);
+        int count = array != null ? DiskMapRecords.changedCount(current, array) : -1;
+        if (count > 0 || (count == 0 && current == null)) {
+          if (JSONDotNotation.putWithDotNotation(json, key, array)) {
+            updateRecord(conn, collection, name, record);
+            reindex(conn, collection, name, record, Collections.singletonList(key));
+          } else {
+            count = -1;
+          }
+        }
+        conn.commit();
+        return count;
+      } catch (SQLException e) {
+        rollback(conn);
+        throw new FailedDBOperationException(collection, name, e.getMessage());
+      } catch (JSONException e) {
+        rollback(conn);
+        throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+      }
+    }
+  }
+
+  /**
+   * Creates a secondary index on a field of the values map and indexes the
+   * existing records. Selects only use the index once all the existing
+   * records are in it. Geospatial index types are ignored.
+   *
+   * @param collection
+   * @param field
+   * @param index
+   */
+  @Override
+  public void createIndex(String collection, String field, String index) {
+    if (index != null && index.startsWith("2d")) {
+      DatabaseConfig.getLogger().log(Level.FINE,
+              "Ignoring {0} index on {1}; geospatial selects are scans", new Object[]{index, field});
+      return;
+    }
+    // Added before the existing records are indexed so that concurrent writes keep it up to date
+    if (!getFields(indexedFields, collection).add(field)) {
+      return;
+    }
+    Connection conn = null;
+    try {
+      conn = getConnection();
+      List<String> fields = Collections.singletonList(field);
+      String lastName = "";
+      int count;
+      do {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement statement = conn.prepareStatement(
+                "SELECT NAME FROM " + RECORDS_TABLE + " WHERE COLL = ? AND NAME > ?"
+                + " ORDER BY NAME FETCH FIRST " + BATCH_SIZE + " ROWS ONLY")) {
+          statement.setString(1, collection);
+          statement.setString(2, lastName);
+          try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+              names.add(lastName = rs.getString(1));
+            }
+          }
+        }
+        conn.commit();
+        for (String name : names) {
+          synchronized (getLock(name)) {
+            JSONObject record = readRecord(conn, collection, name);
+            if (record != null) {
+              reindex(conn, collection, name, record, fields);
+            }
+            conn.commit();
+          }
+        }
+        count = names.size();
+      } while (count == BATCH_SIZE);
+      // Recorded only now so that an index left half built by a crash is built again
+      try (PreparedStatement statement = conn.prepareStatement(
+              "INSERT INTO " + INDEXES_TABLE + " (COLL, FIELD) VALUES (?, ?)")) {
+        statement.setString(1, collection);
+        statement.setString(2, field);
+        statement.executeUpdate();
+      } catch (SQLException e) {
+        if (!DUPLICATE_KEY.equals(e.getSQLState())) {
+          throw e;
+        }
+      }
+      conn.commit();
+      getFields(selectableFields, collection).add(field);
+      DatabaseConfig.getLogger().log(Level.INFO, "Created index on {0} in {1}",
+              new Object[]{field, collection});
+    } catch (SQLException | JSONException e) {
+      rollback(conn);
+      getFields(indexedFields, collection).remove(field);
+      DatabaseConfig.getLogger().log(Level.SEVERE, "Unable to create index on {0}: {1}",
+              new Object[]{field, e});
+    }
+  }
+
+  // Rewrites the index values of the record for the indexed fields affected by the
+  // changed fields. If changedFields is null all indexed fields are rewritten.
+  private void reindex(Connection conn, String collection, String name, JSONObject record,
+          Collection<String> changedFields) throws SQLException, JSONException {
+    Set<String> indexed = indexedFields.get(collection);
+    if (indexed == null || indexed.isEmpty()) {
+      return;
+    }
+    if (changedFields == null) {
+      deleteIndexValues(conn, collection, name, null);
+    }
+    JSONObject valuesMap = record.optJSONObject(NameRecord.VALUES_MAP.getName());
+    for (String field : indexed) {
+      if (changedFields != null && !affects(changedFields, field)) {
+        continue;
+      }
+      if (changedFields != null) {
+        deleteIndexValues(conn, collection, name, field);
+      }
+      if (valuesMap == null) {
+        continue;
+      }
+      Set<String> values = new LinkedHashSet<>();
+      for (Object value : JSONQueryMatcher.resolve(valuesMap, field)) {
+        addIndexValue(values, value);
+        if (value instanceof JSONArray) {
+          JSONArray array = (JSONArray) value;
+          for (int i = 0; i < array.length(); i++) {
+            addIndexValue(values, array.get(i));
+          }
+        }
+      }
+      if (values.isEmpty()) {
+        continue;
+      }
+      try (PreparedStatement statement = conn.prepareStatement(
+              "INSERT INTO " + VALUES_TABLE + " (COLL, FIELD, VAL, NAME) VALUES (?, ?, ?, ?)")) {
+        for (String value : values) {
+          statement.setString(1, collection);
+          statement.setString(2, field);
+          statement.setString(3, value);
+          statement.setString(4, name);
+          statement.addBatch();
+        }
+        statement.executeBatch();
+      }
+    }
+  }
+
+  private static boolean affects(Collection<String> changedFields, String indexedField) {
+    for (String changed : changedFields) {
+      if (changed.equals(indexedField) || indexedField.startsWith(changed + ".")
+              || changed.startsWith(indexedField + ".")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Deletes the index values of one field of the record or all of them if field is null
+  private static void deleteIndexValues(Connection conn, String collection, String name, String field)
+          throws SQLException {
+    try (PreparedStatement statement = conn.prepareStatement(
+            "DELETE FROM " + VALUES_TABLE + " WHERE COLL = ? AND NAME = ?"
+            + (field != null ? " AND FIELD = ?" : ""))) {
+      statement.setString(1, collection);
+      statement.setString(2, name);
+      if (field != null) {
+        statement.setString(3, field);
+      }
+      statement.executeUpdate();
+    }
+  }
+
+  private static void addIndexValue(Set<String> values, Object value) {
+    String encoded = encodeIndexValue(value);
+    if (encoded != null) {
+      values.add(encoded);
+    }
+  }
+
+  /**
+   * Returns the form a scalar value is stored in the index in or null if it
+   * can't be indexed. The type is part of the encoding and numbers are canonical so
+   * that the index agrees with the equality of {@link JSONQueryMatcher}.
+   *
+   * @param value
+   * @return the encoded value or null
+   */
+  static String encodeIndexValue(Object value) {
+    String encoded;
+    if (value instanceof String) {
+      encoded = "s" + value;
+    } else if (value instanceof Number) {
+      try {
+        encoded = "n" + new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+      } catch (NumberFormatException e) {
+        // NaN and infinities
+        return null;
+      }
+    } else if (value instanceof Boolean) {
+      encoded = "b" + value;
+    } else {
+      return null;
+    }
+    if (encoded.length() > MAX_INDEX_VALUE_LENGTH) {
+      encoded = "h" + sha256(encoded);
+    }
+    return encoded;
+  }
+
+  private static String sha256(String string) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(string.getBytes(StandardCharsets.UTF_8));
+      StringBuilder result = new StringBuilder();
+      for (byte b : digest) {
+        result.append(String.format("%02x", b));
+      }
+      return result.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public AbstractRecordCursor getAllRowsIterator(String collection) throws FailedDBOperationException {
+    return new DerbyRecordCursor(collection, null, null, null, null, null, -1, null);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value)
+          throws FailedDBOperationException {
+    return selectRecords(collection, valuesMapField, key, value, null);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    String fieldName = valuesMapField.getName() + "." + key;
+    try {
+      // Like mongo this matches a list value that contains the value
+      JSONObject query = new JSONObject();
+      query.put(fieldName, DiskMapRecords.recursiveCopyObject(value));
+      return select(collection, valuesMapField, query, projection, null, -1);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, fieldName, e.getMessage());
+    }
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value)
+          throws FailedDBOperationException {
+    return selectRecordsWithin(collection, valuesMapField, key, value, null);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    String fieldName = valuesMapField.getName() + "." + key;
+    try {
+      JSONArray json = new JSONArray(value);
+      JSONArray box = new JSONArray();
+      box.put(new JSONArray().put(json.getJSONArray(0).getDouble(0)).put(json.getJSONArray(0).getDouble(1)));
+      box.put(new JSONArray().put(json.getJSONArray(1).getDouble(0)).put(json.getJSONArray(1).getDouble(1)));
+      JSONObject query = new JSONObject();
+      query.put(fieldName, new JSONObject().put("$geoWithin", new JSONObject().put("$box", box)));
+      return select(collection, valuesMapField, query, projection, null, -1);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, fieldName, "Unable to parse " + value);
+    }
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value,
+          Double maxDistance) throws FailedDBOperationException {
+    return selectRecordsNear(collection, valuesMapField, key, value, maxDistance, null);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value,
+          Double maxDistance, ArrayList<String> projection) throws FailedDBOperationException {
+    String fieldName = valuesMapField.getName() + "." + key;
+    final double[] center;
+    JSONObject query = new JSONObject();
+    try {
+      JSONArray json = new JSONArray(value);
+      center = new double[]{json.getDouble(0), json.getDouble(1)};
+      query.put(fieldName, new JSONObject()
+              .put("$near", new JSONArray().put(center[0]).put(center[1]))
+              .put("$maxDistance", maxDistance / METERS_PER_DEGREE));
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, fieldName, "Unable to parse " + value);
+    }
+    // Like mongo the results are returned nearest first so they have to be collected first
+    AbstractRecordCursor cursor = select(collection, valuesMapField, query, null, null, -1);
+    final Map<JSONObject, Double> distances = new IdentityHashMap<>();
+    List<JSONObject> records = new ArrayList<>();
+    try {
+      while (cursor.hasNext()) {
+        JSONObject record = cursor.nextJSONObject();
+        double distance = Double.POSITIVE_INFINITY;
+        for (Object location : JSONQueryMatcher.resolve(record, fieldName)) {
+          double[] point = JSONQueryMatcher.point(location);
+          if (point != null) {
+            distance = Math.min(distance, JSONQueryMatcher.distance(point, center));
+          }
+        }
+        distances.put(record, distance);
+        records.add(record);
+      }
+      Collections.sort(records, (JSONObject record1, JSONObject record2)
+              -> Double.compare(distances.get(record1), distances.get(record2)));
+      List<JSONObject> result = new ArrayList<>(records.size());
+      for (JSONObject record : records) {
+        result.add(project(record, valuesMapField, projection));
+      }
+      return new ListRecordCursor(result.iterator());
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, fieldName, e.getMessage());
+    }
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query)
+          throws FailedDBOperationException {
+    return selectRecordsQuery(collection, valuesMapField, query, null, null, -1);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query,
+          ArrayList<String> projection, String afterName, int limit) throws FailedDBOperationException {
+    try {
+      return select(collection, valuesMapField,
+              JSONQueryMatcher.fromGNSQuery(query, valuesMapField).getQuery(), projection, afterName, limit);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, query, e.getMessage());
+    }
+  }
+
+  private AbstractRecordCursor select(String collection, ColumnField valuesMapField, JSONObject query,
+          ArrayList<String> projection, String afterName, int limit) throws FailedDBOperationException {
+    JSONQueryMatcher matcher = new JSONQueryMatcher(query);
+    try {
+      // Surfaces unsupported operators now rather than halfway through the results
+      matcher.matches(new JSONObject());
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, query.toString(), e.getMessage());
+    }
+    String pinnedName = null;
+    String indexedField = null;
+    String indexedValue = null;
+    Set<String> indexed = selectableFields.get(collection);
+    String prefix = valuesMapField.getName() + ".";
+    for (Map.Entry<String, Object> clause : conjuncts(query)) {
+      String key = clause.getKey();
+      Object value = clause.getValue();
+      if (key.equals(NameRecord.NAME.getName()) && value instanceof String) {
+        pinnedName = (String) value;
+        break;
+      }
+      if (indexedField == null && indexed != null && key.startsWith(prefix)
+              && indexed.contains(key.substring(prefix.length()))
+              && encodeIndexValue(value) != null) {
+        indexedField = key.substring(prefix.length());
+        indexedValue = encodeIndexValue(value);
+      }
+    }
+    if (pinnedName != null) {
+      indexedField = null;
+      indexedValue = null;
+    }
+    DatabaseConfig.getLogger().log(Level.FINE, "Select {0} using {1}", new Object[]{query,
+      pinnedName != null ? "name" : indexedField != null ? "index on " + indexedField : "scan"});
+    return new DerbyRecordCursor(collection, matcher, valuesMapField, projection,
+            pinnedName, indexedField != null ? new String[]{indexedField, indexedValue} : null,
+            limit, afterName);
+  }
+
+  // The top level clauses of the query and of a top level $and that must all hold
+  private static List<Map.Entry<String, Object>> conjuncts(JSONObject query) {
+    List<Map.Entry<String, Object>> result = new ArrayList<>();
+    Iterator<?> keys = query.keys();
+    while (keys.hasNext()) {
+      String key = (String) keys.next();
+      Object value = query.opt(key);
+      if ("$and".equals(key) && value instanceof JSONArray) {
+        JSONArray clauses = (JSONArray) value;
+        for (int i = 0; i < clauses.length(); i++) {
+          JSONObject clause = clauses.optJSONObject(i);
+          if (clause != null) {
+            result.addAll(conjuncts(clause));
+          }
+        }
+      } else if (!key.startsWith("$")) {
+        result.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+      }
+    }
+    return result;
+  }
+
+  // Returns the primary key plus the given fields of the values map like mongo's projections.
+  // Null means everything.
+  private static JSONObject project(JSONObject record, ColumnField valuesMapField,
+          ArrayList<String> projection) throws JSONException {
+    if (projection == null || valuesMapField == null) {
+      return record;
+    }
+    JSONObject result = new JSONObject();
+    result.put(NameRecord.NAME.getName(), record.opt(NameRecord.NAME.getName()));
+    JSONObject valuesMap = record.optJSONObject(valuesMapField.getName());
+    if (valuesMap != null) {
+      JSONObject projected = new JSONObject();
+      for (String field : projection) {
+        if (JSONDotNotation.containsFieldDotNotation(field, valuesMap)) {
+          JSONDotNotation.putWithDotNotation(projected, field,
+                  JSONDotNotation.getWithDotNotation(field, valuesMap));
+        }
+      }
+      if (projected.length() > 0) {
+        result.put(valuesMapField.getName(), projected);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Reads the records in name order a batch at a time, each batch in a short
+   * transaction of its own, so an abandoned cursor holds no database resources.
+   * Records are read either from all the records of the collection, from the
+   * records that have a value in an index or just the record with the given name.
+   */
+  private class DerbyRecordCursor extends AbstractRecordCursor {
+
+    private final String collection;
+    private final JSONQueryMatcher matcher;
+    private final ColumnField valuesMapField;
+    private final ArrayList<String> projection;
+    private final String pinnedName;
+    private final String[] indexedFieldAndValue;
+    private final ArrayDeque<JSONObject> buffer = new ArrayDeque<>();
+    private int remaining;
+    private String lastName;
+    private boolean exhausted = false;
+
+    private DerbyRecordCursor(String collection, JSONQueryMatcher matcher, ColumnField valuesMapField,
+            ArrayList<String> projection, String pinnedName, String[] indexedFieldAndValue, int limit,
+            String afterName) {
+      this.collection = collection;
+      this.matcher = matcher;
+      this.valuesMapField = valuesMapField;
+      this.projection = projection;
+      this.pinnedName = pinnedName;
+      this.indexedFieldAndValue = indexedFieldAndValue;
+      this.remaining = limit > 0 ? limit : -1;
+      // Names are never empty so this is before all of them
+      this.lastName = afterName != null ? afterName : "";
+    }
+
+    @Override
+    public boolean hasNext() throws FailedDBOperationException {
+      while (buffer.isEmpty() && !exhausted) {
+        readBatch();
+      }
+      return !buffer.isEmpty();
+    }
+
+    @Override
+    public JSONObject nextJSONObject() throws FailedDBOperationException {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return buffer.poll();
+    }
+
+    private PreparedStatement prepare(Connection conn) throws SQLException {
+      PreparedStatement statement;
+      if (pinnedName != null) {
+        statement = conn.prepareStatement("SELECT NAME, RECORD FROM " + RECORDS_TABLE
+                + " WHERE COLL = ? AND NAME > ? AND NAME = ?");
+        statement.setString(3, pinnedName);
+      } else if (indexedFieldAndValue != null) {
+        statement = conn.prepareStatement("SELECT R.NAME, R.RECORD FROM " + VALUES_TABLE + " V JOIN "
+                + RECORDS_TABLE + " R ON R.COLL = V.COLL AND R.NAME = V.NAME"
+                + " WHERE V.COLL = ? AND V.NAME > ? AND V.FIELD = ? AND V.VAL = ?"
+                + " ORDER BY V.NAME FETCH FIRST " + BATCH_SIZE + " ROWS ONLY");
+        statement.setString(3, indexedFieldAndValue[0]);
+        statement.setString(4, indexedFieldAndValue[1]);
+      } else {
+        statement = conn.prepareStatement("SELECT NAME, RECORD FROM " + RECORDS_TABLE
+                + " WHERE COLL = ? AND NAME > ? ORDER BY NAME FETCH FIRST " + BATCH_SIZE + " ROWS ONLY");
+      }
+      statement.setString(1, collection);
+      statement.setString(2, lastName);
+      return statement;
+    }
+
+    private void readBatch() throws FailedDBOperationException {
+      Connection conn = null;
+      int count = 0;
+      try {
+        conn = getConnection();
+        try (PreparedStatement statement = prepare(conn);
+                ResultSet rs = statement.executeQuery()) {
+          while (remaining != 0 && rs.next()) {
+            count++;
+            lastName = rs.getString(1);
+            JSONObject record = new JSONObject(rs.getString(2));
+            if (matcher == null || matcher.matches(record)) {
+              buffer.add(project(record, valuesMapField, projection));
+              if (remaining > 0) {
+                remaining--;
+              }
+            }
+          }
+        }
+        conn.commit();
+      } catch (SQLException e) {
+        rollback(conn);
+        exhausted = true;
+        throw new FailedDBOperationException(collection, lastName, e.getMessage());
+      } catch (JSONException e) {
+        rollback(conn);
+        exhausted = true;
+        throw new FailedDBOperationException(collection, lastName, "Unable to parse json record");
+      }
+      if (count < BATCH_SIZE || pinnedName != null || remaining == 0) {
+        exhausted = true;
+      }
+    }
+  }
+
+  /**
+   * A cursor over records that have already been read.
+   */
+  private static class ListRecordCursor extends AbstractRecordCursor {
+
+    private final Iterator<JSONObject> iterator;
+
+    private ListRecordCursor(Iterator<JSONObject> iterator) {
+      this.iterator = iterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return iterator.hasNext();
+    }
+
+    @Override
+    public JSONObject nextJSONObject() {
+      return iterator.next();
+    }
+  }
+
+  @Override
+  public void printAllEntries(String collection) throws FailedDBOperationException {
+    AbstractRecordCursor cursor = getAllRowsIterator(collection);
+    while (cursor.hasNext()) {
+      System.out.println(cursor.nextJSONObject());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DB " + dbName;
+  }
+
+  /**
+   * Closes the connections of all threads and shuts down the database.
+   * Should be called before shutting down the name server.
+   */
+  public void close() {
+    for (Connection conn : openConnections) {
+      try {
+        // Derby won't close a connection in the middle of a transaction
+        conn.rollback();
+        conn.close();
+      } catch (SQLException e) {
+        DatabaseConfig.getLogger().log(Level.FINE, "Unable to close connection: {0}", e.getMessage());
+      }
+    }
+    openConnections.clear();
+    try {
+      DriverManager.getConnection("jdbc:derby:" + dbName + ";shutdown=true");
+    } catch (SQLException e) {
+      // Derby always reports a successful shutdown with an exception
+      DatabaseConfig.getLogger().log(Level.FINE, "Derby DB shut down: {0}", e.getMessage());
+    }
+  }
+}
@@ -9,6 +9,7 @@ package edu.umass.cs.gnsserver.database;
 
 import com.mongodb.util.JSON;
 
+import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
@@ -22,7 +23,9 @@ import edu.umass.cs.utils.DiskMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
@@ -37,6 +40,13 @@ import org.json.JSONObject;
  *
  * See DiskMapCollection for more details.
  *
+ * Records in the map are treated as immutable versions. Writes never modify a
+ * stored record; they build a new version that shares every part of the old one
+ * except the path to the fields being changed and put that in the map instead.
+ * This means reads of individual fields only have to copy the values they return
+ * and not the whole record. lookupEntireRecord still returns a private deep copy
+ * because its callers modify what they get back.
+ *
  *
  * @author westy, arun
  */
@@ -96,7 +106,12 @@ public class DiskMapRecords implements NoSQLRecords {
   @Override
   public void insert(String collection, String name, JSONObject value)
           throws FailedDBOperationException, RecordExistsException {
-    getMap(collection).put(name, value);
+    try {
+      // The caller still holds value so store our own version
+      getMap(collection).put(name, recursiveCopyJSONObject(value));
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+    }
   }
 
   @Override
@@ -114,6 +129,48 @@ public class DiskMapRecords implements NoSQLRecords {
     }
   }
 
+  // Returns the stored version of the record which must not be modified.
+  private JSONObject lookupStoredRecord(String collection, String name)
+          throws RecordNotFoundException {
+    JSONObject record;
+    if ((record = getMap(collection).get(name)) == null) {
+      throw new RecordNotFoundException(name);
+    }
+    return record;
+  }
+
+  // Makes a new version of the values map of record in which the JSON Objects along the
+  // path to the dotted key are fresh copies so that they can be modified. Everything else
+  // is shared with the stored version.
+  @SuppressWarnings("unchecked")
+  private static JSONObject copyPath(JSONObject valuesMap, String key) throws JSONException {
+    JSONObject result = shallowCopy(valuesMap);
+    JSONObject parent = result;
+    int dot;
+    while ((dot = key.indexOf('.')) != -1) {
+      String subKey = key.substring(0, dot);
+      Object child = parent.opt(subKey);
+      JSONObject copy;
+      if (child instanceof JSONObject) {
+        copy = shallowCopy((JSONObject) child);
+      } else if (child instanceof Map) {
+        copy = recursiveCopyMap((Map<String, ?>) child);
+      } else {
+        // Absent or not an object; leave it to the dot notation code to deal with
+        return result;
+      }
+      parent.put(subKey, copy);
+      parent = copy;
+      key = key.substring(dot + 1);
+    }
+    return result;
+  }
+
+  private static JSONObject shallowCopy(JSONObject json) throws JSONException {
+    String[] keys = JSONObject.getNames(json);
+    return keys != null ? new JSONObject(json, keys) : new JSONObject();
+  }
+
   /**
    * arun: The methods below copy a JSONObject recursively without stringification while
    * converting BasicDBObject and BasicDBList as needed. As in any JSONObject, it is assumed
@@ -163,7 +220,7 @@ public class DiskMapRecords implements NoSQLRecords {
   }
 
   @SuppressWarnings({"unchecked", "rawtypes"})
-  private static Object recursiveCopyObject(Object value)
+  static Object recursiveCopyObject(Object value)
           throws JSONException {
     if (value instanceof JSONObject) {
       value = recursiveCopyJSONObject((JSONObject) value);
@@ -198,7 +255,8 @@ public class DiskMapRecords implements NoSQLRecords {
           ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
           throws RecordNotFoundException, FailedDBOperationException {
 
-    JSONObject record = lookupEntireRecord(collection, name);
+    // No copy of the whole record; only the values we hand out are copied below
+    JSONObject record = lookupStoredRecord(collection, name);
 //    LOGGER.log(Level.FINE, "Full record " + record.toString());
     HashMap<ColumnField, Object> hashMap = new HashMap<>();
     hashMap.put(nameField, name);
@@ -216,7 +274,7 @@ public class DiskMapRecords implements NoSQLRecords {
           try {
             switch (valuesMapKeys.get(i).type()) {
               case USER_JSON:
-                Object value = JSONDotNotation.getWithDotNotation(userKey, readValuesMap);
+                Object value = recursiveCopyObject(JSONDotNotation.getWithDotNotation(userKey, readValuesMap));
                 LOGGER.log(Level.FINE,
                         "Object is {0}", new Object[]{value.toString()});
                 valuesMapOut.put(userKey, value);
@@ -262,7 +320,8 @@ public class DiskMapRecords implements NoSQLRecords {
     JSONObject json = new JSONObject();
     try {
       json.put(NameRecord.NAME.getName(), name);
-      json.put(NameRecord.VALUES_MAP.getName(), valuesMap);
+      // The caller still holds valuesMap so store our own version
+      json.put(NameRecord.VALUES_MAP.getName(), recursiveCopyJSONObject(valuesMap));
       getMap(collection).put(name, json);
     } catch (JSONException e) {
 
@@ -276,7 +335,7 @@ public class DiskMapRecords implements NoSQLRecords {
     LOGGER.log(Level.FINE, "Update fields {0}/{1}", new Object[]{name, valuesMapKeys});
     JSONObject record;
     try {
-      record = lookupEntireRecord(collection, name);
+      record = lookupStoredRecord(collection, name);
     } catch (RecordNotFoundException e) {
       throw new FailedDBOperationException(collection, name, "Record not found.");
     }
@@ -284,18 +343,27 @@ public class DiskMapRecords implements NoSQLRecords {
     if (record == null) {
       throw new FailedDBOperationException(collection, name);
     }
+    try {
+      // The new version of the record
+      record = shallowCopy(record);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+    }
     if (valuesMapField != null && valuesMapKeys != null) {
       try {
         JSONObject json = record.getJSONObject(valuesMapField.getName());
         for (int i = 0; i < valuesMapKeys.size(); i++) {
           String fieldName = valuesMapKeys.get(i).getName();
+          json = copyPath(json, fieldName);
           switch (valuesMapKeys.get(i).type()) {
             case LIST_STRING:
-              JSONDotNotation.putWithDotNotation(json, fieldName, valuesMapValues.get(i));
+              JSONDotNotation.putWithDotNotation(json, fieldName, recursiveCopyObject(valuesMapValues.get(i)));
               //json.put(fieldName, valuesMapValues.get(i));
               break;
             case USER_JSON:
-              JSONDotNotation.putWithDotNotation(json, fieldName, JSONParse(valuesMapValues.get(i)));
+              // Stored versions only contain JSON Objects and Arrays, not DBObjects
+              JSONDotNotation.putWithDotNotation(json, fieldName,
+                      recursiveCopyObject(JSONParse(valuesMapValues.get(i))));
               //json.put(fieldName, JSONParse(valuesMapValues.get(i)));
               break;
             default:
@@ -330,13 +398,19 @@ public class DiskMapRecords implements NoSQLRecords {
           throws FailedDBOperationException {
     JSONObject record = null;
     try {
-      record = lookupEntireRecord(collection, name);
+      record = lookupStoredRecord(collection, name);
     } catch (RecordNotFoundException e) {
     }
     LOGGER.log(Level.FINE, "Record before:{0}", record);
     if (record == null) {
       throw new FailedDBOperationException(collection, name, "Record not found.");
     }
+    try {
+      // The new version of the record
+      record = shallowCopy(record);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+    }
     if (mapField != null && mapKeys != null) {
       try {
         JSONObject json = record.getJSONObject(mapField.getName());
@@ -344,6 +418,7 @@ public class DiskMapRecords implements NoSQLRecords {
         for (int i = 0; i < mapKeys.size(); i++) {
           String fieldName = mapKeys.get(i).getName();
           LOGGER.log(Level.FINE, "Removing: {0}", fieldName);
+          json = copyPath(json, fieldName);
           JSONDotNotation.removeWithDotNotation(fieldName, json);
           //json.remove(fieldName);
         }
@@ -358,6 +433,111 @@ public class DiskMapRecords implements NoSQLRecords {
     getMap(collection).put(name, record);
   }
 
+  @Override
+  public int addToSet(String collection, String name, ColumnField mapField, String key,
+          ArrayList<Object> values) throws FailedDBOperationException {
+    return updateSet(collection, name, mapField, key, values, true);
+  }
+
+  @Override
+  public int removeFromSet(String collection, String name, ColumnField mapField, String key,
+          ArrayList<Object> values) throws FailedDBOperationException {
+    return updateSet(collection, name, mapField, key, values, false);
+  }
+
+  private int updateSet(String collection, String name, ColumnField mapField, String key,
+          ArrayList<Object> values, boolean add) throws FailedDBOperationException {
+    LOGGER.log(Level.FINE, "Update set {0}/{1}", new Object[]{name, key});
+    JSONObject record;
+    try {
+      record = lookupStoredRecord(collection, name);
+    } catch (RecordNotFoundException e) {
+      throw new FailedDBOperationException(collection, name, "Record not found.");
+    }
+    try {
+      JSONObject json = record.optJSONObject(mapField.getName());
+      Object current = json != null && JSONDotNotation.containsFieldDotNotation(key, json)
+              ? JSONDotNotation.getWithDotNotation(key, json) : null;
+      JSONArray array = updateSet(current, values, add);
+      if (array == null) {
+        return -1;
+      }
+      int count = changedCount(current, array);
+      if (count == 0 && current != null) {
+        return 0;
+      }
+      // The new version of the record
+      record = shallowCopy(record);
+      json = json != null ? copyPath(json, key) : new JSONObject();
+      if (!JSONDotNotation.putWithDotNotation(json, key, array)) {
+        return -1;
+      }
+      record.put(mapField.getName(), json);
+      getMap(collection).put(name, record);
+      return count;
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+    }
+  }
+
+  /**
+   * Returns how many elements were added to or removed from current to get the
+   * array returned by {@link #updateSet(Object, Collection, boolean)}.
+   *
+   * @param current
+   * @param array
+   * @return the number of elements added or removed
+   */
+  static int changedCount(Object current, JSONArray array) {
+    return Math.abs(array.length() - (current != null ? ((JSONArray) current).length() : 0));
+  }
+
+  /**
+   * Returns a new version of the array current with the values added to it if they
+   * aren't already in it, or with every occurrence of them removed from it.
+   * Membership is checked with a hash set so this is linear in the size of the array
+   * plus the number of values. Returns null if current isn't an array or absent, or
+   * if adding, is a null list, all of which the caller has to deal with some other way.
+   *
+   * @param current
+   * @param values
+   * @param add
+   * @return the new array or null
+   * @throws JSONException
+   */
+  static JSONArray updateSet(Object current, Collection<?> values, boolean add) throws JSONException {
+    if (current != null && !(current instanceof JSONArray)) {
+      return null;
+    }
+    JSONArray array = current != null ? (JSONArray) current : new JSONArray();
+    if (add && array.length() > 0
+            && GNSProtocol.NULL_RESPONSE.toString().equals(array.opt(0))) {
+      return null;
+    }
+    JSONArray result = new JSONArray();
+    if (add) {
+      Set<Object> elements = new HashSet<>();
+      for (int i = 0; i < array.length(); i++) {
+        // Stored elements are shared with the old version but never modified
+        result.put(array.get(i));
+        elements.add(array.get(i));
+      }
+      for (Object value : values) {
+        if (elements.add(value)) {
+          result.put(recursiveCopyObject(value));
+        }
+      }
+    } else {
+      Set<Object> removals = new HashSet<>(values);
+      for (int i = 0; i < array.length(); i++) {
+        if (!removals.contains(array.get(i))) {
+          result.put(array.get(i));
+        }
+      }
+    }
+    return result;
+  }
+
   @Override
   public AbstractRecordCursor getAllRowsIterator(String collection) throws FailedDBOperationException {
     getMap(collection).commit();
@@ -370,24 +550,53 @@ public class DiskMapRecords implements NoSQLRecords {
     return getMongoRecords(collection).selectRecords(DBNAMERECORD, valuesMapField, key, value);
   }
 
+  @Override
+  public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    getMap(collection).commit();
+    return getMongoRecords(collection).selectRecords(DBNAMERECORD, valuesMapField, key, value, projection);
+  }
+
   @Override
   public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value) throws FailedDBOperationException {
     getMap(collection).commit();
     return getMongoRecords(collection).selectRecordsWithin(DBNAMERECORD, valuesMapField, key, value);
   }
 
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    getMap(collection).commit();
+    return getMongoRecords(collection).selectRecordsWithin(DBNAMERECORD, valuesMapField, key, value, projection);
+  }
+
   @Override
   public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value, Double maxDistance) throws FailedDBOperationException {
     getMap(collection).commit();
     return getMongoRecords(collection).selectRecordsNear(DBNAMERECORD, valuesMapField, key, value, maxDistance);
   }
 
+  @Override
+  public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value,
+          Double maxDistance, ArrayList<String> projection) throws FailedDBOperationException {
+    getMap(collection).commit();
+    return getMongoRecords(collection).selectRecordsNear(DBNAMERECORD, valuesMapField, key, value, maxDistance, projection);
+  }
+
   @Override
   public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query) throws FailedDBOperationException {
     getMap(collection).commit();
     return getMongoRecords(collection).selectRecordsQuery(DBNAMERECORD, valuesMapField, query);
   }
 
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query,
+          ArrayList<String> projection, String afterName, int limit) throws FailedDBOperationException {
+    getMap(collection).commit();
+    return getMongoRecords(collection).selectRecordsQuery(DBNAMERECORD, valuesMapField, query,
+            projection, afterName, limit);
+  }
+
   @Override
   public void createIndex(String collection, String field, String index) {
     getMap(collection).commit();
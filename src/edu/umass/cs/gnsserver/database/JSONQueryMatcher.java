@@ -0,0 +1,551 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.database;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Evaluates the subset of the mongo query language that the GNS uses against
+ * records held as JSONObjects. This is for storage engines that don't have a
+ * query language of their own.
+ *
+ * Supported are equality (which like mongo also matches an element of an array),
+ * $eq, $ne, $gt, $gte, $lt, $lte, $in, $nin, $exists, $not, $regex, $options,
+ * $all, $size, $elemMatch, $and, $or, $nor, $geoWithin (or $within) with a $box
+ * or $center and $near (or $nearSphere) with a $maxDistance. Locations are legacy
+ * coordinate pairs and distances are flat distances in degrees just as they are
+ * for mongo's 2d indexes. Anything else makes {@link #matches} throw a JSONException.
+ *
+ * @author westy
+ */
+public class JSONQueryMatcher {
+
+  private final JSONObject query;
+
+  /**
+   * Creates a JSONQueryMatcher for a query in mongo's JSON form.
+   *
+   * @param query
+   */
+  public JSONQueryMatcher(JSONObject query) {
+    this.query = query;
+  }
+
+  /**
+   * Creates a JSONQueryMatcher for a query in the GNS syntax.
+   * Converts something like this: ~fred : ($gt: 0) into the
+   * mongo form, namely this: {nr_valuesMap.fred : {$gt: 0}}
+   * exactly like MongoRecords does.
+   *
+   * @param query
+   * @param valuesMapField
+   * @return a JSONQueryMatcher
+   * @throws JSONException if the query can't be parsed
+   */
+  public static JSONQueryMatcher fromGNSQuery(String query, ColumnField valuesMapField)
+          throws JSONException {
+    query = "{" + query + "}";
+    query = query.replace("(", "{");
+    query = query.replace(")", "}");
+    query = query.replace("~", valuesMapField.getName() + ".");
+    return new JSONQueryMatcher(new JSONObject(query));
+  }
+
+  /**
+   * Returns the query in mongo's JSON form.
+   *
+   * @return the query
+   */
+  public JSONObject getQuery() {
+    return query;
+  }
+
+  /**
+   * Returns true if the record matches the query.
+   *
+   * @param record
+   * @return true if the record matches
+   * @throws JSONException if the query uses something that isn't supported
+   */
+  public boolean matches(JSONObject record) throws JSONException {
+    return matchesDocument(record, query);
+  }
+
+  private static boolean matchesDocument(JSONObject document, JSONObject query) throws JSONException {
+    Iterator<?> keys = query.keys();
+    while (keys.hasNext()) {
+      String key = (String) keys.next();
+      Object condition = query.get(key);
+      switch (key) {
+        case "$and":
+          for (JSONObject clause : clauses(condition)) {
+            if (!matchesDocument(document, clause)) {
+              return false;
+            }
+          }
+          break;
+        case "$or": {
+          boolean any = false;
+          for (JSONObject clause : clauses(condition)) {
+            if (matchesDocument(document, clause)) {
+              any = true;
+              break;
+            }
+          }
+          if (!any) {
+            return false;
+          }
+          break;
+        }
+        case "$nor":
+          for (JSONObject clause : clauses(condition)) {
+            if (matchesDocument(document, clause)) {
+              return false;
+            }
+          }
+          break;
+        case "$comment":
+          break;
+        default:
+          if (key.startsWith("$")) {
+            throw new JSONException("Unsupported query operator " + key);
+          }
+          List<Object> values = resolve(document, key);
+          if (isOperatorObject(condition)) {
+            if (!matchesOperators(values, (JSONObject) condition)) {
+              return false;
+            }
+          } else if (!matchesValue(values, condition)) {
+            return false;
+          }
+          break;
+      }
+    }
+    return true;
+  }
+
+  private static List<JSONObject> clauses(Object condition) throws JSONException {
+    if (!(condition instanceof JSONArray)) {
+      throw new JSONException("Expected an array of clauses but got " + condition);
+    }
+    JSONArray array = (JSONArray) condition;
+    List<JSONObject> result = new ArrayList<>(array.length());
+    for (int i = 0; i < array.length(); i++) {
+      result.add(array.getJSONObject(i));
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if condition is an object of operators like {$gt: 0}
+   * rather than a value to compare to.
+   *
+   * @param condition
+   * @return true if condition is an object of operators
+   */
+  static boolean isOperatorObject(Object condition) {
+    if (!(condition instanceof JSONObject)) {
+      return false;
+    }
+    Iterator<?> keys = ((JSONObject) condition).keys();
+    return keys.hasNext() && ((String) keys.next()).startsWith("$");
+  }
+
+  /**
+   * Returns all the values the dotted key refers to in the document.
+   * Like mongo, a key that runs into an array of documents is applied to
+   * each of the documents. An empty list means the key doesn't exist.
+   *
+   * @param document
+   * @param key
+   * @return the values
+   * @throws JSONException
+   */
+  static List<Object> resolve(Object document, String key) throws JSONException {
+    List<Object> values = new ArrayList<>();
+    resolve(document, key.split("\\."), 0, values);
+    return values;
+  }
+
+  private static void resolve(Object document, String[] path, int index, List<Object> values)
+          throws JSONException {
+    if (index == path.length) {
+      values.add(document);
+    } else if (document instanceof JSONObject) {
+      JSONObject json = (JSONObject) document;
+      if (json.has(path[index])) {
+        resolve(json.get(path[index]), path, index + 1, values);
+      }
+    } else if (document instanceof JSONArray) {
+      JSONArray array = (JSONArray) document;
+      if (isArrayIndex(path[index])) {
+        int position = Integer.parseInt(path[index]);
+        if (position < array.length()) {
+          resolve(array.get(position), path, index + 1, values);
+        }
+      }
+      for (int i = 0; i < array.length(); i++) {
+        if (array.get(i) instanceof JSONObject) {
+          resolve(array.get(i), path, index, values);
+        }
+      }
+    }
+  }
+
+  private static boolean isArrayIndex(String string) {
+    if (string.isEmpty() || string.length() > 9) {
+      return false;
+    }
+    for (int i = 0; i < string.length(); i++) {
+      if (!Character.isDigit(string.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The values plus the elements of any values that are arrays
+  private static List<Object> expand(List<Object> values) throws JSONException {
+    List<Object> result = new ArrayList<>(values);
+    for (Object value : values) {
+      if (value instanceof JSONArray) {
+        JSONArray array = (JSONArray) value;
+        for (int i = 0; i < array.length(); i++) {
+          result.add(array.get(i));
+        }
+      }
+    }
+    return result;
+  }
+
+  private static boolean matchesValue(List<Object> values, Object target) throws JSONException {
+    if (target == JSONObject.NULL && values.isEmpty()) {
+      return true;
+    }
+    for (Object value : expand(values)) {
+      if (equal(value, target)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean matchesOperators(List<Object> values, JSONObject operators)
+          throws JSONException {
+    Iterator<?> keys = operators.keys();
+    while (keys.hasNext()) {
+      String operator = (String) keys.next();
+      Object argument = operators.get(operator);
+      boolean result;
+      switch (operator) {
+        case "$eq":
+          result = matchesValue(values, argument);
+          break;
+        case "$ne":
+          result = !matchesValue(values, argument);
+          break;
+        case "$gt":
+          result = matchesComparison(values, argument, 1, false);
+          break;
+        case "$gte":
+          result = matchesComparison(values, argument, 1, true);
+          break;
+        case "$lt":
+          result = matchesComparison(values, argument, -1, false);
+          break;
+        case "$lte":
+          result = matchesComparison(values, argument, -1, true);
+          break;
+        case "$in":
+          result = matchesAny(values, argumentArray(operator, argument));
+          break;
+        case "$nin":
+          result = !matchesAny(values, argumentArray(operator, argument));
+          break;
+        case "$exists":
+          result = values.isEmpty() != isTrue(argument);
+          break;
+        case "$not":
+          if (argument instanceof JSONObject) {
+            result = !matchesOperators(values, (JSONObject) argument);
+          } else {
+            result = !matchesRegex(values, argument.toString(), null);
+          }
+          break;
+        case "$regex":
+          result = matchesRegex(values, argument.toString(), operators.optString("$options", null));
+          break;
+        case "$options":
+          // handled along with $regex
+          result = true;
+          break;
+        case "$all": {
+          JSONArray targets = argumentArray(operator, argument);
+          result = targets.length() > 0;
+          for (int i = 0; result && i < targets.length(); i++) {
+            result = matchesValue(values, targets.get(i));
+          }
+          break;
+        }
+        case "$size":
+          result = false;
+          for (Object value : values) {
+            if (value instanceof JSONArray && ((JSONArray) value).length() == operators.getInt(operator)) {
+              result = true;
+              break;
+            }
+          }
+          break;
+        case "$elemMatch":
+          result = matchesElement(values, operators.getJSONObject(operator));
+          break;
+        case "$geoWithin":
+        case "$within":
+          result = matchesWithin(values, operators.getJSONObject(operator));
+          break;
+        case "$near":
+        case "$nearSphere":
+          result = matchesNear(values, argument, operators.has("$maxDistance")
+                  ? operators.getDouble("$maxDistance") : Double.POSITIVE_INFINITY);
+          break;
+        case "$maxDistance":
+          // handled along with $near
+          result = true;
+          break;
+        default:
+          throw new JSONException("Unsupported query operator " + operator);
+      }
+      if (!result) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static JSONArray argumentArray(String operator, Object argument) throws JSONException {
+    if (!(argument instanceof JSONArray)) {
+      throw new JSONException(operator + " needs an array but got " + argument);
+    }
+    return (JSONArray) argument;
+  }
+
+  private static boolean isTrue(Object argument) {
+    if (argument instanceof Boolean) {
+      return (Boolean) argument;
+    } else if (argument instanceof Number) {
+      return ((Number) argument).doubleValue() != 0;
+    }
+    return argument != JSONObject.NULL;
+  }
+
+  private static boolean matchesAny(List<Object> values, JSONArray targets) throws JSONException {
+    for (int i = 0; i < targets.length(); i++) {
+      if (matchesValue(values, targets.get(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // sign is 1 for greater than and -1 for less than
+  private static boolean matchesComparison(List<Object> values, Object target, int sign, boolean orEqual)
+          throws JSONException {
+    for (Object value : expand(values)) {
+      Integer comparison = compare(value, target);
+      if (comparison != null && (comparison * sign > 0 || (orEqual && comparison == 0))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean matchesRegex(List<Object> values, String regex, String options)
+          throws JSONException {
+    int flags = 0;
+    if (options != null) {
+      for (char option : options.toCharArray()) {
+        switch (option) {
+          case 'i':
+            flags |= Pattern.CASE_INSENSITIVE;
+            break;
+          case 'm':
+            flags |= Pattern.MULTILINE;
+            break;
+          case 's':
+            flags |= Pattern.DOTALL;
+            break;
+          case 'x':
+            flags |= Pattern.COMMENTS;
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    Pattern pattern = Pattern.compile(regex, flags);
+    for (Object value : expand(values)) {
+      if (value instanceof String && pattern.matcher((String) value).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean matchesElement(List<Object> values, JSONObject condition) throws JSONException {
+    boolean operators = isOperatorObject(condition);
+    for (Object value : values) {
+      if (value instanceof JSONArray) {
+        JSONArray array = (JSONArray) value;
+        for (int i = 0; i < array.length(); i++) {
+          Object element = array.get(i);
+          if (operators) {
+            List<Object> single = new ArrayList<>(1);
+            single.add(element);
+            if (matchesOperators(single, condition)) {
+              return true;
+            }
+          } else if (element instanceof JSONObject && matchesDocument((JSONObject) element, condition)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean matchesWithin(List<Object> values, JSONObject shape) throws JSONException {
+    if (shape.has("$box")) {
+      JSONArray box = shape.getJSONArray("$box");
+      double[] corner1 = point(box.get(0));
+      double[] corner2 = point(box.get(1));
+      if (corner1 == null || corner2 == null) {
+        throw new JSONException("Bad $box " + box);
+      }
+      for (Object value : values) {
+        double[] point = point(value);
+        if (point != null
+                && point[0] >= Math.min(corner1[0], corner2[0]) && point[0] <= Math.max(corner1[0], corner2[0])
+                && point[1] >= Math.min(corner1[1], corner2[1]) && point[1] <= Math.max(corner1[1], corner2[1])) {
+          return true;
+        }
+      }
+      return false;
+    } else if (shape.has("$center")) {
+      JSONArray center = shape.getJSONArray("$center");
+      return matchesNear(values, center.get(0), center.getDouble(1));
+    }
+    throw new JSONException("Unsupported shape " + shape);
+  }
+
+  private static boolean matchesNear(List<Object> values, Object target, double maxDistance)
+          throws JSONException {
+    double[] center = point(target);
+    if (center == null) {
+      throw new JSONException("Bad location " + target);
+    }
+    for (Object value : values) {
+      double[] point = point(value);
+      if (point != null && distance(point, center) <= maxDistance) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the coordinates of a legacy coordinate pair or null if
+   * value isn't one.
+   *
+   * @param value
+   * @return the coordinates or null
+   * @throws JSONException
+   */
+  static double[] point(Object value) throws JSONException {
+    if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      if (array.length() == 2 && array.get(0) instanceof Number && array.get(1) instanceof Number) {
+        return new double[]{array.getDouble(0), array.getDouble(1)};
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the flat distance between two points.
+   *
+   * @param point1
+   * @param point2
+   * @return the distance
+   */
+  static double distance(double[] point1, double[] point2) {
+    return Math.hypot(point1[0] - point2[0], point1[1] - point2[1]);
+  }
+
+  // Returns null if the values are not of the same comparable kind
+  private static Integer compare(Object value, Object target) {
+    if (value instanceof Number && target instanceof Number) {
+      return Double.compare(((Number) value).doubleValue(), ((Number) target).doubleValue());
+    } else if (value instanceof String && target instanceof String) {
+      return ((String) value).compareTo((String) target);
+    } else if (value instanceof Boolean && target instanceof Boolean) {
+      return Boolean.compare((Boolean) value, (Boolean) target);
+    }
+    return null;
+  }
+
+  private static boolean equal(Object value, Object target) throws JSONException {
+    if (value instanceof Number && target instanceof Number) {
+      return ((Number) value).doubleValue() == ((Number) target).doubleValue();
+    } else if (value instanceof JSONObject && target instanceof JSONObject) {
+      JSONObject json1 = (JSONObject) value;
+      JSONObject json2 = (JSONObject) target;
+      if (json1.length() != json2.length()) {
+        return false;
+      }
+      Iterator<?> keys = json1.keys();
+      while (keys.hasNext()) {
+        String key = (String) keys.next();
+        if (!json2.has(key) || !equal(json1.get(key), json2.get(key))) {
+          return false;
+        }
+      }
+      return true;
+    } else if (value instanceof JSONArray && target instanceof JSONArray) {
+      JSONArray array1 = (JSONArray) value;
+      JSONArray array2 = (JSONArray) target;
+      if (array1.length() != array2.length()) {
+        return false;
+      }
+      for (int i = 0; i < array1.length(); i++) {
+        if (!equal(array1.get(i), array2.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return value.equals(target);
+  }
+}
@@ -52,6 +52,7 @@ import org.json.JSONObject;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -488,6 +489,65 @@ public class MongoRecords implements NoSQLRecords {
     }
   }
 
+  @Override
+  public int addToSet(String collectionName, String name, ColumnField mapField, String key,
+          ArrayList<Object> values) throws FailedDBOperationException {
+    String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
+    DBCollection collection = db.getCollection(collectionName);
+    String fieldName = mapField.getName() + "." + key;
+    // A null list is replaced rather than added to so leave it to the caller
+    BasicDBObject query = new BasicDBObject(primaryKey, name)
+            .append(fieldName + ".0", new BasicDBObject("$ne", GNSProtocol.NULL_RESPONSE.toString()));
+    long startTime = System.currentTimeMillis();
+    int added = 0;
+    try {
+      // One value at a time so that each update tells whether that value was added
+      for (Object value : new LinkedHashSet<>(values)) {
+        Object dbValue = JSONParse(value);
+        BasicDBObject valueQuery = new BasicDBObject(query)
+                .append(fieldName, new BasicDBObject("$ne", dbValue));
+        added += collection.update(valueQuery,
+                new BasicDBObject("$addToSet", new BasicDBObject(fieldName, dbValue))).getN();
+      }
+      if (added == 0 && collection.count(query) == 0) {
+        return -1;
+      }
+    } catch (MongoException e) {
+      // The field isn't an array
+      DatabaseConfig.getLogger().log(Level.FINE, "Unable to add to set {0} of {1}: {2}",
+              new Object[]{fieldName, name, e});
+      return -1;
+    }
+    DelayProfiler.updateDelay("mongoAddToSet", startTime);
+    return added;
+  }
+
+  @Override
+  public int removeFromSet(String collectionName, String name, ColumnField mapField, String key,
+          ArrayList<Object> values) throws FailedDBOperationException {
+    String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
+    DBCollection collection = db.getCollection(collectionName);
+    String fieldName = mapField.getName() + "." + key;
+    long startTime = System.currentTimeMillis();
+    int removed = 0;
+    try {
+      // One value at a time so that each update tells whether that value was there
+      for (Object value : new LinkedHashSet<>(values)) {
+        Object dbValue = JSONParse(value);
+        BasicDBObject query = new BasicDBObject(primaryKey, name).append(fieldName, dbValue);
+        removed += collection.update(query,
+                new BasicDBObject("$pull", new BasicDBObject(fieldName, dbValue))).getN();
+      }
+    } catch (MongoException e) {
+      // The field isn't an array
+      DatabaseConfig.getLogger().log(Level.FINE, "Unable to remove from set {0} of {1}: {2}",
+              new Object[]{fieldName, name, e});
+      return -1;
+    }
+    DelayProfiler.updateDelay("mongoRemoveFromSet", startTime);
+    return removed;
+  }
+
   /**
    * Given a key and a value return all the records that have a *user* key with that value.
    * User keys are stored in the valuesMap field.
@@ -503,11 +563,17 @@ public class MongoRecords implements NoSQLRecords {
   @Override
   public MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value)
           throws FailedDBOperationException {
-    return selectRecords(collectionName, valuesMapField, key, value, false);
+    return selectRecords(collectionName, valuesMapField, key, value, null, false);
+  }
+
+  @Override
+  public MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    return selectRecords(collectionName, valuesMapField, key, value, projection, false);
   }
 
   private MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
-          boolean explain) throws FailedDBOperationException {
+          ArrayList<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
     // note that if the value of the key in the database is a list (which it is) this
@@ -525,7 +591,7 @@ public class MongoRecords implements NoSQLRecords {
     //System.out.println("***GNSProtocol.QUERY.toString()***: " + query.toString());
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = collection.find(query, makeProjection(collectionName, valuesMapField, projection));
     } catch (MongoException e) {
       throw new FailedDBOperationException(collectionName, fieldName);
     }
@@ -538,10 +604,17 @@ public class MongoRecords implements NoSQLRecords {
   @Override
   public MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value)
           throws FailedDBOperationException {
-    return selectRecordsWithin(collectionName, valuesMapField, key, value, false);
+    return selectRecordsWithin(collectionName, valuesMapField, key, value, null, false);
+  }
+
+  @Override
+  public MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    return selectRecordsWithin(collectionName, valuesMapField, key, value, projection, false);
   }
 
-  private MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value, boolean explain)
+  private MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          ArrayList<String> projection, boolean explain)
           throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
@@ -553,7 +626,7 @@ public class MongoRecords implements NoSQLRecords {
     BasicDBObject query = new BasicDBObject(fieldName, withinClause);
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = collection.find(query, makeProjection(collectionName, valuesMapField, projection));
     } catch (MongoException e) {
       throw new FailedDBOperationException(collectionName, fieldName);
     }
@@ -586,11 +659,17 @@ public class MongoRecords implements NoSQLRecords {
   @Override
   public MongoRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
           Double maxDistance) throws FailedDBOperationException {
-    return selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, false);
+    return selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, null, false);
+  }
+
+  @Override
+  public MongoRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
+          Double maxDistance, ArrayList<String> projection) throws FailedDBOperationException {
+    return selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, projection, false);
   }
 
   private MongoRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
-          Double maxDistance, boolean explain) throws FailedDBOperationException {
+          Double maxDistance, ArrayList<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
 
@@ -608,7 +687,7 @@ public class MongoRecords implements NoSQLRecords {
     BasicDBObject query = new BasicDBObject(fieldName, nearClause);
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = collection.find(query, makeProjection(collectionName, valuesMapField, projection));
     } catch (MongoException e) {
       throw new FailedDBOperationException(collectionName, fieldName);
     }
@@ -638,6 +717,50 @@ public class MongoRecords implements NoSQLRecords {
     return new MongoRecordCursor(cursor, mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey());
   }
 
+  @Override
+  public MongoRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query,
+          ArrayList<String> projection, String afterName, int limit) throws FailedDBOperationException {
+    db.requestEnsureConnection();
+    DBCollection collection = db.getCollection(collectionName);
+    String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
+    DBCursor cursor = null;
+    try {
+      DBObject queryObject = parseMongoQuery(query, valuesMapField);
+      if (afterName != null) {
+        BasicDBList clauses = new BasicDBList();
+        clauses.add(queryObject);
+        clauses.add(new BasicDBObject(primaryKey, new BasicDBObject("$gt", afterName)));
+        queryObject = new BasicDBObject("$and", clauses);
+      }
+      cursor = collection.find(queryObject, makeProjection(collectionName, valuesMapField, projection));
+      if (limit > 0) {
+        // Sorting on the primary key uses the index so this doesn't materialize the result set
+        cursor = cursor.sort(new BasicDBObject(primaryKey, 1)).limit(limit);
+      }
+    } catch (Exception e) {
+      throw new FailedDBOperationException(collectionName, query);
+    }
+    return new MongoRecordCursor(cursor, mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey());
+  }
+
+  // Returns the fields to fetch: the primary key plus the given fields of the values map.
+  // Null means fetch everything.
+  private DBObject makeProjection(String collectionName, ColumnField valuesMapField,
+          ArrayList<String> projection) {
+    if (projection == null) {
+      return null;
+    }
+    String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
+    BasicDBObject keys = new BasicDBObject(primaryKey, 1);
+    if (!"_id".equals(primaryKey)) {
+      keys.append("_id", 0);
+    }
+    for (String field : projection) {
+      keys.append(valuesMapField.getName() + "." + field, 1);
+    }
+    return keys;
+  }
+
   private DBObject parseMongoQuery(String query, ColumnField valuesMapField) {
     // convert something like this: ~fred : ($gt: 0) into the queryable 
     // format, namely this: {~nr_valuesMap.fred : ($gt: 0)}
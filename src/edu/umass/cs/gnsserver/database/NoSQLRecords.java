@@ -145,6 +145,44 @@ public interface NoSQLRecords {
   public void removeMapKeys(String collectionName, String name, ColumnField mapField, ArrayList<ColumnField> mapKeys)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
+  /**
+   * For record with name, adds the values that aren't already in it to the array in key
+   * of the map <code>mapField</code> (in the manner of a Mongo $addToSet) creating the
+   * array if it doesn't exist. Supports dot notation.
+   *
+   * Returns -1 without changing anything if key holds something other than an array or
+   * a null list (an array whose first element is {@link edu.umass.cs.gnscommon.GNSProtocol#NULL_RESPONSE})
+   * in which case the caller needs to update the field some other way.
+   *
+   * @param collectionName the name of the collection
+   * @param name the name of the record
+   * @param mapField the field that contains the key
+   * @param key the key of the array
+   * @param values the values to add
+   * @return how many of the values were added or -1 if the field can't be added to this way
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public int addToSet(String collectionName, String name, ColumnField mapField, String key,
+          ArrayList<Object> values) throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
+  /**
+   * For record with name, removes every occurrence of the values from the array in key
+   * of the map <code>mapField</code> (in the manner of a Mongo $pull). Supports dot notation.
+   *
+   * Returns -1 without changing anything if key holds something other than an array
+   * in which case the caller needs to update the field some other way.
+   *
+   * @param collectionName the name of the collection
+   * @param name the name of the record
+   * @param mapField the field that contains the key
+   * @param key the key of the array
+   * @param values the values to remove
+   * @return how many elements were removed or -1 if the field can't be removed from this way
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public int removeFromSet(String collectionName, String name, ColumnField mapField, String key,
+          ArrayList<Object> values) throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
   /**
    * Returns an iterator for all the rows in the collection with all fields filled in.
    *
@@ -168,6 +206,23 @@ public interface NoSQLRecords {
   public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
+  /**
+   * Same as {@link #selectRecords(String, ColumnField, String, Object)} but each record
+   * only contains the primary key and the given fields of the values map.
+   * A null projection returns entire records, an empty one only the primary key.
+   *
+   * @param collectionName
+   * @param valuesMapField
+   * @param key
+   * @param value
+   * @param projection
+   * @return AbstractRecordCursor
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          ArrayList<String> projection)
+          throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
   /**
    * If key is a GeoSpatial field returns all guids that are within value which is a bounding box specified as a nested JSONArray
    * string tuple of paired tuples: [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]] The returned value is a AbstractRecordCursor.
@@ -182,6 +237,22 @@ public interface NoSQLRecords {
   public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
+  /**
+   * Same as {@link #selectRecordsWithin(String, ColumnField, String, String)} but each record
+   * only contains the primary key and the given fields of the values map.
+   *
+   * @param collectionName
+   * @param valuesMapField
+   * @param key
+   * @param value
+   * @param projection
+   * @return an AbstractRecordCursor
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          ArrayList<String> projection)
+          throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
   /**
    * If key is a GeoSpatial field returns all guids that are near value which is a point specified as a JSONArray string tuple:
    * [LONG, LAT]. maxDistance is in meters. The returned value is a {@link AbstractRecordCursor}.
@@ -197,6 +268,23 @@ public interface NoSQLRecords {
   public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
+  /**
+   * Same as {@link #selectRecordsNear(String, ColumnField, String, String, Double)} but each record
+   * only contains the primary key and the given fields of the values map.
+   *
+   * @param collectionName
+   * @param valuesMapField
+   * @param key
+   * @param value
+   * @param maxDistance
+   * @param projection
+   * @return an AbstractRecordCursor
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance,
+          ArrayList<String> projection)
+          throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
   /**
    * Performs a query on the database and returns all guids that satisfy the query.
    * The returned value is a {@link AbstractRecordCursor}.
@@ -210,6 +298,28 @@ public interface NoSQLRecords {
   public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
+  /**
+   * Performs a query on the database and returns the records that satisfy the query.
+   * Each record only contains the primary key and the projected fields of the values map;
+   * a null projection returns entire records, an empty one only the primary key.
+   * If limit is positive at most limit records whose primary key is strictly greater than
+   * afterName are returned in primary key order so that the last name returned can be used
+   * as the afterName of the next call.
+   * The returned value is a {@link AbstractRecordCursor}.
+   *
+   * @param collection the name of the collection
+   * @param valuesMapField the field that contains the ValuesMap
+   * @param query the query to execute
+   * @param projection the fields to return or null for all of them
+   * @param afterName only return records whose primary key is greater than this or null to start at the beginning
+   * @param limit the maximum number of records to return or -1 for no limit
+   * @return an AbstractRecordCursor
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query,
+          ArrayList<String> projection, String afterName, int limit)
+          throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
   /**
    * Creates an index for the given field.
    *
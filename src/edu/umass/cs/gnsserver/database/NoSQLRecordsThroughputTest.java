@@ -29,13 +29,23 @@ import edu.umass.cs.gnsserver.utils.ValuesMap;
 import edu.umass.cs.utils.DelayProfiler;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 /**
- * Ascertains the maximum throughput of reads on the mongo database.
+ * Ascertains the maximum throughput of reads on the database.
+ *
+ * The optional engine argument is one of mongo, diskmap (the default) or derby.
+ * With one engine the lookups run until the process is killed. With all
+ * each engine in turn does lookups and then selects for a fixed time and the op/s
+ * of each are printed at the end so that they can be compared.
  *
  * Typical incantation:
 
@@ -48,6 +58,9 @@ public class NoSQLRecordsThroughputTest {
   private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(5);
   private static long initTime = System.currentTimeMillis();
 
+  private static final String[] ENGINES = {"mongo", "diskmap", "derby"};
+  private static final long COMPARE_DURATION = 10000; // ms per engine and operation
+
   /**
    * Run the test.
    *
@@ -56,22 +69,42 @@ public class NoSQLRecordsThroughputTest {
    * @throws RecordNotFoundException
    */
   public static void main(String[] args) throws Exception, RecordNotFoundException {
-    if (args.length == 3) {
+    if (args.length == 3 || args.length == 4) {
+      String engine = args.length == 4 ? args[3] : "diskmap";
+      if ("all".equals(engine)) {
+        compareEngines(args[0], args[1], args[2]);
+        System.exit(0);
+      }
+      NoSQLRecords instance = createInstance(engine, args[0]);
+      insertTestRecord(instance, args[1], args[2]);
       for (int i = 0; i < EXECUTOR.getCorePoolSize(); i++) {
         EXECUTOR.submit(new Runnable() {
+          @Override
           public void run() {
-            testlookupMultipleSystemAndUserFields(args[0], args[1],
-                    args[2]);
+            testlookupMultipleSystemAndUserFields(instance, args[1], args[2]);
           }
         });
       }
     } else {
-      System.out.println("Usage: edu.umass.cs.gnsserver.test.MongoRecordsThroughputTest <node> <guid> <field>");
+      System.out.println("Usage: edu.umass.cs.gnsserver.database.NoSQLRecordsThroughputTest <node> <guid> <field> [mongo|diskmap|derby|all]");
     }
     // important to include this!!
     //System.exit(0);
   }
 
+  private static NoSQLRecords createInstance(String engine, String node) {
+    switch (engine) {
+      case "mongo":
+        return new MongoRecords(node);
+      case "diskmap":
+        return new DiskMapRecords(node);
+      case "derby":
+        return new DerbyRecords(node);
+      default:
+        throw new IllegalArgumentException("Unknown engine " + engine);
+    }
+  }
+
   private static int count = 0;
 
   private static synchronized int incrCount() {
@@ -89,10 +122,7 @@ public class NoSQLRecordsThroughputTest {
   
   private static final String COLLECTION_NAME = MongoRecords.DBNAMERECORD;
 
-  private static void testlookupMultipleSystemAndUserFields(String node, String guid, String field) {
-
-    //NoSQLRecords instance = new MongoRecords<String>(node);
-    NoSQLRecords instance = new DiskMapRecords(node);
+  private static void insertTestRecord(NoSQLRecords instance, String guid, String field) {
     GNSRecordMap<String> recordMap = new GNSRecordMap<String>(instance, COLLECTION_NAME);
     JSONObject json = new JSONObject();
     try {
@@ -111,7 +141,9 @@ public class NoSQLRecordsThroughputTest {
     } catch (RecordExistsException e) {
       System.out.println(guid + " record already exists in database. Try something else." + e);
     }
+  }
 
+  private static void testlookupMultipleSystemAndUserFields(NoSQLRecords instance, String guid, String field) {
     // and try to read it as fast as possible
     try {
       ArrayList<ColumnField> userFields = new ArrayList<>(Arrays.asList(new ColumnField(field,
@@ -136,4 +168,71 @@ public class NoSQLRecordsThroughputTest {
       System.out.println("Lookup failed: " + e);
     }
   }
+
+  private interface Operation {
+
+    void run() throws Exception;
+  }
+
+  // Runs the operation on all executor threads for the duration and returns the op/s
+  private static double measure(final Operation operation, long duration) throws InterruptedException {
+    final AtomicLong ops = new AtomicLong();
+    final long deadline = System.currentTimeMillis() + duration;
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < EXECUTOR.getCorePoolSize(); i++) {
+      futures.add(EXECUTOR.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (System.currentTimeMillis() < deadline) {
+              operation.run();
+              ops.incrementAndGet();
+            }
+          } catch (Exception e) {
+            System.out.println("Operation failed: " + e);
+          }
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        System.out.println("Operation failed: " + e);
+      }
+    }
+    return ops.get() * 1000.0 / duration;
+  }
+
+  private static void compareEngines(String node, String guid, String field) throws InterruptedException {
+    final ArrayList<ColumnField> userFields = new ArrayList<>(Arrays.asList(new ColumnField(field,
+            ColumnFieldType.USER_JSON)));
+    Map<String, String> results = new LinkedHashMap<>();
+    for (String engine : ENGINES) {
+      final NoSQLRecords instance;
+      try {
+        instance = createInstance(engine, node);
+      } catch (RuntimeException e) {
+        System.out.println("Skipping " + engine + ": " + e);
+        continue;
+      }
+      insertTestRecord(instance, guid, field);
+      double lookups = measure(() -> instance.lookupSomeFields(COLLECTION_NAME, guid,
+              NameRecord.NAME, NameRecord.VALUES_MAP, userFields), COMPARE_DURATION);
+      double selects = measure(() -> {
+        AbstractRecordCursor cursor = instance.selectRecords(COLLECTION_NAME, NameRecord.VALUES_MAP,
+                field, "some value");
+        while (cursor.hasNext()) {
+          cursor.nextJSONObject();
+        }
+      }, COMPARE_DURATION);
+      results.put(engine, "lookups op/s = " + Format.formatTime(lookups)
+              + " selects op/s = " + Format.formatTime(selects));
+      System.out.println(engine + ": " + results.get(engine));
+    }
+    System.out.println("**********************results************************");
+    for (Map.Entry<String, String> entry : results.entrySet()) {
+      System.out.println(entry.getKey() + ": " + entry.getValue());
+    }
+  }
 }
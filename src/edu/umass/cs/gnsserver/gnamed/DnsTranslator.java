@@ -31,14 +31,13 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Level;
 
 /**
  * This class defines a DnsTranslator that serves DNS requests through UDP.
  *
  * It acts as a DNS translator for DNS requests for records in GNS.
+ * It also starts a {@link TcpDnsServer} on the same port for answers too large for UDP.
  *
  * @author Vijay
  * @version 1.0
@@ -47,7 +46,8 @@ public class DnsTranslator extends Thread implements Shutdownable {
 
   private final int port;
   private final DatagramSocket sock;
-  private ExecutorService executor = null;
+  private final TcpDnsServer tcpServer;
+  private volatile boolean running = true;
   private final ClientRequestHandlerInterface handler;
 
   /**
@@ -63,31 +63,42 @@ public class DnsTranslator extends Thread implements Shutdownable {
   public DnsTranslator(InetAddress addr, int port, ClientRequestHandlerInterface handler) throws SecurityException, SocketException, UnknownHostException {
     this.port = port;
     this.sock = new DatagramSocket(port, addr);
-    this.executor = Executors.newFixedThreadPool(5);
     this.handler = handler;
+    this.tcpServer = UdpDnsServer.createTcpServer(addr, port, null, null, null, handler);
   }
 
   @Override
   public void run() {
     NameResolution.getLogger().log(Level.INFO,
             "CCP Node starting local DNS Translator server on port {0}", port);
-    while (true) {
+    if (tcpServer != null) {
+      tcpServer.start();
+    }
+    while (running) {
       try {
-        final short udpLength = 512;
-        while (true) {
-          byte[] incomingData = new byte[udpLength];
+        while (running) {
+          // Buffers are handed back by the worker once it has parsed the query
+          byte[] incomingData = DnsWorkerPool.getBuffer();
           DatagramPacket incomingPacket = new DatagramPacket(incomingData, incomingData.length);
           // Read the incoming request
           incomingPacket.setLength(incomingData.length);
           try {
             sock.receive(incomingPacket);
           } catch (InterruptedIOException e) {
+            DnsWorkerPool.releaseBuffer(incomingData);
             continue;
           }
-          executor.execute(new LookupWorker(sock, incomingPacket, incomingData, null, null, null, handler));
-          NameResolution.getLogger().fine(DelayProfiler.getStats());
+          if (!DnsWorkerPool.execute(new LookupWorker(sock, incomingPacket, incomingData, null, null, null, handler))) {
+            DnsWorkerPool.releaseBuffer(incomingData);
+          }
+          if (NameResolution.getLogger().isLoggable(Level.FINE)) {
+            NameResolution.getLogger().fine(DelayProfiler.getStats());
+          }
         }
       } catch (IOException e) {
+        if (!running) {
+          break;
+        }
         NameResolution.getLogger().log(Level.SEVERE, 
                 "Error in DNS Translator Server (will sleep for 3 seconds and try again): {0}", e);
         ThreadUtils.sleep(3000);
@@ -97,8 +108,11 @@ public class DnsTranslator extends Thread implements Shutdownable {
 
   @Override
   public void shutdown() {
-    if (executor != null) {
-      executor.shutdown();
+    // The worker threads are shared with the other DNS servers so only stop receiving
+    running = false;
+    sock.close();
+    if (tcpServer != null) {
+      tcpServer.shutdown();
     }
   }
 }
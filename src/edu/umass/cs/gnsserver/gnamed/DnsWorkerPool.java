@@ -0,0 +1,257 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+
+/**
+ * The threads and receive buffers shared by all the DNS servers in this package.
+ *
+ * Queries are handled by one pool of DNS_SERVER_THREADS workers with a bounded
+ * queue; when the queue is full further queries are dropped and the client will retry.
+ * The GNS and DNS lookups that a worker races against each other run in a second pool
+ * of the same size so that workers never wait on tasks queued behind themselves.
+ *
+ * Receive buffers are reused rather than allocated for each packet.
+ *
+ * TCP connections each get a thread of their own, up to MAX_TCP_CONNECTIONS;
+ * further connections are closed right away.
+ *
+ * Identical questions that arrive while a GNS lookup for that question is in progress
+ * wait for that lookup instead of starting their own. Each gets its own copy of the
+ * response with its own id and question. The lookup that does the work also fills
+ * the {@link GnsAnswerCache}.
+ *
+ * @author westy
+ */
+public class DnsWorkerPool {
+
+  /**
+   * The size of the receive buffers.
+   */
+  public static final int UDP_BUFFER_SIZE = 512;
+
+  private static final int MAX_POOLED_BUFFERS = 1024;
+  private static final int MAX_QUEUED_QUERIES = 10000;
+  private static final int MAX_TCP_CONNECTIONS = 256;
+
+  private static final ThreadPoolExecutor WORKERS = new ThreadPoolExecutor(getThreads(), getThreads(),
+          0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_QUERIES),
+          new NamedThreadFactory("DnsWorker"));
+
+  private static final ExecutorService LOOKUPS = new ThreadPoolExecutor(getThreads(), getThreads(),
+          0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+          new NamedThreadFactory("DnsLookup"));
+
+  private static final ExecutorService CONNECTIONS = new ThreadPoolExecutor(0, MAX_TCP_CONNECTIONS,
+          60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+          new NamedThreadFactory("DnsTcp"));
+
+  private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+  // question -> response of the GNS lookup in progress for it
+  private static final ConcurrentHashMap<String, CompletableFuture<Message>> IN_FLIGHT
+          = new ConcurrentHashMap<>();
+
+  private static final AtomicLong DROPPED_COUNT = new AtomicLong();
+  private static final AtomicLong COLLAPSED_COUNT = new AtomicLong();
+
+  private static int getThreads() {
+    return Math.max(1, Config.getGlobalInt(GNSConfig.GNSC.DNS_SERVER_THREADS));
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private NamedThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  /**
+   * Runs a worker that handles one query. Returns false if the query
+   * was dropped because too many are already waiting.
+   *
+   * @param worker
+   * @return true if the worker will be run
+   */
+  public static boolean execute(Runnable worker) {
+    try {
+      WORKERS.execute(worker);
+      return true;
+    } catch (RejectedExecutionException e) {
+      DROPPED_COUNT.incrementAndGet();
+      NameResolution.getLogger().log(Level.FINE, "Dropping DNS query: {0} queued", WORKERS.getQueue().size());
+      return false;
+    }
+  }
+
+  /**
+   * Runs the handler of one TCP connection. Returns false if there are
+   * already too many connections open.
+   *
+   * @param connection
+   * @return true if the connection will be handled
+   */
+  public static boolean executeConnection(Runnable connection) {
+    try {
+      CONNECTIONS.execute(connection);
+      return true;
+    } catch (RejectedExecutionException e) {
+      DROPPED_COUNT.incrementAndGet();
+      NameResolution.getLogger().log(Level.FINE, "Dropping DNS TCP connection: {0} open", MAX_TCP_CONNECTIONS);
+      return false;
+    }
+  }
+
+  /**
+   * Returns the executor that the lookups a worker races against each other run in.
+   *
+   * @return the executor
+   */
+  public static ExecutorService getLookupExecutor() {
+    return LOOKUPS;
+  }
+
+  /**
+   * Returns a receive buffer of UDP_BUFFER_SIZE bytes. It should be
+   * handed back with {@link #releaseBuffer} once the query has been parsed.
+   *
+   * @return a buffer
+   */
+  public static byte[] getBuffer() {
+    byte[] buffer = BUFFERS.poll();
+    return buffer != null ? buffer : new byte[UDP_BUFFER_SIZE];
+  }
+
+  /**
+   * Hands back a buffer obtained from {@link #getBuffer} for reuse.
+   *
+   * @param buffer
+   */
+  public static void releaseBuffer(byte[] buffer) {
+    if (buffer != null && buffer.length == UDP_BUFFER_SIZE) {
+      BUFFERS.offer(buffer);
+    }
+  }
+
+  /**
+   * Looks up the query in the GNS. If the same question is already being looked up
+   * waits for that lookup and returns a copy of its response.
+   *
+   * @param query
+   * @param handler
+   * @return A message with either a good response or an error.
+   */
+  public static Message lookupGnsServer(Message query, ClientRequestHandlerInterface handler) {
+    Record question = query.getQuestion();
+    if (question == null) {
+      return NameResolution.lookupGnsServer(query, handler);
+    }
+    String key = question.getName() + "/" + question.getType() + "/" + question.getDClass();
+    CompletableFuture<Message> ours = new CompletableFuture<>();
+    CompletableFuture<Message> inFlight = IN_FLIGHT.putIfAbsent(key, ours);
+    if (inFlight == null) {
+      try {
+        Message response = GnsAnswerCache.lookupGnsServer(query, handler);
+        ours.complete(response);
+        return response;
+      } catch (RuntimeException e) {
+        ours.completeExceptionally(e);
+        throw e;
+      } finally {
+        IN_FLIGHT.remove(key, ours);
+      }
+    }
+    COLLAPSED_COUNT.incrementAndGet();
+    try {
+      return copyResponse(inFlight.get(), query);
+    } catch (InterruptedException | ExecutionException e) {
+      NameResolution.getLogger().log(Level.FINE, "Lookup for {0} we were waiting on failed: {1}",
+              new Object[]{key, e});
+      return NameResolution.lookupGnsServer(query, handler);
+    }
+  }
+
+  // A copy of the response to another query with the same question for this query
+  private static Message copyResponse(Message response, Message query) {
+    Message copy = (Message) response.clone();
+    copy.getHeader().setID(query.getHeader().getID());
+    if (query.getHeader().getFlag(Flags.RD)) {
+      copy.getHeader().setFlag(Flags.RA);
+    } else {
+      copy.getHeader().unsetFlag(Flags.RA);
+    }
+    // The question might differ in case
+    copy.removeAllRecords(Section.QUESTION);
+    copy.addRecord(query.getQuestion(), Section.QUESTION);
+    return copy;
+  }
+
+  /**
+   * Returns the number of queries and TCP connections dropped because the workers were overloaded.
+   *
+   * @return the dropped count
+   */
+  public static long getDroppedCount() {
+    return DROPPED_COUNT.get();
+  }
+
+  /**
+   * Returns the number of GNS lookups saved because an identical lookup was in progress.
+   *
+   * @return the collapsed count
+   */
+  public static long getCollapsedCount() {
+    return COLLAPSED_COUNT.get();
+  }
+}
@@ -0,0 +1,359 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Header;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Opcode;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * Caches the responses to DNS queries that were answered from the GNS.
+ *
+ * Responses are kept in wire format so a hit only has to patch the id, the
+ * recursion available flag and the TTLs of a copy, and add an OPT record if the query had one.
+ * The TTLs are counted down by the time the response has been cached so that resolvers
+ * downstream don't keep it past the original expiry. An entry is served until the smallest TTL of
+ * the records in it runs out. Responses with no records or a TTL of zero are not cached.
+ *
+ * While a response is being built every HRN and guid that it was read from is noted.
+ * {@link #invalidate} is called whenever a record is written on this name server and
+ * removes every response that was built from that record. To keep a lookup that raced
+ * with a write from caching the old answer each invalidation also bumps a generation
+ * counter (striped by name) and a response is only cached if none of the generations
+ * of its names changed while it was being built. Writes made on other name servers
+ * are only seen once the TTL runs out, just like with any other DNS cache.
+ *
+ * The hit rate is reported to the {@link DelayProfiler} as "dnsAnswerCacheHitRate".
+ *
+ * @author westy
+ */
+public class GnsAnswerCache {
+
+  private static final int GENERATION_STRIPES = 1024;
+  // The wire length of an OPT record without options
+  private static final int OPT_LENGTH = 11;
+
+  private static class Entry {
+
+    private final byte[] wire;
+    private final long created = System.currentTimeMillis();
+    private final long expires;
+    private final Set<String> names;
+    // where the TTL of each record is in wire
+    private final int[] ttlOffsets;
+
+    private Entry(byte[] wire, long ttl, Set<String> names) {
+      this.wire = wire;
+      this.expires = created + ttl * 1000;
+      this.names = names;
+      this.ttlOffsets = ttlOffsets(wire);
+    }
+  }
+
+  // name -> keys of the entries built from it
+  private static final Map<String, Set<String>> DEPENDENTS = new ConcurrentHashMap<>();
+
+  private static final Cache<String, Entry> CACHE
+          = CacheBuilder.newBuilder().concurrencyLevel(16)
+          .maximumSize(Config.getGlobalInt(GNSConfig.GNSC.DNS_ANSWER_CACHE_SIZE))
+          .removalListener(new RemovalListener<String, Entry>() {
+            @Override
+            public void onRemoval(RemovalNotification<String, Entry> notification) {
+              removeDependents(notification.getKey(), notification.getValue());
+            }
+          })
+          .recordStats().build();
+
+  private static final AtomicLongArray GENERATIONS = new AtomicLongArray(GENERATION_STRIPES);
+
+  // The names read while building a response on this thread and their generations
+  private static final ThreadLocal<Map<String, Long>> READ_NAMES = new ThreadLocal<>();
+
+  /**
+   * Returns true if the cache is enabled.
+   *
+   * @return true if the cache is enabled
+   */
+  public static boolean isEnabled() {
+    return Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_DNS_ANSWER_CACHE);
+  }
+
+  private static int stripe(String name) {
+    return (name.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+  }
+
+  private static int readShort(byte[] wire, int offset) {
+    return (wire[offset] & 0xff) << 8 | (wire[offset + 1] & 0xff);
+  }
+
+  private static int skipName(byte[] wire, int offset) {
+    while (true) {
+      int length = wire[offset] & 0xff;
+      if (length == 0) {
+        return offset + 1;
+      } else if ((length & 0xc0) == 0xc0) {
+        // compression pointer, always ends the name
+        return offset + 2;
+      }
+      offset += length + 1;
+    }
+  }
+
+  // The offsets of the TTLs of all the resource records in a response in wire format
+  private static int[] ttlOffsets(byte[] wire) {
+    int offset = Header.LENGTH;
+    int questions = readShort(wire, 4);
+    int[] offsets = new int[readShort(wire, 6) + readShort(wire, 8) + readShort(wire, 10)];
+    for (int i = 0; i < questions; i++) {
+      // name, type and class
+      offset = skipName(wire, offset) + 4;
+    }
+    for (int i = 0; i < offsets.length; i++) {
+      offset = skipName(wire, offset) + 4;
+      offsets[i] = offset;
+      // ttl, rdlength and rdata
+      offset += 6 + readShort(wire, offset + 4);
+    }
+    return offsets;
+  }
+
+  private static String makeKey(Record question) {
+    return question.getName() + "/" + question.getType() + "/" + question.getDClass();
+  }
+
+  /**
+   * Returns the wire format of the cached response to the query or null if
+   * there isn't one or it is bigger than maxLength.
+   *
+   * @param query
+   * @param maxLength
+   * @return the response or null
+   */
+  public static byte[] lookup(Message query, int maxLength) {
+    if (!isEnabled()) {
+      return null;
+    }
+    Header header = query.getHeader();
+    Record question = query.getQuestion();
+    if (question == null || header.getFlag(Flags.QR) || header.getRcode() != Rcode.NOERROR
+            || header.getOpcode() != Opcode.QUERY) {
+      return null;
+    }
+    String key = makeKey(question);
+    Entry entry = CACHE.getIfPresent(key);
+    if (entry != null && entry.expires <= System.currentTimeMillis()) {
+      CACHE.invalidate(key);
+      entry = null;
+    }
+    DelayProfiler.updateMovAvg("dnsAnswerCacheHitRate", entry != null ? 1 : 0);
+    // Cached responses never have an OPT record; queries that have one get one added
+    boolean edns = query.getOPT() != null;
+    int length = entry != null ? entry.wire.length + (edns ? OPT_LENGTH : 0) : 0;
+    if (entry == null || length > maxLength) {
+      return null;
+    }
+    byte[] response = Arrays.copyOf(entry.wire, length);
+    int id = header.getID();
+    response[0] = (byte) (id >>> 8);
+    response[1] = (byte) id;
+    long elapsed = (System.currentTimeMillis() - entry.created) / 1000;
+    for (int offset : entry.ttlOffsets) {
+      long ttl = Math.max(0, ((long) readShort(entry.wire, offset) << 16 | readShort(entry.wire, offset + 2)) - elapsed);
+      response[offset] = (byte) (ttl >>> 24);
+      response[offset + 1] = (byte) (ttl >>> 16);
+      response[offset + 2] = (byte) (ttl >>> 8);
+      response[offset + 3] = (byte) ttl;
+    }
+    // RA is the top bit of the second flags byte
+    if (header.getFlag(Flags.RD)) {
+      response[3] |= (byte) 0x80;
+    } else {
+      response[3] &= (byte) 0x7f;
+    }
+    if (edns) {
+      int payloadSize = LookupWorker.getUdpPayloadSize();
+      int offset = entry.wire.length;
+      // root name, type OPT, class is our payload size, no extended flags and no data
+      response[offset + 1] = (byte) (Type.OPT >>> 8);
+      response[offset + 2] = (byte) Type.OPT;
+      response[offset + 3] = (byte) (payloadSize >>> 8);
+      response[offset + 4] = (byte) payloadSize;
+      // ARCOUNT
+      int additional = ((response[10] & 0xff) << 8 | (response[11] & 0xff)) + 1;
+      response[10] = (byte) (additional >>> 8);
+      response[11] = (byte) additional;
+    }
+    return response;
+  }
+
+  /**
+   * Looks up the query in the GNS and caches the response.
+   *
+   * @param query
+   * @param handler
+   * @return A message with either a good response or an error.
+   */
+  public static Message lookupGnsServer(Message query, ClientRequestHandlerInterface handler) {
+    if (!isEnabled() || query.getQuestion() == null) {
+      return NameResolution.lookupGnsServer(query, handler);
+    }
+    Map<String, Long> readNames = new HashMap<>();
+    READ_NAMES.set(readNames);
+    Message response;
+    try {
+      response = NameResolution.lookupGnsServer(query, handler);
+    } finally {
+      READ_NAMES.remove();
+    }
+    put(makeKey(query.getQuestion()), response, readNames);
+    return response;
+  }
+
+  /**
+   * Notes that the response being built on this thread is read from the
+   * record of name. Should be called before the record is read.
+   *
+   * @param name
+   */
+  public static void noteRead(String name) {
+    Map<String, Long> readNames = READ_NAMES.get();
+    if (readNames != null && name != null && !readNames.containsKey(name)) {
+      readNames.put(name, GENERATIONS.get(stripe(name)));
+    }
+  }
+
+  private static synchronized void put(String key, Message response, Map<String, Long> readNames) {
+    if (response == null || !NameResolution.isReasonableResponse(response) || readNames.isEmpty()
+            || response.getOPT() != null) {
+      return;
+    }
+    long ttl = Long.MAX_VALUE;
+    for (int section : new int[]{Section.ANSWER, Section.AUTHORITY, Section.ADDITIONAL}) {
+      for (Record record : response.getSectionArray(section)) {
+        ttl = Math.min(ttl, record.getTTL());
+      }
+    }
+    if (ttl <= 0 || ttl == Long.MAX_VALUE) {
+      return;
+    }
+    for (Map.Entry<String, Long> readName : readNames.entrySet()) {
+      if (GENERATIONS.get(stripe(readName.getKey())) != readName.getValue()) {
+        // Written while we were reading it
+        return;
+      }
+    }
+    // Drops any older entry and its dependents first
+    CACHE.invalidate(key);
+    Entry entry = new Entry(response.toWire(), ttl, readNames.keySet());
+    for (String name : entry.names) {
+      Set<String> keys = DEPENDENTS.get(name);
+      if (keys == null) {
+        DEPENDENTS.put(name, keys = ConcurrentHashMap.newKeySet());
+      }
+      keys.add(key);
+    }
+    CACHE.put(key, entry);
+    NameResolution.getLogger().log(Level.FINE, "Cached DNS response for {0} for {1}s",
+            new Object[]{key, ttl});
+  }
+
+  private static synchronized void removeDependents(String key, Entry entry) {
+    if (entry == null) {
+      return;
+    }
+    for (String name : entry.names) {
+      Set<String> keys = DEPENDENTS.get(name);
+      if (keys != null) {
+        keys.remove(key);
+        if (keys.isEmpty()) {
+          DEPENDENTS.remove(name);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes every response built from the record of name. Should be called
+   * whenever the record is written or removed.
+   *
+   * @param name
+   */
+  public static synchronized void invalidate(String name) {
+    GENERATIONS.incrementAndGet(stripe(name));
+    Set<String> keys = DEPENDENTS.get(name);
+    if (keys != null) {
+      NameResolution.getLogger().log(Level.FINE, "Invalidating DNS responses for {0}: {1}",
+              new Object[]{name, keys});
+      CACHE.invalidateAll(new ArrayList<>(keys));
+    }
+  }
+
+  /**
+   * Removes all cached responses.
+   */
+  public static synchronized void invalidateAll() {
+    for (int i = 0; i < GENERATION_STRIPES; i++) {
+      GENERATIONS.incrementAndGet(i);
+    }
+    CACHE.invalidateAll();
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts for the cache.
+   *
+   * @return the cache stats
+   */
+  public static CacheStats getStats() {
+    return CACHE.stats();
+  }
+
+  /**
+   * Returns the current number of cached responses.
+   *
+   * @return the size
+   */
+  public static long size() {
+    return CACHE.size();
+  }
+}
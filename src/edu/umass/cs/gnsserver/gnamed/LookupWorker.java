@@ -22,22 +22,26 @@ package edu.umass.cs.gnsserver.gnamed;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.utils.DelayProfiler;
 
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 
 import org.xbill.DNS.Flags;
 import org.xbill.DNS.Message;
+import org.xbill.DNS.OPTRecord;
 import org.xbill.DNS.Rcode;
 import org.xbill.DNS.SimpleResolver;
 import org.xbill.DNS.Cache;
@@ -54,16 +58,25 @@ import org.xbill.DNS.Credibility;
  * When using DNS as a fallback we send out parallel requests and whichever returns
  * first is returned to the client as the answer.
  *
+ * Queries come in either as a UDP packet or as a message read from a TCP connection
+ * and the response goes back the same way. UDP responses are limited to 512 bytes
+ * unless the query carries an EDNS(0) OPT record, in which case they may be as large as
+ * the smaller of the client's buffer size and DNS_UDP_PAYLOAD_SIZE; larger responses
+ * are truncated so that the client retries over TCP.
+ *
  * @author westy
  * @version 1.0
  */
 public class LookupWorker implements Runnable {
 
+  private static final int MAX_TCP_LENGTH = 65535;
+
   private final SimpleResolver dnsServer;
   private final SimpleResolver gnsServer;
   private final Cache dnsCache;
   private final DatagramSocket socket;
   private final DatagramPacket incomingPacket;
+  private final Socket tcpSocket;
   private final byte[] incomingData;
   private final ClientRequestHandlerInterface handler;
 
@@ -72,7 +85,7 @@ public class LookupWorker implements Runnable {
    *
    * @param socket
    * @param incomingPacket
-   * @param incomingData
+   * @param incomingData (a buffer from {@link DnsWorkerPool#getBuffer} which is handed back once parsed)
    * @param dnsServer (might be null meaning don't send requests to a DNS server)
    * @param gnsServer (might be null gns requests are resolved locally)
    * @param dnsCache (might be null meaning DNS responses are not cached)
@@ -82,6 +95,29 @@ public class LookupWorker implements Runnable {
           SimpleResolver dnsServer, Cache dnsCache, ClientRequestHandlerInterface handler) {
     this.socket = socket;
     this.incomingPacket = incomingPacket;
+    this.tcpSocket = null;
+    this.incomingData = incomingData;
+    this.dnsServer = dnsServer;
+    this.dnsCache = dnsCache;
+    this.gnsServer = gnsServer;
+    this.handler = handler;
+  }
+
+  /**
+   * Creates a new <code>LookupWorker</code> object for a query read from a TCP connection.
+   *
+   * @param tcpSocket
+   * @param incomingData (the query without its length prefix)
+   * @param dnsServer (might be null meaning don't send requests to a DNS server)
+   * @param gnsServer (might be null gns requests are resolved locally)
+   * @param dnsCache (might be null meaning DNS responses are not cached)
+   * @param handler
+   */
+  public LookupWorker(Socket tcpSocket, byte[] incomingData, SimpleResolver gnsServer,
+          SimpleResolver dnsServer, Cache dnsCache, ClientRequestHandlerInterface handler) {
+    this.socket = null;
+    this.incomingPacket = null;
+    this.tcpSocket = tcpSocket;
     this.incomingData = incomingData;
     this.dnsServer = dnsServer;
     this.dnsCache = dnsCache;
@@ -99,12 +135,34 @@ public class LookupWorker implements Runnable {
     Message response;
     int maxLength;
 
+    if (incomingPacket != null) {
+      // Reused buffers hold the end of earlier packets; make them look like fresh ones
+      Arrays.fill(incomingData, incomingPacket.getLength(), incomingData.length, (byte) 0);
+    }
     // create a Message from the query data;
     try {
       query = new Message(incomingData);
     } catch (IOException e) {
       // Send out an error response.
-      sendResponse(NameResolution.formErrorMessage(incomingData).toWire());
+      Message error = NameResolution.formErrorMessage(incomingData);
+      releaseBuffer();
+      sendResponse(error.toWire());
+      return;
+    }
+    // The query has been parsed so the buffer can be reused
+    releaseBuffer();
+    if (tcpSocket != null) {
+      maxLength = MAX_TCP_LENGTH;
+    } else if (query.getOPT() != null) {
+      maxLength = Math.min(Math.max(query.getOPT().getPayloadSize(), 512), getUdpPayloadSize());
+    } else {
+      maxLength = 512;
+    }
+    // Answers from the GNS that are still within their TTL are sent as is
+    byte[] cached = GnsAnswerCache.lookup(query, maxLength);
+    if (cached != null) {
+      sendResponse(cached);
+      DelayProfiler.updateDelay("LookupWorker", startTime);
       return;
     }
     // THE MEAT IS IN HERE. Try to get a response from the GNS or DNS servers.
@@ -113,10 +171,11 @@ public class LookupWorker implements Runnable {
     if (response == null) { // means we don't need to do anything
       return;
     }
-    if (query.getOPT() != null) {
-      maxLength = Math.max(query.getOPT().getPayloadSize(), 512);
-    } else {
-      maxLength = 512;
+    if (query.getOPT() != null && response.getOPT() == null) {
+      // Tell the client how much we can send it. The response might be
+      // shared with collapsed lookups so add to a copy.
+      response = (Message) response.clone();
+      response.addRecord(new OPTRecord(getUdpPayloadSize(), 0, 0), Section.ADDITIONAL);
     }
     NameResolution.getLogger().log(Level.FINE, "Q/R: {0}",
             NameResolution.queryAndResponseToString(query, response));
@@ -128,6 +187,21 @@ public class LookupWorker implements Runnable {
     DelayProfiler.updateDelay("LookupWorker", startTime);
   }
 
+  private void releaseBuffer() {
+    if (incomingPacket != null) {
+      DnsWorkerPool.releaseBuffer(incomingData);
+    }
+  }
+
+  /**
+   * Returns the largest UDP response we send to clients that support EDNS(0).
+   *
+   * @return the size in bytes
+   */
+  public static int getUdpPayloadSize() {
+    return Math.max(512, Config.getGlobalInt(GNSConfig.GNSC.DNS_UDP_PAYLOAD_SIZE));
+  }
+
   /**
    * Queries DNS and/or GNS servers for DNS records.
    *
@@ -153,7 +227,7 @@ public class LookupWorker implements Runnable {
 
     // If we're not consulting the DNS server as well just send the query to GNS.
     if (dnsServer == null) {
-      Message result = NameResolution.lookupGnsServer(query, handler);
+      Message result = DnsWorkerPool.lookupGnsServer(query, handler);
       DelayProfiler.updateDelay("generateReply", startTime);
       return result;
     }
@@ -189,8 +263,9 @@ public class LookupWorker implements Runnable {
 
     // A little bit of overkill for two tasks, but it's really not that much longer (if any) than
     // the altenative. Plus it's cool and trendy to use futures.
-    ExecutorService executor = Executors.newFixedThreadPool(2);
-    ExecutorCompletionService<Message> completionService = new ExecutorCompletionService<>(executor);
+    // The tasks run in the shared lookup pool; whichever loses the race just finishes there.
+    ExecutorCompletionService<Message> completionService
+            = new ExecutorCompletionService<>(DnsWorkerPool.getLookupExecutor());
     List<Future<Message>> futures = new ArrayList<>(2);
     for (Callable<Message> task : tasks) {
       futures.add(completionService.submit(task));
@@ -214,8 +289,6 @@ public class LookupWorker implements Runnable {
         NameResolution.getLogger().log(Level.WARNING, "Lookup task interrupted: {0}", e);
       }
     }
-    // Shutdown the executor threadpool
-    executor.shutdown();
     if (successResponse != null) {
       // Cache the successful response
       try {
@@ -252,6 +325,23 @@ public class LookupWorker implements Runnable {
    * @param responseBytes
    */
   private void sendResponse(byte[] responseBytes) {
+    if (tcpSocket != null) {
+      try {
+        OutputStream out = tcpSocket.getOutputStream();
+        // Written in one go so the length and the message go out in one segment
+        byte[] message = new byte[responseBytes.length + 2];
+        message[0] = (byte) (responseBytes.length >>> 8);
+        message[1] = (byte) responseBytes.length;
+        System.arraycopy(responseBytes, 0, message, 2, responseBytes.length);
+        out.write(message);
+        out.flush();
+        NameResolution.getLogger().log(Level.FINE,
+                "Response sent to {0}", tcpSocket.getRemoteSocketAddress());
+      } catch (IOException e) {
+        NameResolution.getLogger().log(Level.SEVERE, "Failed to send response{0}", e);
+      }
+      return;
+    }
     DatagramPacket outgoingPacket = new DatagramPacket(responseBytes, responseBytes.length, incomingPacket.getAddress(), incomingPacket.getPort());
     try {
       socket.send(outgoingPacket);
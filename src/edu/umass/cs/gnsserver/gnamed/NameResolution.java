@@ -296,6 +296,7 @@ public class NameResolution {
      * 1. Lookup guid for the domain name
      */
     String guid = null;
+    GnsAnswerCache.noteRead(domain);
     try{
 	    ValuesMap result = NSFieldAccess.lookupJSONFieldLocalNoAuth(null, domain,
 	            HRN_GUID, handler.getApp(), false);
@@ -312,6 +313,7 @@ public class NameResolution {
      */
     JSONObject value = null;
     if(guid != null){
+    	GnsAnswerCache.noteRead(guid);
     	//FIXME: the internal request header should not be null
     	try {
 			value = NSFieldAccess.lookupFieldsLocalNoAuth(null, guid, fields, ColumnFieldType.USER_JSON, handler);
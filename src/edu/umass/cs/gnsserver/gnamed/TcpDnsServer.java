@@ -0,0 +1,159 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.utils.Shutdownable;
+import edu.umass.cs.gnscommon.utils.ThreadUtils;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.logging.Level;
+
+import org.xbill.DNS.Cache;
+import org.xbill.DNS.SimpleResolver;
+
+/**
+ * Serves DNS requests through TCP.
+ *
+ * Clients fall back to TCP when a UDP response comes back truncated, so this
+ * is started next to the UDP listener by {@link UdpDnsServer} and {@link DnsTranslator}
+ * and answers the same way they do. Each message is preceded by its two byte length.
+ * A connection may carry several queries which are answered in order; it is closed
+ * once it has been idle for IDLE_TIMEOUT milliseconds.
+ *
+ * @author westy
+ */
+public class TcpDnsServer extends Thread implements Shutdownable {
+
+  private static final int IDLE_TIMEOUT = 10000;
+  private static final int BACKLOG = 128;
+
+  private final SimpleResolver dnsServer;
+  private final SimpleResolver gnsServer;
+  private final Cache dnsCache;
+  private final ServerSocket serverSocket;
+  private volatile boolean running = true;
+  private final ClientRequestHandlerInterface handler;
+
+  /**
+   * Creates a new <code>TcpDnsServer</code> object bound to the given IP/port.
+   *
+   * @param addr IP to bind (0.0.0.0 is acceptable)
+   * @param port port to bind (53 is default for DNS)
+   * @param gnsServer (might be null gns requests are resolved locally)
+   * @param dnsServer (might be null meaning don't send requests to a DNS server)
+   * @param dnsCache (might be null meaning DNS responses are not cached)
+   * @param handler
+   * @throws IOException
+   */
+  public TcpDnsServer(InetAddress addr, int port, SimpleResolver gnsServer, SimpleResolver dnsServer,
+          Cache dnsCache, ClientRequestHandlerInterface handler) throws IOException {
+    super("TcpDnsServer");
+    this.gnsServer = gnsServer;
+    this.dnsServer = dnsServer;
+    this.dnsCache = dnsCache;
+    this.handler = handler;
+    this.serverSocket = new ServerSocket();
+    this.serverSocket.setReuseAddress(true);
+    this.serverSocket.bind(new InetSocketAddress(addr, port), BACKLOG);
+    setDaemon(true);
+  }
+
+  @Override
+  public void run() {
+    NameResolution.getLogger().log(Level.INFO,
+            "Starting TCP DNS Server on port {0}", serverSocket.getLocalPort());
+    while (running) {
+      try {
+        Socket socket = serverSocket.accept();
+        if (!DnsWorkerPool.executeConnection(new Connection(socket))) {
+          close(socket);
+        }
+      } catch (IOException e) {
+        if (!running) {
+          break;
+        }
+        NameResolution.getLogger().log(Level.SEVERE,
+                "Error in TCP DNS Server (will sleep for 3 seconds and try again): {0}", e);
+        ThreadUtils.sleep(3000);
+      }
+    }
+  }
+
+  private static void close(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // nothing left to do
+    }
+  }
+
+  private class Connection implements Runnable {
+
+    private final Socket socket;
+
+    private Connection(Socket socket) {
+      this.socket = socket;
+    }
+
+    @Override
+    public void run() {
+      try {
+        socket.setSoTimeout(IDLE_TIMEOUT);
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        while (running) {
+          int length;
+          try {
+            length = in.readUnsignedShort();
+          } catch (EOFException | SocketTimeoutException e) {
+            // The client is done with us
+            break;
+          }
+          byte[] incomingData = new byte[length];
+          in.readFully(incomingData);
+          new LookupWorker(socket, incomingData, gnsServer, dnsServer, dnsCache, handler).run();
+        }
+      } catch (IOException e) {
+        NameResolution.getLogger().log(Level.FINE, "Closing DNS TCP connection from {0}: {1}",
+                new Object[]{socket.getRemoteSocketAddress(), e});
+      } finally {
+        close(socket);
+      }
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    running = false;
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.FINE, "Problem closing TCP DNS server socket: {0}", e);
+    }
+  }
+}
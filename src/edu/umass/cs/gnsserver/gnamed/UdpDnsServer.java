@@ -30,8 +30,6 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Level;
 
 import org.xbill.DNS.SimpleResolver;
@@ -39,6 +37,7 @@ import org.xbill.DNS.Cache;
 
 /**
  * This class defines a UdpDnsServer that serves DNS requests through UDP.
+ * It also starts a {@link TcpDnsServer} on the same port for answers too large for UDP.
  *
  * DNS requests can be handled just by the GNS server or by the GNS server
  * with a DNS server as a fallback.
@@ -54,7 +53,8 @@ public class UdpDnsServer extends Thread implements Shutdownable {
   private final SimpleResolver gnsServer;
   private final Cache dnsCache;
   private final DatagramSocket sock;
-  private ExecutorService executor = null;
+  private final TcpDnsServer tcpServer;
+  private volatile boolean running = true;
   private final String dnsServerIP; // just stored for informational purposes
   private final String gnsServerIP; // just stored for informational purposes
   private final ClientRequestHandlerInterface handler;
@@ -84,8 +84,31 @@ public class UdpDnsServer extends Thread implements Shutdownable {
     this.dnsServerIP = dnsServerIP;
     this.gnsServerIP = gnsServerIP;
     this.sock = new DatagramSocket(port, addr);
-    this.executor = Executors.newFixedThreadPool(5);
     this.handler = handler;
+    this.tcpServer = createTcpServer(addr, port, gnsServer, dnsServer, dnsCache, handler);
+  }
+
+  /**
+   * Returns a TCP server for the same address or null if it can't be bound.
+   * Without one clients get truncated answers when they don't fit in a UDP response.
+   *
+   * @param addr
+   * @param port
+   * @param gnsServer
+   * @param dnsServer
+   * @param dnsCache
+   * @param handler
+   * @return the TCP server or null
+   */
+  static TcpDnsServer createTcpServer(InetAddress addr, int port, SimpleResolver gnsServer,
+          SimpleResolver dnsServer, Cache dnsCache, ClientRequestHandlerInterface handler) {
+    try {
+      return new TcpDnsServer(addr, port, gnsServer, dnsServer, dnsCache, handler);
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.WARNING,
+              "Not serving DNS over TCP on port {0}: {1}", new Object[]{port, e});
+      return null;
+    }
   }
 
   @Override
@@ -94,22 +117,31 @@ public class UdpDnsServer extends Thread implements Shutdownable {
             "Starting local DNS Server on port {0}{1}fallback DNS server at {2}",
             new Object[]{sock.getLocalPort(),
               gnsServerIP != null ? (" with GNS server at " + gnsServerIP + " and ") : " with ", dnsServerIP});
-    while (true) {
+    if (tcpServer != null) {
+      tcpServer.start();
+    }
+    while (running) {
       try {
-        final short udpLength = 512;
-        while (true) {
-          byte[] incomingData = new byte[udpLength];
+        while (running) {
+          // Buffers are handed back by the worker once it has parsed the query
+          byte[] incomingData = DnsWorkerPool.getBuffer();
           DatagramPacket incomingPacket = new DatagramPacket(incomingData, incomingData.length);
           // Read the incoming request
           incomingPacket.setLength(incomingData.length);
           try {
             sock.receive(incomingPacket);
           } catch (InterruptedIOException e) {
+            DnsWorkerPool.releaseBuffer(incomingData);
             continue;
           }
-          executor.execute(new LookupWorker(sock, incomingPacket, incomingData, gnsServer, dnsServer, dnsCache, handler));
+          if (!DnsWorkerPool.execute(new LookupWorker(sock, incomingPacket, incomingData, gnsServer, dnsServer, dnsCache, handler))) {
+            DnsWorkerPool.releaseBuffer(incomingData);
+          }
         }
       } catch (IOException e) {
+        if (!running) {
+          break;
+        }
         NameResolution.getLogger().log(Level.SEVERE, 
                 "Error in UDP Server (will sleep for 3 seconds and try again): {0}", e);
         ThreadUtils.sleep(3000);
@@ -119,8 +151,11 @@ public class UdpDnsServer extends Thread implements Shutdownable {
 
   @Override
   public void shutdown() {
-    if (executor != null) {
-      executor.shutdown();
+    // The worker threads are shared with the other DNS servers so only stop receiving
+    running = false;
+    sock.close();
+    if (tcpServer != null) {
+      tcpServer.shutdown();
     }
   }
 }
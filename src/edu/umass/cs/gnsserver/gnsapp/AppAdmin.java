@@ -27,6 +27,7 @@ import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.AclIndex;
 import edu.umass.cs.gnsserver.gnsapp.deprecated.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
 import edu.umass.cs.gnsserver.gnsapp.packet.admin.AdminRequestPacket;
@@ -187,6 +188,7 @@ public class AppAdmin extends Thread implements Shutdownable {
                     //DBNameRecord.removeNameRecord(nameRecord.getName());
                     cnt++;
                   }
+                  AclIndex.invalidateAll();
                   GNSConfig.getLogger().log(Level.FINE,
                           "NSListenerAdmin ({0}) : Deleting {1} records took {2}ms",
                           new Object[]{app.getNodeID(), cnt, System.currentTimeMillis() - startTime});
@@ -51,9 +51,13 @@ import edu.umass.cs.gnsserver.nodeconfig.GNSNodeConfig;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandler;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.Admintercessor;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandHandler;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.AclIndex;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSContinuousGroupQueries;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.PublicKeyCache;
 import edu.umass.cs.gnsserver.gnsapp.deprecated.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.packet.BasicPacketWithClientAddress;
 import edu.umass.cs.gnsserver.gnamed.DnsTranslator;
+import edu.umass.cs.gnsserver.gnamed.GnsAnswerCache;
 import edu.umass.cs.gnsserver.gnamed.UdpDnsServer;
 import edu.umass.cs.gnsserver.gnsapp.packet.InternalCommandPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
@@ -61,6 +65,7 @@ import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet.PacketType;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.CachingRecordMap;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.GNSRecordMap;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsserver.httpserver.GNSHttpServer;
@@ -395,6 +400,10 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
       noSqlRecords = new MongoRecords(nodeID, Config.getGlobalInt(GNSConfig.GNSC.MONGO_PORT));
     }
     this.nameRecordDB = new GNSRecordMap<>(noSqlRecords, MongoRecords.DBNAMERECORD);
+    if (Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_RECORD_CACHE)) {
+      this.nameRecordDB = new CachingRecordMap(this.nameRecordDB,
+              Config.getGlobalInt(GNSConfig.GNSC.RECORD_CACHE_SIZE_IN_BYTES));
+    }
     GNSConfig.getLogger().log(Level.FINE, "App {0} created {1}",
             new Object[]{nodeID, nameRecordDB});
     this.messenger = messenger;
@@ -630,7 +639,9 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
         // delete
         // the record. If the record does not exists this is just a
         // noop.
+        NSContinuousGroupQueries.recordRemoved(name, this);
         NameRecord.removeNameRecord(nameRecordDB, name);
+        PublicKeyCache.invalidate(name);
       } else // state does not equal null so we either create a new record
       // or update the existing one
       {
@@ -651,12 +662,15 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
                     nameRecordDB, name);
             nameRecord
                     .updateState(new ValuesMap(new JSONObject(state)));
+            PublicKeyCache.invalidate(name);
           } catch (JSONException | FieldNotFoundException | RecordNotFoundException | FailedDBOperationException e) {
             GNSConfig.getLogger().log(Level.SEVERE,
                     "Problem updating state: {0}", e.getMessage());
           }
         }
       }
+      GnsAnswerCache.invalidate(name);
+      AclIndex.invalidate(name);
       return true;
     } catch (FailedDBOperationException e) {
       GNSConfig.getLogger().log(Level.SEVERE,
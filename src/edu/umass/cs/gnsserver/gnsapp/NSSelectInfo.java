@@ -21,13 +21,17 @@ package edu.umass.cs.gnsserver.gnsapp;
 
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectGroupBehavior;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
 
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * This class represents a data structure to store information
@@ -43,6 +47,13 @@ public class NSSelectInfo<NodeIDType> {
   private final String guid; // the group GUID we are maintaining or null for simple select
   private final String query; // The string used to set up the query if applicable
   private final int minRefreshInterval; // in seconds
+  private final int pageSize; // -1 if this isn't a paged query
+  private volatile boolean morePages = false; // true if some server filled its page
+  // completed with the collated response when all servers respond or the deadline passes
+  private final CompletableFuture<SelectResponsePacket<String>> future = new CompletableFuture<>();
+  private volatile ScheduledFuture<?> deadline;
+  private volatile long requestId;
+  private volatile ArrayList<String> projection;
   /**
    * 
    * @param id
@@ -54,6 +65,21 @@ public class NSSelectInfo<NodeIDType> {
    * @param guid 
    */
   public NSSelectInfo(int id, Set<NodeIDType> serverIds, SelectOperation selectOperation, SelectGroupBehavior groupBehavior, String query, int minRefreshInterval, String guid) {
+    this(id, serverIds, selectOperation, groupBehavior, query, minRefreshInterval, guid, -1);
+  }
+
+  /**
+   * 
+   * @param id
+   * @param serverIds 
+   * @param selectOperation 
+   * @param groupBehavior 
+   * @param query 
+   * @param minRefreshInterval 
+   * @param guid 
+   * @param pageSize 
+   */
+  public NSSelectInfo(int id, Set<NodeIDType> serverIds, SelectOperation selectOperation, SelectGroupBehavior groupBehavior, String query, int minRefreshInterval, String guid, int pageSize) {
     this.id = id;
     this.serversToBeProcessed = Collections.newSetFromMap(new ConcurrentHashMap<NodeIDType, Boolean>());
     this.serversToBeProcessed.addAll(serverIds);
@@ -63,6 +89,7 @@ public class NSSelectInfo<NodeIDType> {
     this.query = query;
     this.guid = guid;
     this.minRefreshInterval = minRefreshInterval;
+    this.pageSize = pageSize;
   }
 
   /**
@@ -165,5 +192,105 @@ public class NSSelectInfo<NodeIDType> {
   public int getMinRefreshInterval() {
     return minRefreshInterval;
   }
+
+  /**
+   * Return the page size or -1 if this isn't a paged query.
+   * 
+   * @return an int
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Returns true if this is a paged query.
+   * 
+   * @return true if this is a paged query
+   */
+  public boolean isPaged() {
+    return pageSize > 0;
+  }
+
+  /**
+   * Notes that at least one server returned a full page so there may be more records
+   * beyond the ones collected for this page.
+   */
+  public void setMorePages() {
+    morePages = true;
+  }
+
+  /**
+   * Returns true if any server returned a full page.
+   * 
+   * @return true if there may be more pages
+   */
+  public boolean hasMorePages() {
+    return morePages;
+  }
+
+  /**
+   * Returns the future that is completed with the response to this query.
+   * 
+   * @return a CompletableFuture
+   */
+  public CompletableFuture<SelectResponsePacket<String>> getFuture() {
+    return future;
+  }
+
+  /**
+   * Sets the task that completes this query with partial results if
+   * not all servers have responded in time.
+   * 
+   * @param deadline
+   */
+  public void setDeadline(ScheduledFuture<?> deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * Cancels the deadline task if there is one.
+   */
+  public void cancelDeadline() {
+    ScheduledFuture<?> task = deadline;
+    if (task != null) {
+      task.cancel(false);
+    }
+  }
+
+  /**
+   * Return the fields the client asked for along with the guids or null for just guids.
+   * 
+   * @return the projection
+   */
+  public ArrayList<String> getProjection() {
+    return projection;
+  }
+
+  /**
+   * Set the fields the client asked for along with the guids.
+   * 
+   * @param projection
+   */
+  public void setProjection(ArrayList<String> projection) {
+    this.projection = projection;
+  }
+
+  /**
+   * Return the id of the client request this query is answering.
+   * 
+   * @return a long
+   */
+  public long getRequestId() {
+    return requestId;
+  }
+
+  /**
+   * Set the id of the client request this query is answering.
+   * 
+   * @param requestId
+   */
+  public void setRequestId(long requestId) {
+    this.requestId = requestId;
+  }
   
 }
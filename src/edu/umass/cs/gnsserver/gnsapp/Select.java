@@ -34,12 +34,28 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.utils.JSONDotNotation;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ActiveCode;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAccessSupport;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSContinuousGroupQueries;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSFieldAccess;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSGroupAccess;
 import edu.umass.cs.gnsserver.gnsapp.deprecated.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectGroupBehavior;
@@ -82,6 +98,17 @@ import java.util.logging.Logger;
  * from all the results removing duplicates and then sends back JUST THE GUIDs, not the full
  * records.
  *
+ * The collecting NS keeps a future per query which is completed when the last NS responds
+ * or, after SELECT_REQUEST_TIMEOUT, with the records received so far. In the latter case the
+ * response lists the servers that didn't respond and the group guid (if any) is left alone.
+ *
+ * Query selects can also be paged so that no node has to hold the entire result set.
+ * A paged request carries a page size and the name after which the page starts.
+ * Each NS returns at most page size matching records in name order starting after that name.
+ * The collecting NS merges these, keeps the first page size names and returns those along
+ * with the last name as the continuation for the next page. Because the continuation is just a
+ * name the next page can be served by any NS; nothing is kept between pages.
+ *
  * Here's the special handling the NS does for guid GROUPs:
  *
  * On the request side when we receive a GROUP_SETUP request we do the regular broadcast thing.
@@ -100,6 +127,11 @@ import java.util.logging.Logger;
  * (in the other case the response is sent back on request side of things).
  * We handle this exactly the same as we do GROUP_SETUP (set group, return results, time bookkeeping).
  *
+ * If ENABLE_CONTINUOUS_SELECT_GROUPS is set every NS that sees a GROUP_SETUP or GROUP_LOOKUP
+ * broadcast registers the group query with {@link NSContinuousGroupQueries} which then updates
+ * the group membership as records are written. Lookups then only do the broadcast once
+ * CONTINUOUS_SELECT_GROUP_RESYNC_INTERVAL has passed.
+ *
  * @author westy
  */
 public class Select {
@@ -118,8 +150,20 @@ public class Select {
   private static final Random RANDOM_ID = new Random();
   private static final ConcurrentMap<Integer, NSSelectInfo<String>> QUERIES_IN_PROGRESS
           = new ConcurrentHashMap<>(10, 0.75f, 3);
-  private static final ConcurrentMap<Integer, SelectResponsePacket<String>> QUERY_RESULT
-          = new ConcurrentHashMap<>(10, 0.75f, 3);
+  // Completes selects whose servers haven't all responded in time with partial results.
+  private static final ScheduledThreadPoolExecutor DEADLINE_TIMER = new ScheduledThreadPoolExecutor(1,
+          new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "SelectDeadlineTimer");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  static {
+    DEADLINE_TIMER.setRemoveOnCancelPolicy(true);
+  }
 
   /**
    * Handles a select request that was received from a client.
@@ -149,6 +193,13 @@ public class Select {
    * Handle a select request from a client.
    * This node is the broadcaster and selector.
    *
+   * This waits for the query started by {@link #startSelect}
+   * because Replicable.execute(.) must have the response in hand when it returns.
+   * The wait is on this query's own future so concurrent selects don't contend
+   * with or wake each other. If some servers don't respond before the deadline the
+   * response contains the results from the ones that did and lists the missing servers.
+   * The wait itself is bounded too in case the deadline can't complete the future.
+   *
    * @param packet
    * @param app
    * @return a select response packet
@@ -156,15 +207,52 @@ public class Select {
    * @throws UnknownHostException
    * @throws FailedDBOperationException
    */
-  @SuppressWarnings("unchecked")
   public static SelectResponsePacket<String> handleSelectRequestFromClient(SelectRequestPacket<String> packet,
           GNSApplicationInterface<String> app) throws JSONException, UnknownHostException, FailedDBOperationException {
+    CompletableFuture<SelectResponsePacket<String>> future = startSelect(packet, app);
+    try {
+      // the deadline completes the future after SELECT_REQUEST_TIMEOUT, this is a backstop
+      return future.get(2 * SELECT_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      getLogger().log(Level.SEVERE, "Timed out waiting for select {0}", packet.getSummary());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      getLogger().log(Level.WARNING, "Interrupted while waiting for select {0}", packet.getSummary());
+    } catch (ExecutionException e) {
+      getLogger().log(Level.SEVERE, "Exception while waiting for select {0}: {1}",
+              new Object[]{packet.getSummary(), e.getCause()});
+    }
+    return makeFailPacket(packet, app, "Select failed");
+  }
+
+  /**
+   * Sends a select request from a client out to all the servers without waiting for them.
+   *
+   * The returned future is completed by {@link #handleSelectResponse} when the last server
+   * responds or, if that doesn't happen within SELECT_REQUEST_TIMEOUT, with the partial results
+   * received so far. Partial responses list the servers that didn't respond.
+   *
+   * @param packet
+   * @param app
+   * @return a future select response packet
+   * @throws JSONException
+   * @throws UnknownHostException
+   * @throws FailedDBOperationException
+   */
+  @SuppressWarnings("unchecked")
+  private static CompletableFuture<SelectResponsePacket<String>> startSelect(
+          SelectRequestPacket<String> packet, final GNSApplicationInterface<String> app)
+          throws JSONException, UnknownHostException, FailedDBOperationException {
     // special case handling of the GROUP_LOOK operation
     // If sufficient time hasn't passed we just send the current value back
     if (packet.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
       // grab the timing parameters that we squirreled away from the SETUP
       Date lastUpdate = NSGroupAccess.getLastUpdate(packet.getGuid(), app.getRequestHandler());
       int minRefreshInterval = NSGroupAccess.getMinRefresh(packet.getGuid(), app.getRequestHandler());
+      if (NSContinuousGroupQueries.isEnabled()) {
+        // Members are kept up to date as records change so only resync occasionally
+        minRefreshInterval = Math.max(minRefreshInterval, NSContinuousGroupQueries.getResyncInterval());
+      }
       if (lastUpdate != null) {
         getLogger().log(Level.FINE,
                 "GROUP_LOOKUP Request: {0} - {1} <= {2}", new Object[]{new Date().getTime(), lastUpdate.getTime(), minRefreshInterval});
@@ -175,7 +263,8 @@ public class Select {
                   "GROUP_LOOKUP Request: Time has not elapsed. Returning current group value for {0}", packet.getGuid());
           ResultValue result = NSGroupAccess.lookupMembers(packet.getGuid(), true, app.getRequestHandler());
           //sendReponsePacketToCaller(packet.getId(), packet.getClientAddress(), result.toStringSet(), app);
-          return createReponsePacket(packet.getId(), packet.getClientAddress(), result.toStringSet(), app);
+          return CompletableFuture.completedFuture(
+                  createReponsePacket(packet.getId(), packet.getClientAddress(), result.toStringSet(), app));
         }
       } else {
         getLogger().fine("GROUP_LOOKUP Request: No Last Update Info ");
@@ -192,8 +281,21 @@ public class Select {
     // and send the request out to all the servers. We'll receive a response sent on the flipside.
     Set<String> serverIds = app.getGNSNodeConfig().getActiveReplicas();
     // store the info for later
-    int queryId = addQueryInfo(serverIds, packet.getSelectOperation(), packet.getGroupBehavior(),
-            packet.getQuery(), packet.getMinRefreshInterval(), packet.getGuid());
+    final NSSelectInfo<String> info = addQueryInfo(serverIds, packet.getSelectOperation(), packet.getGroupBehavior(),
+            packet.getQuery(), packet.getMinRefreshInterval(), packet.getGuid(), packet.getPageSize());
+    final int queryId = info.getId();
+    info.setRequestId(packet.getId());
+    info.setProjection(packet.getProjection());
+    // Arm the deadline before sending anything so the future always completes.
+    info.setDeadline(DEADLINE_TIMER.schedule(() -> {
+      try {
+        completeQuery(info, null, app);
+      } catch (JSONException | ClientException | IOException e) {
+        getLogger().log(Level.SEVERE, "Exception while completing timed out select {0}: {1}",
+                new Object[]{queryId, e});
+        info.getFuture().completeExceptionally(e);
+      }
+    }, SELECT_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS));
     if (packet.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
       // the query string is supplied with a lookup so we stuff in it there. It was saved from the SETUP operation.
       packet.setQuery(NSGroupAccess.getQueryString(packet.getGuid(), app.getRequestHandler()));
@@ -212,24 +314,17 @@ public class Select {
 
       // We handle our self by locally getting self-select records
       handleSelectResponse(getMySelectedRecords(packet, app), app);
-      // Wait for responses, otherwise you are violating Replicable.execute(.)'s semantics.
-      synchronized (QUERIES_IN_PROGRESS) {
-        while (QUERIES_IN_PROGRESS.containsKey(queryId)) {
-          try {
-            QUERIES_IN_PROGRESS.wait(SELECT_REQUEST_TIMEOUT);
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          }
-        }
-      }
-      if (QUERY_RESULT.containsKey(queryId)) {
-        return QUERY_RESULT.remove(queryId);
-      }
-
     } catch (IOException | ClientException e) {
+      // The deadline will complete the query with whatever we get
       getLogger().log(Level.SEVERE, "Exception while sending select request: {0}", e);
     }
-    return null;
+    return info.getFuture();
+  }
+
+  private static SelectResponsePacket<String> makeFailPacket(SelectRequestPacket<String> packet,
+          GNSApplicationInterface<String> app, String errorMessage) {
+    return SelectResponsePacket.makeFailPacket(packet.getId(), packet.getClientAddress(),
+            packet.getNsQueryId(), app.getNodeID(), errorMessage);
   }
 
   @SuppressWarnings("unchecked")
@@ -321,7 +416,8 @@ public class Select {
               packet.getNameServerID()});
     NSSelectInfo<String> info = QUERIES_IN_PROGRESS.get(packet.getNsQueryId());
     if (info == null) {
-      getLogger().log(Level.WARNING,
+      // most likely a response that arrived after the deadline
+      getLogger().log(Level.FINE,
               "NS {0} unabled to located query info:{1}",
               new Object[]{replica.getNodeID(), packet.getNsQueryId()});
       return;
@@ -330,6 +426,10 @@ public class Select {
     if (SelectResponsePacket.ResponseCode.NOERROR.equals(packet.getResponseCode())) {
       // stuff all the unique records into the info structure
       processJSONRecords(packet.getRecords(), info, replica);
+      // a full page from anyone means there might be more after this page
+      if (info.isPaged() && packet.getRecords().length() >= info.getPageSize()) {
+        info.setMorePages();
+      }
     } else {
       // error response
       getLogger().log(Level.FINE,
@@ -346,7 +446,7 @@ public class Select {
       allServersResponded = info.allServersResponded();
     }
     if (allServersResponded) {
-      handledAllServersResponded(packet, info, replica);
+      completeQuery(info, packet.getReturnAddress(), replica);
     } else {
       getLogger().log(Level.FINE,
               "NS{0} servers yet to respond:{1}",
@@ -361,26 +461,54 @@ public class Select {
     return SelectResponsePacket.makeSuccessPacketForGuidsOnly(id, null, -1, null, new JSONArray(guids));
   }
 
-  private static void handledAllServersResponded(SelectResponsePacket<String> packet, NSSelectInfo<String> info,
+  /**
+   * Completes the query with the records collected so far. Called either when the
+   * last server has responded or when the deadline has passed, whichever comes first.
+   * Removing the query from QUERIES_IN_PROGRESS decides which of the two gets to do it,
+   * so whichever does must complete the future, exceptionally if the response can't be made.
+   */
+  private static void completeQuery(NSSelectInfo<String> info, InetSocketAddress returnAddress,
           GNSApplicationInterface<String> replica) throws JSONException, ClientException, IOException {
-    // If all the servers have sent us a response we're done.
-    Set<String> guids = extractGuidsFromRecords(info.getResponsesAsSet());
-
-    // must be done before the notify below
     // we're done processing this select query
-    QUERIES_IN_PROGRESS.remove(packet.getNsQueryId());
+    if (!QUERIES_IN_PROGRESS.remove(info.getId(), info)) {
+      return;
+    }
+    info.cancelDeadline();
+    Set<String> guids;
+    SelectResponsePacket<String> response;
+    try {
+      guids = extractGuidsFromRecords(info.getResponsesAsSet());
+      JSONArray missing;
+      synchronized (info) {
+        missing = new JSONArray(info.serversYetToRespond());
+      }
 
-    // Pull the records out of the info structure
-    SelectResponsePacket<String> response = createReponsePacket(packet.getId(), packet.getReturnAddress(), guids, replica);
-    // and put the result where the coordinator can see it.
-    QUERY_RESULT.put(packet.getNsQueryId(), response);
-    // and let the coordinator know the value is there
-    if (GNSApp.DELEGATE_CLIENT_MESSAGING) {
-      synchronized (QUERIES_IN_PROGRESS) {
-        QUERIES_IN_PROGRESS.notify();
+      // Pull the records out of the info structure
+      if (info.isPaged()) {
+        response = createPageResponsePacket(info.getRequestId(), guids, info);
+      } else if (info.getProjection() != null) {
+        response = createProjectedResponsePacket(info.getRequestId(), info);
+      } else {
+        response = createReponsePacket(info.getRequestId(), returnAddress, guids, replica);
+      }
+      if (missing.length() > 0) {
+        getLogger().log(Level.WARNING,
+                "NS{0} select {1} timed out; returning partial results without {2}",
+                new Object[]{replica.getNodeID(), info.getId(), missing});
+        response.setMissingServers(missing);
       }
+    } catch (JSONException | RuntimeException e) {
+      // nobody else will complete it now that it's out of QUERIES_IN_PROGRESS
+      info.getFuture().completeExceptionally(e);
+      throw e;
     }
+    // and let the coordinator know the value is there
+    info.getFuture().complete(response);
     //sendReponsePacketToCaller(packet.getId(), packet.getReturnAddress(), guids, replica);
+    // Partial results would drop members so they don't touch the group.
+    if (response.isPartial()) {
+      return;
+    }
     // Now we update any group guid stuff
     if (info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_SETUP)) {
       getLogger().log(Level.FINE,
@@ -392,12 +520,55 @@ public class Select {
     if (info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_SETUP) || info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
       String guid = info.getGuid();
       getLogger().log(Level.FINE, "NS{0} updating group members", replica.getNodeID());
-      NSGroupAccess.updateMembers(guid, guids, replica.getRequestHandler(), packet.getReturnAddress());
+      NSGroupAccess.updateMembers(guid, guids, replica.getRequestHandler(), returnAddress);
       //NSGroupAccess.updateRecords(guid, processResponsesIntoJSONArray(info.getResponsesAsMap()), replica); 
       NSGroupAccess.updateLastUpdate(guid, new Date(), replica.getRequestHandler());
     }
   }
 
+  // Each server sent back its first pageSize names so the first pageSize of the merged names
+  // are exactly the first pageSize names overall.
+  @SuppressWarnings("unchecked")
+  private static SelectResponsePacket<String> createPageResponsePacket(long id, Set<String> guids,
+          NSSelectInfo<String> info) throws JSONException {
+    TreeSet<String> sorted = new TreeSet<>(guids);
+    JSONArray page = new JSONArray();
+    String last = null;
+    for (String guid : sorted) {
+      if (page.length() >= info.getPageSize()) {
+        break;
+      }
+      page.put(guid);
+      last = guid;
+    }
+    String continuation = info.hasMorePages() || sorted.size() > info.getPageSize() ? last : null;
+    return SelectResponsePacket.makeSuccessPacketForGuidsPage(id, null, -1, null, page, continuation);
+  }
+
+  // Returns one JSON Object per guid containing the guid and whichever of the projected
+  // fields the servers were allowed to send back.
+  @SuppressWarnings("unchecked")
+  private static SelectResponsePacket<String> createProjectedResponsePacket(long id,
+          NSSelectInfo<String> info) throws JSONException {
+    JSONArray records = new JSONArray();
+    for (JSONObject record : info.getResponsesAsSet()) {
+      JSONObject result = new JSONObject();
+      result.put(GNSProtocol.GUID.toString(), record.getString(NameRecord.NAME.getName()));
+      JSONObject valuesMap = record.optJSONObject(NameRecord.VALUES_MAP.getName());
+      if (valuesMap != null) {
+        for (String field : info.getProjection()) {
+          try {
+            result.put(field, JSONDotNotation.getWithDotNotation(field, valuesMap));
+          } catch (JSONException e) {
+            // not there or not readable by everyone
+          }
+        }
+      }
+      records.put(result);
+    }
+    return SelectResponsePacket.makeSuccessPacketForRecordsOnly(id, null, -1, -1, null, records);
+  }
+
   private static Set<String> extractGuidsFromRecords(Set<JSONObject> records) {
     Set<String> result = new HashSet<>();
     for (JSONObject json : records) {
@@ -409,38 +580,56 @@ public class Select {
     return result;
   }
 
-  private static int addQueryInfo(Set<String> serverIds, SelectOperation selectOperation,
-          SelectGroupBehavior groupBehavior, String query, int minRefreshInterval, String guid) {
-    int id;
+  private static NSSelectInfo<String> addQueryInfo(Set<String> serverIds, SelectOperation selectOperation,
+          SelectGroupBehavior groupBehavior, String query, int minRefreshInterval, String guid, int pageSize) {
+    NSSelectInfo<String> info;
     do {
-      id = RANDOM_ID.nextInt();
-    } while (QUERIES_IN_PROGRESS.containsKey(id));
-    //Add query info
-    NSSelectInfo<String> info = new NSSelectInfo<>(id, serverIds, selectOperation, groupBehavior, query, minRefreshInterval, guid);
-    QUERIES_IN_PROGRESS.put(id, info);
-    return id;
+      int id = RANDOM_ID.nextInt();
+      info = new NSSelectInfo<>(id, serverIds, selectOperation, groupBehavior, query, minRefreshInterval, guid, pageSize);
+      //Add query info
+    } while (QUERIES_IN_PROGRESS.putIfAbsent(info.getId(), info) != null);
+    return info;
   }
 
   private static JSONArray getJSONRecordsForSelect(SelectRequestPacket<String> request,
           GNSApplicationInterface<String> ar) throws FailedDBOperationException {
     JSONArray jsonRecords = new JSONArray();
-    // actually only need name and values map... fix this
+    if (NSContinuousGroupQueries.isEnabled()
+            && !request.getGroupBehavior().equals(SelectGroupBehavior.NONE)) {
+      // Setups and full lookups tell every server which query to maintain for the group
+      NSContinuousGroupQueries.register(request.getGuid(), request.getQuery());
+    }
+    // The coordinator only needs the names unless the client asked for some fields
+    ArrayList<String> projection = request.getProjection() != null
+            ? request.getProjection() : new ArrayList<String>();
+    // The read code of the matched guids runs on the fields they return
+    boolean readCode = !projection.isEmpty() && !Config.getGlobalBoolean(GNSConfig.GNSC.DISABLE_ACTIVE_CODE);
+    ArrayList<String> fetched = projection;
+    if (!projection.isEmpty()) {
+      fetched = new ArrayList<>(projection);
+      // The ACLs come with the record so readability is checked without reading it again
+      fetched.addAll(NSAccessSupport.aclFieldsForEveryone(MetaDataTypeName.READ_WHITELIST, projection));
+      if (readCode) {
+        fetched.add(ActiveCode.ON_READ);
+      }
+    }
     AbstractRecordCursor cursor = null;
     switch (request.getSelectOperation()) {
       case EQUALS:
-        cursor = NameRecord.selectRecords(ar.getDB(), request.getKey(), request.getValue());
+        cursor = NameRecord.selectRecords(ar.getDB(), request.getKey(), request.getValue(), fetched);
         break;
       case NEAR:
         if (request.getValue() instanceof String) {
           cursor = NameRecord.selectRecordsNear(ar.getDB(), request.getKey(), (String) request.getValue(),
-                  Double.parseDouble((String) request.getOtherValue()));
+                  Double.parseDouble((String) request.getOtherValue()), fetched);
         } else {
           break;
         }
         break;
       case WITHIN:
         if (request.getValue() instanceof String) {
-          cursor = NameRecord.selectRecordsWithin(ar.getDB(), request.getKey(), (String) request.getValue());
+          cursor = NameRecord.selectRecordsWithin(ar.getDB(), request.getKey(), (String) request.getValue(),
+                  fetched);
         } else {
           break;
         }
@@ -448,19 +637,68 @@ public class Select {
       case QUERY:
         getLogger().log(Level.FINE, "NS{0} query: {1}",
                 new Object[]{ar.getNodeID(), request.getQuery()});
-        cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery());
+        if (request.isPaged()) {
+          cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery(), fetched,
+                  request.getAfter(), request.getPageSize());
+        } else {
+          cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery(), fetched, null, -1);
+        }
         break;
       default:
         break;
     }
-    // think about returning a cursor that has prefetched a limited (100 which is like mongo limit)
-    // number of records in it and the ability to fetch more
+    // Paged queries bound the size of this; use them for large result sets
+    List<JSONObject> records = new ArrayList<>();
+    List<String> codes = new ArrayList<>();
     while (cursor != null && cursor.hasNext()) {
-      jsonRecords.put(cursor.nextJSONObject());
+      JSONObject record = cursor.nextJSONObject();
+      if (!projection.isEmpty()) {
+        if (readCode) {
+          JSONObject valuesMap = record.optJSONObject(NameRecord.VALUES_MAP.getName());
+          codes.add(valuesMap != null ? valuesMap.optString(ActiveCode.ON_READ, null) : null);
+        }
+        record = removeUnreadableFields(record, projection);
+      }
+      records.add(record);
+    }
+    if (readCode && !records.isEmpty()) {
+      // One message to a worker for all the records instead of one per record
+      NSFieldAccess.handleReadActiveCode(null, records, codes);
+    }
+    for (JSONObject record : records) {
+      jsonRecords.put(record);
     }
     return jsonRecords;
   }
 
+  // Selects aren't signed so we only send back the fields that anyone is allowed to read.
+  // The record has to include the ACLs of the projected fields.
+  private static JSONObject removeUnreadableFields(JSONObject record, ArrayList<String> projection) {
+    JSONObject result = new JSONObject();
+    try {
+      String name = record.getString(NameRecord.NAME.getName());
+      result.put(NameRecord.NAME.getName(), name);
+      JSONObject valuesMap = record.optJSONObject(NameRecord.VALUES_MAP.getName());
+      JSONObject readable = new JSONObject();
+      if (valuesMap != null) {
+        for (String field : projection) {
+          if (NSAccessSupport.fieldAccessibleByEveryone(MetaDataTypeName.READ_WHITELIST, field, valuesMap)) {
+            try {
+              JSONDotNotation.putWithDotNotation(readable, field,
+                      JSONDotNotation.getWithDotNotation(field, valuesMap));
+            } catch (JSONException e) {
+              // field isn't in this record
+            }
+          }
+        }
+      }
+      result.put(NameRecord.VALUES_MAP.getName(), readable);
+    } catch (JSONException e) {
+      getLogger().log(Level.WARNING, "Problem filtering select record {0}: {1}", new Object[]{record, e});
+    }
+    return result;
+  }
+
   // takes the JSON records that are returned from an NS and stuffs the into the NSSelectInfo record
   private static void processJSONRecords(JSONArray jsonArray, NSSelectInfo<String> info,
           GNSApplicationInterface<String> ar) throws JSONException {
@@ -27,6 +27,8 @@ import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnsserver.utils.Email;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSFieldAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.PublicKeyCache;
+import edu.umass.cs.gnsserver.utils.ResultValue;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
 import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
@@ -40,16 +42,21 @@ import org.json.JSONException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.logging.Level;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 /**
  * Provides the basic interface to GNS accounts.
@@ -60,6 +67,7 @@ import org.json.JSONObject;
  * follows:
  * <p>
  * GUID: "ACCOUNT_INFO" -- {account} for primary guid<br>
+ * GUID: "ACCOUNT_GUIDS_n" -- [GUIDs] for primary guid<br>
  * GUID: "GUID" -- GUID (primary) for secondary guid<br>
  * GUID: "GUID_INFO" -- {guid info}<br>
  * HRN: "GUID" -- GUID<br>
@@ -81,6 +89,13 @@ public class AccountAccess {
    */
   public static final String ACCOUNT_INFO_GUIDS = InternalField.makeInternalFieldString("guids");
 
+  /**
+   * Defines the prefix of the fields in an account guid where the guids of the
+   * account are stored. They are spread over {@link AccountInfo#getGuidShards}
+   * fields by hash so that adding or removing a guid only touches one of them.
+   */
+  public static final String ACCOUNT_GUIDS = InternalField.makeInternalFieldString("account_guids_");
+
   /**
    * Defines the field name in an HRN record (the reverse record) where guid
    * is stored.
@@ -707,6 +722,8 @@ public class AccountAccess {
     } else {
       guidInfo.setPublicKey(publicKey);
       guidInfo.noteUpdate();
+      // Make sure nobody gets authenticated with the old key
+      PublicKeyCache.invalidate(guid);
       if (updateGuidInfoNoAuthentication(guidInfo, handler)) {
         return new CommandResponse(ResponseCode.NO_ERROR,
                 GNSProtocol.OK_RESPONSE.toString() + " "
@@ -904,7 +921,10 @@ public class AccountAccess {
           ClientRequestHandlerInterface handler) throws ClientException,
           IOException, JSONException {
     boolean removedGroupLinks = false, deletedGUID = false, deletedName = false, deletedAliases = false;
+    Set<String> subguids = new HashSet<>();
     try {
+      // Collect the subguids before their fields go away with the account guid
+      subguids.addAll(lookupAccountGuids(accountInfo, handler));
       // First remove any group links
       GroupAccess.cleanupGroupsForDelete(accountInfo.getGuid(),
               handler);
@@ -914,6 +934,7 @@ public class AccountAccess {
               accountInfo.getName()).isExceptionOrError()) {
         deletedName = true;
         handler.getRemoteQuery().deleteRecordSuppressExceptions(accountInfo.getGuid());
+        PublicKeyCache.invalidate(accountInfo.getGuid());
         deletedGUID = true;
         // remove all the alias reverse links
         for (String alias : accountInfo.getAliases()) {
@@ -922,7 +943,7 @@ public class AccountAccess {
         }
         deletedAliases = true;
         // get rid of all subguids
-        for (String subguid : accountInfo.getGuids()) {
+        for (String subguid : subguids) {
           GuidInfo subGuidInfo = lookupGuidInfoAnywhere(subguid, handler);
           if (subGuidInfo != null) { // should not be null, ignore if it is
             removeGuid(subGuidInfo, accountInfo, true, handler);
@@ -949,7 +970,7 @@ public class AccountAccess {
                       + Util.truncatedLog(accountInfo.getAliases(), 16)
                       : "")
               + (deletedName ? "; deleted "
-                      + Util.truncatedLog(accountInfo.getGuids(), 16)
+                      + Util.truncatedLog(subguids, 16)
                       : "") + "; failed to update account info "
               + accountInfo.getGuid());
     }
@@ -1081,7 +1102,7 @@ public class AccountAccess {
       createdGUID = true;
             
       // else both name and guid created
-      accountInfo.addGuid(guid);
+      accountInfo.addGuids(addAccountGuids(accountInfo, Arrays.asList(guid), handler));
       accountInfo.noteUpdate();
       updateAccountInfoNoAuthentication(accountInfo, handler, true);
       return new CommandResponse(ResponseCode.NO_ERROR, GNSProtocol.OK_RESPONSE.toString()
@@ -1091,7 +1112,7 @@ public class AccountAccess {
       return new CommandResponse(ResponseCode.JSON_PARSE_ERROR,
               GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.JSON_PARSE_ERROR.toString() + " "
               + e.getMessage());
-    } catch (ServerRuntimeException e) {
+    } catch (ServerRuntimeException | IOException e) {
       return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR,
               GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.UNSPECIFIED_ERROR.toString() + " "
               + e.getMessage());
@@ -1109,8 +1130,14 @@ public class AccountAccess {
     }
   }
 
+  // The most names whose failure is reported back by addMultipleGuids
+  private static final int MAX_REPORTED_NAMES = 10;
+
   /**
    * Add multiple guids to an account.
+   * <p>
+   * The names whose HRN or guid record could not be created are reported
+   * back in the response with the reason, and the rest are added.
    *
    * @param names
    * - the list of names
@@ -1126,7 +1153,6 @@ public class AccountAccess {
           GuidInfo accountGuidInfo, ClientRequestHandlerInterface handler) {
     try {
       long startTime = System.currentTimeMillis();
-      Set<String> guids = new HashSet<>();
       Map<String, JSONObject> hrnMap = new HashMap<>();
       Map<String, JSONObject> guidInfoMap = new HashMap<>();
       for (int i = 0; i < names.size(); i++) {
@@ -1134,8 +1160,6 @@ public class AccountAccess {
         String publicKey = publicKeys.get(i);
         String guid = SharedGuidUtils
                 .createGuidStringFromBase64PublicKey(publicKey);
-        accountInfo.addGuid(guid);
-        guids.add(guid);
         // HRN records
         JSONObject jsonHRN = new JSONObject();
         jsonHRN.put(HRN_GUID, guid);
@@ -1158,26 +1182,75 @@ public class AccountAccess {
         guidInfoMap.put(guid, jsonGuid);
       }
       DelayProfiler.updateDelay("addMultipleGuidsSetup", startTime);
-      accountInfo.noteUpdate();
 
-      // first we createField the HRN records as a batch
-      ResponseCode returnCode;
       // First try to createField the HRNS to insure that that name does not
       // already exist
-      if (!(returnCode = handler.getRemoteQuery().createRecordBatch(
-              new HashSet<>(names), hrnMap, handler))
-              .isExceptionOrError()) {
-        // now we update the account info
-        if (updateAccountInfoNoAuthentication(accountInfo, handler, true)) {
-          handler.getRemoteQuery().createRecordBatch(guids,
-                  guidInfoMap, handler);
-          GNSConfig.getLogger().info(DelayProfiler.getStats());
-          return new CommandResponse(ResponseCode.NO_ERROR,
-                  GNSProtocol.OK_RESPONSE.toString());
+      Map<String, ResponseCode> failures = handler.getRemoteQuery().createRecords(
+              new HashSet<>(names), hrnMap, handler);
+      // A create that isn't answered in time may still finish, so an HRN whose create
+      // timed out but which now points to our guid was created after all.
+      Iterator<Map.Entry<String, ResponseCode>> iter = failures.entrySet().iterator();
+      while (iter.hasNext()) {
+        Map.Entry<String, ResponseCode> failure = iter.next();
+        if (failure.getValue() == ResponseCode.TIMEOUT && hrnMap.get(failure.getKey()).getString(HRN_GUID)
+                .equals(lookupGuid(failure.getKey(), handler, true))) {
+          iter.remove();
+        }
+      }
+      Map<String, String> guidNames = new HashMap<>();
+      for (String name : names) {
+        if (!failures.containsKey(name)) {
+          guidNames.put(hrnMap.get(name).getString(HRN_GUID), name);
+        }
+      }
+      // then the guid records of the names that were created
+      if (!guidNames.isEmpty()) {
+        for (Map.Entry<String, ResponseCode> failure : handler.getRemoteQuery().createRecords(
+                guidNames.keySet(), guidInfoMap, handler).entrySet()) {
+          // same as above, otherwise the guid would be left out of the account
+          if (failure.getValue() == ResponseCode.TIMEOUT
+                  && accountInfo.getGuid().equals(lookupPrimaryGuid(failure.getKey(), handler, true))) {
+            continue;
+          }
+          failures.put(guidNames.remove(failure.getKey()), failure.getValue());
+        }
+      }
+      // and then the account info for the guids that have both
+      if (!guidNames.isEmpty()) {
+        accountInfo.addGuids(addAccountGuids(accountInfo, guidNames.keySet(), handler));
+        accountInfo.noteUpdate();
+        if (!updateAccountInfoNoAuthentication(accountInfo, handler, true)) {
+          return new CommandResponse(ResponseCode.UPDATE_ERROR, GNSProtocol.BAD_RESPONSE.toString() + " "
+                  + GNSProtocol.UPDATE_ERROR.toString() + "; created " + guidNames.size() + " of "
+                  + names.size() + " guids; failed to update account info " + accountInfo.getGuid());
+        }
+      }
+      GNSConfig.getLogger().info(DelayProfiler.getStats());
+      if (failures.isEmpty()) {
+        return new CommandResponse(ResponseCode.NO_ERROR,
+                GNSProtocol.OK_RESPONSE.toString());
+      }
+      GNSConfig.getLogger().log(Level.WARNING, "Unable to create {0} of {1} guids of {2}: {3}",
+              new Object[]{failures.size(), names.size(), accountInfo.getGuid(),
+                Util.truncatedLog(failures.keySet(), 16)});
+      StringBuilder message = new StringBuilder();
+      message.append(" Created ").append(guidNames.size()).append(" of ").append(names.size())
+              .append(" guids, unable to create:");
+      int count = 0;
+      ResponseCode returnCode = null;
+      for (Map.Entry<String, ResponseCode> failure : failures.entrySet()) {
+        if (returnCode == null) {
+          returnCode = failure.getValue();
+        }
+        if (count++ == MAX_REPORTED_NAMES) {
+          message.append(" ...");
+          break;
         }
+        message.append(" ").append(failure.getKey()).append(" (")
+                .append(failure.getValue().getProtocolCode()).append(")");
       }
       return new CommandResponse(returnCode, GNSProtocol.BAD_RESPONSE.toString() + " "
-              + returnCode.getProtocolCode() + " " + names);
+              + returnCode.getProtocolCode() + message);
     } catch (JSONException e) {
       return new CommandResponse(ResponseCode.JSON_PARSE_ERROR,
               GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.JSON_PARSE_ERROR.toString() + " "
@@ -1186,6 +1259,11 @@ public class AccountAccess {
       return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR,
               GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.UNSPECIFIED_ERROR.toString() + " "
               + e.getMessage());
+    } catch (ClientException | IOException e) {
+      return new CommandResponse(ResponseCode.UPDATE_ERROR,
+              GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.UPDATE_ERROR.toString() + " "
+              + e.getMessage() + "; created " + Util.truncatedLog(names, 16)
+              + "; failed to update account info " + accountInfo.getGuid());
     }
   }
 
@@ -1329,6 +1407,7 @@ public class AccountAccess {
       if (!handler.getRemoteQuery()
               .deleteRecordSuppressExceptions(guidInfo.getGuid())
               .isExceptionOrError()) {
+        PublicKeyCache.invalidate(guidInfo.getGuid());
         deletedGUID = true;
         // remove reverse record
         handler.getRemoteQuery().deleteRecordSuppressExceptions(
@@ -1341,7 +1420,9 @@ public class AccountAccess {
                   GNSProtocol.OK_RESPONSE.toString());
         } else {
           // update the account guid to know that we deleted the guid
-          accountInfo.removeGuid(guidInfo.getGuid());
+          if (removeAccountGuid(accountInfo, guidInfo.getGuid(), handler)) {
+            accountInfo.removeGuids(1);
+          }
           accountInfo.noteUpdate();
           if (updateAccountInfoNoAuthentication(accountInfo, handler, true)) {
             return new CommandResponse(ResponseCode.NO_ERROR, GNSProtocol.OK_RESPONSE.toString());
@@ -1546,10 +1627,195 @@ public class AccountAccess {
     return new CommandResponse(ResponseCode.NO_ERROR, GNSProtocol.OK_RESPONSE.toString());
   }
 
+  /**
+   * Returns one page of the guids of an account. The result is a JSON Object
+   * containing the guids and a continuation which is passed back in to retrieve
+   * the next page. The continuation is absent on the last page.
+   * <p>
+   * The guids are listed one field of {@link #ACCOUNT_GUIDS} at a time, in guid
+   * order within each field. The continuation is the field and the last guid
+   * of the page so no state is kept between pages. Guids added or removed while
+   * the pages are being retrieved may or may not be listed.
+   *
+   * @param accountInfo
+   * @param pageSize - the maximum number of guids to return or -1 for the default
+   * @param continuation - the continuation returned with the previous page or null for the first page
+   * @param handler
+   * @return a command response
+   */
+  public static CommandResponse retrieveGuids(AccountInfo accountInfo, int pageSize,
+          String continuation, ClientRequestHandlerInterface handler) {
+    if (pageSize <= 0) {
+      pageSize = Config.getGlobalInt(GNSConfig.GNSC.ACCOUNT_GUIDS_DEFAULT_PAGE_SIZE);
+    }
+    pageSize = Math.min(pageSize, Config.getGlobalInt(GNSConfig.GNSC.ACCOUNT_GUIDS_MAX_PAGE_SIZE));
+    int shard = 0;
+    String after = null;
+    if (continuation != null) {
+      int colon = continuation.indexOf(':');
+      try {
+        shard = Integer.parseInt(continuation.substring(0, colon));
+      } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+        return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+                + " " + GNSProtocol.UNSPECIFIED_ERROR.toString() + " Bad continuation " + continuation);
+      }
+      if (colon < continuation.length() - 1) {
+        after = continuation.substring(colon + 1);
+      }
+    }
+    try {
+      // The guids need to be where they are listed from
+      if (accountInfo.getLegacyGuids() != null
+              && (!updateAccountInfoNoAuthentication(accountInfo, handler, true)
+              || accountInfo.getLegacyGuids() != null)) {
+        return new CommandResponse(ResponseCode.UPDATE_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+                + " " + GNSProtocol.UPDATE_ERROR.toString() + "; failed to update account info "
+                + accountInfo.getGuid());
+      }
+      List<String> guids = new ArrayList<>();
+      String next = null;
+      for (; shard < accountInfo.getGuidShards() && guids.size() < pageSize; shard++, after = null) {
+        TreeSet<String> shardGuids = lookupAccountGuids(accountInfo, shard, handler);
+        for (String guid : after != null ? shardGuids.tailSet(after, false) : shardGuids) {
+          if (guids.size() == pageSize) {
+            next = shard + ":" + guids.get(guids.size() - 1);
+            break;
+          }
+          guids.add(guid);
+        }
+      }
+      // the page ended where a field did
+      if (next == null && guids.size() == pageSize && shard < accountInfo.getGuidShards()) {
+        next = shard + ":";
+      }
+      JSONObject result = new JSONObject();
+      result.put(GNSProtocol.SELECT_GUIDS.toString(), new JSONArray(guids));
+      if (next != null) {
+        result.put(GNSProtocol.CONTINUATION.toString(), next);
+      }
+      return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
+    } catch (JSONException e) {
+      return new CommandResponse(ResponseCode.JSON_PARSE_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+              + " " + GNSProtocol.JSON_PARSE_ERROR.toString() + " " + e.getMessage());
+    } catch (ClientException | IOException e) {
+      return new CommandResponse(ResponseCode.REMOTE_QUERY_EXCEPTION, GNSProtocol.BAD_RESPONSE.toString()
+              + " " + GNSProtocol.REMOTE_QUERY_EXCEPTION.toString() + " " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the field of {@link #ACCOUNT_GUIDS} of the account that the guid is stored in.
+   *
+   * @param accountInfo
+   * @param guid
+   * @return the field
+   */
+  public static String getAccountGuidsField(AccountInfo accountInfo, String guid) {
+    return ACCOUNT_GUIDS + getAccountGuidsShard(accountInfo, guid);
+  }
+
+  private static int getAccountGuidsShard(AccountInfo accountInfo, String guid) {
+    return (guid.hashCode() & Integer.MAX_VALUE) % accountInfo.getGuidShards();
+  }
+
+  /**
+   * Returns all the guids of the account.
+   *
+   * @param accountInfo
+   * @param handler
+   * @return the guids
+   * @throws ClientException
+   * @throws IOException
+   * @throws JSONException
+   */
+  public static Set<String> lookupAccountGuids(AccountInfo accountInfo,
+          ClientRequestHandlerInterface handler) throws ClientException, IOException, JSONException {
+    Set<String> guids = new HashSet<>();
+    if (accountInfo.getLegacyGuids() != null) {
+      guids.addAll(accountInfo.getLegacyGuids());
+    }
+    for (int shard = 0; shard < accountInfo.getGuidShards(); shard++) {
+      guids.addAll(lookupAccountGuids(accountInfo, shard, handler));
+    }
+    return guids;
+  }
+
+  private static TreeSet<String> lookupAccountGuids(AccountInfo accountInfo, int shard,
+          ClientRequestHandlerInterface handler) throws ClientException, IOException, JSONException {
+    String field = ACCOUNT_GUIDS + shard;
+    // A JSON Object with the field in it or an empty JSON Array if there is no such field
+    Object value = new JSONTokener(handler.getRemoteQuery().fieldReadArray(accountInfo.getGuid(), field)).nextValue();
+    JSONArray array = value instanceof JSONObject ? ((JSONObject) value).optJSONArray(field) : (JSONArray) value;
+    TreeSet<String> guids = new TreeSet<>();
+    if (array != null) {
+      for (int i = 0; i < array.length(); i++) {
+        guids.add(array.getString(i));
+      }
+    }
+    return guids;
+  }
+
+  /**
+   * Adds the guids that aren't there yet to the fields of {@link #ACCOUNT_GUIDS}
+   * of the account, with one update per field.
+   * Returns how many were added so that the guid count only changes by that much.
+   */
+  private static int addAccountGuids(AccountInfo accountInfo, Collection<String> guids,
+          ClientRequestHandlerInterface handler) throws ClientException, IOException, JSONException {
+    Map<Integer, Set<String>> shards = new HashMap<>();
+    for (String guid : guids) {
+      int shard = getAccountGuidsShard(accountInfo, guid);
+      Set<String> shardGuids = shards.get(shard);
+      if (shardGuids == null) {
+        shards.put(shard, shardGuids = new LinkedHashSet<>());
+      }
+      shardGuids.add(guid);
+    }
+    int added = 0;
+    for (Map.Entry<Integer, Set<String>> entry : shards.entrySet()) {
+      added += handler.getRemoteQuery().fieldAddToSet(accountInfo.getGuid(), ACCOUNT_GUIDS + entry.getKey(),
+              new ResultValue(entry.getValue()));
+    }
+    return added;
+  }
+
+  /**
+   * Removes the guid from the account, wherever it is kept.
+   * Returns true if it was there so that the guid count only changes if it was.
+   */
+  private static boolean removeAccountGuid(AccountInfo accountInfo, String guid,
+          ClientRequestHandlerInterface handler) throws ClientException, IOException, JSONException {
+    boolean removed = accountInfo.removeLegacyGuid(guid);
+    return handler.getRemoteQuery().fieldRemoveFromSet(accountInfo.getGuid(),
+            getAccountGuidsField(accountInfo, guid), guid) > 0 || removed;
+  }
+
+  /**
+   * Moves guids that are still kept in the account info itself to the fields
+   * of {@link #ACCOUNT_GUIDS}. The account info has to be written afterwards.
+   * If this fails they stay where they are and are moved the next time.
+   */
+  private static void moveLegacyGuids(AccountInfo accountInfo, ClientRequestHandlerInterface handler) {
+    List<String> guids = accountInfo.getLegacyGuids();
+    if (guids == null) {
+      return;
+    }
+    try {
+      addAccountGuids(accountInfo, guids, handler);
+      accountInfo.clearLegacyGuids();
+      GNSConfig.getLogger().log(Level.INFO, "Moved {0} guids of account {1} out of the account info",
+              new Object[]{guids.size(), accountInfo.getGuid()});
+    } catch (ClientException | IOException | JSONException e) {
+      GNSConfig.getLogger().log(Level.WARNING, "Unable to move the guids of account {0} out of the account info: {1}",
+              new Object[]{accountInfo.getGuid(), e});
+    }
+  }
+
   private static ResponseCode updateAccountInfo(String guid,
           AccountInfo accountInfo, String writer, String signature,
           String message, Date timestamp,
           ClientRequestHandlerInterface handler, boolean sendToReplica) {
+    moveLegacyGuids(accountInfo, handler);
     try {
       ResponseCode response;
       if (sendToReplica) {
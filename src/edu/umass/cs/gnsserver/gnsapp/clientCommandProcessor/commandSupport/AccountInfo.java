@@ -20,7 +20,9 @@
 package edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport;
 
 import edu.umass.cs.gnscommon.utils.Format;
+import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.utils.JSONUtils;
+import edu.umass.cs.utils.Config;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -41,6 +43,12 @@ import java.util.Set;
  * also have additional associated GUIDs. For certain things we also keep an encrypted
  * password.
  *
+ * The associated GUIDs themselves are not kept here, only how many there are and
+ * how many fields of the account record they are spread over. See
+ * {@link AccountAccess#ACCOUNT_GUIDS} for where they are. Account info
+ * that was stored with the list of GUIDs in it still reads and keeps the list
+ * as legacy GUIDs until they are moved into those fields.
+ *
  * @author westy
  */
 public class AccountInfo {
@@ -50,7 +58,10 @@ public class AccountInfo {
   // This is reserved for future use.
   private final String type;
   private final Set<String> aliases;
-  private final Set<String> guids;
+  private int guidCount;
+  private final int guidShards;
+  // The guids of account info stored before they were kept in their own fields
+  private Set<String> legacyGuids;
   private final Date created;
   private Date updated;
   /**
@@ -86,7 +97,9 @@ public class AccountInfo {
     this.guid = guid;
     this.type = "DEFAULT"; // huh? :-)
     this.aliases = new HashSet<String>();
-    this.guids = new HashSet<String>();
+    this.guidCount = 0;
+    this.guidShards = Config.getGlobalInt(GNSConfig.GNSC.ACCOUNT_GUID_SHARDS);
+    this.legacyGuids = null;
     this.created = new Date();
     this.updated = new Date();
     this.password = password;
@@ -181,31 +194,70 @@ public class AccountInfo {
   }
 
   /**
-   * Returns the guids associated with this account.
+   * Returns the number of guids associated with this account.
    *
-   * @return a list of strings
+   * @return the number of guids
    */
-  public ArrayList<String> getGuids() {
-    return new ArrayList<String>(guids);
+  public int getGuidCount() {
+    return guidCount;
   }
 
   /**
-   * Adds a guid to this account.
+   * Returns the number of fields the guids of this account are spread over.
    *
-   * @param guid
+   * @return the number of fields
+   */
+  public int getGuidShards() {
+    return guidShards;
+  }
+
+  /**
+   * Notes that guids were added to this account. Should only count
+   * guids that weren't in the account already.
+   *
+   * @param count
+   */
+  public void addGuids(int count) {
+    guidCount += count;
+  }
+
+  /**
+   * Notes that guids were removed from this account. Should only count
+   * guids that were actually in the account.
+   *
+   * @param count
    */
-  public void addGuid(String guid) {
-    guids.add(guid);
+  public void removeGuids(int count) {
+    guidCount = Math.max(0, guidCount - count);
   }
 
   /**
-   * Removes a guid from this account.
+   * Removes a guid from the guids stored in the account info itself.
+   * Doesn't change the guid count.
    *
    * @param guid
-   * @return true if the guid was found
+   * @return true if the guid was stored in the account info
+   */
+  public boolean removeLegacyGuid(String guid) {
+    return legacyGuids != null && legacyGuids.remove(guid);
+  }
+
+  /**
+   * Returns the guids that were stored in the account info itself
+   * or null if there are none.
+   *
+   * @return a list of strings or null
+   */
+  public ArrayList<String> getLegacyGuids() {
+    return legacyGuids != null ? new ArrayList<String>(legacyGuids) : null;
+  }
+
+  /**
+   * Forgets the guids stored in the account info itself once they
+   * have been moved to the fields of the account record.
    */
-  public boolean removeGuid(String guid) {
-    return guids.remove(guid);
+  public void clearLegacyGuids() {
+    legacyGuids = null;
   }
 
   /**
@@ -288,6 +340,8 @@ public class AccountInfo {
   private static final String TYPE = "type";
   private static final String ALIASES = "aliases";
   private static final String GUIDS = "guids";
+  private static final String GUID_COUNT = "guidCnt";
+  private static final String GUID_SHARDS = "guidShards";
   private static final String CREATED = "created";
   private static final String UPDATED = "updated";
   private static final String PASSWORD = "password";
@@ -307,7 +361,9 @@ public class AccountInfo {
     this.guid = json.getString(GUID);
     this.type = json.getString(TYPE);
     this.aliases = JSONUtils.JSONArrayToHashSet(json.getJSONArray(ALIASES));
-    this.guids = JSONUtils.JSONArrayToHashSet(json.getJSONArray(GUIDS));
+    this.legacyGuids = json.has(GUIDS) ? JSONUtils.JSONArrayToHashSet(json.getJSONArray(GUIDS)) : null;
+    this.guidCount = json.optInt(GUID_COUNT, legacyGuids != null ? legacyGuids.size() : 0);
+    this.guidShards = json.optInt(GUID_SHARDS, Config.getGlobalInt(GNSConfig.GNSC.ACCOUNT_GUID_SHARDS));
     this.created = Format.parseDateUTC(json.getString(CREATED));
     this.updated = Format.parseDateUTC(json.getString(UPDATED));
     this.password = json.optString(PASSWORD, null);
@@ -326,11 +382,10 @@ public class AccountInfo {
     return toJSONObject(false);
   }
 
-  private static final int TOO_MANY_GUIDS = 50000;
   /**
    * Converts this instance into a JSONObject.
    * If forClient is true, we don't include information that
-   * is to large to be sent to the client.
+   * is internal or to large to be sent to the client.
    *
    * @param forClient
    * @return the JSON Object
@@ -342,11 +397,12 @@ public class AccountInfo {
     json.put(GUID, guid);
     json.put(TYPE, type);
     json.put(ALIASES, new JSONArray(aliases));
-    if (forClient && guids.size() > TOO_MANY_GUIDS) {
-      json.put("guidCnt", guids.size());
-    } else {
-      json.put("guidCnt", guids.size());
-      json.put(GUIDS, new JSONArray(guids));
+    json.put(GUID_COUNT, guidCount);
+    if (!forClient) {
+      json.put(GUID_SHARDS, guidShards);
+      if (legacyGuids != null) {
+        json.put(GUIDS, new JSONArray(legacyGuids));
+      }
     }
     json.put(CREATED, Format.formatDateUTC(created));
     json.put(UPDATED, Format.formatDateUTC(updated));
@@ -433,6 +433,38 @@ public class FieldAccess {
     }
   }
 
+  /**
+   * Adds the values to or removes them from an internal field that is a list and
+   * returns how many of them were added or removed. Only for internal operations
+   * done with the INTERNAL_OP_SECRET.
+   *
+   * @param guid - the guid to update
+   * @param key - the internal field to update
+   * @param value - the values to add or remove
+   * @param operation - {@link UpdateOperation#SINGLE_FIELD_REMOVE} or one of the appends
+   * @param writer - must be the INTERNAL_OP_SECRET
+   * @param handler
+   * @return a command response containing the count
+   */
+  public static CommandResponse updateSet(String guid, String key, ResultValue value,
+          UpdateOperation operation, String writer, ClientRequestHandlerInterface handler) {
+    if (!GNSConfig.getInternalOpSecret().equals(writer) || !InternalField.isInternalField(key)
+            || !operation.isSetOperation()) {
+      return new CommandResponse(ResponseCode.ACCESS_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+              + " " + GNSProtocol.ACCESS_DENIED.toString());
+    }
+    try {
+      int count = NSUpdateSupport.executeSetUpdateLocal(guid, key, operation, value, handler.getApp());
+      if (count >= 0) {
+        return new CommandResponse(ResponseCode.NO_ERROR, Integer.toString(count));
+      }
+    } catch (FailedDBOperationException | RecordNotFoundException e) {
+      LOGGER.log(Level.FINE, "Update threw error: {0}", e);
+    }
+    return new CommandResponse(ResponseCode.UPDATE_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+            + " " + ResponseCode.UPDATE_ERROR.getProtocolCode());
+  }
+
   /**
    * Sends an update request to the server containing a JSON Object.
    *
@@ -540,18 +572,29 @@ public class FieldAccess {
             timestamp, handler);
   }
 
-  private static JSONArray executeSelect(SelectOperation operation, String key, Object value, Object otherValue, GNSApp app)
+  private static CommandResponse executeSelect(SelectOperation operation, String key, Object value, Object otherValue,
+          ArrayList<String> fields, GNSApp app)
           throws FailedDBOperationException, JSONException, UnknownHostException {
     SelectRequestPacket<String> packet = new SelectRequestPacket<>(-1, operation,
             SelectGroupBehavior.NONE, key, value, otherValue);
+    packet.setProjection(fields);
     return executeSelectHelper(packet, app);
   }
 
-  private static JSONArray executeSelectHelper(SelectRequestPacket<String> packet, GNSApp app)
+  // Returns null if the select failed. If some servers didn't respond in time the
+  // results from the others are returned with a PARTIAL_RESULT code.
+  private static CommandResponse executeSelectHelper(SelectRequestPacket<String> packet, GNSApp app)
           throws FailedDBOperationException, JSONException, UnknownHostException {
     SelectResponsePacket<String> responsePacket = Select.handleSelectRequestFromClient(packet, app);
     if (SelectResponsePacket.ResponseCode.NOERROR.equals(responsePacket.getResponseCode())) {
-      return responsePacket.getGuids();
+      // Projected selects return records instead of guids
+      JSONArray result = responsePacket.getRecords() != null ? responsePacket.getRecords() : responsePacket.getGuids();
+      if (responsePacket.isPartial()) {
+        LOGGER.log(Level.WARNING, "Returning partial select results; no response from {0}",
+                responsePacket.getMissingServers());
+        return new CommandResponse(ResponseCode.PARTIAL_RESULT, result.toString());
+      }
+      return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
     } else {
       return null;
     }
@@ -566,14 +609,30 @@ public class FieldAccess {
    * @return a command response
    */
   public static CommandResponse select(String key, Object value, ClientRequestHandlerInterface handler) {
+    return select(key, value, null, handler);
+  }
+
+  /**
+   * Sends a select request to the server to retrieve all the guids matching the request.
+   * If fields is not null the result contains a JSON Object for each guid with
+   * the guid and the values of those fields that are readable by everyone.
+   *
+   * @param key - the key to match
+   * @param value - the value to match
+   * @param fields - the fields to return along with each guid or null for just the guids
+   * @param handler
+   * @return a command response
+   */
+  public static CommandResponse select(String key, Object value, ArrayList<String> fields,
+          ClientRequestHandlerInterface handler) {
     JSONArray result;
     try {
       if (Select.useLocalSelect()) {
-        result = executeSelect(SelectOperation.EQUALS, key, value, null, handler.getApp());
-      } else {
-        result = handler.getRemoteQuery().sendSelect(SelectOperation.EQUALS, key, value, null);
-      }
-      if (result != null) {
+        CommandResponse response = executeSelect(SelectOperation.EQUALS, key, value, null, fields, handler.getApp());
+        if (response != null) {
+          return response;
+        }
+      } else if ((result = handler.getRemoteQuery().sendSelect(SelectOperation.EQUALS, key, value, null, fields)) != null) {
         return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
       }
     } catch (ClientException | IOException | JSONException | FailedDBOperationException e) {
@@ -591,14 +650,30 @@ public class FieldAccess {
    */
   public static CommandResponse selectWithin(String key, String value,
           ClientRequestHandlerInterface handler) {
+    return selectWithin(key, value, null, handler);
+  }
+
+  /**
+   * Sends a select request to the server to retrieve all the guids within an area specified by a bounding box.
+   * If fields is not null the result contains a JSON Object for each guid with
+   * the guid and the values of those fields that are readable by everyone.
+   *
+   * @param key - the field to match - should be a location field
+   * @param value - a bounding box
+   * @param fields - the fields to return along with each guid or null for just the guids
+   * @param handler
+   * @return a command response
+   */
+  public static CommandResponse selectWithin(String key, String value, ArrayList<String> fields,
+          ClientRequestHandlerInterface handler) {
     JSONArray result;
     try {
       if (Select.useLocalSelect()) {
-        result = executeSelect(SelectOperation.WITHIN, key, value, null, handler.getApp());
-      } else {
-        result = handler.getRemoteQuery().sendSelect(SelectOperation.WITHIN, key, value, null);
-      }
-      if (result != null) {
+        CommandResponse response = executeSelect(SelectOperation.WITHIN, key, value, null, fields, handler.getApp());
+        if (response != null) {
+          return response;
+        }
+      } else if ((result = handler.getRemoteQuery().sendSelect(SelectOperation.WITHIN, key, value, null, fields)) != null) {
         return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
       }
     } catch (ClientException | IOException | JSONException | FailedDBOperationException e) {
@@ -618,14 +693,31 @@ public class FieldAccess {
    */
   public static CommandResponse selectNear(String key, String value, String maxDistance,
           ClientRequestHandlerInterface handler) {
+    return selectNear(key, value, maxDistance, null, handler);
+  }
+
+  /**
+   * Sends a select request to the server to retrieve all the guids within maxDistance of value.
+   * If fields is not null the result contains a JSON Object for each guid with
+   * the guid and the values of those fields that are readable by everyone.
+   *
+   * @param key - the field to match - should be a location field
+   * @param value - the position
+   * @param maxDistance - the maximum distance from position
+   * @param fields - the fields to return along with each guid or null for just the guids
+   * @param handler
+   * @return a command response
+   */
+  public static CommandResponse selectNear(String key, String value, String maxDistance,
+          ArrayList<String> fields, ClientRequestHandlerInterface handler) {
     JSONArray result;
     try {
       if (Select.useLocalSelect()) {
-        result = executeSelect(SelectOperation.NEAR, key, value, maxDistance, handler.getApp());
-      } else {
-        result = handler.getRemoteQuery().sendSelect(SelectOperation.NEAR, key, value, maxDistance);
-      }
-      if (result != null) {
+        CommandResponse response = executeSelect(SelectOperation.NEAR, key, value, maxDistance, fields, handler.getApp());
+        if (response != null) {
+          return response;
+        }
+      } else if ((result = handler.getRemoteQuery().sendSelect(SelectOperation.NEAR, key, value, maxDistance, fields)) != null) {
         return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
       }
     } catch (ClientException | IOException | JSONException | FailedDBOperationException e) {
@@ -641,15 +733,31 @@ public class FieldAccess {
    * @return a command response
    */
   public static CommandResponse selectQuery(String query, ClientRequestHandlerInterface handler) {
+    return selectQuery(query, null, handler);
+  }
+
+  /**
+   * Sends a select request to the server to retrieve all the guid matching the query.
+   * If fields is not null the result contains a JSON Object for each guid with
+   * the guid and the values of those fields that are readable by everyone.
+   *
+   * @param query
+   * @param fields - the fields to return along with each guid or null for just the guids
+   * @param handler
+   * @return a command response
+   */
+  public static CommandResponse selectQuery(String query, ArrayList<String> fields,
+          ClientRequestHandlerInterface handler) {
     JSONArray result;
     try {
       if (Select.useLocalSelect()) {
         SelectRequestPacket<String> packet = SelectRequestPacket.MakeQueryRequest(-1, query);
-        result = executeSelectHelper(packet, handler.getApp());
-      } else {
-        result = handler.getRemoteQuery().sendSelectQuery(query);
-      }
-      if (result != null) {
+        packet.setProjection(fields);
+        CommandResponse response = executeSelectHelper(packet, handler.getApp());
+        if (response != null) {
+          return response;
+        }
+      } else if ((result = handler.getRemoteQuery().sendSelectQuery(query, fields)) != null) {
         return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
       }
     } catch (ClientException | IOException | JSONException | FailedDBOperationException e) {
@@ -657,6 +765,53 @@ public class FieldAccess {
     return new CommandResponse(ResponseCode.NO_ERROR, EMPTY_JSON_ARRAY_STRING);
   }
 
+  /**
+   * Sends a select request to the server to retrieve one page of the guids matching the query.
+   * The result is a JSON Object containing the guids and a continuation which is passed
+   * back in to retrieve the next page. The continuation is absent on the last page.
+   *
+   * @param query
+   * @param pageSize - the maximum number of guids to return or -1 for the default
+   * @param continuation - the continuation returned with the previous page or null for the first page
+   * @param handler
+   * @return a command response
+   */
+  public static CommandResponse selectQueryPaged(String query, int pageSize, String continuation,
+          ClientRequestHandlerInterface handler) {
+    int maxPageSize = Config.getGlobalInt(GNSConfig.GNSC.SELECT_MAX_PAGE_SIZE);
+    if (pageSize <= 0) {
+      pageSize = Config.getGlobalInt(GNSConfig.GNSC.SELECT_DEFAULT_PAGE_SIZE);
+    }
+    pageSize = Math.min(pageSize, maxPageSize);
+    try {
+      SelectRequestPacket<String> packet = SelectRequestPacket.MakePagedQueryRequest(-1, query,
+              pageSize, continuation);
+      SelectResponsePacket<String> responsePacket = Select.handleSelectRequestFromClient(packet, handler.getApp());
+      if (SelectResponsePacket.ResponseCode.NOERROR.equals(responsePacket.getResponseCode())) {
+        JSONObject result = new JSONObject();
+        result.put(GNSProtocol.SELECT_GUIDS.toString(), responsePacket.getGuids());
+        if (responsePacket.getContinuation() != null) {
+          result.put(GNSProtocol.CONTINUATION.toString(), responsePacket.getContinuation());
+        }
+        // a partial page may be missing guids; the client can retry the same continuation
+        if (responsePacket.isPartial()) {
+          result.put(GNSProtocol.SELECT_MISSING_SERVERS.toString(), responsePacket.getMissingServers());
+        }
+        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
+      }
+    } catch (FailedDBOperationException e) {
+      return new CommandResponse(ResponseCode.DATABASE_OPERATION_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+              + " " + GNSProtocol.DATABASE_OPERATION_ERROR.toString() + " " + e);
+    } catch (JSONException e) {
+      return new CommandResponse(ResponseCode.JSON_PARSE_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+              + " " + GNSProtocol.JSON_PARSE_ERROR.toString() + " " + e);
+    } catch (UnknownHostException e) {
+      // fall through to the failure response below
+    }
+    return new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+            + " " + GNSProtocol.QUERY_PROCESSING_ERROR.toString() + " Select failed");
+  }
+
   /**
    * Sends a select request to the server to setup a context aware group guid and retrieve all the guids matching the query.
    *
@@ -689,7 +844,7 @@ public class FieldAccess {
       if (!accountInfo.isVerified()) {
         return new CommandResponse(ResponseCode.VERIFICATION_ERROR, GNSProtocol.BAD_RESPONSE.toString()
                 + " " + GNSProtocol.VERIFICATION_ERROR.toString() + " Account not verified");
-      } else if (accountInfo.getGuids().size() > Config.getGlobalInt(GNSConfig.GNSC.ACCOUNT_GUID_MAX_SUBGUIDS)) {
+      } else if (accountInfo.getGuidCount() > Config.getGlobalInt(GNSConfig.GNSC.ACCOUNT_GUID_MAX_SUBGUIDS)) {
         return new CommandResponse(ResponseCode.TOO_MANY_GUIDS_EXCEPTION, GNSProtocol.BAD_RESPONSE.toString()
                 + " " + GNSProtocol.TOO_MANY_GUIDS.toString());
       } else {
@@ -709,11 +864,11 @@ public class FieldAccess {
       if (Select.useLocalSelect()) {
         SelectRequestPacket<String> packet = SelectRequestPacket.MakeGroupSetupRequest(-1,
                 query, guid, interval);
-        result = executeSelectHelper(packet, handler.getApp());
-      } else {
-        result = handler.getRemoteQuery().sendGroupGuidSetupSelectQuery(query, guid, interval);
-      }
-      if (result != null) {
+        CommandResponse response = executeSelectHelper(packet, handler.getApp());
+        if (response != null) {
+          return response;
+        }
+      } else if ((result = handler.getRemoteQuery().sendGroupGuidSetupSelectQuery(query, guid, interval)) != null) {
         return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
       }
     } catch (ClientException | IOException | FailedDBOperationException | JSONException e) {
@@ -733,11 +888,11 @@ public class FieldAccess {
     try {
       if (Select.useLocalSelect()) {
         SelectRequestPacket<String> packet = SelectRequestPacket.MakeGroupLookupRequest(-1, guid);
-        result = executeSelectHelper(packet, handler.getApp());
-      } else {
-        result = handler.getRemoteQuery().sendGroupGuidLookupSelectQuery(guid);
-      }
-      if (result != null) {
+        CommandResponse response = executeSelectHelper(packet, handler.getApp());
+        if (response != null) {
+          return response;
+        }
+      } else if ((result = handler.getRemoteQuery().sendGroupGuidLookupSelectQuery(guid)) != null) {
         return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
       }
     } catch (ClientException | IOException | FailedDBOperationException | JSONException e) {
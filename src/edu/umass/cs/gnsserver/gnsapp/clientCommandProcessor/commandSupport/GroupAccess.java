@@ -19,6 +19,7 @@
  */
 package edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport;
 
+import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
@@ -30,6 +31,7 @@ import edu.umass.cs.gnsserver.main.GNSConfig;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Map;
 import java.util.logging.Level;
 
 import java.util.logging.Logger;
@@ -63,6 +65,9 @@ public class GroupAccess {
   
   private final static Logger LOGGER = Logger.getLogger(GroupAccess.class.getName());
 
+  // The most members listed in the message of a failed update
+  private static final int MAX_REPORTED_MEMBERS = 10;
+
   /**
    * Sends a request to the NS to add a single GUID to a group.
    * Updates the GROUP field in a group GUID adding the member to it and
@@ -108,6 +113,8 @@ public class GroupAccess {
    * their membership in the group. The writer can be any GUID but that
    * GUID must sign the request and also have ACL access to the GROUP
    * field in the group GUID.
+   * The members are updated concurrently and if any of them can't be the
+   * others are still updated and an UPDATE_ERROR response lists the ones that weren't.
    *
    * @param guid
    * @param members
@@ -116,12 +123,12 @@ public class GroupAccess {
    * @param message
    * @param timestamp
    * @param handler
-   * @return a response code
+   * @return a command response
    * @throws edu.umass.cs.gnscommon.exceptions.client.ClientException
    * @throws java.io.IOException
    * @throws org.json.JSONException
    */
-  public static ResponseCode addToGroup(String guid, ResultValue members, String writer,
+  public static CommandResponse addToGroup(String guid, ResultValue members, String writer,
           String signature, String message, Date timestamp,
           ClientRequestHandlerInterface handler) throws ClientException, IOException, JSONException {
 
@@ -134,12 +141,11 @@ public class GroupAccess {
               UpdateOperation.SINGLE_FIELD_APPEND_OR_CREATE, writer, signature, message,
               timestamp, handler);
     //}
-    if (code.isOKResult()) {
-      for (String memberGuid : members.toStringSet()) {
-        handler.getRemoteQuery().fieldAppendToArray(memberGuid, GROUPS, new ResultValue(Arrays.asList(guid)));
-      }
+    if (!code.isOKResult()) {
+      return new CommandResponse(code, GNSProtocol.BAD_RESPONSE.toString() + " " + code.getProtocolCode());
     }
-    return code;
+    return checkGroupsUpdates(guid, handler.getRemoteQuery().fieldAppendToArrays(members.toStringSet(),
+            GROUPS, new ResultValue(Arrays.asList(guid)), handler));
   }
 
   /**
@@ -177,6 +183,8 @@ public class GroupAccess {
 
   /**
    * Sends a request to the NS to remove a list of GUIDs from a group.
+   * The members are updated concurrently and if any of them can't be the
+   * others are still updated and an UPDATE_ERROR response lists the ones that weren't.
    *
    * @param guid
    * @param members
@@ -184,12 +192,12 @@ public class GroupAccess {
    * @param signature
    * @param message
    * @param handler
-   * @return a response code
+   * @return a command response
    * @throws edu.umass.cs.gnscommon.exceptions.client.ClientException
    * @throws java.io.IOException
    * @throws org.json.JSONException
    */
-  public static ResponseCode removeFromGroup(String guid, ResultValue members, String writer,
+  public static CommandResponse removeFromGroup(String guid, ResultValue members, String writer,
           String signature, String message, Date timestamp,
           ClientRequestHandlerInterface handler) throws ClientException, IOException, JSONException {
     ResponseCode code;
@@ -201,12 +209,40 @@ public class GroupAccess {
               UpdateOperation.SINGLE_FIELD_REMOVE, writer, signature, message,
               timestamp, handler);
     //}
-    if (code.isOKResult()) {
-      for (String memberGuid : members.toStringSet()) {
-        handler.getRemoteQuery().fieldRemove(memberGuid, GroupAccess.GROUPS, guid);
+    if (!code.isOKResult()) {
+      return new CommandResponse(code, GNSProtocol.BAD_RESPONSE.toString() + " " + code.getProtocolCode());
+    }
+    return checkGroupsUpdates(guid, handler.getRemoteQuery().fieldRemoveFromArrays(members.toStringSet(),
+            GroupAccess.GROUPS, guid, handler));
+  }
+
+  /**
+   * Turns the members whose GROUPS field couldn't be updated into a command response.
+   * The GROUP field of the group has already been updated by then.
+   *
+   * @param guid
+   * @param failures
+   * @return a command response
+   */
+  private static CommandResponse checkGroupsUpdates(String guid, Map<String, String> failures) {
+    if (failures.isEmpty()) {
+      return new CommandResponse(ResponseCode.NO_ERROR, GNSProtocol.OK_RESPONSE.toString());
+    }
+    LOGGER.log(Level.WARNING, "Unable to update the groups of {0} members of {1}: {2}",
+            new Object[]{failures.size(), guid, failures});
+    StringBuilder message = new StringBuilder();
+    message.append(GNSProtocol.BAD_RESPONSE.toString()).append(" ")
+            .append(ResponseCode.UPDATE_ERROR.getProtocolCode()).append(" ");
+    message.append("Unable to update the groups of ").append(failures.size()).append(" members:");
+    int count = 0;
+    for (Map.Entry<String, String> failure : failures.entrySet()) {
+      if (count++ == MAX_REPORTED_MEMBERS) {
+        message.append(" ...");
+        break;
       }
+      message.append(" ").append(failure.getKey()).append(" (").append(failure.getValue()).append(")");
     }
-    return code;
+    return new CommandResponse(ResponseCode.UPDATE_ERROR, message.toString());
   }
 
   /**
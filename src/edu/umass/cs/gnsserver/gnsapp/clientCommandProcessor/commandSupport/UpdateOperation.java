@@ -26,6 +26,7 @@ import edu.umass.cs.gnsserver.utils.ValuesMap;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -162,6 +163,24 @@ public enum UpdateOperation {
     return upsert;
   }
 
+  /**
+   * Indicates that this operation adds values to or removes values from a list treating it as
+   * a set, which the database can do without the list being read and rewritten in full
+   * (see {@link edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord#updateNameRecord}).
+   *
+   * @return a boolean
+   */
+  public boolean isSetOperation() {
+    switch (this) {
+      case SINGLE_FIELD_APPEND:
+      case SINGLE_FIELD_APPEND_OR_CREATE:
+      case SINGLE_FIELD_REMOVE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
   /**
    * Returns the operation similar to an upsert operation that is not an upsert operation.
    *
@@ -238,12 +257,12 @@ public enum UpdateOperation {
         }
       case SINGLE_FIELD_APPEND_OR_CREATE:
       case SINGLE_FIELD_APPEND:
-        Set<Object> singles; // use a hash to remove duplicates
+        Set<Object> singles; // use a hash to remove duplicates, keeping the order
         // check for a null list don't use the current values if it is
         if (valuesListHasNullFirstElement(valuesList)) {
-          singles = new HashSet<>();
+          singles = new LinkedHashSet<>();
         } else {
-          singles = new HashSet<>(valuesList);
+          singles = new LinkedHashSet<>(valuesList);
         }
         singles.addAll(newValues);
         // clear the old values and
@@ -258,8 +277,8 @@ public enum UpdateOperation {
           valuesList.clear();
           return false;
         }
-        // otherwise remove all the values if they exists
-        if (valuesList.removeAll(newValues)) {
+        // otherwise remove all the values if they exists (hashed so that each check is constant time)
+        if (valuesList.removeAll(new HashSet<>(newValues))) {
           return true;
         } else {
           return false;
@@ -28,6 +28,8 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCom
 import edu.umass.cs.gnscommon.CommandType;
 
 import edu.umass.cs.gnscommon.ResponseCode;
+import edu.umass.cs.gnscommon.exceptions.client.ClientException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -70,7 +72,13 @@ public class LookupRandomGuids extends AbstractCommand {
       return new CommandResponse(ResponseCode.BAD_ACCOUNT_ERROR, GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.BAD_ACCOUNT.toString() + " " + guid);
     }
     if (acccountInfo != null) {
-      List<String> guids = acccountInfo.getGuids();
+      List<String> guids;
+      try {
+        guids = new ArrayList<>(AccountAccess.lookupAccountGuids(acccountInfo, handler));
+      } catch (ClientException | IOException e) {
+        return new CommandResponse(ResponseCode.REMOTE_QUERY_EXCEPTION, GNSProtocol.BAD_RESPONSE.toString()
+                + " " + GNSProtocol.REMOTE_QUERY_EXCEPTION.toString() + " " + e.getMessage());
+      }
       if (count >= guids.size()) {
         return new CommandResponse(ResponseCode.NO_ERROR, new JSONArray(guids).toString());
       } else {
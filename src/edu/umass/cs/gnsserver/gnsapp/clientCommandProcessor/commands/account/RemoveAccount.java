@@ -81,7 +81,7 @@ public class RemoveAccount extends AbstractCommand {
       return new CommandResponse(ResponseCode.BAD_GUID_ERROR, GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.BAD_GUID.toString() + " " + guid);
     }
     try {
-      if (NSAccessSupport.verifySignature(guidInfo.getPublicKey(), signature, message)) {
+      if (NSAccessSupport.verifySignature(guidInfo.getGuid(), guidInfo.getPublicKey(), signature, message)) {
         // Fixme: verify that we might need to look remotely for this.
         AccountInfo accountInfo = AccountAccess.lookupAccountInfoFromNameAnywhere(name, handler);
         if (accountInfo != null) {
@@ -76,7 +76,7 @@ public class ResendAuthenticationEmail extends AbstractCommand {
     if ((guidInfo = AccountAccess.lookupGuidInfoLocally(guid, handler)) == null) {
       return new CommandResponse(ResponseCode.BAD_GUID_ERROR, GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.BAD_GUID.toString() + " " + guid);
     }
-    if (!NSAccessSupport.verifySignature(guidInfo.getPublicKey(), signature, message)) {
+    if (!NSAccessSupport.verifySignature(guidInfo.getGuid(), guidInfo.getPublicKey(), signature, message)) {
       return new CommandResponse(ResponseCode.SIGNATURE_ERROR, GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.BAD_SIGNATURE.toString());
     }
     AccountInfo accountInfo;
@@ -77,7 +77,7 @@ public class RetrieveAliases extends AbstractCommand {
       return new CommandResponse(ResponseCode.BAD_GUID_ERROR, GNSProtocol.BAD_RESPONSE.toString() 
               + " " + GNSProtocol.BAD_GUID.toString() + " " + guid);
     }
-    if (NSAccessSupport.verifySignature(guidInfo.getPublicKey(), signature, message)) {
+    if (NSAccessSupport.verifySignature(guidInfo.getGuid(), guidInfo.getPublicKey(), signature, message)) {
       AccountInfo accountInfo = AccountAccess.lookupAccountInfoFromGuidLocally(guid, handler);
       if (accountInfo == null) {
         return new CommandResponse(ResponseCode.BAD_ACCOUNT_ERROR, GNSProtocol.BAD_RESPONSE.toString() 
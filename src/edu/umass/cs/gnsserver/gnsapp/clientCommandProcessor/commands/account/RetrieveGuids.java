@@ -0,0 +1,98 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.account;
+
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountInfo;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandResponse;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.CommandModule;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.ResponseCode;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAccessSupport;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.security.spec.InvalidKeySpecException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Retrieves one page of the guids of an account along with a continuation
+ * for retrieving the next page.
+ *
+ * @author westy
+ */
+public class RetrieveGuids extends AbstractCommand {
+
+  /**
+   * Creates a RetrieveGuids instance.
+   *
+   * @param module
+   */
+  public RetrieveGuids(CommandModule module) {
+    super(module);
+  }
+
+  /**
+   *
+   * @return the command type
+   */
+  @Override
+  public CommandType getCommandType() {
+    return CommandType.RetrieveGuids;
+  }
+
+  @Override
+  public CommandResponse execute(JSONObject json, ClientRequestHandlerInterface handler) throws InvalidKeyException, InvalidKeySpecException,
+          JSONException, NoSuchAlgorithmException, SignatureException, UnsupportedEncodingException {
+    String guid = json.getString(GNSProtocol.GUID.toString());
+    String signature = json.getString(GNSProtocol.SIGNATURE.toString());
+    String message = json.getString(GNSProtocol.SIGNATUREFULLMESSAGE.toString());
+    int pageSize = json.optInt(GNSProtocol.PAGE_SIZE.toString(), -1);
+    String continuation = json.optString(GNSProtocol.CONTINUATION.toString(), null);
+    GuidInfo guidInfo;
+    if ((guidInfo = AccountAccess.lookupGuidInfoLocally(guid, handler)) == null) {
+      return new CommandResponse(ResponseCode.BAD_GUID_ERROR, GNSProtocol.BAD_RESPONSE.toString() 
+              + " " + GNSProtocol.BAD_GUID.toString() + " " + guid);
+    }
+    if (NSAccessSupport.verifySignature(guidInfo.getGuid(), guidInfo.getPublicKey(), signature, message)) {
+      AccountInfo accountInfo = AccountAccess.lookupAccountInfoFromGuidLocally(guid, handler);
+      if (accountInfo == null) {
+        return new CommandResponse(ResponseCode.BAD_ACCOUNT_ERROR, GNSProtocol.BAD_RESPONSE.toString() 
+                + " " + GNSProtocol.BAD_ACCOUNT.toString() + " " + guid);
+      } else if (!accountInfo.isVerified()) {
+        return new CommandResponse(ResponseCode.VERIFICATION_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+                + " " + GNSProtocol.VERIFICATION_ERROR.toString() + " Account not verified");
+      }
+      return AccountAccess.retrieveGuids(accountInfo, pageSize, continuation, handler);
+    } else {
+      return new CommandResponse(ResponseCode.SIGNATURE_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+              + " " + GNSProtocol.BAD_SIGNATURE.toString());
+    }
+  }
+
+}
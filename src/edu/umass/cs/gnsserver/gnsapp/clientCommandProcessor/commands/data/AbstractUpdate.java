@@ -94,6 +94,10 @@ public abstract class AbstractUpdate extends AbstractCommand {
       } else {
         return new CommandResponse(responseCode, GNSProtocol.BAD_RESPONSE.toString() + " " + responseCode.getProtocolCode());
       }
+    } else if (json.optBoolean(GNSProtocol.RETURN_COUNT.toString(), false)) {
+      return FieldAccess.updateSet(guid, field,
+              value != null ? new ResultValue(Arrays.asList(value)) : new ResultValue(),
+              getUpdateOperation(), writer, handler);
     } else // single field update
     {
       if (!(responseCode = FieldAccess.update(header, guid, field,
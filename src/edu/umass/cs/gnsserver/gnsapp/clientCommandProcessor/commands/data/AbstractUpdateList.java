@@ -80,6 +80,10 @@ public abstract class AbstractUpdateList extends AbstractCommand {
     } else {
       timestamp = null;
     }
+    if (json.optBoolean(GNSProtocol.RETURN_COUNT.toString(), false)) {
+      return FieldAccess.updateSet(guid, field, JSONUtils.JSONArrayToResultValue(new JSONArray(value)),
+              getUpdateOperation(), writer, handler);
+    }
     ResponseCode responseCode;
     if (!(responseCode = FieldAccess.update(header, guid, field,
             JSONUtils.JSONArrayToResultValue(new JSONArray(value)),
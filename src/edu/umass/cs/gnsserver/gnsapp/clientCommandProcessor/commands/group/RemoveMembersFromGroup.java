@@ -75,14 +75,9 @@ public class RemoveMembersFromGroup extends AbstractCommand {
     String message = json.optString(GNSProtocol.SIGNATUREFULLMESSAGE.toString(), null);
     Date timestamp = json.has(GNSProtocol.TIMESTAMP.toString())
             ? Format.parseDateISO8601UTC(json.getString(GNSProtocol.TIMESTAMP.toString())) : null; // can be null on older client
-    ResponseCode responseCode;
     try {
-      if (!(responseCode = GroupAccess.removeFromGroup(guid, new ResultValue(members), writer, signature,
-              message, timestamp, handler)).isExceptionOrError()) {
-        return new CommandResponse(ResponseCode.NO_ERROR, GNSProtocol.OK_RESPONSE.toString());
-      } else {
-        return new CommandResponse(responseCode, GNSProtocol.BAD_RESPONSE.toString() + " " + responseCode.getProtocolCode());
-      }
+      return GroupAccess.removeFromGroup(guid, new ResultValue(members), writer, signature,
+              message, timestamp, handler);
     } catch (ClientException | IOException e) {
       return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, GNSProtocol.BAD_RESPONSE.toString() 
               + " " + GNSProtocol.UNSPECIFIED_ERROR.toString() + " " + e.getMessage());
@@ -26,6 +26,8 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.CommandModu
 import edu.umass.cs.gnscommon.CommandType;
 import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
+import edu.umass.cs.gnsserver.utils.JSONUtils;
+import java.util.ArrayList;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -57,7 +59,9 @@ public class Select extends AbstractCommand {
   public CommandResponse execute(JSONObject json, ClientRequestHandlerInterface handler) throws JSONException {
     String field = json.getString(GNSProtocol.FIELD.toString());
     String value = json.getString(GNSProtocol.VALUE.toString());
-    return FieldAccess.select(field, value, handler);
+    ArrayList<String> fields = json.has(GNSProtocol.FIELDS.toString())
+            ? JSONUtils.JSONArrayToArrayListString(json.getJSONArray(GNSProtocol.FIELDS.toString())) : null;
+    return FieldAccess.select(field, value, fields, handler);
   }
 
   
@@ -26,6 +26,8 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.CommandModu
 import edu.umass.cs.gnscommon.CommandType;
 import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
+import edu.umass.cs.gnsserver.utils.JSONUtils;
+import java.util.ArrayList;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -58,7 +60,9 @@ public class SelectNear extends AbstractCommand {
     String field = json.getString(GNSProtocol.FIELD.toString());
     String value = json.getString(GNSProtocol.NEAR.toString());
     String maxDistance = json.getString(GNSProtocol.MAX_DISTANCE.toString());
-    return FieldAccess.selectNear(field, value, maxDistance, handler);
+    ArrayList<String> fields = json.has(GNSProtocol.FIELDS.toString())
+            ? JSONUtils.JSONArrayToArrayListString(json.getJSONArray(GNSProtocol.FIELDS.toString())) : null;
+    return FieldAccess.selectNear(field, value, maxDistance, fields, handler);
   }
 
   
@@ -26,6 +26,8 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.CommandModu
 import edu.umass.cs.gnscommon.CommandType;
 import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
+import edu.umass.cs.gnsserver.utils.JSONUtils;
+import java.util.ArrayList;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -56,7 +58,9 @@ public class SelectQuery extends AbstractCommand {
   @Override
   public CommandResponse execute(JSONObject json, ClientRequestHandlerInterface handler) throws JSONException {
     String query = json.getString(GNSProtocol.QUERY.toString());
-    return FieldAccess.selectQuery(query, handler);
+    ArrayList<String> fields = json.has(GNSProtocol.FIELDS.toString())
+            ? JSONUtils.JSONArrayToArrayListString(json.getJSONArray(GNSProtocol.FIELDS.toString())) : null;
+    return FieldAccess.selectQuery(query, fields, handler);
   }
 
   
@@ -0,0 +1,65 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.select;
+
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandResponse;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.FieldAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.CommandModule;
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A query that returns one page of the guids that satisfy the given query
+ * along with a continuation for retrieving the next page.
+ *
+ * @author westy
+ */
+public class SelectQueryPaged extends AbstractCommand {
+
+  /**
+   *
+   * @param module
+   */
+  public SelectQueryPaged(CommandModule module) {
+    super(module);
+  }
+
+  /**
+   *
+   * @return the command type
+   */
+  @Override
+  public CommandType getCommandType() {
+    return CommandType.SelectQueryPaged;
+  }
+
+  @Override
+  public CommandResponse execute(JSONObject json, ClientRequestHandlerInterface handler) throws JSONException {
+    String query = json.getString(GNSProtocol.QUERY.toString());
+    int pageSize = json.optInt(GNSProtocol.PAGE_SIZE.toString(), -1);
+    String continuation = json.optString(GNSProtocol.CONTINUATION.toString(), null);
+    return FieldAccess.selectQueryPaged(query, pageSize, continuation, handler);
+  }
+
+}
@@ -27,6 +27,8 @@ import edu.umass.cs.gnscommon.CommandType;
 
 import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
+import edu.umass.cs.gnsserver.utils.JSONUtils;
+import java.util.ArrayList;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -59,7 +61,9 @@ public class SelectWithin extends AbstractCommand {
   public CommandResponse execute(JSONObject json, ClientRequestHandlerInterface handler) throws JSONException {
     String field = json.getString(GNSProtocol.FIELD.toString());
     String within = json.getString(GNSProtocol.WITHIN.toString());
-    return FieldAccess.selectWithin(field, within, handler);
+    ArrayList<String> fields = json.has(GNSProtocol.FIELDS.toString())
+            ? JSONUtils.JSONArrayToArrayListString(json.getJSONArray(GNSProtocol.FIELDS.toString())) : null;
+    return FieldAccess.selectWithin(field, within, fields, handler);
   }
 
   
@@ -0,0 +1,248 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.SharedGuidUtils;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+/**
+ * Indexes the ACLs of guids by accessor guid.
+ *
+ * ACLs are stored as lists of public keys, so finding the key of an accessor
+ * in one means hashing keys until one hashes to the accessor guid. The first time
+ * an ACL is checked on this name server it is read with
+ * {@link NSAccessSupport#newLookupPublicKeysFromAcl} and every key in it is hashed
+ * once, and after that a check is a single lookup in the map from guid to key.
+ * The guid of each key is also remembered across ACLs, so a key that is in the
+ * ACLs of many guids, or in an ACL that is rebuilt after a write, isn't hashed again.
+ *
+ * ACLs are indexed as resolved for the field that was checked, that is the ACL
+ * of the nearest enclosing field that has one. Since creating or removing an ACL
+ * on any field can change that, all the ACLs of a guid are dropped by
+ * {@link #invalidate} whenever any of its ACLs is written on this name server or the
+ * record is removed. Like in
+ * {@link edu.umass.cs.gnsserver.gnamed.GnsAnswerCache} a generation counter (striped
+ * by guid) keeps an ACL that was read while a write raced with it from being indexed.
+ *
+ * The stored format doesn't change, so existing records and clients that write
+ * ACLs themselves need no migration.
+ *
+ * The index is bounded by the total number of public keys in the indexed ACLs
+ * rather than by the number of guids, since one guid with a huge ACL can take
+ * as much memory as thousands with small ones.
+ *
+ * @author westy
+ */
+public class AclIndex {
+
+  private static final int GENERATION_STRIPES = 1024;
+
+  /**
+   * An ACL indexed by the guids of the public keys in it.
+   */
+  public static class Acl {
+
+    private final Set<String> publicKeys;
+    // guid -> public key
+    private final Map<String, String> members;
+
+    private Acl(Set<String> publicKeys) {
+      this.publicKeys = Collections.unmodifiableSet(publicKeys);
+      Map<String, String> map = new HashMap<>();
+      for (String publicKey : publicKeys) {
+        if (GNSProtocol.EVERYONE.toString().equals(publicKey)) {
+          continue;
+        }
+        String guid = guidForPublicKey(publicKey);
+        if (guid != null) {
+          map.put(guid, publicKey);
+        }
+      }
+      this.members = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Returns the public key in the ACL that the guid was made from or null if there is none.
+     *
+     * @param guid
+     * @return the public key or null
+     */
+    public String getPublicKey(String guid) {
+      return guid != null ? members.get(guid) : null;
+    }
+
+    /**
+     * Returns the public keys in the ACL as stored, including {@link GNSProtocol#EVERYONE}.
+     *
+     * @return the public keys
+     */
+    public Set<String> getPublicKeys() {
+      return publicKeys;
+    }
+
+    /**
+     * Returns the guids of the public keys in the ACL.
+     *
+     * @return the guids
+     */
+    public Set<String> getGuids() {
+      return members.keySet();
+    }
+  }
+
+  // guid -> the ACLs of the guid by access type and field, replaced rather
+  // than changed when an ACL is added so that the entry is weighed again
+  private static final Cache<String, Map<String, Acl>> ACLS
+          = CacheBuilder.newBuilder().concurrencyLevel(16)
+          .maximumWeight(Config.getGlobalInt(GNSConfig.GNSC.ACL_INDEX_MAX_KEYS))
+          .weigher(new Weigher<String, Map<String, Acl>>() {
+            @Override
+            public int weigh(String guid, Map<String, Acl> acls) {
+              int keys = 1;
+              for (Acl acl : acls.values()) {
+                keys += acl.publicKeys.size();
+              }
+              return keys;
+            }
+          })
+          .recordStats().build();
+
+  // public key -> guid
+  private static final Cache<String, String> GUIDS
+          = CacheBuilder.newBuilder().concurrencyLevel(16)
+          .maximumSize(Config.getGlobalInt(GNSConfig.GNSC.ACL_KEY_GUID_CACHE_SIZE))
+          .build();
+
+  private static final AtomicLongArray GENERATIONS = new AtomicLongArray(GENERATION_STRIPES);
+
+  private static int stripe(String guid) {
+    return (guid.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+  }
+
+  private static String makeKey(MetaDataTypeName access, String field) {
+    return access.name() + ":" + field;
+  }
+
+  private static String guidForPublicKey(String publicKey) {
+    String guid = GUIDS.getIfPresent(publicKey);
+    if (guid == null) {
+      try {
+        guid = SharedGuidUtils.createGuidStringFromBase64PublicKey(publicKey);
+      } catch (IllegalArgumentException e) {
+        // ignore any bogus publicKeys
+        return null;
+      }
+      GUIDS.put(publicKey, guid);
+    }
+    return guid;
+  }
+
+  /**
+   * Returns the ACL of the field of the guid, going up the field hierarchy to the
+   * nearest field that has one, just like {@link NSAccessSupport#newLookupPublicKeysFromAcl}.
+   *
+   * @param access
+   * @param guid
+   * @param field
+   * @param database
+   * @return the indexed ACL
+   * @throws FailedDBOperationException
+   */
+  public static Acl lookup(MetaDataTypeName access, String guid, String field,
+          BasicRecordMap database) throws FailedDBOperationException {
+    String key = makeKey(access, field);
+    Map<String, Acl> acls = ACLS.getIfPresent(guid);
+    Acl acl = acls != null ? acls.get(key) : null;
+    if (acl != null) {
+      return acl;
+    }
+    long generation = GENERATIONS.get(stripe(guid));
+    acl = new Acl(NSAccessSupport.newLookupPublicKeysFromAcl(access, guid, field, database));
+    put(guid, key, acl, generation);
+    return acl;
+  }
+
+  private static synchronized void put(String guid, String key, Acl acl, long generation) {
+    if (GENERATIONS.get(stripe(guid)) != generation) {
+      // Written while we were reading it
+      return;
+    }
+    Map<String, Acl> acls = ACLS.getIfPresent(guid);
+    Map<String, Acl> updated = acls != null ? new HashMap<>(acls) : new HashMap<String, Acl>();
+    updated.put(key, acl);
+    ACLS.put(guid, Collections.unmodifiableMap(updated));
+    ClientSupportConfig.getLogger().log(Level.FINE, "Indexed {0} of {1} with {2} guids",
+            new Object[]{key, guid, acl.members.size()});
+  }
+
+  /**
+   * Removes all the indexed ACLs of the guid. Should be called whenever
+   * the record of the guid is written or removed.
+   *
+   * @param guid
+   */
+  public static synchronized void invalidate(String guid) {
+    GENERATIONS.incrementAndGet(stripe(guid));
+    ACLS.invalidate(guid);
+  }
+
+  /**
+   * Removes all indexed ACLs.
+   */
+  public static synchronized void invalidateAll() {
+    for (int i = 0; i < GENERATION_STRIPES; i++) {
+      GENERATIONS.incrementAndGet(i);
+    }
+    ACLS.invalidateAll();
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts for the guids whose ACLs are indexed.
+   *
+   * @return the cache stats
+   */
+  public static CacheStats getStats() {
+    return ACLS.stats();
+  }
+
+  /**
+   * Returns the number of guids whose ACLs are indexed.
+   *
+   * @return the size
+   */
+  public static long size() {
+    return ACLS.size();
+  }
+}
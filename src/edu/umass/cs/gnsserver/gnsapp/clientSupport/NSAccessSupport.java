@@ -30,12 +30,17 @@ import edu.umass.cs.gnscommon.utils.Base64;
 import java.nio.ByteBuffer;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import edu.umass.cs.gnscommon.utils.ByteUtils;
+import edu.umass.cs.gnscommon.utils.JSONDotNotation;
 import edu.umass.cs.gnscommon.SharedGuidUtils;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.FieldMetaData;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
 import edu.umass.cs.gnsserver.gnsapp.deprecated.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
@@ -58,6 +63,10 @@ import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import edu.umass.cs.gnscommon.GNSProtocol;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 /**
  * Provides signing and ACL checks for commands.
  *
@@ -65,20 +74,56 @@ import edu.umass.cs.gnscommon.GNSProtocol;
  */
 public class NSAccessSupport {
 
-  private static KeyFactory keyFactory;
-  // arun: at least as many instances as cores for parallelism.
-  private static Signature[] signatureInstances = new Signature[2 * Runtime.getRuntime().availableProcessors()];
+  // Crypto engines are not thread-safe, so rather than funneling every
+  // verification through a shared pool behind a lock each thread gets its
+  // own instances. Verification is then limited only by the number of cores.
+  private static final ThreadLocal<KeyFactory> KEY_FACTORIES = new ThreadLocal<KeyFactory>() {
+    @Override
+    protected KeyFactory initialValue() {
+      try {
+        return KeyFactory.getInstance(GNSProtocol.RSA_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        throw new RuntimeException(e);
+      }
+    }
+  };
 
-  static {
-    try {
-      keyFactory = KeyFactory.getInstance(GNSProtocol.RSA_ALGORITHM.toString());
-      for (int i = 0; i < signatureInstances.length; i++) {
-        signatureInstances[i] = Signature.getInstance(GNSProtocol.SIGNATURE_ALGORITHM.toString());
+  private static final ThreadLocal<Signature> SIGNATURES = new ThreadLocal<Signature>() {
+    @Override
+    protected Signature initialValue() {
+      try {
+        return Signature.getInstance(GNSProtocol.SIGNATURE_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        throw new RuntimeException(e);
       }
-    } catch (NoSuchAlgorithmException e) {
-      ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
     }
-  }
+  };
+
+  private static final ThreadLocal<MessageDigest> MESSAGE_DIGESTS = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance(GNSProtocol.DIGEST_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        throw new RuntimeException(e);
+      }
+    }
+  };
+
+  private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<Cipher>() {
+    @Override
+    protected Cipher initialValue() {
+      try {
+        return Cipher.getInstance(GNSProtocol.SECRET_KEY_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        throw new RuntimeException(e);
+      }
+    }
+  };
 
   /**
    * Verifies that the signature corresponds to the message using the public key.
@@ -94,8 +139,31 @@ public class NSAccessSupport {
    */
   public static boolean verifySignature(String accessorPublicKey, String signature, String message) throws
           InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException {
-    byte[] publickeyBytes = Base64.decode(accessorPublicKey);
-    if (publickeyBytes == null) { // bogus public key
+    return verifySignature(null, accessorPublicKey, signature, message);
+  }
+
+  /**
+   * Verifies that the signature corresponds to the message using the public key
+   * of the accessorGuid. The decoded public key is cached using the accessorGuid
+   * so that subsequent checks don't need to parse it again.
+   *
+   * @param accessorGuid - can be null in which case the key is not cached
+   * @param accessorPublicKey
+   * @param signature
+   * @param message
+   * @return true if the signature verifies successfully
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   * @throws UnsupportedEncodingException
+   * @throws InvalidKeySpecException
+   */
+  public static boolean verifySignature(String accessorGuid, String accessorPublicKey,
+          String signature, String message) throws
+          InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException {
+    PublicKey publicKey = accessorGuid != null
+            ? PublicKeyCache.getPublicKey(accessorGuid, accessorPublicKey)
+            : decodePublicKey(accessorPublicKey);
+    if (publicKey == null) { // bogus public key
       ClientSupportConfig.getLogger().log(Level.FINE, "&&&&Base 64 decoding is bogus!!!");
       return false;
     }
@@ -105,7 +173,7 @@ public class NSAccessSupport {
               Util.truncate(signature, 16, 16),
               Util.truncate(message, 16, 16)});
     long t = System.nanoTime();
-    boolean result = verifySignatureInternal(publickeyBytes, signature, message);
+    boolean result = verifySignatureInternal(publicKey, signature, message);
     if (Util.oneIn(100)) {
       DelayProfiler.updateDelayNano("verification", t);
     }
@@ -118,18 +186,27 @@ public class NSAccessSupport {
     return result;
   }
 
-  private static int sigIndex = 0;
-
-  private synchronized static Signature getSignatureInstance() {
-    return signatureInstances[sigIndex++ % signatureInstances.length];
+  /**
+   * Decodes a Base64 encoded X509 public key.
+   *
+   * @param encodedPublicKey
+   * @return the public key or null if the Base64 decoding fails
+   * @throws InvalidKeySpecException
+   */
+  static PublicKey decodePublicKey(String encodedPublicKey) throws InvalidKeySpecException {
+    byte[] publickeyBytes = Base64.decode(encodedPublicKey);
+    if (publickeyBytes == null) {
+      return null;
+    }
+    return KEY_FACTORIES.get().generatePublic(new X509EncodedKeySpec(publickeyBytes));
   }
 
-  private static synchronized boolean verifySignatureInternal(byte[] publickeyBytes, String signature, String message)
+  private static boolean verifySignatureInternal(PublicKey publicKey, String signature, String message)
           throws InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException {
 
     if (Config.getGlobalBoolean(GNSC.ENABLE_SECRET_KEY)) {
       try {
-        return verifySignatureInternalSecretKey(publickeyBytes, signature, message);
+        return verifySignatureInternalSecretKey(publicKey, signature, message);
       } catch (Exception e) {
         // This provided backward support for clients that don't have ENABLE_SECRET_KEY on by
         // falling through to non-secret method.
@@ -141,63 +218,19 @@ public class NSAccessSupport {
     }
 
     // Non-secret method kept for backwards compatbility with older clients.
-    X509EncodedKeySpec publicKeySpec = new X509EncodedKeySpec(publickeyBytes);
-    PublicKey publicKey = keyFactory.generatePublic(publicKeySpec);
-
-    Signature sigInstance = getSignatureInstance();
-    synchronized (sigInstance) {
-      sigInstance.initVerify(publicKey);
-      // iOS client uses UTF-8 - should switch to ISO-8859-1 to be consistent with
-      // secret key version
-      sigInstance.update(message.getBytes("UTF-8"));
-      // Non secret uses ISO-8859-1, but the iOS client uses hex so 
-      // we need to keep this for now.
-      return sigInstance.verify(ByteUtils.hexStringToByteArray(signature));
-    }
-  }
-
-  private static final MessageDigest[] mds = new MessageDigest[Runtime.getRuntime().availableProcessors()];
-
-  static {
-    for (int i = 0; i < mds.length; i++) {
-      try {
-        mds[i] = MessageDigest.getInstance(GNSProtocol.DIGEST_ALGORITHM.toString());
-      } catch (NoSuchAlgorithmException e) {
-        e.printStackTrace();
-        System.exit(1);
-      }
-    }
-  }
-  private static int mdIndex = 0;
-
-  private static MessageDigest getMessageDigestInstance() {
-    return mds[mdIndex++ % mds.length];
+    Signature sigInstance = SIGNATURES.get();
+    sigInstance.initVerify(publicKey);
+    // iOS client uses UTF-8 - should switch to ISO-8859-1 to be consistent with
+    // secret key version
+    sigInstance.update(message.getBytes("UTF-8"));
+    // Non secret uses ISO-8859-1, but the iOS client uses hex so 
+    // we need to keep this for now.
+    return sigInstance.verify(ByteUtils.hexStringToByteArray(signature));
   }
 
-  private static final Cipher[] ciphers = new Cipher[2 * Runtime.getRuntime().availableProcessors()];
-
-  static {
-    for (int i = 0; i < ciphers.length; i++) {
-      try {
-        ciphers[i] = Cipher.getInstance(GNSProtocol.SECRET_KEY_ALGORITHM.toString());
-      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-        e.printStackTrace();
-        System.exit(1);
-      }
-    }
-  }
-
-  private static int cipherIndex = 0;
-
-  private static Cipher getCipherInstance() {
-    return ciphers[cipherIndex++ % ciphers.length];
-  }
-
-  private static synchronized boolean verifySignatureInternalSecretKey(byte[] publickeyBytes, String signature, String message)
+  private static boolean verifySignatureInternalSecretKey(PublicKey publicKey, String signature, String message)
           throws InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException, NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException {
 
-    PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(publickeyBytes));
-
     // FIXME: The reason why we use CHARSET should be more throughly documented here.
     byte[] sigBytes = signature.getBytes(GNSProtocol.CHARSET.toString());
     byte[] bytes = message.getBytes(GNSProtocol.CHARSET.toString());
@@ -211,21 +244,15 @@ public class NSAccessSupport {
     bbuf.get(skCertEncoded);
     SecretKey secretKey = SessionKeys.getSecretKeyFromCertificate(skCertEncoded, publicKey);
 
-    MessageDigest md = getMessageDigestInstance();
-    byte[] digest = null;
-    synchronized (md) {
-      digest = md.digest(bytes);
-    }
-    Cipher cipher = getCipherInstance();
-    synchronized (cipher) {
-      cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-      return Arrays.equals(sign, cipher.doFinal(digest));
-    }
+    byte[] digest = MESSAGE_DIGESTS.get().digest(bytes);
+    Cipher cipher = CIPHERS.get();
+    cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+    return Arrays.equals(sign, cipher.doFinal(digest));
   }
 
   /**
-   * Handles checking of fields with dot notation.
-   * Checks deepest field first then backs up.
+   * Returns true if one of the groups is in the ACL of the field, or of the
+   * nearest field above it that has an ACL.
    *
    * @param accessType
    * @param guid
@@ -239,53 +266,8 @@ public class NSAccessSupport {
           String field, Set<String> groups,
           GNSApplicationInterface<String> activeReplica) throws FailedDBOperationException {
     ClientSupportConfig.getLogger().log(Level.FINE, "###field={0}", field);
-    try {
-      return checkForGroupAccess(accessType, guid, field, groups, activeReplica);
-    } catch (FieldNotFoundException e) {
-      ClientSupportConfig.getLogger().log(Level.FINE, "###field NOT FOUND={0}.. GOING UP", new Object[]{field});
-    }
-    // otherwise go up the hierarchy and check
-    if (field.contains(".")) {
-      return hierarchicalAccessGroupCheck(accessType, guid, field.substring(0, field.lastIndexOf(".")),
-              groups, activeReplica);
-    } else if (!GNSProtocol.ENTIRE_RECORD.toString().equals(field)) {
-      return hierarchicalAccessGroupCheck(accessType, guid, GNSProtocol.ENTIRE_RECORD.toString(), groups, activeReplica);
-    } else {
-      // check all the way up and there is no access
-      return false;
-    }
-  }
-
-  /**
-   * Check for one of the groups that accessorguid is in being a member of allowed users.
-   * Field can be dotted and at any level.
-   *
-   * @param accessType
-   * @param guid
-   * @param field
-   * @param accessorGuid
-   * @param activeReplica
-   * @return true if access is allowed
-   * @throws FailedDBOperationException
-   */
-  private static boolean checkForGroupAccess(MetaDataTypeName accessType,
-          String guid, String field, Set<String> groups,
-          GNSApplicationInterface<String> activeReplica)
-          throws FieldNotFoundException, FailedDBOperationException {
-    try {
-      // FIXME: Tidy this mess up.
-      @SuppressWarnings("unchecked")
-      Set<String> allowedUsers = (Set<String>) (Set<?>) NSFieldMetaData.lookupLocally(accessType,
-              guid, field, activeReplica.getDB());
-      ClientSupportConfig.getLogger().log(Level.FINE, "{0} allowed users of {1} : {2}",
-              new Object[]{guid, field, allowedUsers});
-      return !Sets.intersection(SharedGuidUtils.convertPublicKeysToGuids(allowedUsers), groups).isEmpty();
-    } catch (RecordNotFoundException e) {
-      ClientSupportConfig.getLogger().log(Level.WARNING,
-              "User {0} access problem for {2} field: {3}",
-              new Object[]{guid, field, e});
-      return false;
-    }
+    return !Collections.disjoint(AclIndex.lookup(accessType, guid, field, activeReplica.getDB()).getGuids(),
+            groups);
   }
 
   /**
@@ -459,6 +441,63 @@ public class NSAccessSupport {
     }
   }
 
+  /**
+   * Returns the fields that hold the ACLs {@link #fieldAccessibleByEveryone(MetaDataTypeName, String, JSONObject)}
+   * needs to check the given fields, so that they can be read along with the fields.
+   *
+   * @param access
+   * @param fields
+   * @return the ACL fields
+   */
+  public static List<String> aclFieldsForEveryone(MetaDataTypeName access, List<String> fields) {
+    List<String> aclFields = new ArrayList<>(fields.size() + 1);
+    for (String field : fields) {
+      aclFields.add(FieldMetaData.makeFieldMetaDataKey(access, field));
+    }
+    aclFields.add(FieldMetaData.makeFieldMetaDataKey(access, GNSProtocol.ENTIRE_RECORD.toString()));
+    return aclFields;
+  }
+
+  /**
+   * Returns true if the field has access setting that allow it to be read globally.
+   * Like {@link #fieldAccessibleByEveryone(MetaDataTypeName, String, String, GNSApplicationInterface)}
+   * but checks the ACLs in a values map that was already read with the fields
+   * returned by {@link #aclFieldsForEveryone}, rather than reading them from the database.
+   *
+   * @param access
+   * @param field
+   * @param valuesMap
+   * @return true if the field can be accessed
+   */
+  public static boolean fieldAccessibleByEveryone(MetaDataTypeName access, String field, JSONObject valuesMap) {
+    // As above the ACL of the field overrides the ENTIRE_RECORD ACL.
+    Object acl = getAcl(valuesMap, FieldMetaData.makeFieldMetaDataKey(access, field));
+    if (acl == null) {
+      acl = getAcl(valuesMap, FieldMetaData.makeFieldMetaDataKey(access, GNSProtocol.ENTIRE_RECORD.toString()));
+    }
+    if (acl instanceof JSONArray) {
+      JSONArray array = (JSONArray) acl;
+      for (int i = 0; i < array.length(); i++) {
+        if (GNSProtocol.EVERYONE.toString().equals(array.opt(i))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static Object getAcl(JSONObject valuesMap, String key) {
+    if (valuesMap.has(key)) {
+      return valuesMap.opt(key);
+    }
+    try {
+      return JSONDotNotation.containsFieldDotNotation(key, valuesMap)
+              ? JSONDotNotation.getWithDotNotation(key, valuesMap) : null;
+    } catch (JSONException e) {
+      return null;
+    }
+  }
+
   /**
    * Looks up the public key for a guid using the acl of a field.
    * Handles fields that uses dot notation. Recursively goes up the tree
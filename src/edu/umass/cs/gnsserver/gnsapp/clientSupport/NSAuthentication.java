@@ -19,8 +19,6 @@
  */
 package edu.umass.cs.gnsserver.gnsapp.clientSupport;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.SharedGuidUtils;
@@ -45,9 +43,6 @@ import edu.umass.cs.gnscommon.GNSProtocol;
  */
 public class NSAuthentication {
 
-  private static final Cache<String, String> PUBLIC_KEY_CACHE
-          = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(1000).build();
-
   /**
    * Does access and signature checking for a field OR fields in a guid.
    * For explicit multi-field access all fields must be accessible or
@@ -118,8 +113,18 @@ public class NSAuthentication {
       return ResponseCode.ACCESS_ERROR;
     }
 
-    // Now check signatures
-    if (NSAccessSupport.verifySignature(aclResult.getPublicKey(), signature, message)) {
+    // Now check signatures.
+    // Retransmitted commands are byte-identical so if enabled we can skip the verification
+    // when we've already accepted exactly this signature.
+    boolean useSignatureCache = VerifiedSignatureCache.isEnabled();
+    if (useSignatureCache && VerifiedSignatureCache.isVerified(accessorGuid,
+            aclResult.getPublicKey(), signature, message)) {
+      return ResponseCode.NO_ERROR;
+    }
+    if (NSAccessSupport.verifySignature(accessorGuid, aclResult.getPublicKey(), signature, message)) {
+      if (useSignatureCache) {
+        VerifiedSignatureCache.putVerified(accessorGuid, aclResult.getPublicKey(), signature, message);
+      }
       return ResponseCode.NO_ERROR;
     } else {
       ClientSupportConfig.getLogger().log(Level.FINE,
@@ -269,8 +274,16 @@ public class NSAuthentication {
           throws FailedDBOperationException {
     String publicKey;
     // Field could also be GNSProtocol.ENTIRE_RECORD.toString() here 
-    Set<String> publicKeys = NSAccessSupport.lookupPublicKeysFromAcl(access, guid, field, gnsApp.getDB());
-    publicKey = SharedGuidUtils.findPublicKeyForGuid(accessorGuid, publicKeys);
+    Set<String> publicKeys;
+    if (Config.getGlobalBoolean(GNSConfig.GNSC.USE_OLD_ACL_MODEL)) {
+      publicKeys = NSAccessSupport.lookupPublicKeysFromAcl(access, guid, field, gnsApp.getDB());
+      publicKey = SharedGuidUtils.findPublicKeyForGuid(accessorGuid, publicKeys);
+    } else {
+      // A single lookup instead of hashing every key in the ACL
+      AclIndex.Acl acl = AclIndex.lookup(access, guid, field, gnsApp.getDB());
+      publicKeys = acl.getPublicKeys();
+      publicKey = acl.getPublicKey(accessorGuid);
+    }
     ClientSupportConfig.getLogger().log(Level.FINE,
             "================> {0} lookup for {1} returned: {2} public keys={3}",
             new Object[]{access.toString(), field, publicKey,
@@ -309,7 +322,7 @@ public class NSAuthentication {
   private static String lookupPublicKeyFromGuidLocallyWithCacheing(String guid, GNSApplicationInterface<String> gnsApp)
           throws FailedDBOperationException {
     String result;
-    if ((result = PUBLIC_KEY_CACHE.getIfPresent(guid)) != null) {
+    if ((result = PublicKeyCache.getEncodedPublicKey(guid)) != null) {
       return result;
     }
     GuidInfo guidInfo;
@@ -318,7 +331,7 @@ public class NSAuthentication {
       return null;
     } else {
       result = guidInfo.getPublicKey();
-      PUBLIC_KEY_CACHE.put(guid, result);
+      PublicKeyCache.putEncodedPublicKey(guid, result);
       return result;
     }
   }
@@ -0,0 +1,396 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.exceptions.client.ClientException;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnsserver.database.JSONQueryMatcher;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GroupAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
+import edu.umass.cs.gnsserver.gnsapp.deprecated.GNSApplicationInterface;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.nodeconfig.GNSConsistentReconfigurableNodeConfig;
+import edu.umass.cs.gnsserver.utils.ResultValue;
+import edu.umass.cs.utils.Config;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps the membership of context aware group guids up to date as records are written.
+ *
+ * Every name server registers the query of a group guid when it sees the select
+ * that sets the group up (or refreshes it). After that each local write to a record
+ * is read back once and matched in memory against the registered queries whose fields
+ * it touched and, if the record joined or left a group, the change is sent to the GROUP
+ * field of the group guid and the GROUPS field of the member. A record that is removed
+ * leaves the groups it was in. A group lookup then only has to read the GROUP field.
+ *
+ * Writes only queue the record to be checked, so they never wait on the queries or on
+ * the remote updates. Both queues are bounded by CONTINUOUS_SELECT_GROUP_QUEUE_SIZE and
+ * what doesn't fit is dropped.
+ *
+ * The registrations are only kept in memory. Groups are still fully reevaluated every
+ * CONTINUOUS_SELECT_GROUP_RESYNC_INTERVAL which registers the query again on any name
+ * server that lost it and repairs any membership changes that were missed or dropped.
+ *
+ * Only the first of the default replicas of a record sends its changes. A replica that
+ * isn't one of the default replicas (because the record was moved) can't tell which
+ * of the others still has it so it sends them as well. Appending to and removing from
+ * the GROUP and GROUPS fields are idempotent so the duplicates are harmless.
+ *
+ * @author westy
+ */
+public class NSContinuousGroupQueries {
+
+  // group guid -> query
+  private static final Map<String, ContinuousQuery> QUERIES = new ConcurrentHashMap<>();
+
+  private static final String VALUES_MAP_PREFIX = NameRecord.VALUES_MAP.getName() + ".";
+
+  // A registered query along with the top level fields it refers to
+  private static class ContinuousQuery {
+
+    private final String query;
+    private final JSONQueryMatcher matcher;
+    private final Set<String> fields = new HashSet<>();
+
+    ContinuousQuery(String query) throws JSONException {
+      this.query = query;
+      this.matcher = JSONQueryMatcher.fromGNSQuery(query, NameRecord.VALUES_MAP);
+      addFields(matcher.getQuery());
+    }
+
+    private void addFields(Object condition) throws JSONException {
+      if (condition instanceof JSONObject) {
+        JSONObject json = (JSONObject) condition;
+        Iterator<?> keys = json.keys();
+        while (keys.hasNext()) {
+          String key = (String) keys.next();
+          if (key.startsWith(VALUES_MAP_PREFIX)) {
+            fields.add(topLevel(key.substring(VALUES_MAP_PREFIX.length())));
+          }
+          addFields(json.get(key));
+        }
+      } else if (condition instanceof JSONArray) {
+        JSONArray array = (JSONArray) condition;
+        for (int i = 0; i < array.length(); i++) {
+          addFields(array.get(i));
+        }
+      }
+    }
+
+    boolean dependsOn(Collection<String> written) {
+      if (written == null) {
+        return true;
+      }
+      for (String field : written) {
+        if (fields.contains(topLevel(field))) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  // Written records are checked against the queries here so that writes never wait on them
+  private static final ThreadPoolExecutor EVALUATOR = newBoundedExecutor("ContinuousGroupEvaluator");
+  // Membership changes are sent from here so that checking never waits on remote updates
+  private static final ThreadPoolExecutor DELTA_SENDER = newBoundedExecutor("ContinuousGroupDeltaSender");
+  private static final AtomicLong DROPPED = new AtomicLong();
+
+  private static ThreadPoolExecutor newBoundedExecutor(final String name) {
+    return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(Math.max(1,
+                    Config.getGlobalInt(GNSConfig.GNSC.CONTINUOUS_SELECT_GROUP_QUEUE_SIZE))),
+            (Runnable r) -> {
+              Thread thread = new Thread(r, name);
+              thread.setDaemon(true);
+              return thread;
+            },
+            (Runnable r, ThreadPoolExecutor executor) -> {
+              // Only every so often so that an overload doesn't also flood the log
+              if (DROPPED.incrementAndGet() % 1000 == 1) {
+                ClientSupportConfig.getLogger().log(Level.WARNING,
+                        "{0} is full, {1} continuous group updates dropped so far; the next resync repairs them",
+                        new Object[]{name, DROPPED.get()});
+              }
+            });
+  }
+
+  /**
+   * Returns true if continuously maintained groups are enabled.
+   *
+   * @return true if enabled
+   */
+  public static boolean isEnabled() {
+    return Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_CONTINUOUS_SELECT_GROUPS);
+  }
+
+  /**
+   * Returns the interval after which a continuously maintained group is fully reevaluated.
+   *
+   * @return the interval in milliseconds
+   */
+  public static int getResyncInterval() {
+    return Config.getGlobalInt(GNSConfig.GNSC.CONTINUOUS_SELECT_GROUP_RESYNC_INTERVAL);
+  }
+
+  /**
+   * Registers the query for the group guid on this name server.
+   *
+   * @param groupGuid
+   * @param query
+   */
+  public static void register(String groupGuid, String query) {
+    if (groupGuid == null || query == null) {
+      return;
+    }
+    ContinuousQuery current = QUERIES.get(groupGuid);
+    if (current != null && current.query.equals(query)) {
+      return;
+    }
+    try {
+      QUERIES.put(groupGuid, new ContinuousQuery(query));
+      ClientSupportConfig.getLogger().log(Level.FINE,
+              "Registered continuous query for group {0}: {1}", new Object[]{groupGuid, query});
+    } catch (JSONException e) {
+      // The group is still refreshed by the resync
+      QUERIES.remove(groupGuid);
+      ClientSupportConfig.getLogger().log(Level.WARNING,
+              "Unable to register continuous query for group {0}: {1}", new Object[]{groupGuid, e});
+    }
+  }
+
+  /**
+   * Removes the query for the group guid from this name server.
+   *
+   * @param groupGuid
+   */
+  public static void unregister(String groupGuid) {
+    QUERIES.remove(groupGuid);
+  }
+
+  /**
+   * Returns the number of groups registered on this name server.
+   *
+   * @return the number of groups
+   */
+  public static int size() {
+    return QUERIES.size();
+  }
+
+  /**
+   * Called after a record has been written locally. Queues the record to be
+   * checked against the registered group queries, after which any membership
+   * changes are sent out.
+   *
+   * @param guid - the record that was written
+   * @param fields - the fields that were written or null if the whole record was
+   * @param app
+   */
+  public static void recordUpdated(final String guid, final Collection<String> fields,
+          final GNSApplicationInterface<String> app) {
+    if (!isEnabled() || QUERIES.isEmpty() || onlyInternalFields(fields) || !isSender(guid, app)) {
+      return;
+    }
+    EVALUATOR.execute(() -> evaluate(guid, fields, app));
+  }
+
+  /**
+   * Called before a record is removed locally. Once the record is gone
+   * it is removed from the GROUP field of the registered groups it was in.
+   *
+   * @param guid - the record that is being removed
+   * @param app
+   */
+  public static void recordRemoved(final String guid, final GNSApplicationInterface<String> app) {
+    if (!isEnabled() || QUERIES.isEmpty() || !isSender(guid, app)) {
+      return;
+    }
+    // Read now as the record won't be there once the change is sent
+    ResultValue groups = NSFieldAccess.lookupListFieldLocallySafe(guid, GroupAccess.GROUPS, app.getDB());
+    if (groups == null) {
+      return;
+    }
+    for (final String groupGuid : groups.toStringSet()) {
+      if (QUERIES.containsKey(groupGuid)) {
+        sendRemoval(groupGuid, guid, app);
+      }
+    }
+  }
+
+  private static void evaluate(String guid, Collection<String> fields,
+          GNSApplicationInterface<String> app) {
+    JSONObject record = null;
+    Set<String> currentGroups = null;
+    for (Map.Entry<String, ContinuousQuery> entry : QUERIES.entrySet()) {
+      String groupGuid = entry.getKey();
+      ContinuousQuery query = entry.getValue();
+      if (groupGuid.equals(guid) || !query.dependsOn(fields)) {
+        continue;
+      }
+      try {
+        if (record == null) {
+          record = app.getDB().lookupEntireRecord(guid);
+          if (record == null) {
+            return;
+          }
+          currentGroups = lookupGroups(record);
+        }
+        boolean matches = query.matcher.matches(record);
+        boolean member = currentGroups.contains(groupGuid);
+        if (matches && !member) {
+          sendDelta(groupGuid, guid, true, app);
+        } else if (!matches && member) {
+          sendDelta(groupGuid, guid, false, app);
+        }
+      } catch (RecordNotFoundException e) {
+        // Removed since it was written
+        return;
+      } catch (FailedDBOperationException | JSONException e) {
+        ClientSupportConfig.getLogger().log(Level.WARNING,
+                "Unable to evaluate continuous query for group {0} against {1}: {2}",
+                new Object[]{groupGuid, guid, e});
+      }
+    }
+  }
+
+  private static Set<String> lookupGroups(JSONObject record) throws JSONException {
+    JSONObject valuesMap = record.optJSONObject(NameRecord.VALUES_MAP.getName());
+    JSONArray groups = valuesMap != null ? valuesMap.optJSONArray(GroupAccess.GROUPS) : null;
+    if (groups == null) {
+      return Collections.<String>emptySet();
+    }
+    Set<String> result = new HashSet<>();
+    for (int i = 0; i < groups.length(); i++) {
+      result.add(groups.getString(i));
+    }
+    return result;
+  }
+
+  // Only one replica needs to send the changes for a record. The default replicas
+  // only tell them apart if this is one of them.
+  @SuppressWarnings("unchecked")
+  private static boolean isSender(String guid, GNSApplicationInterface<String> app) {
+    if (!(app.getGNSNodeConfig() instanceof GNSConsistentReconfigurableNodeConfig)) {
+      return true;
+    }
+    Set<String> replicas = new TreeSet<>(((GNSConsistentReconfigurableNodeConfig<String>) app
+            .getGNSNodeConfig()).getReplicatedActives(guid));
+    return !replicas.contains(app.getNodeID()) || replicas.iterator().next().equals(app.getNodeID());
+  }
+
+  private static boolean onlyInternalFields(Collection<String> fields) {
+    if (fields == null) {
+      return false;
+    }
+    for (String field : fields) {
+      if (!InternalField.isInternalField(field)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String topLevel(String field) {
+    int dot = field.indexOf('.');
+    return dot == -1 ? field : field.substring(0, dot);
+  }
+
+  private static void sendRemoval(final String groupGuid, final String memberGuid,
+          final GNSApplicationInterface<String> app) {
+    DELTA_SENDER.execute(() -> {
+      try {
+        // A replica also drops its copy when the record moves to other replicas,
+        // so only a read that finds no record at all means it is really gone
+        if (app.getRequestHandler().getRemoteQuery().fieldRead(memberGuid, GroupAccess.GROUPS) != null) {
+          return;
+        }
+      } catch (IOException | JSONException | ClientException e) {
+        // The record still exists or we can't tell; the next resync sorts it out
+        return;
+      }
+      ClientSupportConfig.getLogger().log(Level.FINE, "{0} removed from group {1}",
+              new Object[]{memberGuid, groupGuid});
+      try {
+        app.getRequestHandler().getRemoteQuery().fieldRemove(groupGuid, GroupAccess.GROUP, memberGuid);
+      } catch (IOException | JSONException | ClientException e) {
+        ClientSupportConfig.getLogger().log(Level.WARNING,
+                "Unable to update group {0} for {1}: {2}", new Object[]{groupGuid, memberGuid, e});
+      }
+    });
+  }
+
+  private static void sendDelta(final String groupGuid, final String memberGuid, final boolean add,
+          final GNSApplicationInterface<String> app) {
+    ClientSupportConfig.getLogger().log(Level.FINE, "{0} {1} group {2}",
+            new Object[]{memberGuid, add ? "joined" : "left", groupGuid});
+    DELTA_SENDER.execute(() -> {
+      try {
+        String response;
+        if (add) {
+          response = app.getRequestHandler().getRemoteQuery().fieldAppendToArray(groupGuid,
+                  GroupAccess.GROUP, new ResultValue(Arrays.asList(memberGuid)));
+        } else {
+          response = app.getRequestHandler().getRemoteQuery().fieldRemove(groupGuid,
+                  GroupAccess.GROUP, memberGuid);
+        }
+        if (!GNSProtocol.OK_RESPONSE.toString().equals(response)) {
+          // Most likely the group guid has been removed
+          ClientSupportConfig.getLogger().log(Level.INFO,
+                  "Dropping continuous query for group {0}: {1}", new Object[]{groupGuid, response});
+          unregister(groupGuid);
+          return;
+        }
+        if (add) {
+          app.getRequestHandler().getRemoteQuery().fieldAppendToArray(memberGuid,
+                  GroupAccess.GROUPS, new ResultValue(Arrays.asList(groupGuid)));
+        } else {
+          app.getRequestHandler().getRemoteQuery().fieldRemove(memberGuid,
+                  GroupAccess.GROUPS, groupGuid);
+        }
+      } catch (IOException | JSONException | ClientException e) {
+        ClientSupportConfig.getLogger().log(Level.WARNING,
+                "Unable to update group {0} for {1}: {2}", new Object[]{groupGuid, memberGuid, e});
+      }
+    });
+  }
+}
@@ -39,6 +39,7 @@ import edu.umass.cs.utils.DelayProfiler;
 import edu.umass.cs.utils.Util;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 
@@ -191,6 +192,36 @@ public class NSFieldAccess {
     return null;
   }
 
+  /**
+   * Runs the read active code of many records, e.g., the ones matched by a select,
+   * with a single message to a worker instead of one per record.
+   * The values map of each record is replaced by the result of its code.
+   *
+   * @param header
+   * @param records records with the name and the values map of each guid
+   * @param codes the read code of each record, null if it has none
+   */
+  public static void handleReadActiveCode(InternalRequestHeader header, List<JSONObject> records,
+          List<String> codes) {
+    List<String> guids = new ArrayList<>(records.size());
+    List<JSONObject> values = new ArrayList<>(records.size());
+    for (JSONObject record : records) {
+      guids.add(record.optString(NameRecord.NAME.getName(), null));
+      values.add(record.optJSONObject(NameRecord.VALUES_MAP.getName()));
+    }
+    List<JSONObject> results = ActiveCodeHandler.handleReadActiveCodeBatch(header, guids, codes, values);
+    for (int i = 0; i < records.size(); i++) {
+      if (results.get(i) != values.get(i)) {
+        try {
+          records.get(i).put(NameRecord.VALUES_MAP.getName(), results.get(i));
+        } catch (JSONException e) {
+          ClientSupportConfig.getLogger().log(Level.FINE, "Problem updating record of {0}: {1}",
+                  new Object[]{guids.get(i), e});
+        }
+      }
+    }
+  }
+
   /**
    * Looks up the value of an old-style list field
    * in the guid in the local replica.
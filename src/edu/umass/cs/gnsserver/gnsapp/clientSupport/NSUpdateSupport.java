@@ -14,6 +14,8 @@ import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
 import edu.umass.cs.gnsserver.database.ColumnFieldType;
+import edu.umass.cs.gnsserver.gnamed.GnsAnswerCache;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ActiveCode;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
@@ -32,6 +34,7 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.logging.Level;
@@ -125,6 +128,7 @@ public class NSUpdateSupport {
       NameRecord nameRecord = getNameRecord(guid, field, operation, app.getDB());
       updateNameRecord(header, nameRecord, guid, field, operation, updateValue, oldValue, argument, userJSON,
               app.getDB(), app.getActiveCodeHandler());
+      recordUpdated(guid, field, userJSON, app);
       return ResponseCode.NO_ERROR;
     } else // Handle special case of a create index
     {
@@ -141,10 +145,90 @@ public class NSUpdateSupport {
     }
   }
 
+  /**
+   * Adds values to or removes them from an internal field that is a list, for internal
+   * operations that need to know how many of them were actually added or removed.
+   * There are no signature or ACL checks and no active code is run, so this is only
+   * for internal fields written with the INTERNAL_OP_SECRET.
+   *
+   * @param guid
+   * @param field
+   * @param operation - {@link UpdateOperation#SINGLE_FIELD_REMOVE} or one of the appends
+   * @param values
+   * @param app
+   * @return how many values were added or removed or -1 if the field isn't a list
+   * @throws FailedDBOperationException
+   * @throws RecordNotFoundException
+   */
+  public static int executeSetUpdateLocal(String guid, String field, UpdateOperation operation,
+          ResultValue values, GNSApplicationInterface<String> app)
+          throws FailedDBOperationException, RecordNotFoundException {
+    if (!app.getDB().containsName(guid)) {
+      throw new RecordNotFoundException(guid);
+    }
+    int count = operation.equals(UpdateOperation.SINGLE_FIELD_REMOVE)
+            ? app.getDB().removeFromSetField(guid, field, values)
+            : app.getDB().addToSetField(guid, field, values);
+    if (count > 0) {
+      recordUpdated(guid, field, null, app);
+    }
+    return count;
+  }
+
+  // Lets everything that depends on the record know that it changed
+  private static void recordUpdated(String guid, String field, ValuesMap userJSON,
+          GNSApplicationInterface<String> app) {
+    GnsAnswerCache.invalidate(guid);
+    if (writesAclField(field, userJSON)) {
+      AclIndex.invalidate(guid);
+    }
+    // The public key is kept in the guid info
+    if (writesField(field, userJSON, AccountAccess.GUID_INFO)) {
+      PublicKeyCache.invalidate(guid);
+    }
+    NSContinuousGroupQueries.recordUpdated(guid,
+            field != null ? Arrays.asList(field) : userJSON != null ? userJSON.getKeys() : null, app);
+  }
+
+  private static boolean writesAclField(String field, ValuesMap userJSON) {
+    for (MetaDataTypeName type : MetaDataTypeName.values()) {
+      if (writesField(field, userJSON, type.getPrefix())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // True if the update writes the top level field or something inside it
+  private static boolean writesField(String field, ValuesMap userJSON, String topLevelField) {
+    if (field != null) {
+      return isInField(field, topLevelField);
+    }
+    if (userJSON != null) {
+      for (String key : userJSON.getKeys()) {
+        if (isInField(key, topLevelField)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isInField(String field, String topLevelField) {
+    return field.equals(topLevelField) || field.startsWith(topLevelField + ".");
+  }
+
   private static NameRecord getNameRecord(String guid, String field, UpdateOperation operation, BasicRecordMap db) throws RecordNotFoundException, FailedDBOperationException {
     if (operation.isAbleToSkipRead()) {
       // some operations don't require a read first
       return new NameRecord(db, guid);
+    } else if (field != null && operation.isSetOperation()) {
+      // set operations are done in the database without reading the list
+      // but we still want to report a missing record like the others do
+      if (!db.containsName(guid)) {
+        throw new RecordNotFoundException(guid);
+      }
+      return new NameRecord(db, guid);
     } else //try {
     {
       if (field == null) {
@@ -159,7 +243,8 @@ public class NSUpdateSupport {
   private static void updateNameRecord(InternalRequestHeader header, NameRecord nameRecord, String guid, String field,
           UpdateOperation operation, ResultValue updateValue, ResultValue oldValue, int argument,
           ValuesMap userJSON, BasicRecordMap db, ActiveCodeHandler activeCodeHandler) 
-          throws FailedDBOperationException, FieldNotFoundException, InternalRequestException {
+          throws FailedDBOperationException, FieldNotFoundException, InternalRequestException,
+          RecordNotFoundException {
     ValuesMap newValue = userJSON;
     if (activeCodeHandler != null) {
       JSONObject result = ActiveCodeHandler.handleActiveCode(header, guid, field, ActiveCode.WRITE_ACTION, userJSON, db);
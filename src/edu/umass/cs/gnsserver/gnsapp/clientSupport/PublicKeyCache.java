@@ -0,0 +1,178 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * A bounded cache of public keys keyed by guid.
+ *
+ * Each entry holds the Base64 encoded key as stored in the guid record
+ * and, once it has been needed for a signature check, the decoded
+ * {@link PublicKey}. Hot guids therefore never pay for Base64 decoding
+ * or X509 key parsing more than once.
+ *
+ * Entries must be invalidated when the public key of a guid is reset or
+ * the guid is removed. As an additional safeguard the decoded key is only
+ * returned if the encoded key it was parsed from matches the one the caller
+ * is verifying against.
+ *
+ * @author westy
+ */
+public class PublicKeyCache {
+
+  private static final Cache<String, Entry> CACHE
+          = CacheBuilder.newBuilder().concurrencyLevel(16)
+          .maximumSize(Config.getGlobalInt(GNSConfig.GNSC.PUBLIC_KEY_CACHE_SIZE))
+          .recordStats().build();
+
+  // Number of times a key actually had to be decoded and parsed.
+  private static final AtomicLong DECODE_COUNT = new AtomicLong();
+
+  private static class Entry {
+
+    private final String encodedPublicKey;
+    // Lazily filled in the first time this key is used for a signature check.
+    private volatile PublicKey publicKey;
+
+    private Entry(String encodedPublicKey) {
+      this.encodedPublicKey = encodedPublicKey;
+    }
+  }
+
+  /**
+   * Returns the Base64 encoded public key for the guid or null if it isn't cached.
+   *
+   * @param guid
+   * @return the encoded public key or null
+   */
+  public static String getEncodedPublicKey(String guid) {
+    Entry entry = CACHE.getIfPresent(guid);
+    return entry != null ? entry.encodedPublicKey : null;
+  }
+
+  /**
+   * Caches the Base64 encoded public key for the guid.
+   *
+   * @param guid
+   * @param encodedPublicKey
+   */
+  public static void putEncodedPublicKey(String guid, String encodedPublicKey) {
+    Entry entry = CACHE.getIfPresent(guid);
+    if (entry == null || !entry.encodedPublicKey.equals(encodedPublicKey)) {
+      CACHE.put(guid, new Entry(encodedPublicKey));
+    }
+  }
+
+  /**
+   * Returns the decoded public key for the guid, decoding and caching it
+   * if necessary.
+   *
+   * @param guid
+   * @param encodedPublicKey
+   * @return the public key or null if the encoded public key is bogus
+   * @throws InvalidKeySpecException
+   */
+  public static PublicKey getPublicKey(String guid, String encodedPublicKey)
+          throws InvalidKeySpecException {
+    Entry entry = CACHE.getIfPresent(guid);
+    if (entry == null || !entry.encodedPublicKey.equals(encodedPublicKey)) {
+      // Either never seen or the key has changed underneath us
+      entry = new Entry(encodedPublicKey);
+      CACHE.put(guid, entry);
+    }
+    PublicKey publicKey = entry.publicKey;
+    if (publicKey == null) {
+      publicKey = NSAccessSupport.decodePublicKey(encodedPublicKey);
+      DECODE_COUNT.incrementAndGet();
+      entry.publicKey = publicKey;
+    }
+    return publicKey;
+  }
+
+  /**
+   * Removes any cached key for the guid. Should be called when the
+   * public key of the guid is reset or the guid is removed.
+   *
+   * @param guid
+   */
+  public static void invalidate(String guid) {
+    ClientSupportConfig.getLogger().log(Level.FINE, "Invalidating public key for {0}", guid);
+    CACHE.invalidate(guid);
+  }
+
+  /**
+   * Removes all cached keys.
+   */
+  public static void invalidateAll() {
+    CACHE.invalidateAll();
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts for the cache.
+   *
+   * @return the cache stats
+   */
+  public static CacheStats getStats() {
+    return CACHE.stats();
+  }
+
+  /**
+   * Returns the number of times a public key had to be decoded because
+   * it was not already in the cache.
+   *
+   * @return the decode count
+   */
+  public static long getDecodeCount() {
+    return DECODE_COUNT.get();
+  }
+
+  /**
+   * Returns the current number of cached keys.
+   *
+   * @return the size
+   */
+  public static long size() {
+    return CACHE.size();
+  }
+
+  /**
+   * Returns a human readable summary of the cache statistics.
+   *
+   * @return a string
+   */
+  public static String getStatsString() {
+    CacheStats stats = CACHE.stats();
+    return "size=" + CACHE.size()
+            + " hits=" + stats.hitCount()
+            + " misses=" + stats.missCount()
+            + " hitRate=" + String.format("%.3f", stats.hitRate())
+            + " evictions=" + stats.evictionCount()
+            + " decodes=" + DECODE_COUNT.get();
+  }
+}
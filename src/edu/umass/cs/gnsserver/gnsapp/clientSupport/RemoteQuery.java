@@ -29,14 +29,17 @@ import edu.umass.cs.reconfiguration.reconfigurationpackets.ActiveReplicaError;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.ClientReconfigurationPacket;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.CreateServiceName;
 import edu.umass.cs.reconfiguration.reconfigurationpackets.DeleteServiceName;
+import edu.umass.cs.reconfiguration.reconfigurationutils.ConsistentHashing;
 import edu.umass.cs.reconfiguration.reconfigurationutils.ConsistentReconfigurableNodeConfig;
 import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.Util;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -351,8 +354,75 @@ public class RemoteQuery extends ClientAsynchBase {
   // Fixme: Could make this a config parameter.
   private static final long REQUESTS_PER_SECOND = 50;
 
+  // The most names in one batched create
+  private static final int MAX_NAMES_PER_CREATE = 1000;
+  // The most batched creates to one reconfigurator group that are sent but not answered yet
+  private static final int MAX_OUTSTANDING_CREATES_PER_RC_GROUP = 16;
+  // weight of the latest batch in the moving average of the time it takes to create a name
+  private static final double CREATE_TIME_ALPHA = 0.2;
+
+  /**
+   * The names that are in one reconfigurator group and how many batched
+   * creates of them can be outstanding at a time.
+   */
+  private static class RCGroupCreates {
+
+    private final Iterator<String> names;
+    // guarded by the unanswered creates
+    private int outstanding = 0;
+    private double window = 1;
+    // in milliseconds, starts at what we can do on a slow machine
+    private double timePerName = 1000.0 / REQUESTS_PER_SECOND;
+
+    private RCGroupCreates(Set<String> names) {
+      this.names = names.iterator();
+    }
+
+    private CreateServiceName nextCreate(Map<String, JSONObject> states) {
+      Map<String, String> nameStates = new HashMap<>();
+      while (nameStates.size() < MAX_NAMES_PER_CREATE && names.hasNext()) {
+        String name = names.next();
+        nameStates.put(name, states.get(name).toString());
+      }
+      return new CreateServiceName(null, nameStates);
+    }
+
+    // Make a timeout that somewhat reflects the amount of work we're going to do.
+    private long timeout(CreateServiceName create) {
+      return Math.max(RECON_TIMEOUT, (long) (2 * create.getNameStates().size() * timePerName));
+    }
+
+    private void succeeded(CreateServiceName create, long elapsed) {
+      timePerName = timePerName * (1 - CREATE_TIME_ALPHA)
+              + CREATE_TIME_ALPHA * elapsed / Math.max(1, create.getNameStates().size());
+      window = Math.min(MAX_OUTSTANDING_CREATES_PER_RC_GROUP, window + 1 / window);
+    }
+
+    private void failed() {
+      window = Math.max(1, window / 2);
+    }
+  }
+
+  /**
+   * A batched create that is sent but not answered yet.
+   */
+  private static class PendingCreate {
+
+    private final CreateServiceName create;
+    private final RCGroupCreates group;
+    private final long sentTime = System.currentTimeMillis();
+    private final long timeout;
+
+    private PendingCreate(CreateServiceName create, RCGroupCreates group) {
+      this.create = create;
+      this.group = group;
+      this.timeout = group.timeout(create);
+    }
+  }
+
   /**
    * Creates multiple records at the appropriate reconfigurators.
+   * Fails if any of them could not be created. See {@link #createRecords}.
    *
    * @param names
    * @param values
@@ -361,51 +431,149 @@ public class RemoteQuery extends ClientAsynchBase {
    */
   public ResponseCode createRecordBatch(Set<String> names, Map<String, JSONObject> values,
           ClientRequestHandlerInterface handler) {
-    try {
-      CreateServiceName[] creates = makeBatchedCreateNameRequest(names, values, handler);
-      for (CreateServiceName create : creates) {
-        LOGGER.log(Level.FINE,
-                "{0} sending create for NAME = ",
-                new Object[]{this, create.getServiceName()});
-        // Make a timeout that somewhat reflects the amount of work we're going to do.
-        long timeout = Math.max(RECON_TIMEOUT, (create.getNameStates().size() / REQUESTS_PER_SECOND) * 1000);
-        sendReconRequest(create, timeout);
-      }
+    Map<String, ResponseCode> failures = createRecords(names, values, handler);
+    if (failures.isEmpty()) {
       return ResponseCode.NO_ERROR;
-    } catch (JSONException | IOException | ClientException e) {
-      LOGGER.log(Level.FINE, "Problem creating {0} :{1}",
-              new Object[]{names, e});
-      // FIXME: return better error codes.
-      return ResponseCode.UNSPECIFIED_ERROR;
     }
+    // FIXME: return better error codes.
+    Map.Entry<String, ResponseCode> failure = failures.entrySet().iterator().next();
+    LOGGER.log(Level.WARNING, "{0} unable to create {1} of {2} names including {3}",
+            new Object[]{this, failures.size(), names.size(), failure.getKey()});
+    return failure.getValue();
   }
 
   /**
-   * Based on edu.umass.cs.reconfiguration.testing.ReconfigurableClientCreateTester
-   * but this one handles multiple states.
+   * Creates multiple records at the appropriate reconfigurators and returns the
+   * ones that could not be created.
+   *
+   * The names are split by reconfigurator group and each group is sent as batched
+   * creates of at most MAX_NAMES_PER_CREATE names, without waiting for the ones
+   * before to be answered. How many creates to a group can be outstanding at a time
+   * starts at one, goes up by one for every window of creates that succeed and is
+   * halved when one fails or times out, up to MAX_OUTSTANDING_CREATES_PER_RC_GROUP.
+   * The timeout of each create reflects how long the names of its group have been
+   * taking. The names of a create that fails or isn't answered in time are returned
+   * with the reason instead of failing the rest. A create that isn't answered in time
+   * may still finish later, so callers should check whether names that failed with
+   * TIMEOUT exist before treating them as not created.
    *
    * @param names
-   * @param states
+   * @param values
    * @param handler
-   * @return an array of packets
-   * @throws JSONException
+   * @return the names that weren't created mapped to the reason, empty if all were
    */
-  private static CreateServiceName[] makeBatchedCreateNameRequest(Set<String> names,
-          Map<String, JSONObject> states, ClientRequestHandlerInterface handler) throws JSONException {
-    Collection<Set<String>> batches = ConsistentReconfigurableNodeConfig
-            .splitIntoRCGroups(names, handler.getGnsNodeConfig().getReconfigurators());
+  public Map<String, ResponseCode> createRecords(Set<String> names, Map<String, JSONObject> values,
+          ClientRequestHandlerInterface handler) {
+    // guarded by unanswered
+    final Map<String, ResponseCode> failures = new HashMap<>();
+    final Set<PendingCreate> unanswered = new HashSet<>();
+    List<RCGroupCreates> groups = new ArrayList<>();
+    for (Set<String> batch : ConsistentReconfigurableNodeConfig
+            .splitIntoRCGroups(names, handler.getGnsNodeConfig().getReconfigurators())) {
+      groups.add(new RCGroupCreates(batch));
+    }
+    long startTime = System.currentTimeMillis();
+    synchronized (unanswered) {
+      try {
+        boolean unsent = true;
+        while (unsent || !unanswered.isEmpty()) {
+          Iterator<PendingCreate> iter = unanswered.iterator();
+          while (iter.hasNext()) {
+            PendingCreate pending = iter.next();
+            if (System.currentTimeMillis() - pending.sentTime >= pending.timeout) {
+              LOGGER.log(Level.WARNING, "{0} timed out on create of {1} names after {2}ms",
+                      new Object[]{this, pending.create.getNameStates().size(), pending.timeout});
+              iter.remove();
+              pending.group.outstanding--;
+              pending.group.failed();
+              fail(pending.create, ResponseCode.TIMEOUT, failures);
+            }
+          }
+          unsent = false;
+          for (RCGroupCreates group : groups) {
+            while (group.outstanding < (int) group.window && group.names.hasNext()) {
+              PendingCreate pending = new PendingCreate(group.nextCreate(values), group);
+              LOGGER.log(Level.FINE, "{0} sending create of {1} names",
+                      new Object[]{this, pending.create.getNameStates().size()});
+              unanswered.add(pending);
+              group.outstanding++;
+              try {
+                sendRequest(pending.create, getCreateCallback(pending, unanswered, failures));
+              } catch (IOException e) {
+                if (unanswered.remove(pending)) {
+                  group.outstanding--;
+                  group.failed();
+                  fail(pending.create, ResponseCode.UNSPECIFIED_ERROR, failures);
+                }
+              }
+            }
+            unsent |= group.names.hasNext();
+          }
+          if (!unanswered.isEmpty()) {
+            unanswered.wait(WAIT_TIMESTEP);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        for (PendingCreate pending : unanswered) {
+          fail(pending.create, ResponseCode.UNSPECIFIED_ERROR, failures);
+        }
+        // so that late responses are ignored
+        unanswered.clear();
+        for (RCGroupCreates group : groups) {
+          while (group.names.hasNext()) {
+            failures.put(group.names.next(), ResponseCode.UNSPECIFIED_ERROR);
+          }
+        }
+      }
+      LOGGER.log(Level.FINE, "{0} created {1} of {2} names in {3}ms",
+              new Object[]{this, names.size() - failures.size(), names.size(),
+                System.currentTimeMillis() - startTime});
+      return failures;
+    }
+  }
 
-    Set<CreateServiceName> creates = new HashSet<>();
-    // each batched create corresponds to a different RC group
-    for (Set<String> batch : batches) {
-      Map<String, String> nameStates = new HashMap<>();
-      for (String name : batch) {
-        nameStates.put(name, states.get(name).toString());
+  private RequestCallback getCreateCallback(final PendingCreate pending,
+          final Set<PendingCreate> unanswered, final Map<String, ResponseCode> failures) {
+    return new RequestCallback() {
+      @Override
+      public void handleResponse(Request response) {
+        synchronized (unanswered) {
+          if (unanswered.remove(pending)) {
+            pending.group.outstanding--;
+            if (!(response instanceof ClientReconfigurationPacket)) {
+              LOGGER.log(Level.WARNING, "{0} received unexpected response to create of {1} names: {2}",
+                      new Object[]{RemoteQuery.this, pending.create.getNameStates().size(),
+                        response != null ? response.getSummary() : null});
+              pending.group.failed();
+              fail(pending.create, ResponseCode.UNSPECIFIED_ERROR, failures);
+              unanswered.notifyAll();
+              return;
+            }
+            ClientReconfigurationPacket packet = (ClientReconfigurationPacket) response;
+            if (!packet.isFailed()) {
+              pending.group.succeeded(pending.create, System.currentTimeMillis() - pending.sentTime);
+            } else if (packet.getResponseCode() == ClientReconfigurationPacket.ResponseCodes.DUPLICATE_ERROR) {
+              // not a sign of overload
+              fail(pending.create, ResponseCode.DUPLICATE_ID_EXCEPTION, failures);
+            } else {
+              LOGGER.log(Level.FINE, "{0} failed to create {1} names: {2}",
+                      new Object[]{RemoteQuery.this, pending.create.getNameStates().size(),
+                        packet.getResponseMessage()});
+              pending.group.failed();
+              fail(pending.create, ResponseCode.UNSPECIFIED_ERROR, failures);
+            }
+            unanswered.notifyAll();
+          }
+        }
       }
-      // a single batched create
-      creates.add(new CreateServiceName(null, nameStates));
+    };
+  }
+
+  private static void fail(CreateServiceName create, ResponseCode code, Map<String, ResponseCode> failures) {
+    for (String name : create.getNameStates().keySet()) {
+      failures.put(name, code);
     }
-    return creates.toArray(new CreateServiceName[0]);
   }
 
   /**
@@ -652,6 +820,283 @@ public class RemoteQuery extends ClientAsynchBase {
             GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.BAD_GUID.toString() + " " + guid);
   }
 
+  /**
+   * Adds the values that aren't already there to an internal field that is an array
+   * at a remote replica.
+   *
+   * @param guid
+   * @param field
+   * @param value
+   * @return how many of the values were added
+   * @throws IOException
+   * @throws JSONException
+   * @throws ClientException
+   */
+  public int fieldAddToSet(String guid, String field, ResultValue value)
+          throws IOException, JSONException, ClientException {
+    GNSConfig.getLogger().log(Level.FINE,
+            "{0} Field fieldAddToSet {1} / {2} : {3}",
+            new Object[]{this, guid, field, Util.truncate(value, 64, 64)});
+    Object monitor = new Object();
+    RequestCallbackWithRequest callback;
+    long requestId = fieldAddToSet(guid, field, value, callback = this.getRequestCallback(monitor));
+    return parseCount(handleQueryResponse(requestId, monitor, callback, REPLICA_UPDATE_TIMEOUT,
+            GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.BAD_GUID.toString() + " " + guid));
+  }
+
+  /**
+   * Removes a value from an internal field that is an array at a remote replica.
+   *
+   * @param guid
+   * @param field
+   * @param value
+   * @return how many elements were removed
+   * @throws IOException
+   * @throws JSONException
+   * @throws ClientException
+   */
+  public int fieldRemoveFromSet(String guid, String field, Object value)
+          throws IOException, JSONException, ClientException {
+    assert value instanceof String || value instanceof Number;
+    LOGGER.log(Level.FINE,
+            "{0} Field fieldRemoveFromSet {1} / {2} : {3}",
+            new Object[]{this, guid, field, value});
+    Object monitor = new Object();
+    RequestCallbackWithRequest callback;
+    long requestId = fieldRemoveFromSet(guid, field, value, callback = this.getRequestCallback(monitor));
+    return parseCount(handleQueryResponse(requestId, monitor, callback, REPLICA_UPDATE_TIMEOUT,
+            GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.BAD_GUID.toString() + " " + guid));
+  }
+
+  private static int parseCount(String response) throws ClientException {
+    try {
+      return Integer.parseInt(response);
+    } catch (NumberFormatException e) {
+      throw new ClientException(response);
+    }
+  }
+
+  // The most updates to the guids of one replica set that are sent but not answered yet
+  private static final int MAX_OUTSTANDING_UPDATES_PER_REPLICA_SET = 100;
+
+  /**
+   * Sends one update of a guid to a remote replica.
+   */
+  private static interface GuidUpdate {
+
+    /**
+     *
+     * @param guid
+     * @param callback
+     * @return the request id
+     * @throws IOException
+     * @throws JSONException
+     * @throws ClientException
+     */
+    public long send(String guid, RequestCallback callback) throws IOException, JSONException, ClientException;
+  }
+
+  /**
+   * The guids that hash to one set of active replicas.
+   */
+  private static class ReplicaSetUpdates {
+
+    private final Iterator<String> guids;
+    // guarded by the unanswered guids of the updates
+    private int outstanding = 0;
+
+    private ReplicaSetUpdates(List<String> guids) {
+      this.guids = guids.iterator();
+    }
+  }
+
+  /**
+   * Appends a value to a field that is an array in each of the guids at remote replicas.
+   * The updates are sent concurrently as described in {@link #sendUpdates}.
+   *
+   * @param guids
+   * @param field
+   * @param value
+   * @param handler
+   * @return the guids that weren't updated mapped to the reason, empty if all were
+   */
+  public Map<String, String> fieldAppendToArrays(Set<String> guids, final String field, final ResultValue value,
+          ClientRequestHandlerInterface handler) {
+    LOGGER.log(Level.FINE,
+            "{0} Field fieldAppendToArrays of {1} guids / {2} : {3}",
+            new Object[]{this, guids.size(), field, Util.truncate(value, 64, 64)});
+    return sendUpdates(guids, new GuidUpdate() {
+      @Override
+      public long send(String guid, RequestCallback callback) throws IOException, JSONException, ClientException {
+        return fieldAppendToArray(guid, field, value, callback);
+      }
+    }, handler);
+  }
+
+  /**
+   * Removes a value from a field that is an array in each of the guids at remote replicas.
+   * The updates are sent concurrently as described in {@link #sendUpdates}.
+   *
+   * @param guids
+   * @param field
+   * @param value
+   * @param handler
+   * @return the guids that weren't updated mapped to the reason, empty if all were
+   */
+  public Map<String, String> fieldRemoveFromArrays(Set<String> guids, final String field, final Object value,
+          ClientRequestHandlerInterface handler) {
+    assert value instanceof String || value instanceof Number;
+    LOGGER.log(Level.FINE,
+            "{0} Field fieldRemoveFromArrays of {1} guids / {2} : {3}",
+            new Object[]{this, guids.size(), field, value});
+    return sendUpdates(guids, new GuidUpdate() {
+      @Override
+      public long send(String guid, RequestCallback callback) throws IOException, JSONException, ClientException {
+        return fieldRemove(guid, field, value, callback);
+      }
+    }, handler);
+  }
+
+  /**
+   * Sends the update of each of the guids without waiting for the ones before it to be
+   * answered and then waits for all of them.
+   *
+   * The guids are split by the set of active replicas they hash to and at most
+   * MAX_OUTSTANDING_UPDATES_PER_REPLICA_SET updates to each replica set are outstanding
+   * at a time, so a big batch doesn't flood the replicas and a slow replica set doesn't hold
+   * up the others. Names can be moved off the replicas they hash to, which only makes the
+   * split less even. The timeout reflects the number of guids at
+   * REQUESTS_PER_SECOND. A guid whose update fails or isn't answered in time is
+   * returned with the reason instead of failing the rest.
+   *
+   * @param guids
+   * @param update
+   * @param handler
+   * @return the guids that weren't updated mapped to the reason
+   */
+  private Map<String, String> sendUpdates(Set<String> guids, GuidUpdate update,
+          ClientRequestHandlerInterface handler) {
+    // guarded by unanswered
+    final Map<String, String> failures = new HashMap<>();
+    final Set<String> unanswered = new HashSet<>(guids);
+    List<ReplicaSetUpdates> replicaSets = splitIntoReplicaSets(guids, handler);
+    long timeout = Math.max(REPLICA_UPDATE_TIMEOUT, (guids.size() / REQUESTS_PER_SECOND) * 1000);
+    long startTime = System.currentTimeMillis();
+    synchronized (unanswered) {
+      try {
+        while (!unanswered.isEmpty() && System.currentTimeMillis() - startTime < timeout) {
+          for (ReplicaSetUpdates replicaSet : replicaSets) {
+            while (replicaSet.outstanding < MAX_OUTSTANDING_UPDATES_PER_REPLICA_SET
+                    && replicaSet.guids.hasNext()) {
+              String guid = replicaSet.guids.next();
+              replicaSet.outstanding++;
+              try {
+                update.send(guid, getUpdateCallback(guid, replicaSet, unanswered, failures));
+              } catch (IOException | JSONException | ClientException e) {
+                if (unanswered.remove(guid)) {
+                  replicaSet.outstanding--;
+                  failures.put(guid, e.getMessage());
+                }
+              }
+            }
+          }
+          if (!unanswered.isEmpty()) {
+            unanswered.wait(WAIT_TIMESTEP);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (!unanswered.isEmpty()) {
+        LOGGER.log(Level.WARNING, "{0} timed out on updates of {1} of {2} guids after {3}ms",
+                new Object[]{this, unanswered.size(), guids.size(), timeout});
+        for (String guid : unanswered) {
+          failures.put(guid, "Timed out after " + timeout + "ms");
+        }
+        // so that late responses are ignored
+        unanswered.clear();
+      }
+      return failures;
+    }
+  }
+
+  private static List<ReplicaSetUpdates> splitIntoReplicaSets(Set<String> guids,
+          ClientRequestHandlerInterface handler) {
+    ConsistentHashing<String> actives
+            = new ConsistentHashing<>(handler.getGnsNodeConfig().getActiveReplicas());
+    Map<Set<String>, List<String>> batches = new HashMap<>();
+    for (String guid : guids) {
+      Set<String> replicas = actives.getReplicatedServers(guid);
+      List<String> batch = batches.get(replicas);
+      if (batch == null) {
+        batches.put(replicas, batch = new ArrayList<>());
+      }
+      batch.add(guid);
+    }
+    List<ReplicaSetUpdates> replicaSets = new ArrayList<>();
+    for (List<String> batch : batches.values()) {
+      replicaSets.add(new ReplicaSetUpdates(batch));
+    }
+    return replicaSets;
+  }
+
+  private RequestCallbackWithRequest getUpdateCallback(final String guid, final ReplicaSetUpdates replicaSet,
+          final Set<String> unanswered, final Map<String, String> failures) {
+    return new RequestCallbackWithRequest() {
+      Request request = null;
+      Request response = null;
+
+      @Override
+      public void handleResponse(Request response) {
+        this.response = response;
+        String error = checkUpdateResponse(response, request);
+        synchronized (unanswered) {
+          if (unanswered.remove(guid)) {
+            replicaSet.outstanding--;
+            if (error != null) {
+              failures.put(guid, error);
+            }
+            unanswered.notifyAll();
+          }
+        }
+      }
+
+      @Override
+      public RequestCallbackWithRequest setRequest(Request request) {
+        this.request = request;
+        return this;
+      }
+
+      @Override
+      public Request getRequest() {
+        return this.request;
+      }
+
+      @Override
+      public Request getResponse() {
+        return this.response;
+      }
+    };
+  }
+
+  /**
+   * Returns why the update failed or null if it didn't.
+   */
+  private static String checkUpdateResponse(Request response, Request request) {
+    if (response instanceof ActiveReplicaError) {
+      return GNSProtocol.BAD_GUID.toString();
+    } else if (response instanceof ResponsePacket) {
+      try {
+        CommandUtils.checkResponse((ResponsePacket) response, (CommandPacket) request);
+        return null;
+      } catch (ClientException e) {
+        return e.getMessage();
+      }
+    } else {
+      return "Bad response type: " + response.getClass();
+    }
+  }
+
   /**
    * Sends a select command to the remote replica.
    *
@@ -666,8 +1111,29 @@ public class RemoteQuery extends ClientAsynchBase {
   @Deprecated
   public JSONArray sendSelect(SelectOperation operation, String key, Object value, Object otherValue)
           throws IOException, ClientException {
+    return sendSelect(operation, key, value, otherValue, null);
+  }
+
+  /**
+   * Sends a select command to the remote replica.
+   * If fields is not null the result contains a JSON Object for each guid with
+   * the guid and the values of those fields that are readable by everyone.
+   *
+   * @param operation
+   * @param key
+   * @param value
+   * @param otherValue
+   * @param fields - the fields to return along with each guid or null for just the guids
+   * @return a JSONArray of guids or records that match the select query
+   * @throws IOException
+   * @throws ClientException
+   */
+  @Deprecated
+  public JSONArray sendSelect(SelectOperation operation, String key, Object value, Object otherValue,
+          ArrayList<String> fields) throws IOException, ClientException {
     SelectRequestPacket<String> packet = new SelectRequestPacket<>(-1, operation,
             SelectGroupBehavior.NONE, key, value, otherValue);
+    packet.setProjection(fields);
     try {
       createRecord(packet.getServiceName(), new JSONObject());
     } catch (Exception e) {
@@ -681,7 +1147,8 @@ public class RemoteQuery extends ClientAsynchBase {
     SelectResponsePacket<String> responsePacket
             = (SelectResponsePacket<String>) waitForReplicaResponse(requestId, monitor, callback);
     if (SelectResponsePacket.ResponseCode.NOERROR.equals(responsePacket.getResponseCode())) {
-      return responsePacket.getGuids();
+      // Projected selects return records instead of guids
+      return responsePacket.getRecords() != null ? responsePacket.getRecords() : responsePacket.getGuids();
     } else {
       return null;
     }
@@ -697,7 +1164,24 @@ public class RemoteQuery extends ClientAsynchBase {
    */
   @Deprecated
   public JSONArray sendSelectQuery(String query) throws IOException, ClientException {
+    return sendSelectQuery(query, null);
+  }
+
+  /**
+   * Sends a select query to the remote replica.
+   * If fields is not null the result contains a JSON Object for each guid with
+   * the guid and the values of those fields that are readable by everyone.
+   *
+   * @param query
+   * @param fields - the fields to return along with each guid or null for just the guids
+   * @return a JSONArray of guids or records that match the select query
+   * @throws IOException
+   * @throws ClientException
+   */
+  @Deprecated
+  public JSONArray sendSelectQuery(String query, ArrayList<String> fields) throws IOException, ClientException {
     SelectRequestPacket<String> packet = SelectRequestPacket.MakeQueryRequest(-1, query);
+    packet.setProjection(fields);
     try {
       createRecord(packet.getServiceName(), new JSONObject());
     } catch (Exception e) {
@@ -710,7 +1194,7 @@ public class RemoteQuery extends ClientAsynchBase {
     @SuppressWarnings("unchecked")
     SelectResponsePacket<String> reponsePacket = (SelectResponsePacket<String>) waitForReplicaResponse(requestId, monitor, callback);
     if (SelectResponsePacket.ResponseCode.NOERROR.equals(reponsePacket.getResponseCode())) {
-      return reponsePacket.getGuids();
+      return reponsePacket.getRecords() != null ? reponsePacket.getRecords() : reponsePacket.getGuids();
     } else {
       return null;
     }
@@ -0,0 +1,117 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnsclient.client.CommandUtils;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.utils.Base64;
+import edu.umass.cs.gnscommon.utils.Format;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the throughput of {@link NSAccessSupport#verifySignature} as the
+ * number of verifying threads grows. With no global lock on the verification
+ * path the op/s should scale roughly linearly up to the number of cores.
+ *
+ * Typical incantation:
+ *
+ * java -cp jars/GNS.jar edu.umass.cs.gnsserver.gnsapp.clientSupport.SignatureVerificationThroughputTest 16 10
+ *
+ * where the first argument is the maximum number of threads and the second
+ * the number of seconds to run each thread count for.
+ *
+ * @author westy
+ */
+public class SignatureVerificationThroughputTest {
+
+  private static final String MESSAGE = "{\"COMMANDINT\":110,\"field\":\"environment\","
+          + "\"guid\":\"CAB372BF40B3DB576786E5CC6AB05B63CC680F4D\",\"reader\":"
+          + "\"CAB372BF40B3DB576786E5CC6AB05B63CC680F4D\",\"timestamp\":\"2016-10-18T12:00:00Z\"}";
+
+  /**
+   * Run the test.
+   *
+   * @param args
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+            : Runtime.getRuntime().availableProcessors();
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    KeyPair keyPair = KeyPairGenerator.getInstance(GNSProtocol.RSA_ALGORITHM.toString())
+            .generateKeyPair();
+    String publicKey = Base64.encodeToString(keyPair.getPublic().getEncoded(), false);
+    // This is the signature format used by current clients (ENABLE_SECRET_KEY)
+    String signature = CommandUtils.signDigestOfMessage(keyPair.getPrivate(),
+            keyPair.getPublic(), MESSAGE);
+    if (!NSAccessSupport.verifySignature(publicKey, signature, MESSAGE)) {
+      System.out.println("Signature did not verify; aborting.");
+      System.exit(1);
+    }
+
+    double singleThreadRate = 0;
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      double rate = measure(threads, seconds, publicKey, signature);
+      if (threads == 1) {
+        singleThreadRate = rate;
+      }
+      System.out.println(threads + " threads: op/s = " + Format.formatTime(rate)
+              + " speedup = " + Format.formatTime(rate / singleThreadRate));
+    }
+    System.exit(0);
+  }
+
+  private static double measure(int threads, int seconds, final String publicKey,
+          final String signature) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final AtomicBoolean running = new AtomicBoolean(true);
+    List<Future<Long>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      futures.add(executor.submit(() -> {
+        long count = 0;
+        while (running.get()) {
+          if (!NSAccessSupport.verifySignature(publicKey, signature, MESSAGE)) {
+            throw new IllegalStateException("Signature failed to verify");
+          }
+          count++;
+        }
+        return count;
+      }));
+    }
+    long startTime = System.currentTimeMillis();
+    Thread.sleep(seconds * 1000L);
+    running.set(false);
+    long total = 0;
+    for (Future<Long> future : futures) {
+      total += future.get();
+    }
+    long elapsed = System.currentTimeMillis() - startTime;
+    executor.shutdown();
+    return total * 1000.0 / elapsed;
+  }
+}
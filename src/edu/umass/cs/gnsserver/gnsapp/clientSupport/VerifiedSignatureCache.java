@@ -0,0 +1,145 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import edu.umass.cs.gnscommon.utils.Base64;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers signatures that have already been successfully verified so that
+ * retransmissions of a byte-identical signed command don't pay for the
+ * signature check again.
+ *
+ * Entries are keyed by a digest of the accessor guid, the accessor's public
+ * key, the signature and the message. Including the public key means that
+ * resetting a key implicitly makes all old entries unreachable. Only
+ * successful verifications are remembered and they expire after
+ * SIGNATURE_VERIFICATION_CACHE_TTL_IN_SECONDS, which is capped at
+ * STALE_COMMAND_INTERVAL_IN_MINUTES so that a cached result never outlives
+ * the window in which the command itself would be accepted.
+ *
+ * The cache hit rate is reported to the {@link DelayProfiler} as
+ * "signatureCacheHitRate".
+ *
+ * @author westy
+ */
+public class VerifiedSignatureCache {
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private static final Cache<String, Boolean> CACHE
+          = CacheBuilder.newBuilder().concurrencyLevel(16)
+          .maximumSize(Config.getGlobalInt(GNSConfig.GNSC.SIGNATURE_VERIFICATION_CACHE_SIZE))
+          .expireAfterWrite(getTTLInSeconds(), TimeUnit.SECONDS)
+          .recordStats().build();
+
+  private static final ThreadLocal<MessageDigest> MESSAGE_DIGESTS = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance(DIGEST_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  };
+
+  private static long getTTLInSeconds() {
+    return Math.min(Config.getGlobalInt(GNSConfig.GNSC.SIGNATURE_VERIFICATION_CACHE_TTL_IN_SECONDS),
+            TimeUnit.MINUTES.toSeconds(Config.getGlobalInt(GNSConfig.GNSC.STALE_COMMAND_INTERVAL_IN_MINUTES)));
+  }
+
+  /**
+   * Returns true if the cache is enabled.
+   *
+   * @return true if the cache is enabled
+   */
+  public static boolean isEnabled() {
+    return Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_SIGNATURE_VERIFICATION_CACHE);
+  }
+
+  /**
+   * Returns true if this exact signature has already been verified for this
+   * accessor, public key and message.
+   *
+   * @param accessorGuid
+   * @param publicKey
+   * @param signature
+   * @param message
+   * @return true if the signature was previously verified
+   */
+  public static boolean isVerified(String accessorGuid, String publicKey,
+          String signature, String message) {
+    boolean hit = CACHE.getIfPresent(makeKey(accessorGuid, publicKey, signature, message)) != null;
+    DelayProfiler.updateMovAvg("signatureCacheHitRate", hit ? 1 : 0);
+    return hit;
+  }
+
+  /**
+   * Records that the signature has been successfully verified.
+   *
+   * @param accessorGuid
+   * @param publicKey
+   * @param signature
+   * @param message
+   */
+  public static void putVerified(String accessorGuid, String publicKey,
+          String signature, String message) {
+    CACHE.put(makeKey(accessorGuid, publicKey, signature, message), Boolean.TRUE);
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts for the cache.
+   *
+   * @return the cache stats
+   */
+  public static CacheStats getStats() {
+    return CACHE.stats();
+  }
+
+  private static String makeKey(String accessorGuid, String publicKey,
+          String signature, String message) {
+    MessageDigest md = MESSAGE_DIGESTS.get();
+    update(md, accessorGuid);
+    update(md, publicKey);
+    update(md, signature);
+    update(md, message);
+    return Base64.encodeToString(md.digest(), false);
+  }
+
+  // Length prefixing keeps different splits of the same bytes from colliding.
+  private static void update(MessageDigest md, String string) {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    md.update((byte) (bytes.length >>> 24));
+    md.update((byte) (bytes.length >>> 16));
+    md.update((byte) (bytes.length >>> 8));
+    md.update((byte) bytes.length);
+    md.update(bytes);
+  }
+}
@@ -22,8 +22,11 @@ package edu.umass.cs.gnsserver.gnsapp.packet;
 import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ShaOneHashFunction;
 import edu.umass.cs.gnscommon.utils.Base64;
+import edu.umass.cs.gnsserver.utils.JSONUtils;
 import edu.umass.cs.nio.interfaces.Stringifiable;
 
+import java.util.ArrayList;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -48,6 +51,9 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
   private final static String GROUP_BEHAVIOR = "group";
   private final static String GUID = "guid";
   private final static String REFRESH = "refresh";
+  private final static String PAGE_SIZE = "pageSize";
+  private final static String AFTER = "after";
+  private final static String PROJECTION = "projection";
   //
   private long requestId;
   private String key;
@@ -61,6 +67,10 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
   // for group guid
   private String guid; // the group GUID we are maintaning or null for simple select
   private int minRefreshInterval; // minimum time between allowed refreshes of the guid
+  // for paged queries
+  private int pageSize = -1; // the maximum number of records to return or -1 for all of them
+  private String after; // only return records whose name is greater than this
+  private ArrayList<String> projection; // the fields to return with each guid or null for just guids
 
   /**
    * Constructs a new SelectRequestPacket
@@ -125,6 +135,23 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
     return new SelectRequestPacket<>(id, SelectOperation.QUERY, SelectGroupBehavior.NONE, query, null, -1);
   }
 
+  /**
+   * Creates a request for one page of the GUIDs that match the given query.
+   * The page contains at most pageSize GUIDs, all greater than after, in GUID order.
+   *
+   * @param id
+   * @param query
+   * @param pageSize
+   * @param after the last GUID of the previous page or null for the first page
+   * @return a SelectRequestPacket
+   */
+  public static SelectRequestPacket<String> MakePagedQueryRequest(long id, String query, int pageSize, String after) {
+    SelectRequestPacket<String> packet = MakeQueryRequest(id, query);
+    packet.pageSize = pageSize;
+    packet.after = after;
+    return packet;
+  }
+
   /**
    * Just like a MakeQueryRequest except we're creating a new group guid to maintain results.
    * Creates a request to search all name servers for GUIDs that match the given query.
@@ -179,6 +206,10 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
     this.groupBehavior = SelectGroupBehavior.valueOf(json.getString(GROUP_BEHAVIOR));
     this.guid = json.optString(GUID, null);
     this.minRefreshInterval = json.optInt(REFRESH, -1);
+    this.pageSize = json.optInt(PAGE_SIZE, -1);
+    this.after = json.optString(AFTER, null);
+    this.projection = json.has(PROJECTION)
+            ? JSONUtils.JSONArrayToArrayListString(json.getJSONArray(PROJECTION)) : null;
   }
 
   /**
@@ -222,6 +253,15 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
     if (minRefreshInterval != -1) {
       json.put(REFRESH, minRefreshInterval);
     }
+    if (pageSize != -1) {
+      json.put(PAGE_SIZE, pageSize);
+    }
+    if (after != null) {
+      json.put(AFTER, after);
+    }
+    if (projection != null) {
+      json.put(PROJECTION, new JSONArray(projection));
+    }
   }
 
   /**
@@ -374,6 +414,52 @@ public class SelectRequestPacket<NodeIDType> extends BasicPacketWithNs<NodeIDTyp
     return minRefreshInterval;
   }
 
+  /**
+   * Return the fields to return along with each guid or null if only guids are wanted.
+   *
+   * @return the projection
+   */
+  public ArrayList<String> getProjection() {
+    return projection;
+  }
+
+  /**
+   * Sets the fields to return along with each guid.
+   * Only the fields that can be read by everyone are returned.
+   *
+   * @param projection
+   */
+  public void setProjection(ArrayList<String> projection) {
+    this.projection = projection;
+  }
+
+  /**
+   * Return the page size or -1 if this isn't a paged query.
+   *
+   * @return the page size
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Returns true if this is a paged query.
+   *
+   * @return true if this is a paged query
+   */
+  public boolean isPaged() {
+    return pageSize > 0;
+  }
+
+  /**
+   * Return the name after which the page starts or null for the first page.
+   *
+   * @return the name
+   */
+  public String getAfter() {
+    return after;
+  }
+
   /**
    *
    * @return the response
@@ -45,6 +45,8 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
   private final static String NSQUERYID = "nsQueryId";
   private final static String RESPONSECODE = "code";
   private final static String ERRORSTRING = "error";
+  private final static String CONTINUATION = "continuation";
+  private final static String MISSING = "missing";
   
 
   /**
@@ -68,6 +70,8 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
   private JSONArray guids;
   private ResponseCode responseCode;
   private String errorMessage;
+  private String continuation;
+  private JSONArray missingServers;
 
   /**
    * Constructs a new SelectResponsePacket
@@ -123,6 +127,27 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
             null, guids, ResponseCode.NOERROR, null);
   }
 
+  /**
+   * Used by a NameServer to a send one page of guids back to the Local NameServer
+   * along with the continuation used to retrieve the next page.
+   *
+   * @param id
+   * @param lnsAddress
+   * @param nsQueryId
+   * @param nameServerID
+   * @param guids
+   * @param continuation null if this is the last page
+   * @return a SelectResponsePacket
+   */
+  public static SelectResponsePacket<String> makeSuccessPacketForGuidsPage(long id,
+          InetSocketAddress lnsAddress,
+          int nsQueryId, String nameServerID, JSONArray guids, String continuation) {
+    SelectResponsePacket<String> packet = new SelectResponsePacket<>(id, lnsAddress, nsQueryId, nameServerID,
+            null, guids, ResponseCode.NOERROR, null);
+    packet.continuation = continuation;
+    return packet;
+  }
+
   /**
    * Used by a NameServer to a failure response to a NameServer or Local NameServer
    *
@@ -161,6 +186,8 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
     this.records = json.optJSONArray(RECORDS);
     this.guids = json.optJSONArray(GUIDS);
     this.errorMessage = json.optString(ERRORSTRING, null);
+    this.continuation = json.optString(CONTINUATION, null);
+    this.missingServers = json.optJSONArray(MISSING);
 
   }
 
@@ -189,6 +216,12 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
     if (errorMessage != null) {
       json.put(ERRORSTRING, errorMessage);
     }
+    if (continuation != null) {
+      json.put(CONTINUATION, continuation);
+    }
+    if (missingServers != null) {
+      json.put(MISSING, missingServers);
+    }
     return json;
   }
 
@@ -246,6 +279,43 @@ public class SelectResponsePacket<NodeIDType> extends BasicPacketWithReturnAddre
     return errorMessage;
   }
 
+  /**
+   * Return the continuation of a paged select or null if there are no more pages.
+   *
+   * @return the continuation
+   */
+  public String getContinuation() {
+    return continuation;
+  }
+
+  /**
+   * Marks this response as containing partial results because the given servers
+   * did not respond in time.
+   *
+   * @param missingServers
+   */
+  public void setMissingServers(JSONArray missingServers) {
+    this.missingServers = missingServers;
+  }
+
+  /**
+   * Return the servers that did not respond in time or null if all of them did.
+   *
+   * @return the missing servers
+   */
+  public JSONArray getMissingServers() {
+    return missingServers;
+  }
+
+  /**
+   * Returns true if some servers did not respond in time so the results are incomplete.
+   *
+   * @return true if the results are partial
+   */
+  public boolean isPartial() {
+    return missingServers != null && missingServers.length() > 0;
+  }
+
   /**
    *
    * @return the service name
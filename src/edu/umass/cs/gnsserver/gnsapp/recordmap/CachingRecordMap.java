@@ -0,0 +1,409 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnscommon.utils.JSONDotNotation;
+import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
+import edu.umass.cs.gnsserver.database.ColumnField;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.utils.JSONUtils;
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.DelayProfiler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A read-through cache of entire records in front of another record map.
+ *
+ * Each record is held both as a JSON string and parsed. Lookups of the entire
+ * record parse the string so that callers always get their own copy. Lookups of
+ * some fields read them from the parsed record, which is never handed out or
+ * changed, and copy only the JSON objects and arrays they return. The cache is
+ * bounded by an approximate byte budget and evicts the least recently used
+ * records first.
+ *
+ * Every write that goes through this map invalidates the record. To keep a
+ * read that was already in progress from putting back the old value each
+ * write also bumps a generation counter (striped by name) and a reader only
+ * keeps what it read if the generation didn't change while it was reading.
+ * Writes made to the database behind the back of this map (for instance by
+ * another process) are not seen until the record is evicted.
+ *
+ * Selects are passed straight through. The hit rate is reported to the
+ * {@link DelayProfiler} as "recordCacheHitRate".
+ *
+ * @author westy
+ */
+public class CachingRecordMap extends BasicRecordMap {
+
+  private static final int GENERATION_STRIPES = 1024;
+  // Rough per entry overhead of the key, the entry and the String object itself
+  private static final int ENTRY_OVERHEAD = 128;
+
+  /**
+   * A cached record. Neither the string nor the parsed record change once cached.
+   */
+  private static class CachedRecord {
+
+    private final String json;
+    private final JSONObject record;
+
+    private CachedRecord(String json) throws JSONException {
+      this.json = json;
+      this.record = new JSONObject(json);
+    }
+  }
+
+  private final BasicRecordMap recordMap;
+  private final Cache<String, CachedRecord> cache;
+  private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+  /**
+   * Creates a CachingRecordMap in front of recordMap that holds at most
+   * about maxBytes worth of records.
+   *
+   * @param recordMap
+   * @param maxBytes
+   */
+  public CachingRecordMap(BasicRecordMap recordMap, long maxBytes) {
+    this.recordMap = recordMap;
+    this.cache = CacheBuilder.newBuilder().concurrencyLevel(16)
+            .maximumWeight(maxBytes)
+            .weigher(new Weigher<String, CachedRecord>() {
+              @Override
+              public int weigh(String name, CachedRecord record) {
+                // Java strings are two bytes per character and the parsed
+                // record takes roughly twice as much as its string
+                return 2 * name.length() + 6 * record.json.length() + ENTRY_OVERHEAD;
+              }
+            })
+            .recordStats().build();
+  }
+
+  /**
+   * Returns the record map this one caches.
+   *
+   * @return the record map
+   */
+  public BasicRecordMap getRecordMap() {
+    return recordMap;
+  }
+
+  private int stripe(String name) {
+    return (name.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+  }
+
+  private void invalidate(String name) {
+    generations.incrementAndGet(stripe(name));
+    cache.invalidate(name);
+  }
+
+  /**
+   * Removes all cached records.
+   */
+  public void invalidateAll() {
+    for (int i = 0; i < GENERATION_STRIPES; i++) {
+      generations.incrementAndGet(i);
+    }
+    cache.invalidateAll();
+  }
+
+  private CachedRecord getCachedRecord(String name) {
+    CachedRecord cached = cache.getIfPresent(name);
+    DelayProfiler.updateMovAvg("recordCacheHitRate", cached != null ? 1 : 0);
+    return cached;
+  }
+
+  /**
+   * Reads the record from the record map behind this one and caches it.
+   * The record returned isn't the one cached so the caller may change it.
+   */
+  private JSONObject loadRecord(String name) throws RecordNotFoundException, FailedDBOperationException {
+    int stripe = stripe(name);
+    long generation = generations.get(stripe);
+    JSONObject record = recordMap.lookupEntireRecord(name);
+    try {
+      cache.put(name, new CachedRecord(record.toString()));
+    } catch (JSONException e) {
+      GNSConfig.getLogger().log(Level.WARNING, "Unable to parse record for {0}: {1}",
+              new Object[]{name, e});
+    }
+    // A write that raced with our read might have invalidated before we put
+    if (generations.get(stripe) != generation) {
+      cache.invalidate(name);
+    }
+    return record;
+  }
+
+  @Override
+  public JSONObject lookupEntireRecord(String name) throws RecordNotFoundException, FailedDBOperationException {
+    CachedRecord cached = getCachedRecord(name);
+    if (cached != null) {
+      try {
+        return new JSONObject(cached.json);
+      } catch (JSONException e) {
+        GNSConfig.getLogger().log(Level.WARNING, "Unable to parse cached record for {0}: {1}",
+                new Object[]{name, e});
+        cache.invalidate(name);
+      }
+    }
+    return loadRecord(name);
+  }
+
+  // JSON objects and arrays read from a cached record are copied before they
+  // are handed out so that nobody changes the cached record
+  private static Object copy(Object value) throws JSONException {
+    if (value instanceof JSONObject) {
+      return new JSONObject(value.toString());
+    } else if (value instanceof JSONArray) {
+      return new JSONArray(value.toString());
+    }
+    return value;
+  }
+
+  @Override
+  public HashMap<ColumnField, Object> lookupUserFields(String name, ColumnField nameField,
+          ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
+          throws RecordNotFoundException, FailedDBOperationException {
+    if (name == null) {
+      throw new RecordNotFoundException(name);
+    }
+    CachedRecord cached = getCachedRecord(name);
+    JSONObject record = cached != null ? cached.record : loadRecord(name);
+    HashMap<ColumnField, Object> hashMap = new HashMap<>();
+    hashMap.put(nameField, name);
+    if (valuesMapField != null && valuesMapKeys != null) {
+      JSONObject readValuesMap = record.optJSONObject(valuesMapField.getName());
+      ValuesMap valuesMapOut = new ValuesMap();
+      for (ColumnField valuesMapKey : valuesMapKeys) {
+        String userKey = valuesMapKey.getName();
+        try {
+          if (readValuesMap == null
+                  || !JSONDotNotation.containsFieldDotNotation(userKey, readValuesMap)) {
+            continue;
+          }
+          switch (valuesMapKey.type()) {
+            case USER_JSON:
+              valuesMapOut.put(userKey, copy(JSONDotNotation.getWithDotNotation(userKey, readValuesMap)));
+              break;
+            case LIST_STRING:
+              valuesMapOut.putAsArray(userKey,
+                      JSONUtils.JSONArrayToResultValue(
+                              new JSONArray(JSONDotNotation.getWithDotNotation(userKey,
+                                      readValuesMap).toString())));
+              break;
+            default:
+              GNSConfig.getLogger().log(Level.SEVERE,
+                      "ERROR: Error: User keys field {0} is not a known type:{1}",
+                      new Object[]{userKey, valuesMapKey.type()});
+              break;
+          }
+        } catch (JSONException e) {
+          GNSConfig.getLogger().log(Level.SEVERE, "Error parsing json: {0}", e.getMessage());
+        }
+      }
+      hashMap.put(valuesMapField, valuesMapOut);
+    }
+    return hashMap;
+  }
+
+  @Override
+  public void createIndex(String field, String index) {
+    recordMap.createIndex(field, index);
+  }
+
+  @Override
+  public void addRecord(JSONObject json) throws FailedDBOperationException, RecordExistsException {
+    try {
+      recordMap.addRecord(json);
+    } finally {
+      String name = json.optString(NameRecord.NAME.getName(), null);
+      if (name != null) {
+        invalidate(name);
+      }
+    }
+  }
+
+  @Override
+  public void removeRecord(String name) throws FailedDBOperationException {
+    try {
+      recordMap.removeRecord(name);
+    } finally {
+      invalidate(name);
+    }
+  }
+
+  @Override
+  public boolean containsName(String name) throws FailedDBOperationException {
+    return cache.getIfPresent(name) != null || recordMap.containsName(name);
+  }
+
+  @Override
+  public void updateEntireValuesMap(String name, ValuesMap valuesMap)
+          throws FailedDBOperationException {
+    try {
+      recordMap.updateEntireValuesMap(name, valuesMap);
+    } finally {
+      invalidate(name);
+    }
+  }
+
+  @Override
+  public void updateIndividualFields(String name, ArrayList<ColumnField> valuesMapKeys,
+          ArrayList<Object> valuesMapValues) throws FailedDBOperationException {
+    try {
+      recordMap.updateIndividualFields(name, valuesMapKeys, valuesMapValues);
+    } finally {
+      invalidate(name);
+    }
+  }
+
+  @Override
+  public void removeMapKeys(String name, ColumnField mapField, ArrayList<ColumnField> mapKeys)
+          throws FailedDBOperationException {
+    try {
+      recordMap.removeMapKeys(name, mapField, mapKeys);
+    } finally {
+      invalidate(name);
+    }
+  }
+
+  @Override
+  public int addToSetField(String name, String key, ArrayList<Object> values)
+          throws FailedDBOperationException {
+    try {
+      return recordMap.addToSetField(name, key, values);
+    } finally {
+      invalidate(name);
+    }
+  }
+
+  @Override
+  public int removeFromSetField(String name, String key, ArrayList<Object> values)
+          throws FailedDBOperationException {
+    try {
+      return recordMap.removeFromSetField(name, key, values);
+    } finally {
+      invalidate(name);
+    }
+  }
+
+  @Override
+  public AbstractRecordCursor getAllRowsIterator() throws FailedDBOperationException {
+    return recordMap.getAllRowsIterator();
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecords(ColumnField valuesMapField, String key, Object value)
+          throws FailedDBOperationException {
+    return recordMap.selectRecords(valuesMapField, key, value);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecords(ColumnField valuesMapField, String key, Object value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecords(valuesMapField, key, value, projection);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField, String key, String value)
+          throws FailedDBOperationException {
+    return recordMap.selectRecordsWithin(valuesMapField, key, value);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField, String key, String value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsWithin(valuesMapField, key, value, projection);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField, String key, String value,
+          Double maxDistance) throws FailedDBOperationException {
+    return recordMap.selectRecordsNear(valuesMapField, key, value, maxDistance);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField, String key, String value,
+          Double maxDistance, ArrayList<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsNear(valuesMapField, key, value, maxDistance, projection);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField, String query)
+          throws FailedDBOperationException {
+    return recordMap.selectRecordsQuery(valuesMapField, query);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField, String query,
+          ArrayList<String> projection, String afterName, int limit) throws FailedDBOperationException {
+    return recordMap.selectRecordsQuery(valuesMapField, query, projection, afterName, limit);
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts for the cache.
+   *
+   * @return the cache stats
+   */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  /**
+   * Returns the current number of cached records.
+   *
+   * @return the size
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Returns a human readable summary of the cache statistics.
+   *
+   * @return a string
+   */
+  public String getStatsString() {
+    CacheStats stats = cache.stats();
+    return "size=" + cache.size()
+            + " hits=" + stats.hitCount()
+            + " misses=" + stats.missCount()
+            + " hitRate=" + String.format("%.3f", stats.hitRate())
+            + " evictions=" + stats.evictionCount();
+  }
+
+  @Override
+  public String toString() {
+    return "CachingRecordMap{" + "recordMap=" + recordMap + ", " + getStatsString() + '}';
+  }
+}
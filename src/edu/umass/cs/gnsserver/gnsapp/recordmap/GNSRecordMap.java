@@ -119,6 +119,18 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
     noSqlRecords.removeMapKeys(collectionName, name, mapField, mapKeys);
   }
 
+  @Override
+  public int addToSetField(String name, String key, ArrayList<Object> values)
+          throws FailedDBOperationException {
+    return noSqlRecords.addToSet(collectionName, name, NameRecord.VALUES_MAP, key, values);
+  }
+
+  @Override
+  public int removeFromSetField(String name, String key, ArrayList<Object> values)
+          throws FailedDBOperationException {
+    return noSqlRecords.removeFromSet(collectionName, name, NameRecord.VALUES_MAP, key, values);
+  }
+
   @Override
   public AbstractRecordCursor getAllRowsIterator() throws FailedDBOperationException {
     return noSqlRecords.getAllRowsIterator(collectionName);
@@ -129,21 +141,45 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
     return noSqlRecords.selectRecords(collectionName, valuesMapField, key, value);
   }
 
+  @Override
+  public AbstractRecordCursor selectRecords(ColumnField valuesMapField, String key, Object value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecords(collectionName, valuesMapField, key, value, projection);
+  }
+
   @Override
   public AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField, String key, String value) throws FailedDBOperationException {
     return noSqlRecords.selectRecordsWithin(collectionName, valuesMapField, key, value);
   }
 
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField, String key, String value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsWithin(collectionName, valuesMapField, key, value, projection);
+  }
+
   @Override
   public AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField, String key, String value, Double maxDistance) throws FailedDBOperationException {
     return noSqlRecords.selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance);
   }
 
+  @Override
+  public AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField, String key, String value, Double maxDistance,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, projection);
+  }
+
   @Override
   public AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField, String query) throws FailedDBOperationException {
     return noSqlRecords.selectRecordsQuery(collectionName, valuesMapField, query);
   }
 
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField, String query,
+          ArrayList<String> projection, String afterName, int limit) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsQuery(collectionName, valuesMapField, query, projection, afterName, limit);
+  }
+
   @Override
   public String toString() {
     return "MongoRecordMap{" + "collectionName=" + collectionName + ", records=" + noSqlRecords + '}';
@@ -238,6 +238,11 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
   /**
    * Updates the value of the field associated with the key.
    *
+   * If the operation is a set operation (see {@link UpdateOperation#isSetOperation}) and
+   * the record wasn't read the values are added to or removed from the list in the
+   * database (a Mongo $addToSet or $pull) so the list is neither read nor rewritten.
+   * Fields that aren't plain lists are read and updated like they are for the other operations.
+   *
    * @param recordKey
    * @param newValues
    * @param oldValues
@@ -245,11 +250,27 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
    * @param operation
    * @param userJSON
    * @return True if the updateEntireValuesMap does anything, false otherwise.
+   * Always true for a set operation that wasn't read.
    * @throws edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException
    * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   * @throws edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException
    */
   public boolean updateNameRecord(String recordKey, ResultValue newValues, ResultValue oldValues, int argument,
-          ValuesMap userJSON, UpdateOperation operation) throws FieldNotFoundException, FailedDBOperationException {
+          ValuesMap userJSON, UpdateOperation operation) throws FieldNotFoundException, FailedDBOperationException,
+          RecordNotFoundException {
+
+    if (operation.isSetOperation() && !hashMap.containsKey(VALUES_MAP)) {
+      int count = operation.equals(UpdateOperation.SINGLE_FIELD_REMOVE)
+              ? recordMap.removeFromSetField(getName(), recordKey, newValues)
+              : recordMap.addToSetField(getName(), recordKey, newValues);
+      if (count >= 0) {
+        return true;
+      }
+      GNSConfig.getLogger().log(Level.FINE,
+              "{0} of {1} isn't a plain list, reading it", new Object[]{recordKey, getName()});
+      hashMap.put(VALUES_MAP, getNameRecordMultiUserFields(recordMap, getName(),
+              ColumnFieldType.LIST_STRING, recordKey).getValuesMap());
+    }
 
     // Handle special case for SINGLE_FIELD_REMOVE_FIELD operation
     // whose purpose is to remove the field with name = key from values map.
@@ -437,6 +458,22 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
     return recordMap.selectRecords(NameRecord.VALUES_MAP, key, value);
   }
 
+  /**
+   * Same as {@link #selectRecords(BasicRecordMap, String, Object)} but each record only contains
+   * the name and the projected fields. A null projection returns entire records.
+   *
+   * @param recordMap
+   * @param key
+   * @param value
+   * @param projection
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static AbstractRecordCursor selectRecords(BasicRecordMap recordMap, String key, Object value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecords(NameRecord.VALUES_MAP, key, value, projection);
+  }
+
   /**
    * If key is a GeoSpatial field return all fields that are within value which is a bounding box specified as a nested JSONArray
    * string tuple of paired tuples: [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]] The returned value is a AbstractRecordCursor.
@@ -451,6 +488,22 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
     return recordMap.selectRecordsWithin(NameRecord.VALUES_MAP, key, value);
   }
 
+  /**
+   * Same as {@link #selectRecordsWithin(BasicRecordMap, String, String)} but each record only contains
+   * the name and the projected fields. A null projection returns entire records.
+   *
+   * @param recordMap
+   * @param key
+   * @param value
+   * @param projection
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static AbstractRecordCursor selectRecordsWithin(BasicRecordMap recordMap, String key, String value,
+          ArrayList<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsWithin(NameRecord.VALUES_MAP, key, value, projection);
+  }
+
   /**
    * If key is a GeoSpatial field return all fields that are near value which is a point specified as a JSONArray string tuple:
    * [LONG, LAT]. maxDistance is in meters. The returned value is a AbstractRecordCursor.
@@ -466,6 +519,23 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
     return recordMap.selectRecordsNear(NameRecord.VALUES_MAP, key, value, maxDistance);
   }
 
+  /**
+   * Same as {@link #selectRecordsNear(BasicRecordMap, String, String, Double)} but each record only contains
+   * the name and the projected fields. A null projection returns entire records.
+   *
+   * @param recordMap
+   * @param key
+   * @param value
+   * @param maxDistance
+   * @param projection
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static AbstractRecordCursor selectRecordsNear(BasicRecordMap recordMap, String key, String value,
+          Double maxDistance, ArrayList<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsNear(NameRecord.VALUES_MAP, key, value, maxDistance, projection);
+  }
+
   /**
    * Returns all fields that match the query.
    *
@@ -478,6 +548,24 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
     return recordMap.selectRecordsQuery(NameRecord.VALUES_MAP, query);
   }
 
+  /**
+   * Returns the name and projected fields of the records that match the query.
+   * If limit is positive only one page is returned, namely at most limit
+   * records whose name is greater than afterName in name order.
+   *
+   * @param recordMap
+   * @param query
+   * @param projection
+   * @param afterName
+   * @param limit
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static AbstractRecordCursor selectRecordsQuery(BasicRecordMap recordMap, String query,
+          ArrayList<String> projection, String afterName, int limit) throws FailedDBOperationException {
+    return recordMap.selectRecordsQuery(NameRecord.VALUES_MAP, query, projection, afterName, limit);
+  }
+
   /**
    * PLEASE DO NOT DELETE THE THIS. IT IS NECESSARY!!!! - Westy
    *
@@ -138,6 +138,32 @@ public interface RecordMapInterface {
   public abstract void removeMapKeys(String name, ColumnField mapField, ArrayList<ColumnField> mapKeys)
           throws FailedDBOperationException;
 
+  /**
+   * Adds the values that aren't already in it to a user field that is a list without
+   * reading the list.
+   *
+   * @param name - the name of the record
+   * @param key - the user field
+   * @param values - the values to add
+   * @return how many of the values were added or -1 if the field isn't a list that can be added to this way
+   * @throws FailedDBOperationException
+   */
+  public abstract int addToSetField(String name, String key, ArrayList<Object> values)
+          throws FailedDBOperationException;
+
+  /**
+   * Removes every occurrence of the values from a user field that is a list without
+   * reading the list.
+   *
+   * @param name - the name of the record
+   * @param key - the user field
+   * @param values - the values to remove
+   * @return how many elements were removed or -1 if the field isn't a list that can be removed from this way
+   * @throws FailedDBOperationException
+   */
+  public abstract int removeFromSetField(String name, String key, ArrayList<Object> values)
+          throws FailedDBOperationException;
+
   /**
    * Returns an iterator for all the rows in the collection with all fields filled in.
    *
@@ -159,6 +185,20 @@ public interface RecordMapInterface {
   public abstract AbstractRecordCursor selectRecords(ColumnField valuesMapField,
           String key, Object value) throws FailedDBOperationException;
 
+  /**
+   * Same as {@link #selectRecords(ColumnField, String, Object)} but only returns
+   * the name and the projected *user* fields of each record.
+   *
+   * @param valuesMapField
+   * @param key
+   * @param value
+   * @param projection
+   * @return an {@link AbstractRecordCursor}
+   * @throws FailedDBOperationException
+   */
+  public abstract AbstractRecordCursor selectRecords(ColumnField valuesMapField,
+          String key, Object value, ArrayList<String> projection) throws FailedDBOperationException;
+
   /**
    * If key is a GeoSpatial field return all fields that are within value which is a bounding box specified
    * as a nested JSONArray string tuple of paired tuples: [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]].
@@ -172,6 +212,20 @@ public interface RecordMapInterface {
   public abstract AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField,
           String key, String value) throws FailedDBOperationException;
 
+  /**
+   * Same as {@link #selectRecordsWithin(ColumnField, String, String)} but only returns
+   * the name and the projected *user* fields of each record.
+   *
+   * @param valuesMapField
+   * @param key
+   * @param value
+   * @param projection
+   * @return an {@link AbstractRecordCursor}
+   * @throws FailedDBOperationException
+   */
+  public abstract AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField,
+          String key, String value, ArrayList<String> projection) throws FailedDBOperationException;
+
   /**
    * If key is a GeoSpatial field return all fields that are near value which is a point specified
    * as a JSONArray string tuple: [LONG, LAT]. maxDistance is in radians.
@@ -186,6 +240,21 @@ public interface RecordMapInterface {
   public abstract AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField,
           String key, String value, Double maxDistance) throws FailedDBOperationException;
 
+  /**
+   * Same as {@link #selectRecordsNear(ColumnField, String, String, Double)} but only returns
+   * the name and the projected *user* fields of each record.
+   *
+   * @param valuesMapField
+   * @param key
+   * @param value
+   * @param maxDistance
+   * @param projection
+   * @return an {@link AbstractRecordCursor}
+   * @throws FailedDBOperationException
+   */
+  public abstract AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField,
+          String key, String value, Double maxDistance, ArrayList<String> projection) throws FailedDBOperationException;
+
   /**
    * Return all the fields that match the query.
    *
@@ -197,4 +266,20 @@ public interface RecordMapInterface {
   public abstract AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField,
           String query) throws FailedDBOperationException;
 
+  /**
+   * Return the name and the projected fields of the records that match the query.
+   * If limit is positive only return at most limit records whose name is greater
+   * than afterName, in name order.
+   *
+   * @param valuesMapField
+   * @param query
+   * @param projection
+   * @param afterName
+   * @param limit
+   * @return {@link AbstractRecordCursor}
+   * @throws FailedDBOperationException
+   */
+  public abstract AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField,
+          String query, ArrayList<String> projection, String afterName, int limit) throws FailedDBOperationException;
+
 }
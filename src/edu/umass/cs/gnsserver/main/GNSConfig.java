@@ -134,6 +134,48 @@ public class GNSConfig {
      * interval ago) will be rejected by the server.
      */
     STALE_COMMAND_INTERVAL_IN_MINUTES(30),
+    /**
+     * The maximum number of decoded public keys (keyed by guid) that a name
+     * server keeps around so that signature checks don't have to reparse
+     * the key.
+     */
+    PUBLIC_KEY_CACHE_SIZE(10000),
+    /**
+     * The maximum number of public keys, summed over all the ACLs that a name
+     * server keeps indexed by accessor guid, see
+     * {@link edu.umass.cs.gnsserver.gnsapp.clientSupport.AclIndex}.
+     */
+    ACL_INDEX_MAX_KEYS(100000),
+    /**
+     * The maximum number of guids of ACL public keys that a name server
+     * remembers so that keys don't have to be hashed again.
+     */
+    ACL_KEY_GUID_CACHE_SIZE(100000),
+    /**
+     * If enabled, name servers remember signatures that they have already
+     * verified so that byte-identical retransmissions of a signed command
+     * (for instance from the LNS CommandRetransmitter or client retries)
+     * skip the signature check. ACL checks are still done every time.
+     */
+    ENABLE_SIGNATURE_VERIFICATION_CACHE(false),
+    /**
+     * How long a verified signature is remembered. The effective value
+     * never exceeds STALE_COMMAND_INTERVAL_IN_MINUTES.
+     */
+    SIGNATURE_VERIFICATION_CACHE_TTL_IN_SECONDS(60),
+    /**
+     * The maximum number of verified signatures remembered.
+     */
+    SIGNATURE_VERIFICATION_CACHE_SIZE(10000),
+    /**
+     * If enabled, name servers keep recently read records in memory in
+     * front of the database. Writes through the name server invalidate them.
+     */
+    ENABLE_RECORD_CACHE(false),
+    /**
+     * The approximate number of bytes of records the record cache may hold.
+     */
+    RECORD_CACHE_SIZE_IN_BYTES(64 * 1024 * 1024),
     /**
      * The default port used by mongo. 27017 is the default mongo uses.
      */
@@ -159,6 +201,33 @@ public class GNSConfig {
     /* FIXME: arun: need to determine this timeout systematically, not an ad
 		 * hoc constant. */
     SELECT_REQUEST_TIMEOUT(5000),
+    /**
+     * The page size used by a paged select when the client doesn't specify one.
+     */
+    SELECT_DEFAULT_PAGE_SIZE(1000),
+    /**
+     * The largest page size a client can ask for in a paged select. Each name server
+     * holds at most this many records per replica for a single page.
+     */
+    SELECT_MAX_PAGE_SIZE(10000),
+    /**
+     * If true each name server keeps the queries of context aware group guids
+     * and updates group membership as records are written instead of
+     * reevaluating the query on every lookup.
+     */
+    ENABLE_CONTINUOUS_SELECT_GROUPS(false),
+    /**
+     * How often in milliseconds a continuously maintained group is fully
+     * reevaluated anyway. This repairs any missed membership changes, for
+     * instance those made while a name server was restarting.
+     */
+    CONTINUOUS_SELECT_GROUP_RESYNC_INTERVAL(3600000),
+    /**
+     * How many written records, and separately how many membership changes,
+     * a name server queues for continuously maintained groups. Anything past
+     * that is dropped and left for the next resync.
+     */
+    CONTINUOUS_SELECT_GROUP_QUEUE_SIZE(10000),
 
     /**
      *
@@ -166,6 +235,8 @@ public class GNSConfig {
     MONGO_PORT(27017),
     /**
      * The class used to represent NoSQL records.
+     * Use edu.umass.cs.gnsserver.database.DerbyRecords to run without
+     * a separate database server.
      */
     NOSQL_RECORDS_CLASS("edu.umass.cs.gnsserver.database.MongoRecords"),
     //
@@ -181,6 +252,22 @@ public class GNSConfig {
      * The maximum number of HRN aliases allowed for a guid.
      */
     ACCOUNT_GUID_MAX_ALIASES(100),
+    /**
+     * The number of fields the subguids of a new account guid are spread over.
+     * Adding or removing a subguid rewrites one of them, so this bounds the
+     * cost of that to about the number of subguids divided by this. Existing
+     * accounts keep the number they were created with.
+     */
+    ACCOUNT_GUID_SHARDS(64),
+    /**
+     * The page size used when listing the guids of an account if the client
+     * doesn't specify one.
+     */
+    ACCOUNT_GUIDS_DEFAULT_PAGE_SIZE(1000),
+    /**
+     * The largest page size a client can ask for when listing the guids of an account.
+     */
+    ACCOUNT_GUIDS_MAX_PAGE_SIZE(10000),
     //
     // EMAIL VERIFICATION
     //
@@ -282,6 +369,23 @@ public class GNSConfig {
      * requests to DNS and GNS servers.
      */
     DNS_ONLY(false),
+    /**
+     * The number of threads the DNS service uses to handle queries.
+     */
+    DNS_SERVER_THREADS(16),
+    /**
+     * If true DNS responses answered from the GNS are cached until their TTL runs out.
+     */
+    ENABLE_DNS_ANSWER_CACHE(true),
+    /**
+     * The maximum number of DNS responses in the answer cache.
+     */
+    DNS_ANSWER_CACHE_SIZE(10000),
+    /**
+     * The largest UDP response the DNS service sends to clients that advertise a bigger
+     * EDNS(0) buffer. Larger answers are truncated and the client retries over TCP.
+     */
+    DNS_UDP_PAYLOAD_SIZE(4096),
     //
     // Contect Name Service
     //
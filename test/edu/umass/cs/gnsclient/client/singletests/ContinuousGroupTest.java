@@ -0,0 +1,188 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsclient.client.singletests;
+
+import edu.umass.cs.gnsclient.client.GNSClientCommands;
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnsclient.client.util.GuidUtils;
+import edu.umass.cs.gnscommon.utils.RandomString;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONArray;
+
+import static org.junit.Assert.*;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests that a context aware group follows writes to and removals of its
+ * members without being reevaluated. The name servers need
+ * ENABLE_CONTINUOUS_SELECT_GROUPS set to true.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ContinuousGroupTest {
+
+  private static String accountAlias = "test@cgns.name"; // REPLACE THIS WITH YOUR ACCOUNT ALIAS
+  private static String password = "password";
+  private static GNSClientCommands client = null;
+  private static GuidEntry masterGuid;
+  private static GuidEntry groupGuid;
+
+  private static final int NUMBER_OF_GUIDS = 4;
+  private static final String fieldName = "continuousGroup" + RandomString.randomString(6);
+  private static final int HIGH_VALUE = 25;
+  private static final int LOW_VALUE = 10;
+  private static final String query = "~" + fieldName + " : {$gt: 20}";
+  // Long enough that lookups never reevaluate the query during the test
+  private static final int REFRESH_INTERVAL = 3600;
+  // How long the changes get to reach the group
+  private static final long WAIT_TIMEOUT = 10000;
+  private static final List<GuidEntry> members = new ArrayList<>();
+
+  /**
+   *
+   */
+  public ContinuousGroupTest() {
+    if (client == null) {
+      try {
+        client = new GNSClientCommands();
+        client.setForceCoordinatedReads(true);
+      } catch (IOException e) {
+        fail("Exception creating client: " + e);
+      }
+      if (System.getProperty("alias") != null
+              && !System.getProperty("alias").isEmpty()) {
+        accountAlias = System.getProperty("alias");
+      }
+      if (System.getProperty("password") != null
+              && !System.getProperty("password").isEmpty()) {
+        password = System.getProperty("password");
+      }
+      try {
+        masterGuid = GuidUtils.lookupOrCreateAccountGuid(client, accountAlias, password, true);
+      } catch (Exception e) {
+        fail("Exception while creating account guid: " + e);
+      }
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_1_SetupGroup() {
+    try {
+      for (int cnt = 0; cnt < NUMBER_OF_GUIDS; cnt++) {
+        GuidEntry testEntry = client.guidCreate(masterGuid, "continuousTest-" + RandomString.randomString(6));
+        client.fieldReplaceOrCreateList(testEntry, fieldName, new JSONArray(Arrays.asList(LOW_VALUE)));
+        members.add(testEntry);
+      }
+      groupGuid = GuidUtils.lookupOrCreateGuidEntry("continuousGroup-" + RandomString.randomString(6),
+              client.getGNSProvider());
+      JSONArray result = client.selectSetupGroupQuery(masterGuid, groupGuid.getPublicKeyString(),
+              query, REFRESH_INTERVAL);
+      assertEquals(0, result.length());
+    } catch (Exception e) {
+      fail("Exception while setting up the group: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_2_MembersJoin() {
+    try {
+      client.fieldReplaceOrCreateList(members.get(0), fieldName, new JSONArray(Arrays.asList(HIGH_VALUE)));
+      client.fieldReplaceOrCreateList(members.get(1), fieldName, new JSONArray(Arrays.asList(HIGH_VALUE)));
+      waitForGroup(new HashSet<>(Arrays.asList(members.get(0).getGuid(), members.get(1).getGuid())));
+    } catch (Exception e) {
+      fail("Exception while updating the members: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_3_MemberLeaves() {
+    try {
+      client.fieldReplaceOrCreateList(members.get(0), fieldName, new JSONArray(Arrays.asList(LOW_VALUE)));
+      waitForGroup(new HashSet<>(Arrays.asList(members.get(1).getGuid())));
+    } catch (Exception e) {
+      fail("Exception while updating the members: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_4_RemovedMemberLeaves() {
+    try {
+      client.guidRemove(masterGuid, members.get(1).getGuid());
+      waitForGroup(new HashSet<String>());
+    } catch (Exception e) {
+      fail("Exception while removing a member: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_5_Cleanup() {
+    try {
+      for (GuidEntry member : members.subList(2, NUMBER_OF_GUIDS)) {
+        client.guidRemove(masterGuid, member.getGuid());
+      }
+      client.guidRemove(masterGuid, members.get(0).getGuid());
+    } catch (Exception e) {
+      fail("Exception while removing the guids: " + e);
+    }
+  }
+
+  // The changes are sent after the writes return so give them a little while
+  private static void waitForGroup(Set<String> expected) throws Exception {
+    Set<String> actual = null;
+    long start = System.currentTimeMillis();
+    do {
+      JSONArray result = client.selectLookupGroupQuery(groupGuid.getGuid());
+      actual = new HashSet<>();
+      for (int i = 0; i < result.length(); i++) {
+        actual.add(result.getString(i));
+      }
+      if (actual.equals(expected)) {
+        return;
+      }
+      Thread.sleep(500);
+    } while (System.currentTimeMillis() - start < WAIT_TIMEOUT);
+    assertEquals(expected, actual);
+  }
+}
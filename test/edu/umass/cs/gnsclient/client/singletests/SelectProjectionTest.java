@@ -0,0 +1,165 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsclient.client.singletests;
+
+import edu.umass.cs.gnsclient.client.GNSClientCommands;
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnsclient.client.util.GuidUtils;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.utils.RandomString;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import static org.junit.Assert.*;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests that selects with a list of fields return each guid along with
+ * just those fields.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SelectProjectionTest {
+
+  private static String accountAlias = "test@cgns.name"; // REPLACE THIS WITH YOUR ACCOUNT ALIAS
+  private static String password = "password";
+  private static GNSClientCommands client = null;
+  private static GuidEntry masterGuid;
+
+  private static final int NUMBER_OF_GUIDS = 5;
+  private static final String matchField = "projectionMatch";
+  private static final String matchValue = "match" + RandomString.randomString(6);
+  private static final String projectedField = "projectionColor";
+  private static final String otherField = "projectionSize";
+  // guid -> value of projectedField
+  private static final Map<String, String> colors = new HashMap<>();
+
+  /**
+   *
+   */
+  public SelectProjectionTest() {
+    if (client == null) {
+      try {
+        client = new GNSClientCommands();
+        client.setForceCoordinatedReads(true);
+      } catch (IOException e) {
+        fail("Exception creating client: " + e);
+      }
+      if (System.getProperty("alias") != null
+              && !System.getProperty("alias").isEmpty()) {
+        accountAlias = System.getProperty("alias");
+      }
+      if (System.getProperty("password") != null
+              && !System.getProperty("password").isEmpty()) {
+        password = System.getProperty("password");
+      }
+      try {
+        masterGuid = GuidUtils.lookupOrCreateAccountGuid(client, accountAlias, password, true);
+      } catch (Exception e) {
+        fail("Exception while creating account guid: " + e);
+      }
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_1_CreateGuids() {
+    try {
+      for (int cnt = 0; cnt < NUMBER_OF_GUIDS; cnt++) {
+        GuidEntry testEntry = client.guidCreate(masterGuid, "projectionTest-" + RandomString.randomString(6));
+        String color = "color" + cnt;
+        client.fieldUpdate(testEntry.getGuid(), matchField, matchValue, testEntry);
+        client.fieldUpdate(testEntry.getGuid(), projectedField, color, testEntry);
+        client.fieldUpdate(testEntry.getGuid(), otherField, cnt, testEntry);
+        colors.put(testEntry.getGuid(), color);
+      }
+    } catch (Exception e) {
+      fail("Exception while trying to create the guids: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_2_SelectWithFields() {
+    try {
+      JSONArray result = client.select(matchField, matchValue,
+              new ArrayList<>(Arrays.asList(projectedField)));
+      checkProjection(result);
+    } catch (Exception e) {
+      fail("Exception executing select: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_3_SelectQueryWithFields() {
+    try {
+      JSONArray result = client.selectQuery("~" + matchField + " : \"" + matchValue + "\"",
+              new ArrayList<>(Arrays.asList(projectedField)));
+      checkProjection(result);
+    } catch (Exception e) {
+      fail("Exception executing selectQuery: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_4_SelectWithoutFields() {
+    try {
+      JSONArray result = client.select(matchField, matchValue);
+      assertEquals(NUMBER_OF_GUIDS, result.length());
+      for (int i = 0; i < result.length(); i++) {
+        // just the guids
+        assertTrue(colors.containsKey(result.getString(i)));
+      }
+    } catch (Exception e) {
+      fail("Exception executing select: " + e);
+    }
+  }
+
+  private static void checkProjection(JSONArray result) throws Exception {
+    assertEquals(NUMBER_OF_GUIDS, result.length());
+    for (int i = 0; i < result.length(); i++) {
+      JSONObject record = result.getJSONObject(i);
+      String guid = record.getString(GNSProtocol.GUID.toString());
+      assertEquals(colors.get(guid), record.getString(projectedField));
+      assertFalse(record.has(otherField));
+      assertFalse(record.has(matchField));
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsclient.client.singletests;
+
+import edu.umass.cs.gnsclient.client.GNSClientCommands;
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnsclient.client.util.GuidUtils;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.utils.RandomString;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import static org.junit.Assert.*;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests that selectQueryPaged returns every matching guid exactly once
+ * across pages and never more than the page size in a single page.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SelectQueryPagedTest {
+
+  private static String accountAlias = "test@cgns.name"; // REPLACE THIS WITH YOUR ACCOUNT ALIAS
+  private static String password = "password";
+  private static GNSClientCommands client = null;
+  private static GuidEntry masterGuid;
+
+  private static final int NUMBER_OF_GUIDS = 10;
+  private static final int PAGE_SIZE = 3;
+  private static final String fieldName = "pagedQuery" + RandomString.randomString(6);
+  private static final Set<String> createdGuids = new HashSet<>();
+
+  /**
+   *
+   */
+  public SelectQueryPagedTest() {
+    if (client == null) {
+      try {
+        client = new GNSClientCommands();
+        client.setForceCoordinatedReads(true);
+      } catch (IOException e) {
+        fail("Exception creating client: " + e);
+      }
+      if (System.getProperty("alias") != null
+              && !System.getProperty("alias").isEmpty()) {
+        accountAlias = System.getProperty("alias");
+      }
+      if (System.getProperty("password") != null
+              && !System.getProperty("password").isEmpty()) {
+        password = System.getProperty("password");
+      }
+      try {
+        masterGuid = GuidUtils.lookupOrCreateAccountGuid(client, accountAlias, password, true);
+      } catch (Exception e) {
+        fail("Exception while creating account guid: " + e);
+      }
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_1_CreateGuids() {
+    try {
+      for (int cnt = 0; cnt < NUMBER_OF_GUIDS; cnt++) {
+        GuidEntry testEntry = client.guidCreate(masterGuid, "pagedTest-" + RandomString.randomString(6));
+        client.fieldReplaceOrCreateList(testEntry.getGuid(), fieldName, new JSONArray().put(cnt), testEntry);
+        createdGuids.add(testEntry.getGuid());
+      }
+    } catch (Exception e) {
+      fail("Exception while trying to create the guids: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_2_PagedSelect() {
+    String query = "~" + fieldName + " : ($gte: 0)";
+    Set<String> seen = new HashSet<>();
+    String continuation = null;
+    int pages = 0;
+    try {
+      do {
+        JSONObject page = client.selectQueryPaged(query, PAGE_SIZE, continuation);
+        JSONArray guids = page.getJSONArray(GNSProtocol.SELECT_GUIDS.toString());
+        assertThat(guids.length(), lessThanOrEqualTo(PAGE_SIZE));
+        for (int i = 0; i < guids.length(); i++) {
+          // a guid showing up on two pages means the continuation is wrong
+          assertTrue("Duplicate guid " + guids.getString(i), seen.add(guids.getString(i)));
+        }
+        continuation = page.optString(GNSProtocol.CONTINUATION.toString(), null);
+        // guards against a continuation that never advances
+        assertThat(++pages, lessThanOrEqualTo(NUMBER_OF_GUIDS + 1));
+      } while (continuation != null);
+    } catch (Exception e) {
+      fail("Exception executing selectQueryPaged: " + e);
+    }
+    assertEquals(createdGuids, seen);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_3_PagedMatchesUnpaged() {
+    String query = "~" + fieldName + " : ($gte: 0)";
+    try {
+      JSONArray result = client.selectQuery(query);
+      Set<String> unpaged = new HashSet<>();
+      for (int i = 0; i < result.length(); i++) {
+        unpaged.add(result.getString(i));
+      }
+      assertEquals(createdGuids, unpaged);
+    } catch (Exception e) {
+      fail("Exception executing selectQuery: " + e);
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.database;
+
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests the query operators of the JSONQueryMatcher against a single record.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class JSONQueryMatcherTest {
+
+  private static JSONObject record;
+
+  /**
+   * The JSONQueryMatcherTest.
+   */
+  public JSONQueryMatcherTest() {
+    if (record == null) {
+      try {
+        record = new JSONObject().put(NameRecord.NAME.getName(), "testGuid")
+                .put(NameRecord.VALUES_MAP.getName(), new JSONObject(
+                        "{name: \"Frank\", age: 30, score: 2.5,"
+                        + " tags: [\"red\", \"blue\"],"
+                        + " location: [1.0, 2.0],"
+                        + " pets: [{kind: \"dog\", age: 3}, {kind: \"cat\", age: 5}],"
+                        + " nested: {key: \"value\"}}"));
+      } catch (JSONException e) {
+        fail("Problem creating record: " + e);
+      }
+    }
+  }
+
+  // The query is in the GNS syntax
+  private static boolean matches(String query) throws JSONException {
+    return JSONQueryMatcher.fromGNSQuery(query, NameRecord.VALUES_MAP).matches(record);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_01_Equality() {
+    try {
+      assertTrue(matches("~name : \"Frank\""));
+      assertFalse(matches("~name : \"Bob\""));
+      assertTrue(matches("~age : 30.0"));
+      assertTrue(matches("~nested.key : \"value\""));
+      assertTrue(matches("~nested : (key : \"value\")"));
+      assertTrue(matches("~name : ($eq : \"Frank\")"));
+      assertTrue(matches("~name : ($ne : \"Bob\")"));
+      assertTrue(matches("~missing : null"));
+    } catch (JSONException e) {
+      fail("Problem matching: " + e);
+    }
+  }
+
+  /**
+   * Like mongo, a value matches an element of an array.
+   */
+  @Test
+  public void test_02_ArrayElements() {
+    try {
+      assertTrue(matches("~tags : \"red\""));
+      assertTrue(matches("~tags : [\"red\", \"blue\"]"));
+      assertFalse(matches("~tags : \"green\""));
+      assertTrue(matches("~tags.1 : \"blue\""));
+      assertTrue(matches("~pets.kind : \"cat\""));
+      assertTrue(matches("~tags : ($all : [\"blue\", \"red\"])"));
+      assertFalse(matches("~tags : ($all : [\"blue\", \"green\"])"));
+      assertTrue(matches("~tags : ($size : 2)"));
+      assertFalse(matches("~tags : ($size : 3)"));
+      assertTrue(matches("~pets : ($elemMatch : (kind : \"dog\", age : ($lt : 4)))"));
+      assertFalse(matches("~pets : ($elemMatch : (kind : \"cat\", age : ($lt : 4)))"));
+    } catch (JSONException e) {
+      fail("Problem matching: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_03_Comparisons() {
+    try {
+      assertTrue(matches("~age : ($gt : 20)"));
+      assertFalse(matches("~age : ($gt : 30)"));
+      assertTrue(matches("~age : ($gte : 30)"));
+      assertTrue(matches("~score : ($lt : 3)"));
+      assertTrue(matches("~score : ($lte : 2.5)"));
+      assertTrue(matches("~age : ($gt : 20, $lt : 40)"));
+      assertFalse(matches("~age : ($gt : 20, $lt : 25)"));
+      assertTrue(matches("~name : ($gt : \"Alice\")"));
+      // values of different kinds never compare
+      assertFalse(matches("~name : ($gt : 0)"));
+    } catch (JSONException e) {
+      fail("Problem matching: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_04_SetsAndExistence() {
+    try {
+      assertTrue(matches("~age : ($in : [10, 30])"));
+      assertFalse(matches("~age : ($in : [10, 20])"));
+      assertTrue(matches("~tags : ($in : [\"green\", \"blue\"])"));
+      assertTrue(matches("~age : ($nin : [10, 20])"));
+      assertTrue(matches("~name : ($exists : true)"));
+      assertTrue(matches("~missing : ($exists : false)"));
+      assertFalse(matches("~missing : ($exists : true)"));
+      assertTrue(matches("~age : ($not : ($gt : 40))"));
+    } catch (JSONException e) {
+      fail("Problem matching: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_05_Regex() {
+    try {
+      assertTrue(matches("~name : ($regex : \"^Fr\")"));
+      assertFalse(matches("~name : ($regex : \"^fr\")"));
+      assertTrue(matches("~name : ($regex : \"^fr\", $options : \"i\")"));
+      assertTrue(matches("~tags : ($regex : \"ue$\")"));
+      assertFalse(matches("~age : ($regex : \"30\")"));
+    } catch (JSONException e) {
+      fail("Problem matching: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_06_Logical() {
+    try {
+      assertTrue(matches("$and : [(~name : \"Frank\"), (~age : 30)]"));
+      assertFalse(matches("$and : [(~name : \"Frank\"), (~age : 31)]"));
+      assertTrue(matches("$or : [(~name : \"Bob\"), (~age : 30)]"));
+      assertFalse(matches("$or : [(~name : \"Bob\"), (~age : 31)]"));
+      assertTrue(matches("$nor : [(~name : \"Bob\"), (~age : 31)]"));
+      assertFalse(matches("$nor : [(~name : \"Frank\"), (~age : 31)]"));
+      assertTrue(matches("~name : \"Frank\", ~age : 30"));
+      assertFalse(matches("~name : \"Frank\", ~age : 31"));
+    } catch (JSONException e) {
+      fail("Problem matching: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_07_Geospatial() {
+    try {
+      assertTrue(matches("~location : ($geoWithin : ($box : [[0, 0], [3, 3]]))"));
+      assertFalse(matches("~location : ($geoWithin : ($box : [[2, 2], [3, 3]]))"));
+      assertTrue(matches("~location : ($within : ($center : [[1, 1], 1.5]))"));
+      assertFalse(matches("~location : ($within : ($center : [[5, 5], 1]))"));
+      assertTrue(matches("~location : ($near : [1, 1], $maxDistance : 1.5)"));
+      assertFalse(matches("~location : ($near : [5, 5], $maxDistance : 1)"));
+    } catch (JSONException e) {
+      fail("Problem matching: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_08_Unsupported() {
+    try {
+      matches("~name : ($where : \"true\")");
+      fail("Unsupported operator should throw");
+    } catch (JSONException e) {
+      // expected
+    }
+    try {
+      matches("$text : (search : \"Frank\")");
+      fail("Unsupported operator should throw");
+    } catch (JSONException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Queries in mongo's JSON form can pin the name of the record.
+   */
+  @Test
+  public void test_09_MongoForm() {
+    try {
+      assertTrue(new JSONQueryMatcher(new JSONObject()
+              .put(NameRecord.NAME.getName(), "testGuid")).matches(record));
+      assertFalse(new JSONQueryMatcher(new JSONObject()
+              .put(NameRecord.NAME.getName(), "otherGuid")).matches(record));
+    } catch (JSONException e) {
+      fail("Problem matching: " + e);
+    }
+  }
+}
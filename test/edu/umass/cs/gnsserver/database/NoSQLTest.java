@@ -21,6 +21,7 @@ package edu.umass.cs.gnsserver.database;
 
 import edu.umass.cs.gnsclient.jsonassert.JSONAssert;
 import edu.umass.cs.gnsclient.jsonassert.JSONCompareMode;
+import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
@@ -32,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import static org.junit.Assert.*;
@@ -52,17 +54,31 @@ public class NoSQLTest {
   private static String field = "testField";
   private static NoSQLRecords instance;
   private static GNSRecordMap<String> recordMap;
+  // The test class the instance was created for
+  private static Class<?> testClass;
 
   /**
    * The NoSQLTest.
    */
   public NoSQLTest() {
-    if (instance == null) {
-      instance = new DiskMapRecords(node);
+    if (instance == null || testClass != getClass()) {
+      testClass = getClass();
+      instance = createRecords(node);
       recordMap = new GNSRecordMap<>(instance, collection);
     }
   }
 
+  /**
+   * Creates the NoSQLRecords the tests run against. Subclasses override
+   * this to run the same tests against another implementation.
+   *
+   * @param nodeID
+   * @return the NoSQLRecords
+   */
+  protected NoSQLRecords createRecords(String nodeID) {
+    return new DiskMapRecords(nodeID);
+  }
+
   /**
    *
    */
@@ -333,6 +349,60 @@ public class NoSQLTest {
     }
   }
 
+  /**
+   * Changing a value returned by a lookup mustn't change the stored record.
+   */
+  @Test
+  public void test_26_ModifyLookupResult() {
+    try {
+      Map<ColumnField, Object> actual = instance.lookupSomeFields(
+              collection, guid2,
+              NameRecord.NAME,
+              NameRecord.VALUES_MAP,
+              new ArrayList<>(Arrays.asList(new ColumnField("map",
+                      ColumnFieldType.USER_JSON))));
+      ((JSONObject) actual.get(NameRecord.VALUES_MAP)).getJSONObject("map").put("key", "changed");
+
+      actual = instance.lookupSomeFields(
+              collection, guid2,
+              NameRecord.NAME,
+              NameRecord.VALUES_MAP,
+              new ArrayList<>(Arrays.asList(new ColumnField("map.key",
+                      ColumnFieldType.USER_JSON))));
+      assertEquals("value",
+              ((JSONObject) actual.get(NameRecord.VALUES_MAP)).get("map.key"));
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during LookupSomeFields: " + e);
+    }
+  }
+
+  /**
+   * Updating a dotted field keeps its siblings.
+   */
+  @Test
+  public void test_27_UpdateDottedField() {
+    try {
+      instance.updateIndividualFields(collection, guid2,
+              NameRecord.VALUES_MAP,
+              new ArrayList<>(Arrays.asList(new ColumnField("map.other", ColumnFieldType.USER_JSON))),
+              new ArrayList<>(Arrays.asList("otherValue"))
+      );
+      Map<ColumnField, Object> actual = instance.lookupSomeFields(
+              collection, guid2,
+              NameRecord.NAME,
+              NameRecord.VALUES_MAP,
+              new ArrayList<>(Arrays.asList(
+                      new ColumnField("map.key", ColumnFieldType.USER_JSON),
+                      new ColumnField("map.other", ColumnFieldType.USER_JSON))));
+      assertEquals("value",
+              ((JSONObject) actual.get(NameRecord.VALUES_MAP)).get("map.key"));
+      assertEquals("otherValue",
+              ((JSONObject) actual.get(NameRecord.VALUES_MAP)).get("map.other"));
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during UpdateIndividualFields: " + e);
+    }
+  }
+
   /**
    *
    */
@@ -373,4 +443,153 @@ public class NoSQLTest {
       fail("Problem during LookupEntireRecord: " + e);
     }
   }
+
+  /**
+   * Leaves nothing behind for stores that keep their records across runs.
+   */
+  @Test
+  public void test_32_RemoveGuid2() {
+    try {
+      instance.removeEntireRecord(collection, guid2);
+    } catch (FailedDBOperationException e) {
+      fail("Problem while deleting record: " + e);
+    }
+  }
+
+  private static String guid3 = "guid#3";
+  private static String setField = "testSet";
+  private static String nullListField = "testNullList";
+
+  /**
+   *
+   */
+  @Test
+  public void test_40_InsertRecordGuid3() {
+    JSONObject json = new JSONObject();
+    try {
+      json.put(field, "some value");
+      json.put(nullListField, new JSONArray(Arrays.asList(GNSProtocol.NULL_RESPONSE.toString())));
+    } catch (JSONException e) {
+      fail("Problem creating json " + e);
+    }
+    ValuesMap valuesMap = new ValuesMap(json);
+    NameRecord nameRecord = new NameRecord(recordMap, guid3, valuesMap);
+    try {
+      instance.insert(collection, guid3, nameRecord.toJSONObject());
+    } catch (FailedDBOperationException | JSONException | RecordExistsException e) {
+      fail("Problem during insert " + e);
+    }
+  }
+
+  /**
+   * Adding to a field that doesn't exist creates the array.
+   */
+  @Test
+  public void test_41_AddToSetMissingField() {
+    try {
+      assertEquals(2, instance.addToSet(collection, guid3, NameRecord.VALUES_MAP, setField,
+              new ArrayList<>(Arrays.asList("a", "b"))));
+      JSONAssert.assertEquals(new JSONArray(Arrays.asList("a", "b")),
+              lookupValuesMap(guid3).getJSONArray(setField), JSONCompareMode.STRICT);
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during addToSet: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_42_AddToSetPresentValue() {
+    try {
+      assertEquals(0, instance.addToSet(collection, guid3, NameRecord.VALUES_MAP, setField,
+              new ArrayList<>(Arrays.asList("a"))));
+      assertEquals(1, instance.addToSet(collection, guid3, NameRecord.VALUES_MAP, setField,
+              new ArrayList<>(Arrays.asList("b", "c"))));
+      JSONAssert.assertEquals(new JSONArray(Arrays.asList("a", "b", "c")),
+              lookupValuesMap(guid3).getJSONArray(setField), JSONCompareMode.STRICT);
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during addToSet: " + e);
+    }
+  }
+
+  /**
+   * A field that isn't an array or is a null list has to be updated some other way.
+   */
+  @Test
+  public void test_43_AddToSetNotArray() {
+    try {
+      assertEquals(-1, instance.addToSet(collection, guid3, NameRecord.VALUES_MAP, field,
+              new ArrayList<>(Arrays.asList("a"))));
+      assertEquals(-1, instance.addToSet(collection, guid3, NameRecord.VALUES_MAP, nullListField,
+              new ArrayList<>(Arrays.asList("a"))));
+      JSONObject valuesMap = lookupValuesMap(guid3);
+      assertEquals("some value", valuesMap.getString(field));
+      JSONAssert.assertEquals(new JSONArray(Arrays.asList(GNSProtocol.NULL_RESPONSE.toString())),
+              valuesMap.getJSONArray(nullListField), JSONCompareMode.STRICT);
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during addToSet: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_44_RemoveFromSetAbsentValue() {
+    try {
+      assertEquals(0, instance.removeFromSet(collection, guid3, NameRecord.VALUES_MAP, setField,
+              new ArrayList<>(Arrays.asList("z"))));
+      JSONAssert.assertEquals(new JSONArray(Arrays.asList("a", "b", "c")),
+              lookupValuesMap(guid3).getJSONArray(setField), JSONCompareMode.STRICT);
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during removeFromSet: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_45_RemoveFromSet() {
+    try {
+      assertEquals(2, instance.removeFromSet(collection, guid3, NameRecord.VALUES_MAP, setField,
+              new ArrayList<>(Arrays.asList("a", "c", "z"))));
+      JSONAssert.assertEquals(new JSONArray(Arrays.asList("b")),
+              lookupValuesMap(guid3).getJSONArray(setField), JSONCompareMode.STRICT);
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during removeFromSet: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_46_RemoveFromSetNotArray() {
+    try {
+      assertEquals(-1, instance.removeFromSet(collection, guid3, NameRecord.VALUES_MAP, field,
+              new ArrayList<>(Arrays.asList("some value"))));
+      assertEquals("some value", lookupValuesMap(guid3).getString(field));
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during removeFromSet: " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_47_RemoveGuid3() {
+    try {
+      instance.removeEntireRecord(collection, guid3);
+    } catch (FailedDBOperationException e) {
+      fail("Problem while deleting record: " + e);
+    }
+  }
+
+  private static JSONObject lookupValuesMap(String name)
+          throws RecordNotFoundException, FailedDBOperationException, JSONException {
+    return instance.lookupEntireRecord(collection, name).getJSONObject(NameRecord.VALUES_MAP.getName());
+  }
 }
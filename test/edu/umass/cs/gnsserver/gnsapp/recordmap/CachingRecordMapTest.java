@@ -0,0 +1,158 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnsserver.database.ColumnField;
+import edu.umass.cs.gnsserver.database.ColumnFieldType;
+import edu.umass.cs.gnsserver.database.DiskMapRecords;
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests that the CachingRecordMap serves records from its cache without
+ * letting callers change what it has cached.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CachingRecordMapTest {
+
+  private static String guid = "cachingTestGuid";
+  private static CachingRecordMap recordMap;
+
+  /**
+   * The CachingRecordMapTest.
+   */
+  public CachingRecordMapTest() {
+    if (recordMap == null) {
+      recordMap = new CachingRecordMap(
+              new GNSRecordMap<>(new DiskMapRecords("cachingTestNode"), "cachingTestCollection"),
+              1024 * 1024);
+    }
+  }
+
+  private static Map<ColumnField, Object> lookup(String field)
+          throws RecordNotFoundException, FailedDBOperationException {
+    return recordMap.lookupUserFields(guid, NameRecord.NAME, NameRecord.VALUES_MAP,
+            new ArrayList<>(Arrays.asList(new ColumnField(field, ColumnFieldType.USER_JSON))));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_01_Insert() {
+    try {
+      JSONObject json = new JSONObject();
+      JSONObject innerJson = new JSONObject();
+      innerJson.put("key", "value");
+      json.put("map", innerJson);
+      json.put("field", "some value");
+      recordMap.addRecord(new NameRecord(recordMap, guid, new ValuesMap(json)).toJSONObject());
+    } catch (FailedDBOperationException | JSONException | RecordExistsException e) {
+      fail("Problem during insert " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_02_LookupCachesRecord() {
+    try {
+      long hits = recordMap.getStats().hitCount();
+      assertEquals("some value",
+              ((JSONObject) lookup("field").get(NameRecord.VALUES_MAP)).get("field"));
+      assertEquals(1, recordMap.size());
+      assertEquals("some value",
+              ((JSONObject) lookup("field").get(NameRecord.VALUES_MAP)).get("field"));
+      assertEquals("value",
+              ((JSONObject) lookup("map.key").get(NameRecord.VALUES_MAP)).get("map.key"));
+      assertEquals(hits + 2, recordMap.getStats().hitCount());
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during lookup " + e);
+    }
+  }
+
+  /**
+   * Changing a value returned by a lookup mustn't change the cached record.
+   */
+  @Test
+  public void test_03_ModifyLookupResult() {
+    try {
+      ((JSONObject) lookup("map").get(NameRecord.VALUES_MAP)).getJSONObject("map").put("key", "changed");
+      assertEquals("value",
+              ((JSONObject) lookup("map.key").get(NameRecord.VALUES_MAP)).get("map.key"));
+
+      recordMap.lookupEntireRecord(guid).getJSONObject(NameRecord.VALUES_MAP.getName())
+              .put("field", "changed");
+      assertEquals("some value", recordMap.lookupEntireRecord(guid)
+              .getJSONObject(NameRecord.VALUES_MAP.getName()).get("field"));
+      assertEquals("some value",
+              ((JSONObject) lookup("field").get(NameRecord.VALUES_MAP)).get("field"));
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during lookup " + e);
+    }
+  }
+
+  /**
+   * A write through the map is seen by the next lookup.
+   */
+  @Test
+  public void test_04_UpdateInvalidates() {
+    try {
+      recordMap.updateIndividualFields(guid,
+              new ArrayList<>(Arrays.asList(new ColumnField("field", ColumnFieldType.USER_JSON))),
+              new ArrayList<>(Arrays.asList("new value")));
+      assertEquals("new value",
+              ((JSONObject) lookup("field").get(NameRecord.VALUES_MAP)).get("field"));
+      assertEquals("value",
+              ((JSONObject) lookup("map.key").get(NameRecord.VALUES_MAP)).get("map.key"));
+    } catch (RecordNotFoundException | FailedDBOperationException | JSONException e) {
+      fail("Problem during update " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_05_Remove() {
+    try {
+      recordMap.removeRecord(guid);
+      recordMap.lookupEntireRecord(guid);
+      fail("Record should not exist");
+    } catch (RecordNotFoundException e) {
+      // expected
+    } catch (FailedDBOperationException e) {
+      fail("Problem during remove " + e);
+    }
+  }
+}